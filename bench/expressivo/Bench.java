@@ -0,0 +1,89 @@
+package expressivo;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Bench is a minimal timing harness for the main-method benchmarks in this directory.
+ *
+ * Each measurement runs the body for a warm-up period, so the JIT has compiled it, and
+ * then reports the best of several timed rounds. The body returns a value that is folded
+ * into a sink, so the JIT cannot drop the work as dead code.
+ *
+ * allocated() measures heap allocation instead of time, with the per-thread allocation
+ * counter of HotSpot's ThreadMXBean.
+ */
+class Bench {
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final int ROUNDS = 5;
+
+    private static volatile double sink;
+
+    /**
+     * A piece of work to time.
+     */
+    interface Body {
+        /**
+         * @return any result of the work, consumed so it is not optimized away
+         */
+        double run();
+    }
+
+    private Bench() {
+        // only static methods
+    }
+
+    /**
+     * @param name printed with the result
+     * @param iterations how many times body is run per timed round
+     * @param body the work to time
+     * @return the best time per run of body over the timed rounds, in nanoseconds
+     */
+    static double time(String name, int iterations, Body body) {
+        double total = 0;
+        final long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            total += body.run();
+        }
+        double best = Double.POSITIVE_INFINITY;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                total += body.run();
+            }
+            best = Math.min(best, (System.nanoTime() - start) / (double) iterations);
+        }
+        sink = total;
+        System.out.printf("%-40s %12.1f ns/op%n", name, best);
+        return best;
+    }
+
+    /**
+     * @param name printed with the result
+     * @param iterations how many times body is run after the warm-up
+     * @param body the work to measure
+     * @return the bytes allocated per run of body by the calling thread
+     * @throws UnsupportedOperationException if the JVM does not count allocated bytes
+     */
+    static double allocated(String name, int iterations, Body body) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            throw new UnsupportedOperationException("allocation counting not supported");
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final long thread = Thread.currentThread().getId();
+        double total = 0;
+        final long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            total += body.run();
+        }
+        final long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            total += body.run();
+        }
+        final double perRun = (threads.getThreadAllocatedBytes(thread) - before) / (double) iterations;
+        sink = total;
+        System.out.printf("%-40s %12.1f B/op%n", name, perRun);
+        return perRun;
+    }
+}
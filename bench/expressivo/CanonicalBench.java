@@ -0,0 +1,47 @@
+package expressivo;
+
+import java.util.Random;
+
+/**
+ * Canonicalizes random sums of products over a few variables, built in random order and
+ * grouping, so that many terms are the same monomial spelled differently. Time per node
+ * should grow only logarithmically with the size.
+ *
+ * Run with: java -cp <classes> expressivo.CanonicalBench
+ */
+public class CanonicalBench {
+
+    public static void main(String[] args) {
+        for (int terms : new int[] { 1000, 10000, 100000 }) {
+            run(terms, 4);
+        }
+    }
+
+    private static Expression random(Random random, int terms, int factors) {
+        final String[] names = { "a", "b", "c", "d", "e", "f" };
+        Expression sum = null;
+        for (int t = 0; t < terms; t++) {
+            Expression product = new Number(random.nextInt(5) + 1);
+            for (int f = 0; f < factors; f++) {
+                final Expression v = new Variable(names[random.nextInt(names.length)]);
+                product = random.nextBoolean() ? new BinOpExpression('*', product, v)
+                                               : new BinOpExpression('*', v, product);
+            }
+            sum = sum == null ? product
+                    : random.nextBoolean() ? new BinOpExpression('+', sum, product)
+                                           : new BinOpExpression('+', product, sum);
+        }
+        return sum;
+    }
+
+    private static void run(int terms, int factors) {
+        final Expression e = random(new Random(terms), terms, factors);
+        final Expression canonical = e.canonical();
+        System.out.printf("%d terms of %d factors: size %d, canonical size %d%n",
+                terms, factors, e.size(), canonical.size());
+        final int iters = Math.max(5, 2000000 / (int) e.size());
+        final double ns = Bench.time("  canonical()", iters, () -> e.canonical().size());
+        System.out.printf("  %.1f ns per node%n", ns / e.size());
+        Bench.time("  CanonicalKey.of().hashCode()", iters, () -> CanonicalKey.of(e).hashCode());
+    }
+}
@@ -0,0 +1,61 @@
+package expressivo;
+
+import java.util.Random;
+
+/**
+ * Measures the crossovers DensePolynomial is tuned by: schoolbook against Karatsuba
+ * against FFT multiplication by operand length, and SparsePolynomial against
+ * DensePolynomial expansion of a product of linear factors by degree, including the
+ * conversion back to an expression. Also compares
+ * Horner evaluation of the dense form with evaluating the expanded tree.
+ *
+ * Run with: java -cp <classes> expressivo.DensePolynomialBench
+ */
+public class DensePolynomialBench {
+
+    public static void main(String[] args) {
+        final Random random = new Random(1);
+        for (int n : new int[] { 16, 32, 64, 128, 256, 512, 1024, 4096 }) {
+            final double[] x = randomVector(random, n), y = randomVector(random, n);
+            final int iters = Math.max(5, 20000000 / (n * n));
+            System.out.printf("multiply, %d coefficients each%n", n);
+            Bench.time("  schoolbook", iters, () -> DensePolynomial.schoolbook(x, y).length);
+            Bench.time("  karatsuba", iters, () -> DensePolynomial.karatsuba(x, y).length);
+            Bench.time("  fft", iters, () -> DensePolynomial.fft(x, y).length);
+        }
+        for (int degree : new int[] { 2, 4, 8, 16, 64, 256 }) {
+            final Expression e = linearFactors(degree);
+            final int iters = Math.max(5, 200000 / (degree * degree));
+            System.out.printf("expand product of %d linear factors, back to an expression%n", degree);
+            Bench.time("  SparsePolynomial", iters, () -> SparsePolynomial.of(e).toExpression().size());
+            Bench.time("  DensePolynomial", iters, () -> DensePolynomial.of(e).toExpression().size());
+        }
+        final Expression expanded = linearFactors(100).expand();
+        final DensePolynomial dense = DensePolynomial.of(expanded);
+        final VariableBinding binding = new VariableBinding().set("x", 0.999);
+        System.out.printf("evaluate degree 100, tree size %d%n", expanded.size());
+        Bench.time("  tree evaluate", 2000, () -> expanded.evaluate(binding));
+        Bench.time("  Horner", 2000, () -> dense.evaluate(0.999));
+        Bench.time("  tree derivative", 200, () -> expanded.derivative("x").size());
+        Bench.time("  dense derivative", 2000, () -> dense.derivative().degree());
+    }
+
+    private static double[] randomVector(Random random, int n) {
+        final double[] v = new double[n];
+        for (int k = 0; k < n; k++) {
+            v[k] = random.nextInt(19) - 9;
+        }
+        return v;
+    }
+
+    private static Expression linearFactors(int degree) {
+        // (x+1)*(x+2)*...*(x+degree), with small alternating constants to keep the
+        // coefficients within the exact range
+        Expression product = null;
+        for (int k = 1; k <= degree; k++) {
+            final Expression factor = new BinOpExpression('+', new Variable("x"), new Number(k % 2 == 0 ? 1 : -1));
+            product = product == null ? factor : new BinOpExpression('*', product, factor);
+        }
+        return product;
+    }
+}
@@ -0,0 +1,44 @@
+package expressivo;
+
+/**
+ * Compares two spellings of a product of sums, the product itself and the product with
+ * every factor and every sum written in the opposite order, by random evaluation and by
+ * exact expansion, and fingerprints a corpus of such products.
+ *
+ * Run with: java -cp <classes> expressivo.EquivalenceBench
+ */
+public class EquivalenceBench {
+
+    public static void main(String[] args) {
+        for (int factors : new int[] { 4, 8, 12 }) {
+            run(factors);
+        }
+    }
+
+    private static Expression product(int factors, boolean reversed) {
+        final String[] names = { "a", "b", "c", "d" };
+        Expression product = null;
+        for (int f = 0; f < factors; f++) {
+            final int k = reversed ? factors - 1 - f : f;
+            Expression sum = new Number(k + 1);
+            for (int v = 0; v < names.length; v++) {
+                final Expression term = new Variable(names[(k + v) % names.length]);
+                sum = reversed ? new BinOpExpression('+', term, sum) : new BinOpExpression('+', sum, term);
+            }
+            product = product == null ? sum
+                    : reversed ? new BinOpExpression('*', sum, product) : new BinOpExpression('*', product, sum);
+        }
+        return product;
+    }
+
+    private static void run(int factors) {
+        final Expression a = product(factors, false);
+        final Expression b = product(factors, true);
+        final Equivalence equivalence = new Equivalence();
+        System.out.printf("product of %d sums of 5 terms: size %d, %d monomials%n",
+                factors, a.size(), SparsePolynomial.of(a).terms());
+        Bench.time("  equivalent()", 2000, () -> equivalence.equivalent(a, b) ? 1 : 0);
+        Bench.time("  fingerprint()", 2000, () -> equivalence.fingerprint(a).hashCode());
+        Bench.time("  exactlyEquivalent()", factors > 8 ? 2 : 20, () -> equivalence.exactlyEquivalent(a, b) ? 1 : 0);
+    }
+}
@@ -0,0 +1,99 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expands products of 10 to 14 sums over a handful of variables with SparsePolynomial,
+ * against the straightforward expansion that multiplies with nested loops and merges
+ * the products in a HashMap keyed by exponent lists.
+ *
+ * Run with: java -cp <classes> expressivo.ExpansionBench
+ */
+public class ExpansionBench {
+
+    public static void main(String[] args) {
+        for (int factors : new int[] { 10, 12, 14 }) {
+            run(factors);
+        }
+    }
+
+    private static Expression product(int factors) {
+        final String[] names = { "a", "b", "c", "d", "e" };
+        Expression product = null;
+        for (int f = 0; f < factors; f++) {
+            // f+1 + a*b + c*d^2 + e, with the variables rotated per factor
+            final Expression[] v = new Expression[names.length];
+            for (int k = 0; k < names.length; k++) {
+                v[k] = new Variable(names[(f + k) % names.length]);
+            }
+            Expression sum = new BinOpExpression('+', new Number(f + 1), new BinOpExpression('*', v[0], v[1]));
+            sum = new BinOpExpression('+', sum, new BinOpExpression('*', v[2], new PowExpression(v[3], 2)));
+            sum = new BinOpExpression('+', sum, v[4]);
+            product = product == null ? sum : new BinOpExpression('*', product, sum);
+        }
+        return product;
+    }
+
+    private static void run(int factors) {
+        final Expression e = product(factors);
+        System.out.printf("product of %d sums of 4 terms: %d terms expanded%n",
+                factors, SparsePolynomial.of(e).terms());
+        final int iters = factors >= 14 ? 2 : 10;
+        Bench.time("  SparsePolynomial.of()", iters, () -> SparsePolynomial.of(e).terms());
+        Bench.time("  HashMap expansion", iters, () -> naive(e).size());
+        Bench.allocated("  SparsePolynomial.of()", iters, () -> SparsePolynomial.of(e).terms());
+        Bench.allocated("  HashMap expansion", iters, () -> naive(e).size());
+    }
+
+    // the reference: each product of sums multiplied term by term into a HashMap
+
+    private static Map<List<Integer>, Rational> naive(Expression e) {
+        final Map<List<Integer>, Rational> terms = new HashMap<>();
+        if (e instanceof Number) {
+            terms.put(new ArrayList<>(), Rational.valueOf(e.getValue()));
+        } else if (e instanceof Variable) {
+            final Integer[] exponents = new Integer[((Variable) e).getSlot() + 1];
+            Arrays.fill(exponents, 0);
+            exponents[exponents.length - 1] = 1;
+            terms.put(Arrays.asList(exponents), Rational.ONE);
+        } else if (e instanceof PowExpression) {
+            final Map<List<Integer>, Rational> base = naive(((PowExpression) e).getBase());
+            Map<List<Integer>, Rational> result = naive(new Number(1));
+            for (int i = 0; i < ((PowExpression) e).getExponent(); i++) {
+                result = times(result, base);
+            }
+            return result;
+        } else {
+            final BinOpExpression binOp = (BinOpExpression) e;
+            final Map<List<Integer>, Rational> x = naive(binOp.getLeft());
+            final Map<List<Integer>, Rational> y = naive(binOp.getRight());
+            if (binOp.getOp() == '*') {
+                return times(x, y);
+            }
+            for (Map.Entry<List<Integer>, Rational> term : y.entrySet()) {
+                x.merge(term.getKey(), term.getValue(), Rational::add);
+            }
+            return x;
+        }
+        return terms;
+    }
+
+    private static Map<List<Integer>, Rational> times(Map<List<Integer>, Rational> x, Map<List<Integer>, Rational> y) {
+        final Map<List<Integer>, Rational> product = new HashMap<>();
+        for (Map.Entry<List<Integer>, Rational> s : x.entrySet()) {
+            for (Map.Entry<List<Integer>, Rational> t : y.entrySet()) {
+                final List<Integer> a = s.getKey(), b = t.getKey();
+                final List<Integer> monomial = new ArrayList<>();
+                for (int k = 0; k < Math.max(a.size(), b.size()); k++) {
+                    monomial.add((k < a.size() ? a.get(k) : 0) + (k < b.size() ? b.get(k) : 0));
+                }
+                product.merge(monomial, s.getValue().multiply(t.getValue()), Rational::add);
+            }
+        }
+        return product;
+    }
+}
@@ -0,0 +1,49 @@
+package expressivo;
+
+/**
+ * Differentiates and simplifies a wide multivariate polynomial, a sum of products of
+ * distinct variables, with respect to / binding one variable at a time, so that nearly
+ * every subtree is independent of the variable involved.
+ *
+ * Run with: java -cp <classes> expressivo.FreeVariableBench
+ */
+public class FreeVariableBench {
+
+    public static void main(String[] args) {
+        for (int terms : new int[] { 50, 500 }) {
+            run(terms, 8);
+        }
+    }
+
+    private static String name(int i) {
+        // variable names are letters only: a, b, ..., z, ba, bb, ...
+        final StringBuilder sb = new StringBuilder();
+        do {
+            sb.insert(0, (char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return sb.toString();
+    }
+
+    private static void run(int terms, int factors) {
+        Expression sum = null;
+        int next = 0;
+        for (int t = 0; t < terms; t++) {
+            Expression product = new Number(t + 1);
+            for (int f = 0; f < factors; f++) {
+                product = new BinOpExpression('*', product, new Variable(name(next++)));
+            }
+            sum = sum == null ? product : new BinOpExpression('+', sum, product);
+        }
+        final Expression e = sum;
+        final String var = name(next / 2);
+        final VariableBinding one = new VariableBinding().set(var, 2);
+        final VariableBinding none = new VariableBinding().set("unused", 2);
+
+        System.out.printf("%d terms of %d factors: size %d, derivative size %d%n",
+                terms, factors, e.size(), e.derivative(var).size());
+        Bench.time("  derivative by one variable", 200, () -> e.derivative(var).size());
+        Bench.time("  simplify binding one variable", 200, () -> e.simplify(one).size());
+        Bench.time("  simplify binding no variable of it", 200, () -> e.simplify(none).size());
+    }
+}
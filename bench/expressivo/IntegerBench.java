@@ -0,0 +1,32 @@
+package expressivo;
+
+/**
+ * Compares the integer fast path of Commands.simplify with the double path it replaces
+ * for integer polynomials: simplify to a Number, then format the double.
+ *
+ * Run with: java -cp <classes> expressivo.IntegerBench
+ */
+public class IntegerBench {
+
+    public static void main(String[] args) {
+        Expression poly = new Number(1);
+        for (int i = 0; i < 200; i++) {
+            // Horner form with small integer coefficients, x bound to a small integer
+            poly = new BinOpExpression('+', new BinOpExpression('*', poly, new Variable("x")), new Number(i % 7));
+        }
+        final Expression e = poly;
+        final VariableBinding small = new VariableBinding().set("x", 1);
+        final VariableBinding large = new VariableBinding().set("x", 3);
+
+        run("degree-200, x=1 (long path)", e, small);
+        run("degree-200, x=3 (BigInteger path)", e, large);
+    }
+
+    private static void run(String name, final Expression e, final VariableBinding binding) {
+        final double base = Bench.time(name + ": double", 2000,
+                () -> NumberFormatter.toPlainString(e.simplify(binding).getValue()).length());
+        final double integer = Bench.time(name + ": integer", 2000,
+                () -> IntegerEvaluator.format(e, binding).length());
+        System.out.printf("  %.2fx the double path%n", integer / base);
+    }
+}
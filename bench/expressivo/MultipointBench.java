@@ -0,0 +1,30 @@
+package expressivo;
+
+import java.util.Random;
+
+/**
+ * Evaluates random polynomials of growing degree at 2^16 points in [-1, 1] by per-point
+ * Horner and blocked Horner.
+ *
+ * Run with: java -cp <classes> expressivo.MultipointBench
+ */
+public class MultipointBench {
+
+    public static void main(String[] args) {
+        final Random random = new Random(3);
+        final double[] points = new double[1 << 16];
+        for (int j = 0; j < points.length; j++) {
+            points[j] = 2 * random.nextDouble() - 1;
+        }
+        for (int n : new int[] { 16, 64, 256, 1024, 4096, 16384, 65536 }) {
+            final double[] c = new double[n];
+            for (int k = 0; k < n; k++) {
+                c[k] = random.nextGaussian();
+            }
+            final int iters = Math.max(1, (int) (2e8 / ((double) n * points.length)));
+            System.out.printf("%d coefficients, %d points%n", n, points.length);
+            Bench.time("  per-point Horner", iters, () -> MultipointEvaluator.plain(c, points)[0]);
+            Bench.time("  blocked Horner", iters, () -> MultipointEvaluator.horner(c, points)[0]);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package expressivo;
+
+import java.math.MathContext;
+
+/**
+ * Compares evaluation in the numeric domains against the double path.
+ *
+ * Run with: java -cp <classes> expressivo.NumericDomainBench
+ *
+ * Two workloads: a long sum of decimal constants with two fraction digits, where the
+ * rational domain stays on its long fast path, and a polynomial in x with growing
+ * integer powers, where products outgrow a long and the rational domain promotes to
+ * BigInteger.
+ */
+public class NumericDomainBench {
+
+    public static void main(String[] args) {
+        final VariableBinding binding = new VariableBinding().set("x", 1.25);
+
+        Expression sum = new Number(0.01);
+        for (int i = 2; i <= 1000; i++) {
+            sum = new BinOpExpression('+', sum, new Number(i / 100.0));
+        }
+        run("sum of 1000 decimals", sum, binding);
+
+        Expression poly = new Number(1);
+        for (int i = 0; i < 40; i++) {
+            // Horner form of a degree-40 polynomial with decimal coefficients
+            poly = new BinOpExpression('+', new BinOpExpression('*', poly, new Variable("x")), new Number(i + 0.5));
+        }
+        run("degree-40 polynomial", poly, binding);
+    }
+
+    private static void run(String name, final Expression e, final VariableBinding binding) {
+        final NumericDomain<java.math.BigDecimal> decimal = NumericDomain.decimal(MathContext.DECIMAL64);
+        final double base = Bench.time(name + ": Expression.evaluate", 2000, () -> e.evaluate(binding));
+        report(base, Bench.time(name + ": double", 2000, () -> NumericDomain.DOUBLE.evaluate(e, binding)));
+        report(base, Bench.time(name + ": rational", 2000, () -> NumericDomain.RATIONAL.evaluate(e, binding).doubleValue()));
+        report(base, Bench.time(name + ": decimal64", 2000, () -> decimal.evaluate(e, binding).doubleValue()));
+        System.out.printf("  rational %s, double %s%n",
+                NumericDomain.RATIONAL.format(NumericDomain.RATIONAL.evaluate(e, binding)),
+                NumberFormatter.toPlainString(e.evaluate(binding)));
+    }
+
+    private static void report(double base, double nanos) {
+        System.out.printf("  %.1fx the double path%n", nanos / base);
+    }
+}
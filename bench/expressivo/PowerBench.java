@@ -0,0 +1,32 @@
+package expressivo;
+
+/**
+ * Compares a chain of n equal factors x*x*...*x with the power x^n it collapses to:
+ * tree size, derivative size, and the time to differentiate and to evaluate.
+ *
+ * Run with: java -cp <classes> expressivo.PowerBench
+ */
+public class PowerBench {
+
+    public static void main(String[] args) {
+        for (int n : new int[] { 10, 50, 200 }) {
+            final StringBuilder text = new StringBuilder("x");
+            for (int i = 1; i < n; i++) {
+                text.append("*x");
+            }
+            run(n, Expression.parse(text.toString()), Expression.parse(text.toString(), true));
+        }
+    }
+
+    private static void run(int n, final Expression chain, final Expression power) {
+        final VariableBinding binding = new VariableBinding().set("x", 1.001);
+        System.out.printf("n=%d: size %d -> %d, derivative size %d -> %d%n", n,
+                chain.size(), power.size(), chain.derivative("x").size(), power.derivative("x").size());
+        final double chainDerivative = Bench.time("  chain derivative", 200, () -> chain.derivative("x").size());
+        final double powerDerivative = Bench.time("  power derivative", 200, () -> power.derivative("x").size());
+        System.out.printf("  %.1fx faster to differentiate%n", chainDerivative / powerDerivative);
+        final double chainEvaluate = Bench.time("  chain evaluate", 2000, () -> chain.evaluate(binding));
+        final double powerEvaluate = Bench.time("  power evaluate", 2000, () -> power.evaluate(binding));
+        System.out.printf("  %.1fx faster to evaluate%n", chainEvaluate / powerEvaluate);
+    }
+}
@@ -0,0 +1,51 @@
+package expressivo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures how much simplify allocates when the environment binds none, or few, of the
+ * variables of a large expression: a sum of 500 products of 8 variables each, in which
+ * one term has a constant factor (2+3) that simplify folds. Allocation should be
+ * proportional to what changed, not to the size of the tree.
+ *
+ * Run with: java -cp <classes> expressivo.SimplifyAllocationBench
+ */
+public class SimplifyAllocationBench {
+
+    public static void main(String[] args) throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int t = 0; t < 500; t++) {
+            text.append(t == 0 ? "" : " + ").append(t == 250 ? "(2+3)" : Integer.toString(t + 1));
+            for (int f = 0; f < 8; f++) {
+                text.append('*').append((char) ('a' + f)).append((char) ('a' + t % 26)).append((char) ('a' + t / 26));
+            }
+        }
+        // intern the unrelated names first, so their bindings stay as small as possible
+        VariableBinding.slot("x");
+        VariableBinding.slot("y");
+        final Expression e = Expression.parse(text.toString());
+        final Map<String,Double> unrelated = new HashMap<>();
+        unrelated.put("x", 1.0);
+        unrelated.put("y", 2.0);
+        final Map<String,Double> one = Collections.singletonMap("aaa", 1.0);
+        System.out.printf("size %d%n", e.size());
+
+        Bench.allocated("env binding none of its variables", 2000, () -> e.simplify(unrelated).size());
+        Bench.allocated("empty env", 2000, () -> e.simplify(Collections.<String,Double>emptyMap()).size());
+        Bench.allocated("env binding one variable", 2000, () -> e.simplify(one).size());
+        Bench.time("env binding none of its variables", 2000, () -> e.simplify(unrelated).size());
+
+        final File file = File.createTempFile("simplify", ".store");
+        file.delete();
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            final Expression stored = store.get(store.append(e));
+            Bench.allocated("stored view, env binding none", 200, () -> stored.simplify(unrelated).size());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package expressivo;
 
-import java.util.Map;
-
 /**
  * BinOpExpression represents a binary operation expression. 
  * It is formed by an operator and two operands (left and right)
@@ -12,7 +10,13 @@ public class BinOpExpression implements Expression {
     private char op;           // the operator used in this binary operation expression
     private Expression left;   // the expression for its left operand
     private Expression right;  // the expression for its right operand
-    private final String contents; // the string representation of this expression
+    private String contents;    // the string representation of this expression, built on first use
+    private final long size;    // number of nodes of this expression as a tree
+    private final int depth;    // number of nodes on the longest root-to-leaf path
+    private final int nesting;  // depth, with a chain of this operator down the left operands counted as one level
+    private volatile BinOpExpression[] chain; // the nodes below this one in its left chain, top down, built on first use
+    private VariableSet variables; // variables occurring in this expression; null until first use if an operand is a stored view
+    private boolean foldable;   // some operation in this subtree has no variables, so simplify folds it; valid once variables != null
     private double val = Double.NaN; // the value of this expression after being evaluated (simplified)
     
     // rep invariant:
@@ -27,10 +31,26 @@ public class BinOpExpression implements Expression {
      * @param Expression l, r - the left and right operands of this binary expression.
      */
     public BinOpExpression (char op, Expression l, Expression r) {
+        this(op, l, r, null);
+    }
+    
+    /**
+     * @param VariableSet variables - the variables of l and r if already known, else null
+     */
+    private BinOpExpression (char op, Expression l, Expression r, VariableSet variables) {
         this.op = op;
         this.left = l;
         this.right = r;
-        this.contents = "("+l.getContents() + op + r.getContents()+")";
+        this.size = sizeOf(l.size(), r.size());
+        this.depth = 1 + Math.max(l.depth(), r.depth());
+        this.nesting = Math.max(isChained(op, l) ? ((BinOpExpression) l).nesting : 1 + nestingOf(l), 1 + nestingOf(r));
+        if (variables != null) {
+            this.variables = variables;
+            this.foldable = variables.isEmpty() || isFoldable(l) || isFoldable(r);
+        } else if (!(l instanceof StoredExpression) && !(r instanceof StoredExpression)) {
+            // O(1) from the operands' sets; a stored view would have to scan its records
+            summarize();
+        }
         
         checkRep();
     }
@@ -39,9 +59,170 @@ public class BinOpExpression implements Expression {
      * @returns string representation of the Expression
      */
     public String getContents() {
-        return this.contents;
+        // built lazily so that wrapping operands (e.g. stored expression views) does not
+        // force their whole subtree to be rendered up front
+        String str = this.contents;
+        if (str == null) {
+            // "("+left.getContents() + op + right.getContents()+")", without recursion
+            str = ExpressionWriter.toContentsString(this);
+            this.contents = str;
+        }
+        return str;
     };
     
+    /**
+     * @return 1 + leftSize + rightSize, saturated at Long.MAX_VALUE
+     */
+    static long sizeOf(long leftSize, long rightSize) {
+        final long sum = 1 + leftSize + rightSize;
+        return sum < 0 || sum < leftSize || sum < rightSize ? Long.MAX_VALUE : sum;
+    }
+    
+    /**
+     * @returns the number of nodes of this expression as a tree.
+     */
+    public long size() {
+        return this.size;
+    }
+    
+    /**
+     * @returns the depth of this expression.
+     */
+    public int depth() {
+        return this.depth;
+    }
+    
+    /**
+     * @param Expression e - any expression
+     * @returns how deep the walkers over e recurse: its depth, except that a chain of one
+     *          operator down the left operands, such as the parser makes of a sum or product
+     *          of many terms, counts as one level, since the walkers iterate along it. A
+     *          stored view counts its depth.
+     */
+    static int nestingOf(Expression e) {
+        if (e instanceof BinOpExpression) {
+            return ((BinOpExpression) e).nesting;
+        } else if (e instanceof PowExpression) {
+            return ((PowExpression) e).nesting();
+        }
+        return e.depth();
+    }
+
+    /**
+     * @returns true if e is an in-memory node with operator op, so that it continues the
+     *          left chain of a node with op whose left operand it is
+     */
+    private static boolean isChained(char op, Expression e) {
+        return e instanceof BinOpExpression && ((BinOpExpression) e).op == op;
+    }
+
+    /**
+     * @returns the nodes below this one in its left chain, top down: its left operand if that
+     *          has the same operator, that node's left operand if it does too, and so on. The
+     *          walkers take this node and these iteratively, bottom up, and recurse only into
+     *          their right operands and into the left operand of the last one, so that a sum
+     *          or product of many terms does not overflow the stack. Built on first use and
+     *          kept, so that walking the chain again allocates nothing.
+     */
+    BinOpExpression[] chain() {
+        BinOpExpression[] nodes = this.chain;
+        if (nodes == null) {
+            int n = 0;
+            for (Expression e = left; isChained(op, e); e = ((BinOpExpression) e).left) {
+                n++;
+            }
+            nodes = n == 0 ? NO_NODES : new BinOpExpression[n];
+            Expression e = left;
+            for (int i = 0; i < n; i++) {
+                nodes[i] = (BinOpExpression) e;
+                e = nodes[i].left;
+            }
+            this.chain = nodes;
+        }
+        return nodes;
+    }
+
+    private static final BinOpExpression[] NO_NODES = new BinOpExpression[0];
+
+    /**
+     * @returns the left operand of the last node of the left chain of this node
+     */
+    private Expression chainBottom(BinOpExpression[] below) {
+        return below.length == 0 ? left : below[below.length - 1].left;
+    }
+
+    /**
+     * @returns the set of variables that occur in this expression.
+     */
+    public VariableSet variables() {
+        if (this.variables == null) {
+            summarize();
+        }
+        return this.variables;
+    }
+    
+    /**
+     * @returns true if some operation in this expression has no variables, so that
+     *          simplify folds it to a number even when no variable is bound.
+     */
+    boolean isFoldable() {
+        if (this.variables == null) {
+            summarize();
+        }
+        return this.foldable;
+    }
+    
+    private void summarize() {
+        this.variables = left.variables().union(right.variables());
+        this.foldable = this.variables.isEmpty() || isFoldable(left) || isFoldable(right);
+    }
+    
+    /**
+     * @param Expression e - any expression
+     * @returns true if simplify may fold some operation in e even when no variable is bound;
+     *          always true for a stored view, which keeps nothing between calls
+     */
+    static boolean isFoldable(Expression e) {
+        if (e instanceof BinOpExpression) {
+            return ((BinOpExpression) e).isFoldable();
+        } else if (e instanceof PowExpression) {
+            return ((PowExpression) e).isFoldable();
+        }
+        return e instanceof StoredExpression;
+    }
+    
+    /**
+     * @param binding assigns values to variables.
+     * @returns true if simplify(binding) is this expression itself without visiting any node:
+     *          none of its variables is bound and it has no constant operation to fold. Always
+     *          false over stored views, whose variables are not computed here since that scans
+     *          the store.
+     */
+    private boolean unchangedBy(VariableBinding binding) {
+        return this.variables != null && !this.foldable && !binding.bindsAny(this.variables);
+    }
+    
+    /**
+     * @returns the operator of this binary expression, either '+' or '*'
+     */
+    char getOp() {
+        return this.op;
+    }
+    
+    /**
+     * @returns the left operand of this binary expression
+     */
+    Expression getLeft() {
+        return this.left;
+    }
+    
+    /**
+     * @returns the right operand of this binary expression
+     */
+    Expression getRight() {
+        return this.right;
+    }
+    
     /**
      * @returns the value of the Expression after being simplified (evaluated).
      */
@@ -54,53 +235,181 @@ public class BinOpExpression implements Expression {
      * @returns an expression tree for the derivative of this expression
      */
     public Expression derivative (String var) {
+        return derivative(var, CancellationToken.NONE);
+    }
+    
+    /**
+     * @param String var - differentiate the expression with respect to the variable var.
+     * @param CancellationToken token - polled once per node visited
+     * @returns an expression tree for the derivative of this expression
+     */
+    public Expression derivative (String var, CancellationToken token) {
+        // the nodes of the left chain, this one first, that var occurs below; the chain is
+        // taken iteratively, see chain()
+        final BinOpExpression[] below = chain();
+        // variables() first: for a stored operand, scanning its records interns their names
+        final VariableSet variables = variables();
+        final int slot = VariableBinding.slotIfInterned(var);
+        int depends = 0;
+        while (depends <= below.length) {
+            final BinOpExpression node = depends == 0 ? this : below[depends - 1];
+            token.checkpoint();
+            if (slot < 0 || !(node == this ? variables : node.variables()).contains(slot)) {
+                // var does not occur below here
+                break;
+            }
+            depends++;
+        }
+        if (depends == 0) {
+            return new Number(0);
+        }
         switch (op) {
-            case '+':
+            case '+': {
                 //derivative of X + Y is dX + dY
-                return new BinOpExpression('+', this.left.derivative(var), right.derivative(var));
-            case '*':
+                Expression d = depends > below.length ? chainBottom(below).derivative(var, token) : new Number(0);
+                for (int i = depends - 1; i >= 0; i--) {
+                    d = new BinOpExpression('+', d, (i == 0 ? this : below[i - 1]).right.derivative(var, token));
+                }
+                return d;
+            }
+            case '*': {
                 //derivative of X * Y is X * dY + Y * dX
-                return new BinOpExpression('+', new BinOpExpression('*', left, right.derivative(var)),
-                                                new BinOpExpression('*', right, left.derivative(var)));
+                final Expression[] dRight = new Expression[depends];
+                for (int i = 0; i < depends; i++) {
+                    dRight[i] = (i == 0 ? this : below[i - 1]).right.derivative(var, token);
+                }
+                Expression d = depends > below.length ? chainBottom(below).derivative(var, token) : new Number(0);
+                for (int i = depends - 1; i >= 0; i--) {
+                    final BinOpExpression node = i == 0 ? this : below[i - 1];
+                    d = new BinOpExpression('+', new BinOpExpression('*', node.left, dRight[i]),
+                                                 new BinOpExpression('*', node.right, d));
+                }
+                return d;
+            }
             default:
-                return null;
+                throw new RuntimeException("operator "+this.op+" not supported!");
         }
-    };
-    
+    }
     
     /**
-     * @param environment maps variables to values.  Variables are required to be case-sensitive nonempty 
-     *         strings of letters.  The set of variables in environment is allowed to be different than the 
-     *         set of variables actually found in expression.  Values must be nonnegative numbers.
+     * @param binding assigns values to variables.
      * @returns the value for this BinOpExpression object after it's evaluated.
      * 
      */
-     public Expression simplify (Map<String,Double> environment) {
+     public Expression simplify (VariableBinding binding) {
+        return simplify(binding, CancellationToken.NONE);
+    }
+     
+    /**
+     * @param binding assigns values to variables.
+     * @param CancellationToken token - polled once per node visited
+     * @returns the value for this BinOpExpression object after it's evaluated.
+     */
+    public Expression simplify (VariableBinding binding, CancellationToken token) {
+        token.checkpoint();
+        if (unchangedBy(binding)) {
+            // nothing to substitute and nothing to fold anywhere below here
+            return this;
+        }
+
+        // down the left chain iteratively (see chain()) to the first node simplify keeps
+        final BinOpExpression[] below = chain();
+        int changed = 0;
+        while (changed < below.length) {
+            token.checkpoint();
+            if (below[changed].unchangedBy(binding)) {
+                break;
+            }
+            changed++;
+        }
+        Expression x = changed < below.length ? below[changed] : chainBottom(below).simplify(binding, token);
+        for (int i = changed; i >= 0; i--) {
+            final BinOpExpression node = i == 0 ? this : below[i - 1];
+            x = node.simplified(x, node.right.simplify(binding, token));
+        }
+        return x;
+    }
 
-        Expression x = left.simplify (environment);
-        Expression y = right.simplify (environment);
+    /**
+     * @param Expression x, y - the simplified left and right operands
+     * @returns the simplification of this node with operands x and y
+     */
+    private Expression simplified (Expression x, Expression y) {
         double valueX = x.getValue();
         double valueY = y.getValue();
-        
-        //System.out.println("BinOpExp valueX="+valueX+", valueY="+valueY);
 
         switch (this.op) {
             case '+' : 
                 if ((!Double.isNaN(valueX)) && (!Double.isNaN(valueY))) {
                     return new Number (valueX+valueY);
                 } else {
-                    return new BinOpExpression ('+', x, y);
+                    return rebuilt (x, y);
                 }
             case '*' : 
                 if ((!Double.isNaN(valueX)) && (!Double.isNaN(valueY))) {
                     return new Number (valueX*valueY);
                 } else {
-                    return new BinOpExpression ('*', x, y);
+                    return rebuilt (x, y);
                 }
             default  : 
                 throw new RuntimeException("operator "+this.op+" not supported!");
         }
     }
+    
+    /**
+     * @param Expression x, y - the simplified left and right operands
+     * @returns this expression if simplify changed neither operand, so that simplify allocates
+     *          only along the paths to what it substituted or folded; otherwise a new node
+     */
+    private Expression rebuilt (Expression x, Expression y) {
+        if (x == this.left && y == this.right) {
+            return this;
+        }
+        // if only constants were folded, the operands still have the very same variable sets,
+        // and reusing this node's set saves allocating their union again
+        final boolean sameVariables = this.variables != null
+                && !(x instanceof StoredExpression) && !(y instanceof StoredExpression)
+                && x.variables() == this.left.variables() && y.variables() == this.right.variables();
+        return new BinOpExpression (this.op, x, y, sameVariables ? this.variables : null);
+    }
+     
+    /**
+     * @param binding assigns values to variables.
+     * @returns the value of this BinOpExpression under binding.
+     */
+    public double evaluate (VariableBinding binding) {
+        return evaluate(binding, CancellationToken.NONE);
+    }
+  
+    /**
+     * @param binding assigns values to variables.
+     * @param CancellationToken token - polled once per node visited
+     * @returns the value of this BinOpExpression under binding.
+     */
+    public double evaluate (VariableBinding binding, CancellationToken token) {
+        token.checkpoint();
+        // the left chain iteratively, bottom up, see chain()
+        final BinOpExpression[] below = chain();
+        double x = chainBottom(below).evaluate(binding, token);
+        for (int i = below.length; i >= 0; i--) {
+            final BinOpExpression node = i == 0 ? this : below[i - 1];
+            if (i > 0) {
+                token.checkpoint();
+            }
+            final double y = node.right.evaluate(binding, token);
+            switch (node.op) {
+                case '+' :
+                    x = x + y;
+                    break;
+                case '*' :
+                    x = x * y;
+                    break;
+                default  :
+                    throw new RuntimeException("operator "+node.op+" not supported!");
+            }
+        }
+        return x;
+    }
   
     /**
      * return the expression in fully parenthesized form
@@ -135,14 +444,9 @@ public class BinOpExpression implements Expression {
      */
     @Override 
     public String toString() {
-        String str;
         //str = "Op(" + this.op+ ")(" + left.toString() + "," + right.toString() + ")";
-        if (this.op == '+') {
-            str = "("+left.toString()+this.op+right.toString()+")";
-        } else {  // op == '*'
-            str = left.toString()+this.op+right.toString();
-        }
-        return str;
+        // sums are parenthesized: "("+left+op+right+")", products are not: left+op+right
+        return ExpressionWriter.toParsableString(this);
     };
     /**
      * @param thatObject any object
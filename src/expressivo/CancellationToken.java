@@ -0,0 +1,116 @@
+package expressivo;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CancellationToken lets a long-running derivative, simplify or evaluate be abandoned,
+ * either explicitly with cancel() or when a deadline passes. The operations call
+ * checkpoint() once per node they visit; only every interval-th checkpoint actually
+ * looks at the cancelled flag and the clock, so polling costs a counter decrement per
+ * node.
+ *
+ * cancel() may be called from any thread. checkpoint() is meant to be called by the one
+ * thread doing the work; a token shared by several workers still stops all of them, it
+ * just polls a little less regularly.
+ */
+public class CancellationToken {
+
+    /** how many checkpoints pass between polls unless another interval is given */
+    public static final int DEFAULT_INTERVAL = 1024;
+
+    /** a token that is never cancelled and has no deadline */
+    public static final CancellationToken NONE = new CancellationToken(Long.MAX_VALUE, Integer.MAX_VALUE, false);
+
+    private final long deadline;       // System.nanoTime() after which the token expires
+    private final boolean hasDeadline; // false if the token only expires by cancel()
+    private final int interval;        // checkpoints between polls
+    private volatile boolean cancelled = false;
+    private int countdown;             // checkpoints left before the next poll
+
+    // rep invariant:
+    //    interval > 0
+    //    0 < countdown <= interval, up to races between threads sharing the token
+    //
+    // All reps are private so no rep exposure risk.
+
+    private CancellationToken(long deadline, int interval, boolean hasDeadline) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        this.deadline = deadline;
+        this.hasDeadline = hasDeadline;
+        this.interval = interval;
+        this.countdown = interval;
+    }
+
+    /**
+     * @return a token with no deadline, expiring only when cancel() is called
+     */
+    public static CancellationToken create() {
+        return new CancellationToken(Long.MAX_VALUE, DEFAULT_INTERVAL, false);
+    }
+
+    /**
+     * @param timeout how long from now the token stays valid
+     * @param unit unit of timeout
+     * @return a token that expires timeout from now, or earlier if cancel() is called
+     */
+    public static CancellationToken withTimeout(long timeout, TimeUnit unit) {
+        return withTimeout(timeout, unit, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param timeout how long from now the token stays valid
+     * @param unit unit of timeout
+     * @param interval how many nodes are visited between looks at the clock, > 0
+     * @return a token that expires timeout from now, or earlier if cancel() is called
+     */
+    public static CancellationToken withTimeout(long timeout, TimeUnit unit, int interval) {
+        return new CancellationToken(System.nanoTime() + unit.toNanos(timeout), interval, true);
+    }
+
+    /**
+     * Cancel every operation polling this token. Takes effect at the operation's next poll.
+     */
+    public void cancel() {
+        if (this == NONE) {
+            throw new UnsupportedOperationException("NONE cannot be cancelled");
+        }
+        cancelled = true;
+    }
+
+    /**
+     * @return true if and only if cancel() was called or the deadline has passed
+     */
+    public boolean isCancelled() {
+        return cancelled || (hasDeadline && System.nanoTime() - deadline > 0);
+    }
+
+    /**
+     * Count one unit of work, and every interval units poll the token.
+     * @throws CancellationException if the poll finds the token cancelled or expired
+     */
+    public void checkpoint() {
+        if (this == NONE) {
+            return; // never expires, and is shared by every thread
+        }
+        if (--countdown <= 0) {
+            countdown = interval;
+            throwIfCancelled();
+        }
+    }
+
+    /**
+     * Poll the token now, regardless of the interval.
+     * @throws CancellationException if the token is cancelled or expired
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("operation cancelled");
+        }
+        if (hasDeadline && System.nanoTime() - deadline > 0) {
+            throw new CancellationException("deadline exceeded");
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CanonicalForm rewrites an expression into a canonical form, so that expressions that
+ * differ only by the order, grouping and repetition of operands, e.g. x*y and y*x, or
+ * a+b+c and c+(b+a), become structurally equal. The canonical form of an expression:
+ *   - flattens chains of + and of *, and sorts their operands by Expression.compareTo
+ *   - merges the constants of a chain into one number, first in the chain, dropping a
+ *     constant 0 from a sum and 1 from a product; a product with a constant 0 is 0
+ *   - merges repeated factors into powers, x*y*x = x^2*y, and repeated terms into
+ *     coefficients, x + 2*x = 3*x
+ *   - folds powers of constants, u^0 and u^1, powers of powers, and distributes powers
+ *     over products, (x*y)^2 = x^2*y^2
+ * Sums are not multiplied out. Reordering and merging constants changes floating-point
+ * rounding, so the canonical form is equal in value to the expression as a real
+ * polynomial, not necessarily bit for bit.
+ *
+ * A pass walks the expression with an explicit stack, so it handles expressions of any
+ * depth. It hash-conses the nodes it builds, so equal subtrees of the result are the same
+ * instance and compare in O(1); sorting the operands of all chains therefore takes
+ * O(n log n) comparisons, each of which stops at the first operand that differs.
+ */
+final class CanonicalForm {
+    private static final int NUMBER = 0, VARIABLE = 1, PRODUCT = 2, SUM = 3; // kinds, in sort order
+
+    private final Map<Long, Expression> numbers = new HashMap<>();
+    private final Map<String, Expression> variables = new HashMap<>();
+    private final Map<Long, Expression> operations = new HashMap<>();
+    private final Map<Expression, Integer> ids = new IdentityHashMap<>();
+    private final Map<Expression, Integer> hashes = new IdentityHashMap<>();
+
+    // rep invariant:
+    //    every node in numbers, variables and operations has an id and a hash
+    //    the operands of every node in operations are registered nodes
+    //
+    // All reps are private so no rep exposure risk.
+
+    private CanonicalForm() {
+    }
+
+    /**
+     * @param e any expression
+     * @return the canonical form of e, described above
+     */
+    static Expression of(Expression e) {
+        return new CanonicalForm().canonical(e);
+    }
+
+    /**
+     * @param e any expression
+     * @return a CanonicalKey for e: its canonical form and the hash of that form
+     */
+    static CanonicalKey keyOf(Expression e) {
+        final CanonicalForm pass = new CanonicalForm();
+        final Expression canonical = pass.canonical(e);
+        return new CanonicalKey(canonical, pass.hashes.get(canonical));
+    }
+
+    /**
+     * A node of the input whose operands are being made canonical: the operands of its
+     * chain, or the base of a power, and the canonical forms of those done so far.
+     */
+    private static final class Frame {
+        final Expression node;
+        final List<Expression> operands;
+        final List<Expression> done = new ArrayList<>();
+
+        Frame(Expression node, List<Expression> operands) {
+            this.node = node;
+            this.operands = operands;
+        }
+    }
+
+    /**
+     * Walks e in postorder with an explicit stack of frames, so that nesting of any depth,
+     * including sums and products alternating level by level, does not overflow the stack.
+     */
+    private Expression canonical(Expression e) {
+        final List<Frame> stack = new ArrayList<>();
+        Expression next = e;         // the input node to visit next, or null
+        Expression result = null;    // the canonical form of the node just finished, or null
+        while (true) {
+            if (next != null) {
+                if (next instanceof StoredExpression) {
+                    next = ((StoredExpression) next).node();
+                }
+                if (next instanceof Number) {
+                    result = number(next.getValue());
+                } else if (next instanceof Variable) {
+                    result = variable(next.getContents());
+                } else if (next instanceof PowExpression) {
+                    stack.add(new Frame(next, Collections.singletonList(((PowExpression) next).getBase())));
+                } else {
+                    stack.add(new Frame(next, chain(next, ((BinOpExpression) next).getOp())));
+                }
+                next = null;
+            }
+            if (result != null) {
+                if (stack.isEmpty()) {
+                    return result;
+                }
+                stack.get(stack.size() - 1).done.add(result);
+                result = null;
+            }
+            final Frame top = stack.get(stack.size() - 1);
+            if (top.done.size() < top.operands.size()) {
+                next = top.operands.get(top.done.size());
+                continue;
+            }
+            stack.remove(stack.size() - 1);
+            if (top.node instanceof PowExpression) {
+                result = power(top.done.get(0), ((PowExpression) top.node).getExponent());
+            } else {
+                result = ((BinOpExpression) top.node).getOp() == '+' ? sum(top.done) : product(top.done);
+            }
+        }
+    }
+
+    /**
+     * @return the operands of the maximal chain of op nodes rooted at e, left to right,
+     *         found without recursion since parsed chains are as deep as they are long
+     */
+    static List<Expression> chain(Expression e, char op) {
+        final List<Expression> operands = new ArrayList<>();
+        final List<Expression> stack = new ArrayList<>();
+        stack.add(e);
+        while (!stack.isEmpty()) {
+            Expression top = stack.remove(stack.size() - 1);
+            if (top instanceof StoredExpression) {
+                top = ((StoredExpression) top).node();
+            }
+            if (top instanceof BinOpExpression && ((BinOpExpression) top).getOp() == op) {
+                stack.add(((BinOpExpression) top).getRight());
+                stack.add(((BinOpExpression) top).getLeft());
+            } else {
+                operands.add(top);
+            }
+        }
+        return operands;
+    }
+
+    private static boolean isOperation(Expression e, char op) {
+        return e instanceof BinOpExpression && ((BinOpExpression) e).getOp() == op;
+    }
+
+    /**
+     * @param operands canonical expressions
+     * @return the canonical form of the product of operands
+     */
+    private Expression product(List<Expression> operands) {
+        double constant = 1;
+        final List<Expression> bases = new ArrayList<>();
+        final List<Integer> exponents = new ArrayList<>();
+        for (Expression operand : operands) {
+            for (Expression factor : isOperation(operand, '*') ? chain(operand, '*') : Collections.singletonList(operand)) {
+                if (factor instanceof Number) {
+                    constant *= factor.getValue();
+                } else if (factor instanceof PowExpression) {
+                    bases.add(((PowExpression) factor).getBase());
+                    exponents.add(((PowExpression) factor).getExponent());
+                } else {
+                    bases.add(factor);
+                    exponents.add(1);
+                }
+            }
+        }
+        if (constant == 0) {
+            return number(0);
+        }
+
+        // equal bases are the same instance; sort so that they are adjacent, then merge them
+        final Integer[] order = sortedIndexes(bases);
+        final List<Expression> factors = new ArrayList<>();
+        for (int i = 0; i < order.length; ) {
+            final Expression base = bases.get(order[i]);
+            long n = 0;
+            int j = i;
+            while (j < order.length && bases.get(order[j]) == base && n + exponents.get(order[j]) <= Integer.MAX_VALUE) {
+                n += exponents.get(order[j]);
+                j++;
+            }
+            factors.add(power(base, (int) n));
+            i = j;
+        }
+        return build('*', constant == 1 ? null : number(constant), factors);
+    }
+
+    /**
+     * @param operands canonical expressions
+     * @return the canonical form of the sum of operands
+     */
+    private Expression sum(List<Expression> operands) {
+        double constant = 0;
+        final List<Expression> monomials = new ArrayList<>();
+        final List<Double> coefficients = new ArrayList<>();
+        for (Expression operand : operands) {
+            for (Expression term : isOperation(operand, '+') ? chain(operand, '+') : Collections.singletonList(operand)) {
+                if (term instanceof Number) {
+                    constant += term.getValue();
+                    continue;
+                }
+                double coefficient = 1;
+                Expression monomial = term;
+                if (isOperation(term, '*')) {
+                    // a canonical product has its constant, if any, as its first factor
+                    final List<Expression> factors = chain(term, '*');
+                    if (factors.get(0) instanceof Number) {
+                        coefficient = factors.get(0).getValue();
+                        monomial = build('*', null, factors.subList(1, factors.size()));
+                    }
+                }
+                monomials.add(monomial);
+                coefficients.add(coefficient);
+            }
+        }
+
+        final Integer[] order = sortedIndexes(monomials);
+        final List<Expression> terms = new ArrayList<>();
+        for (int i = 0; i < order.length; ) {
+            final Expression monomial = monomials.get(order[i]);
+            double coefficient = 0;
+            int j = i;
+            while (j < order.length && monomials.get(order[j]) == monomial) {
+                coefficient += coefficients.get(order[j]);
+                j++;
+            }
+            if (coefficient == 1) {
+                terms.add(monomial);
+            } else if (coefficient != 0) {
+                final List<Expression> scaled = new ArrayList<>(2);
+                scaled.add(number(coefficient));
+                scaled.add(monomial);
+                terms.add(product(scaled));
+            }
+            i = j;
+        }
+        return build('+', constant == 0 ? null : number(constant), terms);
+    }
+
+    /**
+     * @return the indexes of expressions, ordered by Expression.compareTo
+     */
+    private static Integer[] sortedIndexes(List<Expression> expressions) {
+        final Integer[] order = new Integer[expressions.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> compare(expressions.get(i), expressions.get(j)));
+        return order;
+    }
+
+    /**
+     * @param op '+' or '*'
+     * @param constant the constant operand, or null for none
+     * @param operands canonical operands, none of them a number or an op chain
+     * @return the chain constant op operands..., with operands sorted; the identity of op
+     *         if there are no operands at all
+     */
+    private Expression build(char op, Expression constant, List<Expression> operands) {
+        final List<Expression> sorted = new ArrayList<>(operands);
+        Collections.sort(sorted, CanonicalForm::compare);
+        Expression result = constant;
+        for (Expression operand : sorted) {
+            result = result == null ? operand : operation(op, result, operand);
+        }
+        return result != null ? result : number(op == '+' ? 0 : 1);
+    }
+
+    /**
+     * @param base a canonical expression
+     * @return the canonical form of base^n
+     */
+    private Expression power(Expression base, int n) {
+        if (n == 0) {
+            return number(1);
+        } else if (n == 1) {
+            return base;
+        } else if (base instanceof Number) {
+            return number(PowExpression.power(base.getValue(), n));
+        } else if (base instanceof PowExpression) {
+            final long m = (long) ((PowExpression) base).getExponent() * n;
+            if (m <= Integer.MAX_VALUE) {
+                return power(((PowExpression) base).getBase(), (int) m);
+            }
+        } else if (isOperation(base, '*')) {
+            // (c*x*y)^n = c^n * x^n * y^n
+            final List<Expression> factors = new ArrayList<>();
+            for (Expression factor : chain(base, '*')) {
+                factors.add(power(factor, n));
+            }
+            return product(factors);
+        }
+        final Long key = (2L << 62) | ((long) ids.get(base) << 31) | n;
+        Expression e = operations.get(key);
+        if (e == null) {
+            e = register(new PowExpression(base, n), 37 * (37 * 5 + hashes.get(base)) + n);
+            operations.put(key, e);
+        }
+        return e;
+    }
+
+    private Expression operation(char op, Expression l, Expression r) {
+        final Long key = ((op == '+' ? 0L : 1L) << 62) | ((long) ids.get(l) << 31) | ids.get(r);
+        Expression e = operations.get(key);
+        if (e == null) {
+            e = register(new BinOpExpression(op, l, r), 37 * (37 * (37 * 7 + op) + hashes.get(l)) + hashes.get(r));
+            operations.put(key, e);
+        }
+        return e;
+    }
+
+    private Expression number(double value) {
+        final Long key = Double.doubleToLongBits(value);
+        Expression e = numbers.get(key);
+        if (e == null) {
+            e = register(new Number(value), 37 * 11 + Double.hashCode(value));
+            numbers.put(key, e);
+        }
+        return e;
+    }
+
+    private Expression variable(String name) {
+        Expression e = variables.get(name);
+        if (e == null) {
+            e = register(new Variable(name), 37 * 13 + name.hashCode());
+            variables.put(name, e);
+        }
+        return e;
+    }
+
+    private Expression register(Expression e, int hash) {
+        ids.put(e, ids.size());
+        hashes.put(e, hash);
+        return e;
+    }
+
+    /**
+     * The total order of Expression.compareTo. A power u^n sorts as u with a tie-breaker on
+     * n, so that x, x^2 and x^3 are adjacent; otherwise numbers come first, by value, then
+     * variables, by name, then products, then sums, operations by size and then by operands
+     * from left to right. Identical instances compare equal at once, and the comparison is
+     * iterative, so deep expressions do not overflow the stack.
+     * @return a negative number, zero or a positive number as a is less than, structurally
+     *         equal to, or greater than b
+     */
+    static int compare(Expression a, Expression b) {
+        // pending work: expression pairs to compare, and tie-breakers to apply once the
+        // pair pushed after them turns out equal
+        final List<Object> stack = new ArrayList<>();
+        stack.add(b);
+        stack.add(a);
+        while (!stack.isEmpty()) {
+            final Object top = stack.remove(stack.size() - 1);
+            if (top instanceof Integer) {
+                if ((Integer) top != 0) {
+                    return (Integer) top;
+                }
+                continue;
+            }
+            Expression x = (Expression) top;
+            Expression y = (Expression) stack.remove(stack.size() - 1);
+            if (x == y) {
+                continue;
+            }
+            if (x instanceof StoredExpression) {
+                x = ((StoredExpression) x).node();
+            }
+            if (y instanceof StoredExpression) {
+                y = ((StoredExpression) y).node();
+            }
+            if (x instanceof PowExpression || y instanceof PowExpression) {
+                // compare as (base, exponent, is a power)
+                final int nx = x instanceof PowExpression ? ((PowExpression) x).getExponent() : 1;
+                final int ny = y instanceof PowExpression ? ((PowExpression) y).getExponent() : 1;
+                final int tie = nx != ny ? Integer.compare(nx, ny)
+                              : Boolean.compare(x instanceof PowExpression, y instanceof PowExpression);
+                stack.add(tie);
+                stack.add(y instanceof PowExpression ? ((PowExpression) y).getBase() : y);
+                stack.add(x instanceof PowExpression ? ((PowExpression) x).getBase() : x);
+                continue;
+            }
+            final int kind = Integer.compare(kind(x), kind(y));
+            if (kind != 0) {
+                return kind;
+            }
+            if (x instanceof Number) {
+                final int c = Double.compare(x.getValue(), y.getValue());
+                if (c != 0) {
+                    return c;
+                }
+            } else if (x instanceof Variable) {
+                final int c = x.getContents().compareTo(y.getContents());
+                if (c != 0) {
+                    return c;
+                }
+            } else {
+                final int c = Long.compare(x.size(), y.size());
+                if (c != 0) {
+                    return c;
+                }
+                stack.add(((BinOpExpression) y).getRight());
+                stack.add(((BinOpExpression) x).getRight());
+                stack.add(((BinOpExpression) y).getLeft());
+                stack.add(((BinOpExpression) x).getLeft());
+            }
+        }
+        return 0;
+    }
+
+    private static int kind(Expression e) {
+        if (e instanceof Number) {
+            return NUMBER;
+        } else if (e instanceof Variable) {
+            return VARIABLE;
+        }
+        return ((BinOpExpression) e).getOp() == '*' ? PRODUCT : SUM;
+    }
+}
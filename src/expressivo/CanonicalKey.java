@@ -0,0 +1,69 @@
+package expressivo;
+
+/**
+ * CanonicalKey identifies an expression up to the rewriting of CanonicalForm, so that a
+ * map keyed by CanonicalKey finds an entry stored under x*y when it is looked up with
+ * y*x, and one stored under a+b+c with c+(b+a).
+ *
+ * The key holds the canonical form and its hash, both computed once when the key is
+ * made, in O(n log n) for an expression of n nodes. Keys with different hashes are
+ * unequal at once; keys with equal hashes compare their canonical forms structurally.
+ */
+public final class CanonicalKey {
+    private final Expression canonical; // the canonical form of the expression
+    private final int hash;             // structural hash of canonical
+
+    // rep invariant:
+    //    canonical is in the canonical form of CanonicalForm
+    //    hash is the hash CanonicalForm computed for canonical
+    //
+    // All reps are private and final so no rep exposure risk; expressions are immutable.
+
+    CanonicalKey(Expression canonical, int hash) {
+        this.canonical = canonical;
+        this.hash = hash;
+    }
+
+    /**
+     * @param expression any expression
+     * @return the key of expression
+     */
+    public static CanonicalKey of(Expression expression) {
+        return CanonicalForm.keyOf(expression);
+    }
+
+    /**
+     * @return the canonical form of the expression this key was made from
+     */
+    public Expression expression() {
+        return canonical;
+    }
+
+    /**
+     * @param thatObject any object
+     * @return true if and only if thatObject is a CanonicalKey of an expression with the
+     *         same canonical form
+     */
+    @Override
+    public boolean equals(Object thatObject) {
+        if (!(thatObject instanceof CanonicalKey)) return false;
+        final CanonicalKey that = (CanonicalKey) thatObject;
+        return this.hash == that.hash && CanonicalForm.compare(this.canonical, that.canonical) == 0;
+    }
+
+    /**
+     * @return the hash of the canonical form, consistent with equals()
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * @return the canonical form, as Expression.toString() writes it
+     */
+    @Override
+    public String toString() {
+        return canonical.toString();
+    }
+}
@@ -5,7 +5,6 @@ import java.util.Map;
 import lib6005.parser.UnableToParseException;
 
 import java.io.IOException;
-import java.math.BigDecimal;
 
 /**
  * String-based commands provided by the expression system.
@@ -24,14 +23,64 @@ public class Commands {
      * @return expression's derivative with respect to variable.  Must be a valid expression equal
      *         to the derivative, but doesn't need to be in simplest or canonical form.
      * @throws IllegalArgumentException if the expression or variable is invalid
+     * @throws ExpressionTooLargeException if the expression or its derivative exceeds ExpressionLimits.getDefault()
      */
     public static String differentiate(String expression, String variable)  throws IllegalArgumentException {
+        return differentiate(expression, variable, ExpressionLimits.getDefault());
+    }
+    
+    /**
+     * Differentiate an expression with respect to a variable, within admission limits.
+     * @param expression the expression to differentiate
+     * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters.
+     * @param limits the limits the expression and its derivative must stay within
+     * @return expression's derivative with respect to variable, as for differentiate(String, String)
+     * @throws IllegalArgumentException if the expression or variable is invalid
+     * @throws ExpressionTooLargeException if the expression or its derivative exceeds limits;
+     *         checked before the derivative is built
+     */
+    public static String differentiate(String expression, String variable, ExpressionLimits limits)  throws IllegalArgumentException {
+        return differentiate(expression, variable, limits, CancellationToken.NONE);
+    }
+    
+    /**
+     * Differentiate an expression with respect to a variable, within admission limits, giving
+     * up when token is cancelled or its deadline passes.
+     * @param expression the expression to differentiate
+     * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters.
+     * @param limits the limits the expression and its derivative must stay within
+     * @param token polled while the derivative is built and before it is rendered
+     * @return expression's derivative with respect to variable, as for differentiate(String, String)
+     * @throws IllegalArgumentException if the expression or variable is invalid
+     * @throws ExpressionTooLargeException if the expression or its derivative exceeds limits
+     * @throws java.util.concurrent.CancellationException if token is cancelled or expires before the result is ready
+     */
+    public static String differentiate(String expression, String variable, ExpressionLimits limits,
+                                       CancellationToken token)  throws IllegalArgumentException {
         try {
+            final boolean timed = Metrics.isEnabled();
+            final long start = timed ? System.nanoTime() : 0;
+            
+            limits.checkInput(expression);
             Expression ast = Expression.parse(expression);
-            Expression deriv = ast.derivative(variable);
+            limits.checkExpression(ast);
+            limits.checkDerivative(ast, variable);
+            token.throwIfCancelled();
+            final long parsed = timed ? System.nanoTime() : 0;
+            Expression deriv = ast.derivative(variable, token);
+            final long derived = timed ? System.nanoTime() : 0;
+            token.throwIfCancelled();
 
             //return deriv.printInfix();
-            return deriv.toString();
+            final String result = deriv.toString();
+            
+            if (timed) {
+                final long end = System.nanoTime();
+                Metrics.DERIVATIVE.record(derived - parsed, ast.size(), deriv.size());
+                Metrics.RENDER.record(end - derived, deriv.size(), result.length());
+                Metrics.DIFFERENTIATE_COMMAND.record(end - start, expression.length(), result.length());
+            }
+            return result;
         } // end of try
         catch (IllegalArgumentException ioe) {
             System.out.println("differentiate - IllegalArgumentException!");
@@ -39,6 +88,42 @@ public class Commands {
         }
     }
     
+    /**
+     * Differentiate an expression several times with respect to a variable.
+     * @param expression the expression to differentiate
+     * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters.
+     * @param order how many times to differentiate, >= 1
+     * @return expression's order-th derivative with respect to variable, simplified after every
+     *         step, so that no step differentiates an unsimplified tree
+     * @throws IllegalArgumentException if the expression, variable or order is invalid
+     * @throws ExpressionTooLargeException if order, the expression or a step of its derivative
+     *         exceeds ExpressionLimits.getDefault(); order is checked before anything is parsed
+     */
+    public static String differentiate(String expression, String variable, int order)  throws IllegalArgumentException {
+        if (order < 1) {
+            throw new IllegalArgumentException("order must be at least 1");
+        }
+        try {
+            final boolean timed = Metrics.isEnabled();
+            final long start = timed ? System.nanoTime() : 0;
+            final ExpressionLimits limits = ExpressionLimits.getDefault();
+            
+            limits.checkOrder(order);
+            limits.checkInput(expression);
+            Expression ast = Expression.parse(expression);
+            limits.checkExpression(ast);
+            final String result = new Derivatives(ast, limits).derivative(variable, order).toString();
+            
+            if (timed) {
+                Metrics.DIFFERENTIATE_COMMAND.record(System.nanoTime() - start, expression.length(), result.length());
+            }
+            return result;
+        } catch (IllegalArgumentException ioe) {
+            System.out.println("differentiate - IllegalArgumentException!");
+            return expression;
+        }
+    }
+    
     /**
      * Simplify an expression.
      * @param expression the expression to simplify
@@ -50,35 +135,126 @@ public class Commands {
      *         variables left in this expression after substitution, it must be evaluated to a single number.
      *         Additional simplifications to the expression may be done at the implementor's discretion.
      * @throws IllegalArgumentException if the expression is invalid
+     * @throws ExpressionTooLargeException if the expression exceeds ExpressionLimits.getDefault()
      */
     public static String simplify(String expression, Map<String,Double> environment)  throws IllegalArgumentException {
+        return simplify(expression, environment, ExpressionLimits.getDefault());
+    }
+    
+    /**
+     * Simplify an expression, within admission limits.
+     * @param expression the expression to simplify
+     * @param environment maps variables to values, as for simplify(String, Map)
+     * @param limits the limits the expression must stay within
+     * @return the simplified expression, as for simplify(String, Map)
+     * @throws IllegalArgumentException if the expression is invalid
+     * @throws ExpressionTooLargeException if the expression exceeds limits; checked before it is simplified
+     */
+    public static String simplify(String expression, Map<String,Double> environment, ExpressionLimits limits)  throws IllegalArgumentException {
+        return simplify(expression, environment, limits, CancellationToken.NONE);
+    }
+    
+    /**
+     * Simplify an expression, within admission limits, giving up when token is cancelled or
+     * its deadline passes.
+     * @param expression the expression to simplify
+     * @param environment maps variables to values, as for simplify(String, Map)
+     * @param limits the limits the expression must stay within
+     * @param token polled while the expression is simplified and before it is rendered
+     * @return the simplified expression, as for simplify(String, Map)
+     * @throws IllegalArgumentException if the expression is invalid
+     * @throws ExpressionTooLargeException if the expression exceeds limits
+     * @throws java.util.concurrent.CancellationException if token is cancelled or expires before the result is ready
+     */
+    public static String simplify(String expression, Map<String,Double> environment, ExpressionLimits limits,
+                                  CancellationToken token)  throws IllegalArgumentException {
         try {
+            final boolean timed = Metrics.isEnabled();
+            final long start = timed ? System.nanoTime() : 0;
+            
+            limits.checkInput(expression);
             Expression ast = Expression.parse(expression);
+            limits.checkExpression(ast);
+            token.throwIfCancelled();
+            final long parsed = timed ? System.nanoTime() : 0;
         
-            // simplify the expression based on the environment
+            // simplify the expression based on the environment, converted once to a binding
+            final VariableBinding binding = VariableBinding.fromMap(environment);
+
+            // integer constants and values only: evaluate exactly in long arithmetic,
+            // building no intermediate expressions
+            final String integral = IntegerEvaluator.format(ast, binding);
+            if (integral != null) {
+                token.throwIfCancelled();
+                if (timed) {
+                    final long end = System.nanoTime();
+                    Metrics.SIMPLIFY.record(end - parsed, ast.size(), 1);
+                    Metrics.SIMPLIFY_COMMAND.record(end - start, expression.length(), integral.length());
+                }
+                return integral;
+            }
 
-            Expression rv = ast.simplify(environment);
+            Expression rv = ast.simplify(binding, token);
+            final long simplified = timed ? System.nanoTime() : 0;
+            token.throwIfCancelled();
             double val = rv.getValue();
+            final String result;
         
             // if return value is NaN then return the string form of this expression
             // else return the double value of this expression.
             if (Double.isNaN(val)) {
                 //System.out.println("simplified value = "+ast.toString());
-                return rv.getContents();
+                result = rv.getContents();
             } else {
                 //System.out.println("simplified value = " + val);
-                if ((val == Math.floor(val)) && !Double.isInfinite(val)) {
-                    return BigDecimal.valueOf(val).toPlainString();
-                } else {
-                    // return number in decimal format, without scientific notation such as 5.0*E-5
-                    return BigDecimal.valueOf(val).toPlainString();
-                }
+                // return number in decimal format, without scientific notation such as 5.0*E-5
+                result = NumberFormatter.toPlainString(val);
             }
+            
+            if (timed) {
+                final long end = System.nanoTime();
+                Metrics.SIMPLIFY.record(simplified - parsed, ast.size(), rv.size());
+                Metrics.RENDER.record(end - simplified, rv.size(), result.length());
+                Metrics.SIMPLIFY_COMMAND.record(end - start, expression.length(), result.length());
+            }
+            return result;
         } catch (IllegalArgumentException ioe) {
             System.out.println("Simplify - IllegalArgumentException!");
             return expression;
         }
     }
+
+    /**
+     * Simplify an expression, folding constants in a numeric domain other than double.
+     * @param expression the expression to simplify
+     * @param environment maps variables to values, as for simplify(String, Map)
+     * @param domain the arithmetic constants are folded in, e.g. NumericDomain.RATIONAL
+     * @return the simplified expression, as for simplify(String, Map); a fully bound expression
+     *         is computed in domain and formatted by it, so it is rounded only once, at the end
+     * @throws IllegalArgumentException if the expression is invalid
+     * @throws ExpressionTooLargeException if the expression exceeds ExpressionLimits.getDefault()
+     */
+    public static String simplify(String expression, Map<String,Double> environment, NumericDomain<?> domain)  throws IllegalArgumentException {
+        try {
+            final boolean timed = Metrics.isEnabled();
+            final long start = timed ? System.nanoTime() : 0;
+            final ExpressionLimits limits = ExpressionLimits.getDefault();
+
+            limits.checkInput(expression);
+            Expression ast = Expression.parse(expression);
+            limits.checkExpression(ast);
+            final String result = domain.simplifyToString(ast, VariableBinding.fromMap(environment));
+
+            if (timed) {
+                Metrics.SIMPLIFY_COMMAND.record(System.nanoTime() - start, expression.length(), result.length());
+            }
+            return result;
+        } catch (IllegalArgumentException ioe) {
+            System.out.println("Simplify - IllegalArgumentException!");
+            return expression;
+        }
+    }
+
     /* Copyright (c) 2015-2017 MIT 6.005 course staff, all rights reserved.
      * Redistribution of original or derived work requires permission of course staff.
      */
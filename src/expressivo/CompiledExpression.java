@@ -0,0 +1,543 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CompiledExpression is an expression flattened into a straight-line register program,
+ * for evaluating the same expression many times with different bindings. A program may
+ * also compute several expressions at once, sharing the instructions they have in common.
+ *
+ * Every instruction writes its own register, and structurally identical subexpressions
+ * (including x*y and y*x) share one instruction, so each distinct subexpression is computed
+ * once per evaluation. Constants are loaded into their registers when the program is built
+ * and never re-executed.
+ *
+ * Evaluation reuses one register array and allocates nothing, which also means a
+ * CompiledExpression must not be evaluated by two threads at once; use copy() to get an
+ * independent instance per thread.
+ *
+ * bound() runs the same program in interval arithmetic: given a range [lower, upper] for
+ * every variable, it computes a range that is guaranteed to contain every value the
+ * expression takes over that box, in a pair of lower/upper registers per instruction.
+ * Each operation rounds its lower end down and its upper end up by one ulp, which covers
+ * the rounding error of the operation, so the result encloses the exact real value and
+ * not only the double one. An interval is as wide as the dependency problem makes it: x*x
+ * over [-1, 1] would be [-1, 1] by the product rule, so a product whose operands are one
+ * instruction, and an even power, use the square rule instead and give [0, 1]. Because
+ * equal subexpressions share an instruction, this also applies to (x+1)*(x+1).
+ */
+public class CompiledExpression {
+    private static final byte CONST = 0;
+    private static final byte LOAD = 1;
+    private static final byte ADD = 2;
+    private static final byte MUL = 3;
+    private static final byte POW = 4;
+
+    private static final int BLOCK = 256;              // points per block of a multipoint evaluation
+    private static final int BLOCK_REGISTERS = 1 << 16; // bound on the registers of all points of a block
+
+    private final byte[] ops;        // ops[i] is the instruction writing register i
+    private final int[] a;           // slot for LOAD, first operand register for ADD/MUL, base register for POW
+    private final int[] b;           // second operand register for ADD/MUL, exponent for POW
+    private final int first;         // registers below first hold constants
+    private final int[] outputs;     // registers holding the values of the expressions
+    private final double[] registers;
+    private double[] lower;          // lower ends of the interval registers, made by the first bound()
+    private double[] upper;          // upper ends of the interval registers, made by the first bound()
+
+    // rep invariant:
+    //    ops, a, b, registers all have the same length n > 0
+    //    ops[i] == CONST for i < first, ops[i] != CONST for i >= first
+    //    for ADD/MUL instructions i, a[i] < i and b[i] < i
+    //    for POW instructions i, a[i] < i and b[i] >= 0
+    //    outputs.length > 0, 0 <= outputs[k] < n
+    //    lower and upper are both null, or both of length n with lower[i] == upper[i] == registers[i] for i < first
+    //
+    // All reps are private so no rep exposure risk.
+
+    private CompiledExpression(byte[] ops, int[] a, int[] b, int first, int[] outputs, double[] registers) {
+        this.ops = ops;
+        this.a = a;
+        this.b = b;
+        this.first = first;
+        this.outputs = outputs;
+        this.registers = registers;
+    }
+
+    /**
+     * @param expression the expression to compile
+     * @return a program that evaluates expression
+     */
+    public static CompiledExpression compile(Expression expression) {
+        return compile(new Expression[] { expression });
+    }
+
+    /**
+     * @param expressions the expressions to compile into one program, at least one
+     * @return a program that evaluates all of expressions, computing each subexpression
+     *         they share only once; evaluate(binding) returns the value of the first
+     */
+    public static CompiledExpression compile(Expression[] expressions) {
+        if (expressions.length == 0) {
+            throw new IllegalArgumentException("nothing to compile");
+        }
+        final Builder builder = new Builder();
+        final int[] roots = new int[expressions.length];
+        for (int k = 0; k < roots.length; k++) {
+            roots[k] = builder.emit(expressions[k]);
+        }
+        return builder.build(roots);
+    }
+
+    /**
+     * @return a compiled expression sharing this program but with its own registers,
+     *         so it can be evaluated concurrently with this one
+     */
+    public CompiledExpression copy() {
+        return new CompiledExpression(ops, a, b, first, outputs, registers.clone());
+    }
+
+    /**
+     * @return the number of instructions in the program, i.e. the number of distinct subexpressions
+     */
+    public int size() {
+        return ops.length;
+    }
+
+    /**
+     * @return the number of expressions the program computes
+     */
+    public int outputs() {
+        return outputs.length;
+    }
+
+    /**
+     * @param binding assigns values to variables, as for Expression.evaluate
+     * @return the value of the (first) compiled expression under binding
+     * @throws IllegalArgumentException if a variable is unbound and binding fails on unbound variables
+     */
+    public double evaluate(VariableBinding binding) {
+        run(binding);
+        return registers[outputs[0]];
+    }
+
+    /**
+     * @param binding assigns values to variables, as for Expression.evaluate
+     * @param out receives the value of the k-th compiled expression at out[k]; out.length >= outputs()
+     * @throws IllegalArgumentException if a variable is unbound and binding fails on unbound variables
+     */
+    public void evaluate(VariableBinding binding, double[] out) {
+        if (out.length < outputs.length) {
+            throw new IllegalArgumentException("output array too short");
+        }
+        run(binding);
+        for (int k = 0; k < outputs.length; k++) {
+            out[k] = registers[outputs[k]];
+        }
+    }
+
+    /**
+     * Evaluate the (first) compiled expression at many values of one variable, a block of
+     * points at a time: each instruction is applied to the whole block before the next, so
+     * its loop over the points has no dependency between iterations and the JIT vectorizes
+     * it. Each value is exactly the one evaluate(binding) gives with variable set to that
+     * point, since the program and the order of its operations are the same.
+     * @param binding assigns values to the other variables, as for Expression.evaluate;
+     *        its value for variable, if any, is ignored
+     * @param variable the variable that takes each value of points
+     * @param points values of variable
+     * @return the value of the (first) compiled expression at each point
+     * @throws IllegalArgumentException if another variable is unbound and binding fails on
+     *         unbound variables
+     */
+    public double[] evaluate(VariableBinding binding, String variable, double[] points) {
+        return evaluate(binding, VariableBinding.slotIfInterned(variable), points);
+    }
+
+    /**
+     * @param slot the slot of the variable that takes each value of points, or -1 if the
+     *        program loads no such variable
+     */
+    double[] evaluate(VariableBinding binding, int slot, double[] points) {
+        final int n = ops.length;
+        final int width = Math.max(1, Math.min(BLOCK, BLOCK_REGISTERS / n));
+        final double[] lanes = new double[n * width]; // register i of point k of a block at i*width + k
+        for (int i = 0; i < n; i++) {
+            if (ops[i] == CONST || (ops[i] == LOAD && a[i] != slot)) {
+                final int other = a[i];
+                final double value = ops[i] == CONST ? registers[i]
+                        : binding.isBound(other) ? binding.get(other) : binding.unbound(VariableBinding.name(other));
+                Arrays.fill(lanes, i * width, (i + 1) * width, value);
+            }
+        }
+        final double[] values = new double[points.length];
+        for (int from = 0; from < points.length; from += width) {
+            final int count = Math.min(width, points.length - from);
+            for (int i = first; i < n; i++) {
+                final int r = i * width, x = a[i] * width;
+                switch (ops[i]) {
+                    case LOAD:
+                        if (a[i] == slot) {
+                            System.arraycopy(points, from, lanes, r, count);
+                        }
+                        break;
+                    case ADD: {
+                        final int y = b[i] * width;
+                        for (int k = 0; k < count; k++) {
+                            lanes[r + k] = lanes[x + k] + lanes[y + k];
+                        }
+                        break;
+                    }
+                    case MUL: {
+                        final int y = b[i] * width;
+                        for (int k = 0; k < count; k++) {
+                            lanes[r + k] = lanes[x + k] * lanes[y + k];
+                        }
+                        break;
+                    }
+                    case POW:
+                        for (int k = 0; k < count; k++) {
+                            lanes[r + k] = PowExpression.power(lanes[x + k], b[i]);
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("bad instruction " + ops[i]);
+                }
+            }
+            System.arraycopy(lanes, outputs[0] * width, values, from, count);
+        }
+        return values;
+    }
+
+    /**
+     * Bound the values of the compiled expressions over a box of variable values.
+     * @param lower assigns each variable the low end of its range, as for Expression.evaluate
+     * @param upper assigns each variable the high end of its range, at least its low end;
+     *        an end that is NaN (unbound, when the binding evaluates unbound variables as
+     *        NaN) leaves the range unbounded on that side
+     * @param out receives the range of the k-th compiled expression as out[2*k] (low end)
+     *        and out[2*k+1] (high end); out.length >= 2 * outputs(). Every value the
+     *        expression takes, in exact arithmetic, at a point with every variable within its
+     *        range, is within that range; either end may be infinite.
+     * @throws IllegalArgumentException if a variable is unbound and its binding fails on
+     *         unbound variables, or a variable's low end is above its high end
+     */
+    public void bound(VariableBinding lower, VariableBinding upper, double[] out) {
+        if (out.length < 2 * outputs.length) {
+            throw new IllegalArgumentException("output array too short");
+        }
+        runIntervals(lower, upper);
+        for (int k = 0; k < outputs.length; k++) {
+            out[2 * k] = this.lower[outputs[k]];
+            out[2 * k + 1] = this.upper[outputs[k]];
+        }
+    }
+
+    /**
+     * @param lower assigns each variable the low end of its range, as for bound()
+     * @param upper assigns each variable the high end of its range, as for bound()
+     * @param threshold any number
+     * @return false if the (first) compiled expression is certainly at most threshold at
+     *         every point of the box, true if it may exceed threshold somewhere in it
+     * @throws IllegalArgumentException as for bound()
+     */
+    public boolean canExceed(VariableBinding lower, VariableBinding upper, double threshold) {
+        runIntervals(lower, upper);
+        return !(this.upper[outputs[0]] <= threshold);
+    }
+
+    private void run(VariableBinding binding) {
+        final double[] r = registers;
+        for (int i = first; i < r.length; i++) {
+            switch (ops[i]) {
+                case LOAD:
+                    final int slot = a[i];
+                    r[i] = binding.isBound(slot) ? binding.get(slot) : binding.unbound(VariableBinding.name(slot));
+                    break;
+                case ADD:
+                    r[i] = r[a[i]] + r[b[i]];
+                    break;
+                case MUL:
+                    r[i] = r[a[i]] * r[b[i]];
+                    break;
+                case POW:
+                    r[i] = PowExpression.power(r[a[i]], b[i]);
+                    break;
+                default:
+                    throw new IllegalStateException("bad instruction " + ops[i]);
+            }
+        }
+    }
+
+    private void runIntervals(VariableBinding lowerBinding, VariableBinding upperBinding) {
+        if (lower == null) {
+            lower = registers.clone();
+            upper = registers.clone();
+        }
+        final double[] lo = lower;
+        final double[] hi = upper;
+        for (int i = first; i < lo.length; i++) {
+            switch (ops[i]) {
+                case LOAD: {
+                    final int slot = a[i];
+                    final double l = lowerBinding.isBound(slot) ? lowerBinding.get(slot) : lowerBinding.unbound(VariableBinding.name(slot));
+                    final double h = upperBinding.isBound(slot) ? upperBinding.get(slot) : upperBinding.unbound(VariableBinding.name(slot));
+                    if (l > h) {
+                        throw new IllegalArgumentException("empty range for " + VariableBinding.name(slot) + ": [" + l + ", " + h + "]");
+                    }
+                    lo[i] = Double.isNaN(l) ? Double.NEGATIVE_INFINITY : l;
+                    hi[i] = Double.isNaN(h) ? Double.POSITIVE_INFINITY : h;
+                    break;
+                }
+                case ADD: {
+                    final double l = lo[a[i]] + lo[b[i]];
+                    final double h = hi[a[i]] + hi[b[i]];
+                    // NaN only from an infinity of each sign: unbounded on that side
+                    lo[i] = Double.isNaN(l) ? Double.NEGATIVE_INFINITY : Math.nextDown(l);
+                    hi[i] = Double.isNaN(h) ? Double.POSITIVE_INFINITY : Math.nextUp(h);
+                    break;
+                }
+                case MUL: {
+                    final double xl = lo[a[i]], xh = hi[a[i]];
+                    if (a[i] == b[i]) {
+                        square(xl, xh, 2, lo, hi, i);
+                        break;
+                    }
+                    final double yl = lo[b[i]], yh = hi[b[i]];
+                    final double p = product(xl, yl), q = product(xl, yh);
+                    final double r = product(xh, yl), s = product(xh, yh);
+                    lo[i] = Math.nextDown(Math.min(Math.min(p, q), Math.min(r, s)));
+                    hi[i] = Math.nextUp(Math.max(Math.max(p, q), Math.max(r, s)));
+                    break;
+                }
+                case POW: {
+                    final int n = b[i];
+                    final double xl = lo[a[i]], xh = hi[a[i]];
+                    if (n == 0) {
+                        lo[i] = hi[i] = 1;
+                    } else if (n % 2 == 0) {
+                        square(xl, xh, n, lo, hi, i);
+                    } else {
+                        // odd powers are increasing
+                        lo[i] = xl >= 0 ? powerDown(xl, n) : -powerUp(-xl, n);
+                        hi[i] = xh >= 0 ? powerUp(xh, n) : -powerDown(-xh, n);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("bad instruction " + ops[i]);
+            }
+        }
+    }
+
+    /**
+     * Set lo[i], hi[i] to the range of x^n for x in [xl, xh] and even n: the smallest
+     * magnitude in the range to the n, or 0 if the range spans 0, to the largest magnitude
+     * to the n.
+     */
+    private static void square(double xl, double xh, int n, double[] lo, double[] hi, int i) {
+        final double least = xl >= 0 ? xl : xh <= 0 ? -xh : 0;
+        final double most = Math.max(-xl, xh);
+        lo[i] = powerDown(least, n);
+        hi[i] = powerUp(most, n);
+    }
+
+    /**
+     * @return x * y, except that 0 times an infinite end is 0: the infinite end stands
+     *         for values without bound, each of which times 0 is 0
+     */
+    private static double product(double x, double y) {
+        return x == 0 || y == 0 ? 0 : x * y;
+    }
+
+    /**
+     * @return a lower bound on x^n for x >= 0 and n > 0, by squaring with every product
+     *         rounded down, the product of lower bounds being a lower bound since all are >= 0
+     */
+    private static double powerDown(double x, int n) {
+        double result = 1;
+        while (n != 0) {
+            if ((n & 1) != 0) {
+                result = Math.max(0, Math.nextDown(result * x));
+            }
+            n >>>= 1;
+            if (n != 0) {
+                x = Math.max(0, Math.nextDown(x * x));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return an upper bound on x^n for x >= 0 and n > 0, as powerDown with every product
+     *         rounded up
+     */
+    private static double powerUp(double x, int n) {
+        double result = 1;
+        while (n != 0) {
+            if ((n & 1) != 0) {
+                result = Math.nextUp(result * x);
+            }
+            n >>>= 1;
+            if (n != 0) {
+                x = Math.nextUp(x * x);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds the program, hash-consing instructions as the expression tree is walked.
+     * Nodes are numbered in emission order; build() then moves the constants in front.
+     * A subtree object reached again (expressions sharing structure, as a DAG) is looked
+     * up by identity instead of walked again.
+     */
+    private static final class Builder {
+        private final List<Byte> ops = new ArrayList<>();
+        private final List<Integer> a = new ArrayList<>();
+        private final List<Integer> b = new ArrayList<>();
+        private final List<Double> constants = new ArrayList<>();
+        private final Map<Long, Integer> constantNodes = new HashMap<>();
+        private final Map<Integer, Integer> loadNodes = new HashMap<>();
+        private final Map<Long, Integer> opNodes = new HashMap<>();
+        private final Map<Long, Integer> powNodes = new HashMap<>();
+        private final Map<Expression, Integer> emitted = new IdentityHashMap<>();
+
+        private int add(byte op, int x, int y, double constant) {
+            ops.add(op);
+            a.add(x);
+            b.add(y);
+            constants.add(constant);
+            return ops.size() - 1;
+        }
+
+        int emit(Expression e) {
+            if (e instanceof StoredExpression) {
+                e = ((StoredExpression) e).node();
+            }
+            if (e instanceof Number) {
+                final double value = e.getValue();
+                final Long key = Double.doubleToLongBits(value);
+                Integer node = constantNodes.get(key);
+                if (node == null) {
+                    node = add(CONST, 0, 0, value);
+                    constantNodes.put(key, node);
+                }
+                return node;
+            } else if (e instanceof Variable) {
+                final int slot = ((Variable) e).getSlot();
+                Integer node = loadNodes.get(slot);
+                if (node == null) {
+                    node = add(LOAD, slot, 0, 0);
+                    loadNodes.put(slot, node);
+                }
+                return node;
+            } else if (e instanceof BinOpExpression) {
+                final Integer done = emitted.get(e);
+                if (done != null) {
+                    return done;
+                }
+                // the left chain iteratively, bottom up from its highest node emitted already,
+                // see BinOpExpression.chain()
+                final BinOpExpression binOp = (BinOpExpression) e;
+                final byte op = binOp.getOp() == '+' ? ADD : MUL;
+                final BinOpExpression[] below = binOp.chain();
+                int start = 0;
+                Integer x = null;
+                while (x == null && start < below.length) {
+                    x = emitted.get(below[start++]);
+                }
+                if (x == null) {
+                    x = emit(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft());
+                    start = below.length + 1;
+                }
+                for (int i = start - 1; i >= 0; i--) {
+                    final BinOpExpression node = i == 0 ? binOp : below[i - 1];
+                    x = emit(op, x, emit(node.getRight()));
+                    emitted.put(node, x);
+                }
+                return x;
+            } else if (e instanceof PowExpression) {
+                final Integer done = emitted.get(e);
+                if (done != null) {
+                    return done;
+                }
+                final PowExpression pow = (PowExpression) e;
+                final int x = emit(pow.getBase());
+                final Long key = ((long) x << 32) | pow.getExponent();
+                Integer node = powNodes.get(key);
+                if (node == null) {
+                    node = add(POW, x, pow.getExponent(), 0);
+                    powNodes.put(key, node);
+                }
+                emitted.put(e, node);
+                return node;
+            } else {
+                throw new IllegalArgumentException("cannot compile expression of type " + e.getClass().getName());
+            }
+        }
+
+        private int emit(byte op, int x, int y) {
+            if (x > y) { // + and * commute, so x*y and y*x share an instruction
+                final int t = x;
+                x = y;
+                y = t;
+            }
+            final Long key = ((long) op << 62) | ((long) x << 31) | y;
+            Integer node = opNodes.get(key);
+            if (node == null) {
+                node = add(op, x, y, 0);
+                opNodes.put(key, node);
+            }
+            return node;
+        }
+
+        CompiledExpression build(int[] roots) {
+            final int n = ops.size();
+            final int[] register = new int[n]; // register[node] is where node ends up
+            int next = 0;
+            for (int node = 0; node < n; node++) {
+                if (ops.get(node) == CONST) {
+                    register[node] = next++;
+                }
+            }
+            final int first = next;
+            for (int node = 0; node < n; node++) {
+                if (ops.get(node) != CONST) {
+                    register[node] = next++;
+                }
+            }
+
+            final byte[] code = new byte[n];
+            final int[] x = new int[n];
+            final int[] y = new int[n];
+            final double[] registers = new double[n];
+            for (int node = 0; node < n; node++) {
+                final int r = register[node];
+                final byte op = ops.get(node);
+                code[r] = op;
+                if (op == CONST) {
+                    registers[r] = constants.get(node);
+                } else if (op == LOAD) {
+                    x[r] = a.get(node);
+                } else if (op == POW) {
+                    x[r] = register[a.get(node)];
+                    y[r] = b.get(node);
+                } else {
+                    x[r] = register[a.get(node)];
+                    y[r] = register[b.get(node)];
+                }
+            }
+            final int[] outputs = new int[roots.length];
+            for (int k = 0; k < roots.length; k++) {
+                outputs[k] = register[roots[k]];
+            }
+            return new CompiledExpression(code, x, y, first, outputs, registers);
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * DensePolynomial is an immutable polynomial in at most one variable, held as the vector
+ * of its double coefficients, c[k] the coefficient of x^k.
+ *
+ * For an expression with a single variable the vector replaces the tree: sums add
+ * vectors, products multiply them, derivative() is one pass over the vector and
+ * evaluate() is Horner's rule. Multiplication picks its algorithm by the length of the
+ * shorter operand:
+ *   - schoolbook, O(n*m), below KARATSUBA_THRESHOLD coefficients
+ *   - Karatsuba, O(n^1.585), below FFT_THRESHOLD
+ *   - a complex FFT, O(n log n), beyond that
+ * The thresholds are the crossovers measured by DensePolynomialBench. Expansion of a
+ * univariate product through the dense form, back to an expression, measured 3-4 times
+ * faster than through SparsePolynomial already at degree 2 and 40 times at degree 256,
+ * so DENSE_DEGREE sends everything with a product to multiply down the dense path, up to
+ * a degree bound of MAX_DEGREE: the vector has a slot for every power, so beyond that it
+ * is mostly zeros for any expression that is small enough to write down.
+ *
+ * In double arithmetic, schoolbook and Karatsuba products of integer coefficients are
+ * exact as long as no sum exceeds 2^53, while an FFT product carries a rounding error
+ * proportional to the size of the coefficients; large coefficients of very different
+ * magnitudes lose relative precision in the small ones. exactly() uses only products that
+ * are provably exact, so that Expression.expand() can take this path for univariate
+ * expressions with integer constants and get the same result as SparsePolynomial.
+ */
+public final class DensePolynomial {
+
+    /** multiplications with a shorter operand than this many coefficients use schoolbook */
+    static final int KARATSUBA_THRESHOLD = 64;
+
+    /** multiplications with a shorter operand of at least this many coefficients use the FFT */
+    static final int FFT_THRESHOLD = 512;
+
+    /** expand() takes the dense path for univariate expressions of at least this degree */
+    static final long DENSE_DEGREE = 2;
+
+    /**
+     * of() and exactly() build no coefficient vector beyond this degree bound, checked
+     * before anything is allocated; x^100000000 is one term to SparsePolynomial but 800 MB
+     * of zeros here
+     */
+    static final long MAX_DEGREE = 1 << 16;
+
+    private static final double MAX_EXACT = 0x1p53;   // integers up to here are exact doubles
+    private static final double MAX_FFT_EXACT = 0x1p30; // bound on |a|_1*|b|_1 below which a rounded FFT product is exact
+
+    private final int slot;               // slot of the variable, or -1 for a constant
+    private final double[] coefficients;  // coefficients[k] is the coefficient of x^k
+
+    // rep invariant:
+    //    coefficients.length == 0 (the zero polynomial) or coefficients[coefficients.length - 1] != 0
+    //    slot == -1 if coefficients.length <= 1
+    //
+    // All reps are private and final and coefficients is never exposed, so no rep exposure risk.
+
+    private DensePolynomial(int slot, double[] coefficients) {
+        int length = coefficients.length;
+        while (length > 0 && coefficients[length - 1] == 0) {
+            length--;
+        }
+        this.coefficients = length == coefficients.length ? coefficients : Arrays.copyOf(coefficients, length);
+        this.slot = length <= 1 ? -1 : slot;
+    }
+
+    /**
+     * @param e any expression
+     * @return true if and only if at most one variable occurs in e
+     */
+    public static boolean isUnivariate(Expression e) {
+        return e.variables().size() <= 1;
+    }
+
+    /**
+     * @param e an expression with at most one variable
+     * @return the polynomial e denotes, computed in double arithmetic
+     * @throws IllegalArgumentException if more than one variable occurs in e, or if its
+     *         degree bound exceeds MAX_DEGREE
+     */
+    public static DensePolynomial of(Expression e) {
+        final VariableSet variables = e.variables();
+        if (variables.size() > 1) {
+            throw new IllegalArgumentException("not univariate, has variables " + variables);
+        }
+        final long degree = Equivalence.degree(e);
+        if (degree > MAX_DEGREE) {
+            throw new IllegalArgumentException("degree bound " + degree + " too high for a dense polynomial, at most " + MAX_DEGREE);
+        }
+        return new DensePolynomial(variables.first(), coefficients(e, false));
+    }
+
+    /**
+     * @param e any expression
+     * @return the polynomial e denotes, if e has at most one variable, a degree bound of at
+     *         least DENSE_DEGREE and at most MAX_DEGREE, only integer constants, and
+     *         coefficients small enough that every operation on them is exact in double
+     *         arithmetic; otherwise null
+     */
+    static DensePolynomial exactly(Expression e) {
+        final VariableSet variables = e.variables();
+        if (variables.size() > 1) {
+            return null;
+        }
+        final long degree = Equivalence.degree(e);
+        if (degree < DENSE_DEGREE || degree > MAX_DEGREE) {
+            return null;
+        }
+        final double[] coefficients = coefficients(e, true);
+        return coefficients == null ? null : new DensePolynomial(variables.first(), coefficients);
+    }
+
+    /**
+     * @param e an expression with at most one variable
+     * @param integral true to give up, returning null, at a non-integer constant or at an
+     *        operation that might not be exact
+     * @return the coefficient vector of e, possibly with trailing zeros
+     */
+    private static double[] coefficients(Expression e, boolean integral) {
+        if (e instanceof StoredExpression) {
+            e = ((StoredExpression) e).node();
+        }
+        if (e instanceof Number) {
+            final double value = e.getValue();
+            if (integral && (value != Math.rint(value) || Math.abs(value) > MAX_EXACT)) {
+                return null;
+            }
+            return new double[] { value };
+        } else if (e instanceof Variable) {
+            return new double[] { 0, 1 };
+        } else if (e instanceof PowExpression) {
+            final PowExpression pow = (PowExpression) e;
+            final double[] base = coefficients(pow.getBase(), integral);
+            return base == null ? null : power(base, pow.getExponent(), integral);
+        }
+        final char op = ((BinOpExpression) e).getOp();
+        final List<double[]> operands = new ArrayList<>();
+        for (Expression operand : CanonicalForm.chain(e, op)) {
+            final double[] c = coefficients(operand, integral);
+            if (c == null) {
+                return null;
+            }
+            operands.add(c);
+        }
+        // combine neighbours level by level, so fast multiplication gets balanced operands
+        while (operands.size() > 1) {
+            final List<double[]> next = new ArrayList<>((operands.size() + 1) / 2);
+            for (int i = 0; i + 1 < operands.size(); i += 2) {
+                final double[] x = operands.get(i), y = operands.get(i + 1);
+                final double[] combined = op == '+' ? add(x, y, integral) : multiply(x, y, integral);
+                if (combined == null) {
+                    return null;
+                }
+                next.add(combined);
+            }
+            if (operands.size() % 2 != 0) {
+                next.add(operands.get(operands.size() - 1));
+            }
+            operands.clear();
+            operands.addAll(next);
+        }
+        return operands.get(0);
+    }
+
+    private static double norm(double[] c) {
+        double sum = 0;
+        for (double x : c) {
+            sum += Math.abs(x);
+        }
+        return sum;
+    }
+
+    private static double[] add(double[] x, double[] y, boolean integral) {
+        if (integral && norm(x) + norm(y) > MAX_EXACT) {
+            return null;
+        }
+        final double[] sum = Arrays.copyOf(x.length >= y.length ? x : y, Math.max(x.length, y.length));
+        final double[] shorter = x.length >= y.length ? y : x;
+        for (int k = 0; k < shorter.length; k++) {
+            sum[k] += shorter[k];
+        }
+        return sum;
+    }
+
+    /**
+     * @param integral true if x and y have integer coefficients and the product must be
+     *        exact; then null if that cannot be guaranteed
+     * @return the coefficients of x*y
+     */
+    static double[] multiply(double[] x, double[] y, boolean integral) {
+        final int shorter = Math.min(x.length, y.length);
+        if (shorter == 0) {
+            return new double[0];
+        }
+        if (!integral) {
+            return shorter < KARATSUBA_THRESHOLD ? schoolbook(x, y)
+                    : shorter < FFT_THRESHOLD ? karatsuba(x, y) : fft(x, y);
+        }
+        // every partial sum of an integer product is bounded by |x|_1*|y|_1
+        final double bound = norm(x) * norm(y);
+        if (bound > MAX_EXACT) {
+            return null;
+        } else if (shorter < KARATSUBA_THRESHOLD) {
+            return schoolbook(x, y);
+        } else if (shorter < FFT_THRESHOLD || bound > MAX_FFT_EXACT) {
+            return karatsuba(x, y);
+        }
+        // the FFT error is far below 1/2 for such small coefficients, so rounding is exact
+        final double[] product = fft(x, y);
+        for (int k = 0; k < product.length; k++) {
+            product[k] = Math.rint(product[k]);
+        }
+        return product;
+    }
+
+    private static double[] power(double[] x, int n, boolean integral) {
+        double[] result = { 1 };
+        while (n != 0 && result != null && x != null) {
+            if ((n & 1) != 0) {
+                result = multiply(result, x, integral);
+            }
+            n >>>= 1;
+            if (n != 0) {
+                x = multiply(x, x, integral);
+            }
+        }
+        return n == 0 ? result : null;
+    }
+
+    /**
+     * @return the coefficients of x*y, by the O(n*m) schoolbook method
+     */
+    static double[] schoolbook(double[] x, double[] y) {
+        final double[] product = new double[x.length + y.length - 1];
+        for (int i = 0; i < x.length; i++) {
+            final double xi = x[i];
+            if (xi == 0) {
+                continue;
+            }
+            for (int j = 0; j < y.length; j++) {
+                product[i + j] += xi * y[j];
+            }
+        }
+        return product;
+    }
+
+    /**
+     * @return the coefficients of x*y, by Karatsuba's method: with x = x0 + x1*t and
+     *         y = y0 + y1*t for t = x^h, x*y = x0*y0 + ((x0+x1)(y0+y1) - x0*y0 - x1*y1)*t
+     *         + x1*y1*t^2, three half-size products instead of four
+     */
+    static double[] karatsuba(double[] x, double[] y) {
+        if (x.length < y.length) {
+            final double[] t = x;
+            x = y;
+            y = t;
+        }
+        final int n = x.length, m = y.length;
+        if (m < KARATSUBA_THRESHOLD) {
+            return schoolbook(x, y);
+        }
+        final double[] product = new double[n + m - 1];
+        if (n >= 2 * m) {
+            // a much longer x is multiplied in slices as long as y
+            for (int offset = 0; offset < n; offset += m) {
+                accumulate(product, karatsuba(Arrays.copyOfRange(x, offset, Math.min(n, offset + m)), y), offset);
+            }
+            return product;
+        }
+        final int h = (n + 1) / 2;
+        if (m <= h) {
+            // y has no upper half: two products with the halves of x
+            accumulate(product, karatsuba(Arrays.copyOf(x, h), y), 0);
+            accumulate(product, karatsuba(Arrays.copyOfRange(x, h, n), y), h);
+            return product;
+        }
+        final double[] x0 = Arrays.copyOf(x, h), x1 = Arrays.copyOfRange(x, h, n);
+        final double[] y0 = Arrays.copyOf(y, h), y1 = Arrays.copyOfRange(y, h, m);
+        final double[] low = karatsuba(x0, y0);
+        final double[] high = karatsuba(x1, y1);
+        final double[] middle = karatsuba(add(x0, x1, false), add(y0, y1, false));
+        for (int k = 0; k < low.length; k++) {
+            middle[k] -= low[k];
+        }
+        for (int k = 0; k < high.length; k++) {
+            middle[k] -= high[k];
+        }
+        accumulate(product, low, 0);
+        accumulate(product, middle, h);
+        accumulate(product, high, 2 * h);
+        return product;
+    }
+
+    private static void accumulate(double[] target, double[] source, int offset) {
+        // source may have trailing entries beyond target that are zero by construction
+        final int length = Math.min(source.length, target.length - offset);
+        for (int k = 0; k < length; k++) {
+            target[offset + k] += source[k];
+        }
+    }
+
+    /**
+     * @return the coefficients of x*y, by one forward and one inverse complex FFT: x and y
+     *         are transformed together as x + iy and their spectra separated by symmetry
+     */
+    static double[] fft(double[] x, double[] y) {
+        final int length = x.length + y.length - 1;
+        final int n = length == 1 ? 1 : Integer.highestOneBit(length - 1) << 1;
+        final double[] re = Arrays.copyOf(x, n);
+        final double[] im = Arrays.copyOf(y, n);
+        transform(re, im, false);
+        // with Z = X + iY, X*Y = (Z[k]^2 - conj(Z[n-k])^2) / 4i
+        final double[] pr = new double[n], pi = new double[n];
+        for (int k = 0; k < n; k++) {
+            final int j = (n - k) & (n - 1);
+            final double ar = re[k], ai = im[k];
+            final double br = re[j], bi = -im[j];
+            final double sr = ar + br, si = ai + bi; // z + w
+            final double dr = ar - br, di = ai - bi; // z - w
+            final double qr = sr * dr - si * di, qi = sr * di + si * dr;
+            // divide by 4i
+            pr[k] = qi / 4;
+            pi[k] = -qr / 4;
+        }
+        transform(pr, pi, true);
+        final double[] product = Arrays.copyOf(pr, length);
+        for (int k = 0; k < length; k++) {
+            product[k] /= n;
+        }
+        return product;
+    }
+
+    /**
+     * In-place iterative radix-2 FFT of re + i*im, whose length is a power of two.
+     * @param inverse true for the unscaled inverse transform
+     */
+    private static void transform(double[] re, double[] im, boolean inverse) {
+        final int n = re.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+        // twiddles from the full-length table, each computed directly for accuracy
+        final double[] cos = new double[n / 2], sin = new double[n / 2];
+        for (int k = 0; k < n / 2; k++) {
+            final double angle = 2 * Math.PI * k / n;
+            cos[k] = Math.cos(angle);
+            sin[k] = inverse ? Math.sin(angle) : -Math.sin(angle);
+        }
+        for (int size = 2; size <= n; size <<= 1) {
+            final int half = size >> 1, step = n / size;
+            for (int start = 0; start < n; start += size) {
+                for (int k = 0; k < half; k++) {
+                    final double wr = cos[k * step], wi = sin[k * step];
+                    final int a = start + k, b = a + half;
+                    final double tr = re[b] * wr - im[b] * wi;
+                    final double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the degree of this polynomial, -1 for the zero polynomial
+     */
+    public int degree() {
+        return coefficients.length - 1;
+    }
+
+    /**
+     * @param k a power, >= 0
+     * @return the coefficient of x^k
+     */
+    public double coefficient(int k) {
+        return k < coefficients.length ? coefficients[k] : 0;
+    }
+
+    /**
+     * @return the name of the variable, or null if this polynomial is constant
+     */
+    public String variable() {
+        return slot < 0 ? null : VariableBinding.name(slot);
+    }
+
+    /**
+     * @param that a polynomial in the same variable, or a constant
+     * @return this + that
+     * @throws IllegalArgumentException if this and that are in different variables
+     */
+    public DensePolynomial add(DensePolynomial that) {
+        return new DensePolynomial(commonSlot(that), add(this.coefficients, that.coefficients, false));
+    }
+
+    /**
+     * @param that a polynomial in the same variable, or a constant
+     * @return this * that
+     * @throws IllegalArgumentException if this and that are in different variables
+     */
+    public DensePolynomial multiply(DensePolynomial that) {
+        return new DensePolynomial(commonSlot(that), multiply(this.coefficients, that.coefficients, false));
+    }
+
+    private int commonSlot(DensePolynomial that) {
+        if (this.slot >= 0 && that.slot >= 0 && this.slot != that.slot) {
+            throw new IllegalArgumentException("different variables " + variable() + " and " + that.variable());
+        }
+        return Math.max(this.slot, that.slot);
+    }
+
+    /**
+     * @return the derivative of this polynomial, in one pass over the coefficients
+     */
+    public DensePolynomial derivative() {
+        if (coefficients.length <= 1) {
+            return new DensePolynomial(-1, new double[0]);
+        }
+        final double[] derivative = new double[coefficients.length - 1];
+        for (int k = 1; k < coefficients.length; k++) {
+            derivative[k - 1] = k * coefficients[k];
+        }
+        return new DensePolynomial(slot, derivative);
+    }
+
+    /**
+     * @param x a value of the variable
+     * @return the value of this polynomial at x, by Horner's rule
+     */
+    public double evaluate(double x) {
+        double value = 0;
+        for (int k = coefficients.length - 1; k >= 0; k--) {
+            value = value * x + coefficients[k];
+        }
+        return value;
+    }
+
+    /**
+     * @param points values of the variable
+     * @return the value of this polynomial at each point, computed for all of them at once
+     *         by MultipointEvaluator, as accurate as Horner's rule over these coefficients,
+     *         which is no accuracy at all where large coefficients cancel
+     */
+    public double[] evaluate(double[] points) {
+        return MultipointEvaluator.evaluate(coefficients, points);
+    }
+
+    /**
+     * @return this polynomial as an expression in canonical form (see Expression.canonical),
+     *         a sum of terms c*x^k
+     */
+    public Expression toExpression() {
+        if (coefficients.length == 0) {
+            return new Number(0);
+        }
+        final Expression x = slot < 0 ? null : new Variable(VariableBinding.name(slot));
+        Expression sum = null;
+        for (int k = coefficients.length - 1; k >= 0; k--) {
+            final double c = coefficients[k];
+            if (c == 0) {
+                continue;
+            }
+            final Expression power = k == 0 ? null : k == 1 ? x : new PowExpression(x, k);
+            final Expression term = power == null ? new Number(c)
+                    : c == 1 ? power : new BinOpExpression('*', new Number(c), power);
+            sum = sum == null ? term : new BinOpExpression('+', sum, term);
+        }
+        return CanonicalForm.of(sum);
+    }
+
+    /**
+     * @param thatObject any object
+     * @return true if and only if thatObject is a DensePolynomial in the same variable
+     *         with the same coefficients
+     */
+    @Override
+    public boolean equals(Object thatObject) {
+        if (!(thatObject instanceof DensePolynomial)) return false;
+        final DensePolynomial that = (DensePolynomial) thatObject;
+        return this.slot == that.slot && Arrays.equals(this.coefficients, that.coefficients);
+    }
+
+    /**
+     * @return hash code value consistent with equals()
+     */
+    @Override
+    public int hashCode() {
+        return 37 * slot + Arrays.hashCode(coefficients);
+    }
+
+    /**
+     * @return the canonical expression of this polynomial, as toExpression().toString()
+     */
+    @Override
+    public String toString() {
+        return toExpression().toString();
+    }
+}
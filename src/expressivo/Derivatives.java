@@ -0,0 +1,157 @@
+package expressivo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Derivatives computes higher-order and mixed partial derivatives of one expression,
+ * sharing intermediate results between requests.
+ *
+ * A partial derivative is identified by the multiset of variables it differentiates by:
+ * polynomials are smooth, so the order of differentiation does not matter and d2/dxdy
+ * is the same expression as d2/dydx. Each partial is built from the partial one order
+ * lower and then simplified (bound-free residual, see Specializer.residual) before the
+ * next step, so trees do not grow with the unsimplified derivative of a derivative.
+ * Every partial computed along the way is cached, keyed by how many times it
+ * differentiates by each variable, so a key is as long as the number of distinct
+ * variables and not the order: a Hessian reuses the gradient, and its symmetric entries
+ * are the same object. Once a partial is the constant 0, differentiating further is
+ * skipped, so the steps taken are bounded by the degree of the expression as well as by
+ * the limits' order.
+ */
+public class Derivatives {
+    private static final VariableBinding NO_BINDING = new VariableBinding();
+
+    private final Expression expression;
+    private final ExpressionLimits limits;
+    private final Map<String, Expression> cache = new HashMap<>();
+
+    // rep invariant:
+    //    expression != null, limits != null
+    //    cache maps the key of a partial to that partial: its variables in name order, each
+    //    with the number of times it is differentiated by, e.g. "x^2,y^1"
+    //    NO_BINDING is never modified
+    //
+    // All reps are private so no rep exposure risk.
+
+    /**
+     * @param expression the expression to differentiate
+     */
+    public Derivatives(Expression expression) {
+        this(expression, ExpressionLimits.UNLIMITED);
+    }
+
+    /**
+     * @param expression the expression to differentiate
+     * @param limits each differentiation step is checked against limits.checkDerivative
+     *        before it is built
+     */
+    public Derivatives(Expression expression, ExpressionLimits limits) {
+        this.expression = expression;
+        this.limits = limits;
+    }
+
+    /**
+     * @param vars the variables to differentiate by, in any order, each possibly repeated
+     * @return the simplified partial derivative of the expression by all of vars, or the
+     *         expression itself if vars is empty
+     * @throws ExpressionTooLargeException if there are more vars than the limits' order, or
+     *         a differentiation step exceeds the limits
+     */
+    public Expression partial(String... vars) {
+        limits.checkOrder(vars.length);
+        final TreeMap<String, Integer> counts = new TreeMap<>();
+        for (String var : vars) {
+            counts.merge(var, 1, Integer::sum);
+        }
+        return partial(counts);
+    }
+
+    /**
+     * @param var the variable to differentiate by
+     * @param order how many times to differentiate, >= 0
+     * @return the simplified order-th derivative of the expression by var
+     * @throws ExpressionTooLargeException if order is above the limits' order, or a
+     *         differentiation step exceeds the limits
+     */
+    public Expression derivative(String var, int order) {
+        if (order < 0) {
+            throw new IllegalArgumentException("order must be nonnegative");
+        }
+        limits.checkOrder(order);
+        final TreeMap<String, Integer> counts = new TreeMap<>();
+        if (order > 0) {
+            counts.put(var, order);
+        }
+        return partial(counts);
+    }
+
+    /**
+     * Differentiate by each variable of counts in name order, as many times as it counts,
+     * starting from the expression and resuming from every step that is already cached.
+     * Stops as soon as a partial is the constant 0, since all its derivatives are 0 too.
+     */
+    private synchronized Expression partial(SortedMap<String, Integer> counts) {
+        Expression result = expression;
+        final StringBuilder key = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            final String var = entry.getKey();
+            final int prefix = key.length();
+            for (int k = 1; k <= entry.getValue(); k++) {
+                key.setLength(prefix);
+                key.append(var).append('^').append(k);
+                final String step = key.toString();
+                final Expression known = cache.get(step);
+                if (known != null) {
+                    result = known;
+                } else {
+                    limits.checkDerivative(result, var);
+                    result = Specializer.residual(result.derivative(var), NO_BINDING);
+                    cache.put(step, result);
+                }
+                if (result.getValue() == 0) {
+                    return result;
+                }
+            }
+            key.append(',');
+        }
+        return result;
+    }
+
+    /**
+     * @param vars the variables of the gradient
+     * @return the simplified first partials of the expression by each of vars, in order
+     */
+    public Expression[] gradient(String... vars) {
+        final Expression[] gradient = new Expression[vars.length];
+        for (int i = 0; i < vars.length; i++) {
+            gradient[i] = partial(vars[i]);
+        }
+        return gradient;
+    }
+
+    /**
+     * @param vars the variables of the Hessian
+     * @return the matrix H with H[i][j] the simplified second partial of the expression by
+     *         vars[i] and vars[j]; H[i][j] and H[j][i] are the same object
+     */
+    public Expression[][] hessian(String... vars) {
+        final Expression[][] hessian = new Expression[vars.length][vars.length];
+        for (int i = 0; i < vars.length; i++) {
+            for (int j = 0; j <= i; j++) {
+                hessian[i][j] = partial(vars[i], vars[j]);
+                hessian[j][i] = hessian[i][j];
+            }
+        }
+        return hessian;
+    }
+
+    /**
+     * @return the number of partial derivatives computed and cached so far
+     */
+    public synchronized int cached() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,359 @@
+package expressivo;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Equivalence decides whether two expressions denote the same polynomial, without
+ * expanding them, by the Schwartz-Zippel lemma: a nonzero polynomial of total degree d
+ * vanishes at a point drawn uniformly from F_p^n with probability at most d/p. Both
+ * expressions are evaluated at random points modulo the prime p = 2^61 - 1 in exact long
+ * arithmetic; a point where they differ proves them different, and k points where they
+ * agree leave a chance of at most (d/p)^k that they differ after all. k is chosen from
+ * the degree bound of the expressions so that this chance is below the configured error
+ * probability; for all practical degrees one point is enough for an error of 1e-12.
+ *
+ * Constants enter by their shortest decimal representation, as in the exact domains of
+ * NumericDomain, so 0.1 + 0.2 is equivalent to 0.3. A constant a/b is mapped to
+ * a * b^-1 mod p, which is a ring homomorphism on the rationals whose denominators p does
+ * not divide, i.e. on every constant a double can spell. The bound above is for the
+ * polynomial with its coefficients reduced mod p; two polynomials whose coefficients
+ * differ only by multiples of p (which takes constants beyond 2^61) look equal here.
+ *
+ * Expansion into a sum of monomials with exact rational coefficients (SparsePolynomial)
+ * is the fallback, used only when it is asked for with exactlyEquivalent(); it is
+ * exponential in the worst case, where the evaluation is linear in the size of the
+ * expressions.
+ *
+ * For deduplicating many expressions, fingerprint() evaluates an expression at points
+ * fixed by the seed, so that fingerprints of equivalent expressions are equal and can be
+ * used as HashMap keys, each computed once per expression instead of once per pair. A
+ * coordinate of a point is derived from the seed and the variable's name alone, so
+ * fingerprints made with the same seed can also be compared across runs and processes.
+ *
+ * Equivalence is immutable.
+ */
+public final class Equivalence {
+
+    /** the prime modulus, 2^61 - 1 */
+    static final long P = (1L << 61) - 1;
+
+    /** the error probability of an Equivalence made without one */
+    public static final double DEFAULT_ERROR_PROBABILITY = 1e-12;
+
+    /** the degree assumed when choosing how many points a fingerprint has */
+    static final long FINGERPRINT_DEGREE = 1L << 20;
+
+    private final double errorProbability; // bound on the chance that different expressions compare equivalent
+    private final long seed;               // determines the evaluation points
+    private final int fingerprintPoints;   // number of points of a fingerprint
+
+    // rep invariant:
+    //    0 < errorProbability < 1
+    //    fingerprintPoints == points(FINGERPRINT_DEGREE) >= 1
+    //
+    // All reps are private and final so no rep exposure risk.
+
+    /**
+     * Make an equivalence check with the default error probability and fresh random points.
+     */
+    public Equivalence() {
+        this(DEFAULT_ERROR_PROBABILITY);
+    }
+
+    /**
+     * @param errorProbability bound on the probability that two different expressions are
+     *        reported equivalent, 0 < errorProbability < 1
+     */
+    public Equivalence(double errorProbability) {
+        this(errorProbability, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * @param errorProbability bound on the probability that two different expressions are
+     *        reported equivalent, 0 < errorProbability < 1
+     * @param seed determines the evaluation points. The bound holds for expressions chosen
+     *        without knowledge of the seed; equal seeds give comparable fingerprints.
+     */
+    public Equivalence(double errorProbability, long seed) {
+        if (!(errorProbability > 0 && errorProbability < 1)) {
+            throw new IllegalArgumentException("error probability must be in (0, 1): " + errorProbability);
+        }
+        this.errorProbability = errorProbability;
+        this.seed = seed;
+        this.fingerprintPoints = points(FINGERPRINT_DEGREE);
+    }
+
+    /**
+     * @return the bound on the probability that two different expressions are reported equivalent
+     */
+    public double errorProbability() {
+        return errorProbability;
+    }
+
+    /**
+     * @param a an expression
+     * @param b an expression
+     * @return false if a and b are certainly different polynomials; true if they agree at
+     *         enough random points that they are the same polynomial except with
+     *         probability at most errorProbability()
+     * @throws IllegalArgumentException if the degree bound of a or b is so high (p or more)
+     *         that no number of points gives the error probability
+     */
+    public boolean equivalent(Expression a, Expression b) {
+        final int points = points(Math.max(degree(a), degree(b)));
+        if (points < 0) {
+            throw new IllegalArgumentException("degree too high to compare by evaluation");
+        }
+        return agree(a, b, points);
+    }
+
+    /**
+     * Decide equivalence exactly. The expressions are first compared at random points,
+     * which settles the common case that they differ; only if they agree everywhere tried
+     * are both expanded into sums of monomials with exact coefficients and compared.
+     * @param a an expression
+     * @param b an expression
+     * @return true if and only if a and b are the same polynomial, with constants taken by
+     *         their shortest decimal representation
+     * @throws ArithmeticException if an exponent of the expansion overflows an int
+     */
+    public boolean exactlyEquivalent(Expression a, Expression b) {
+        // a point where they differ is proof even when the degree is too high for a bound
+        final int points = Math.max(1, points(Math.max(degree(a), degree(b))));
+        if (!agree(a, b, points)) {
+            return false;
+        }
+        return SparsePolynomial.of(a).equals(SparsePolynomial.of(b));
+    }
+
+    private boolean agree(Expression a, Expression b, int points) {
+        for (int point = 0; point < points; point++) {
+            if (residue(a, point) != residue(b, point)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param expression an expression
+     * @return the values of expression at points fixed by the seed of this equivalence,
+     *         the same in every process; fingerprints of equivalent expressions are equal, and fingerprints of two
+     *         different expressions with degree bounds up to 2^20 are equal with
+     *         probability at most errorProbability()
+     */
+    public Fingerprint fingerprint(Expression expression) {
+        final long[] values = new long[fingerprintPoints];
+        for (int point = 0; point < values.length; point++) {
+            values[point] = residue(expression, point);
+        }
+        return new Fingerprint(seed, values);
+    }
+
+    /**
+     * @param degree a bound on the total degree of the difference of two expressions
+     * @return the number of points at which they must agree for the error probability,
+     *         or -1 if degree >= p, when agreeing at any number of points proves nothing
+     */
+    int points(long degree) {
+        if (degree >= P) {
+            return -1;
+        } else if (degree == 0) {
+            // both constant: their difference is evaluated exactly mod p
+            return 1;
+        }
+        final double miss = (double) degree / P; // chance that one point misses a difference
+        return Math.max(1, (int) Math.ceil(Math.log(errorProbability) / Math.log(miss)));
+    }
+
+    /**
+     * @param e an expression
+     * @return a bound on the total degree of e as a polynomial, saturated at Long.MAX_VALUE
+     */
+    static long degree(Expression e) {
+        if (e instanceof StoredExpression) {
+            e = ((StoredExpression) e).node();
+        }
+        if (e instanceof Number) {
+            return 0;
+        } else if (e instanceof Variable) {
+            return 1;
+        } else if (e instanceof PowExpression) {
+            final PowExpression pow = (PowExpression) e;
+            final int n = pow.getExponent();
+            if (n == 0) {
+                return 0;
+            }
+            final long base = degree(pow.getBase());
+            return base != 0 && base > Long.MAX_VALUE / n ? Long.MAX_VALUE : base * n;
+        }
+        // the left chain iteratively, bottom up, see BinOpExpression.chain()
+        final BinOpExpression binOp = (BinOpExpression) e;
+        final BinOpExpression[] below = binOp.chain();
+        long x = degree(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft());
+        for (int i = below.length; i >= 0; i--) {
+            final long y = degree((i == 0 ? binOp : below[i - 1]).getRight());
+            if (binOp.getOp() == '+') {
+                x = Math.max(x, y);
+            } else {
+                final long sum = x + y;
+                x = sum < 0 ? Long.MAX_VALUE : sum;
+            }
+        }
+        return x;
+    }
+
+    /**
+     * @param e an expression
+     * @param point index of the evaluation point
+     * @return the value of e mod p at the point
+     */
+    private long residue(Expression e, int point) {
+        if (e instanceof StoredExpression) {
+            e = ((StoredExpression) e).node();
+        }
+        if (e instanceof Number) {
+            return residue(e.getValue());
+        } else if (e instanceof Variable) {
+            return coordinate(point, e.getContents());
+        } else if (e instanceof PowExpression) {
+            final PowExpression pow = (PowExpression) e;
+            return power(residue(pow.getBase(), point), pow.getExponent());
+        }
+        // the left chain iteratively, bottom up, see BinOpExpression.chain()
+        final BinOpExpression binOp = (BinOpExpression) e;
+        final BinOpExpression[] below = binOp.chain();
+        long x = residue(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft(), point);
+        for (int i = below.length; i >= 0; i--) {
+            final long y = residue((i == 0 ? binOp : below[i - 1]).getRight(), point);
+            x = binOp.getOp() == '+' ? add(x, y) : multiply(x, y);
+        }
+        return x;
+    }
+
+    /**
+     * @param point index of the evaluation point
+     * @param name a variable name
+     * @return the coordinate of the point for the variable name, uniform in [0, p) given
+     *         the seed; it depends only on the seed, the point and the name, not on the
+     *         slot the name was interned to, so it is the same in every process
+     */
+    private long coordinate(int point, String name) {
+        // SplitMix64 over (seed, point, 64-bit FNV-1a hash of name)
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash = (hash ^ name.charAt(i)) * 0x100000001B3L;
+        }
+        long z = seed + (hash + point) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = (z ^ (z >>> 31)) >>> 3;
+        return z == P ? 0 : z;
+    }
+
+    /**
+     * @param value a finite constant
+     * @return value mod p, with value taken by its shortest decimal representation
+     */
+    static long residue(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 0x1p53) {
+            final long n = (long) value;
+            return n < 0 ? n + P : n;
+        }
+        final Rational r = Rational.valueOf(value);
+        final BigInteger p = BigInteger.valueOf(P);
+        return multiply(r.numerator().mod(p).longValue(), r.denominator().modInverse(p).longValue());
+    }
+
+    /**
+     * @return x + y mod p, for x, y in [0, p)
+     */
+    static long add(long x, long y) {
+        final long sum = x + y;
+        return sum >= P ? sum - P : sum;
+    }
+
+    /**
+     * @return x * y mod p, for x, y in [0, p)
+     */
+    static long multiply(long x, long y) {
+        // split into 30/31-bit halves so that no partial product overflows, and reduce
+        // with 2^61 = 1 mod p
+        final long xHigh = x >>> 31, xLow = x & 0x7FFFFFFFL;
+        final long yHigh = y >>> 31, yLow = y & 0x7FFFFFFFL;
+        final long middle = xLow * yHigh + xHigh * yLow;
+        final long product = ((xHigh * yHigh) << 1) + (middle >>> 30) + ((middle & 0x3FFFFFFFL) << 31) + xLow * yLow;
+        final long reduced = (product & P) + (product >>> 61);
+        return reduced >= P ? reduced - P : reduced;
+    }
+
+    /**
+     * @return x^n mod p by exponentiation by squaring, for x in [0, p) and n >= 0
+     */
+    static long power(long x, int n) {
+        long result = 1;
+        while (n != 0) {
+            if ((n & 1) != 0) {
+                result = multiply(result, x);
+            }
+            n >>>= 1;
+            if (n != 0) {
+                x = multiply(x, x);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The values of an expression at the points of one Equivalence, a key under which
+     * equivalent expressions collide.
+     */
+    public static final class Fingerprint {
+        private final long seed;     // the seed of the Equivalence that made this fingerprint
+        private final long[] values; // the value mod p at each point
+
+        // rep invariant:
+        //    every value is in [0, p)
+        //
+        // values is never exposed, so no rep exposure risk.
+
+        private Fingerprint(long seed, long[] values) {
+            this.seed = seed;
+            this.values = values;
+        }
+
+        /**
+         * @param thatObject any object
+         * @return true if and only if thatObject is a fingerprint made with the same seed,
+         *         of an expression with the same values
+         */
+        @Override
+        public boolean equals(Object thatObject) {
+            if (!(thatObject instanceof Fingerprint)) return false;
+            final Fingerprint that = (Fingerprint) thatObject;
+            return this.seed == that.seed && Arrays.equals(this.values, that.values);
+        }
+
+        /**
+         * @return hash code value consistent with equals()
+         */
+        @Override
+        public int hashCode() {
+            return Long.hashCode(values[0]);
+        }
+
+        /**
+         * @return the values in hexadecimal, e.g. "[1f3a...]"
+         */
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < values.length; i++) {
+                sb.append(i == 0 ? "" : " ").append(Long.toHexString(values[i]));
+            }
+            return sb.append(']').toString();
+        }
+    }
+}
@@ -16,7 +16,8 @@ root ::= sum;
 
 @skip whitespace {
     sum ::= product ( '+' product )*;
-	product ::= primitive ( '*' primitive )*;
+	product ::= power ( '*' power )*;
+	power ::= primitive ( '^' number )?;
 	primitive ::= number | variable | '(' sum ')';
 }
 
@@ -3,17 +3,16 @@ package expressivo;
 import java.io.File;
 import java.io.IOException;
 import java.lang.Exception;
+import java.nio.channels.WritableByteChannel;
 import java.util.Map;
 
 import expressivo.Number;
 import lib6005.parser.*;
 
-enum IntegerGrammar {ROOT, PRIMITIVE, SUM, PRODUCT, VARIABLE, NUMBER, WHITESPACE};
-
-
 /**
  * An immutable data type representing a polynomial expression of:
  *   + and *
+ *   ^ with a nonnegative integer exponent
  *   nonnegative integers and floating-point numbers
  *   variables (case-sensitive nonempty strings of letters)
  * 
@@ -22,7 +21,7 @@ enum IntegerGrammar {ROOT, PRIMITIVE, SUM, PRODUCT, VARIABLE, NUMBER, WHITESPACE
  * You may, however, add additional methods, or strengthen the specs of existing methods.
  * Declare concrete variants of Expression in their own Java source files.
  */
-public interface Expression {
+public interface Expression extends Comparable<Expression> {
     
     /**
      * @returns string representation of the Expression
@@ -34,6 +33,26 @@ public interface Expression {
      */
     abstract double getValue ();
     
+    /**
+     * @returns the number of nodes of the expression as a tree, where a subtree shared by
+     *          several parents counts once per parent. Computed when the expression is
+     *          constructed, so this is O(1). Saturates at Long.MAX_VALUE.
+     */
+    abstract long size ();
+    
+    /**
+     * @returns the number of nodes on the longest path from the root to a leaf, 1 for a leaf.
+     *          Computed when the expression is constructed, so this is O(1).
+     */
+    abstract int depth ();
+    
+    /**
+     * @returns the set of variables that occur in the expression. Computed when the expression
+     *          is constructed from the sets of its operands, so this is O(1), except for a stored
+     *          view, which scans its records.
+     */
+    abstract VariableSet variables ();
+    
     /**
      * @param String var - differentiate the expression with respect to the variable var.
      * @returns an expression tree for the derivative of this expression with the following format:
@@ -42,12 +61,47 @@ public interface Expression {
      *    dx/dx = 1
      *    d(u+v)/dx = du/dx + dv/dx
      *    d(u*v)/dx = u*(dv/dx) + v*(du/dx)
+     *    d(u^n)/dx = n*u^(n-1)*(du/dx)
      *    
      *    where c is a constant or variable other than the variable we are differentiating with respect to 
      *    (in this case x), and u and v can be anything, including x.
+     *
+     *    and any subexpression in which x does not occur is a constant c: its derivative is
+     *    the number 0, returned without descending into it.
      */
     abstract Expression derivative (String var);
     
+    /**
+     * @param String var - differentiate the expression with respect to the variable var.
+     * @param int order - how many times to differentiate, >= 0
+     * @returns the order-th derivative of this expression with respect to var, simplified
+     *          after every step (see Derivatives), or this expression if order is 0
+     */
+    default Expression derivative (String var, int order) {
+        return new Derivatives(this).derivative(var, order);
+    }
+    
+    /**
+     * @param String... vars - the variables to differentiate by, in any order, each possibly repeated
+     * @returns the mixed partial derivative of this expression by all of vars, e.g. d2/dxdy
+     *          for partial("x", "y"), simplified after every step (see Derivatives)
+     */
+    default Expression partial (String... vars) {
+        return new Derivatives(this).partial(vars);
+    }
+    
+    /**
+     * Differentiate, polling token once per node visited.
+     * @param String var - differentiate the expression with respect to the variable var.
+     * @param CancellationToken token - abandons the operation when cancelled or expired
+     * @returns the same expression tree as derivative(var)
+     * @throws java.util.concurrent.CancellationException if token is cancelled or expires before the derivative is built
+     */
+    default Expression derivative (String var, CancellationToken token) {
+        token.checkpoint();
+        return derivative(var);
+    }
+    
     /**
      * @param environment maps variables to values.  Variables are required to be case-sensitive nonempty 
      *         strings of letters.  The set of variables in environment is allowed to be different than the 
@@ -55,7 +109,118 @@ public interface Expression {
      * @returns the value for the expression after being evaluated.
      * 
      */
-    abstract Expression simplify (Map<String,Double> environment);
+    default Expression simplify (Map<String,Double> environment) {
+        // fromMap binds only interned names; a stored view interns its names when its
+        // variables are scanned, which an in-memory tree has done already
+        variables();
+        return simplify(VariableBinding.fromMap(environment));
+    }
+    
+    /**
+     * @param binding assigns values to variables. The set of bound variables is allowed to be different 
+     *         than the set of variables actually found in expression.  Values must be nonnegative numbers.
+     * @returns the value for the expression after being evaluated, as for simplify(Map), but without
+     *          boxing values or hashing variable names. Every subexpression in which nothing was
+     *          substituted or folded is returned as the same instance, so the result shares all
+     *          unchanged subtrees with this expression, and is this expression itself if nothing
+     *          changed at all.
+     * 
+     */
+    abstract Expression simplify (VariableBinding binding);
+    
+    /**
+     * Simplify, polling token once per node visited.
+     * @param binding assigns values to variables, as for simplify(VariableBinding)
+     * @param CancellationToken token - abandons the operation when cancelled or expired
+     * @returns the same expression as simplify(binding)
+     * @throws java.util.concurrent.CancellationException if token is cancelled or expires before simplification finishes
+     */
+    default Expression simplify (VariableBinding binding, CancellationToken token) {
+        token.checkpoint();
+        return simplify(binding);
+    }
+    
+    /**
+     * Evaluate the expression to a number. Unlike simplify, this builds no intermediate
+     * expressions, so evaluating an in-memory tree allocates nothing.
+     * @param binding assigns values to variables. Every variable in the expression is expected 
+     *         to be bound; see VariableBinding.setFailOnUnbound for what happens otherwise.
+     * @returns the value of the expression under binding, or NaN if a variable is unbound and
+     *          binding evaluates unbound variables as NaN.
+     * @throws IllegalArgumentException if a variable is unbound and binding fails on unbound variables
+     */
+    abstract double evaluate (VariableBinding binding);
+    
+    /**
+     * Evaluate, polling token once per node visited.
+     * @param binding assigns values to variables, as for evaluate(VariableBinding)
+     * @param CancellationToken token - abandons the operation when cancelled or expired
+     * @returns the same value as evaluate(binding)
+     * @throws java.util.concurrent.CancellationException if token is cancelled or expires before evaluation finishes
+     */
+    default double evaluate (VariableBinding binding, CancellationToken token) {
+        token.checkpoint();
+        return evaluate(binding);
+    }
+    
+    /**
+     * Evaluate an expression in one variable at many values of it. The expression is
+     * compiled once (see CompiledExpression) and its program run over blocks of points,
+     * which for many points is much faster than evaluate(binding) per point and gives
+     * exactly the same values. The expression is not converted to its coefficients, whose
+     * evaluation can be wrong in every digit: (x+1)^60 at x = -2 is 1, but its expanded
+     * coefficients are up to 1e17 and cancel.
+     * @param points values of the variable
+     * @returns the value of the expression at each point
+     * @throws IllegalArgumentException if more than one variable occurs in the expression
+     */
+    default double[] evaluate (double[] points) {
+        final VariableSet variables = variables();
+        if (variables.size() > 1) {
+            throw new IllegalArgumentException("not univariate, has variables " + variables);
+        }
+        return CompiledExpression.compile(this).evaluate(new VariableBinding(), variables.first(), points);
+    }
+
+    /**
+     * Bound the value of the expression over a box of variable values, by interval
+     * arithmetic with outward rounding; see CompiledExpression.bound, which to bound the
+     * same expression over many boxes does so without compiling it again and without
+     * allocating.
+     * @param lower assigns each variable the low end of its range, as for evaluate(VariableBinding)
+     * @param upper assigns each variable the high end of its range, at least its low end
+     * @returns { lo, hi } such that every value of the expression, in exact arithmetic, at a
+     *          point with every variable within its range is in [lo, hi]
+     * @throws IllegalArgumentException if a variable is unbound and its binding fails on
+     *         unbound variables, or a variable's low end is above its high end
+     */
+    default double[] bound (VariableBinding lower, VariableBinding upper) {
+        final double[] range = new double[2];
+        CompiledExpression.compile(this).bound(lower, upper, range);
+        return range;
+    }
+
+    /**
+     * Evaluate the expression in a numeric domain other than double.
+     * @param binding assigns values to variables, as for evaluate(VariableBinding)
+     * @param NumericDomain<T> domain - the arithmetic to compute in, e.g. NumericDomain.RATIONAL
+     * @returns the value of the expression under binding, computed in domain
+     * @throws IllegalArgumentException if a variable is unbound, as for evaluate(VariableBinding)
+     */
+    default <T> T evaluate (VariableBinding binding, NumericDomain<T> domain) {
+        return domain.evaluate(this, binding);
+    }
+
+    /**
+     * Simplify, folding constant subtrees in a numeric domain other than double.
+     * @param binding assigns values to variables, as for simplify(VariableBinding)
+     * @param NumericDomain<?> domain - the arithmetic constants are folded in
+     * @returns the same expression as simplify(binding), except that each folded constant is
+     *          computed in domain and rounded to a double once
+     */
+    default Expression simplify (VariableBinding binding, NumericDomain<?> domain) {
+        return domain.simplify(this, binding);
+    }
       
     /**
      * @return the expression in fully parenthesized form
@@ -126,9 +291,9 @@ public interface Expression {
         case NUMBER:
             /*
              * A number will be a terminal containing a number.
-             * grammar: [0-9]+('.' [0-9]*)?;
+             * grammar: [0-9]+('.' [0-9]*)? | '.' [0-9]+;
              */
-            return new Number (Double.parseDouble(p.getContents()));
+            return new Number (NumberParser.parse(p.getContents()));
         case VARIABLE:
             /*
              * A variable will be a terminal containing a variable string.
@@ -195,13 +360,13 @@ public interface Expression {
         case PRODUCT:
             /*
              * A product will have one or more children that need to be multiplied together.
-             * Note that we only care about the children that are primitive. There may also be 
+             * Note that we only care about the children that are powers. There may also be 
              * some whitespace children which we want to ignore.
-             * grammar: product ::= primitive ('*' primitive)*
+             * grammar: product ::= power ('*' power)*
              */
             firstProduct = true;
             result = null;
-            for(ParseTree<IntegerGrammar> child : p.childrenByName(IntegerGrammar.PRIMITIVE)){      
+            for(ParseTree<IntegerGrammar> child : p.childrenByName(IntegerGrammar.POWER)){      
                 if(firstProduct){
                     result = buildAST(child);
                     firstProduct = false;
@@ -213,6 +378,18 @@ public interface Expression {
                 throw new RuntimeException("product must have a non whitespace child:" + p);
             }
             return result;
+        case POWER:
+            /*
+             * A power will have a primitive child, optionally followed by a number child that
+             * is its exponent, which must be a nonnegative integer.
+             * grammar: power ::= primitive ('^' number)?
+             */
+            result = buildAST(p.childrenByName(IntegerGrammar.PRIMITIVE).get(0));
+            if (!p.childrenByName(IntegerGrammar.NUMBER).isEmpty()) {
+                result = new PowExpression(result,
+                        PowExpression.parseExponent(p.childrenByName(IntegerGrammar.NUMBER).get(0).getContents()));
+            }
+            return result;
         case ROOT:
             /*
              * The root has a single sum child, in addition to having potentially some whitespace.
@@ -240,6 +417,8 @@ public interface Expression {
      */
     public static Expression parse(String input) throws IllegalArgumentException {
         Expression ast = null;
+        final boolean timed = Metrics.isEnabled();
+        final long start = timed ? System.nanoTime() : 0;
         
         try {
             // build a Parser first
@@ -276,15 +455,90 @@ public interface Expression {
             throw new IllegalArgumentException("parser error!");
         }
         
+        if (timed) {
+            Metrics.PARSE.record(System.nanoTime() - start, input.length(), ast.size());
+        }
         return ast;
     }
     
+    /**
+     * Parse an expression, optionally rewriting repeated factors as powers.
+     * @param input expression to parse, as defined in the PS1 handout.
+     * @param collapsePowers if true, repeated factors of every product are collected into
+     *        powers in the order of their first occurrence, so x*x*x parses as x^3 and x*y*x
+     *        as x^2*y; if false, the result is the same as parse(input)
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Expression parse(String input, boolean collapsePowers) throws IllegalArgumentException {
+        final Expression ast = parse(input);
+        return collapsePowers ? PowExpression.collapse(ast) : ast;
+    }
+    
+    /**
+     * @returns an expression equal in value to this one in which sums and products are
+     *          flattened, their operands sorted by compareTo, and constants, repeated factors
+     *          and repeated terms merged, so that expressions that differ only in how their
+     *          operands are ordered or grouped, such as x*y and y*x, have equal canonical
+     *          forms. See CanonicalForm for the rules; CanonicalKey wraps the canonical form
+     *          with its hash for use as a map key.
+     */
+    default Expression canonical () {
+        return CanonicalForm.of(this);
+    }
+    
+    /**
+     * @returns this expression multiplied out into a sum of products, in canonical form:
+     *          its terms are distinct monomials with exact coefficients, each rounded to a
+     *          double once. See SparsePolynomial; expressions in one variable with integer
+     *          constants and a high enough degree take the equivalent dense path of
+     *          DensePolynomial.
+     * @throws ArithmeticException if an exponent of the expansion overflows an int
+     */
+    default Expression expand () {
+        final DensePolynomial dense = DensePolynomial.exactly(this);
+        return dense != null ? dense.toExpression() : SparsePolynomial.of(this).toExpression();
+    }
+    
+    /**
+     * A total order on expressions, consistent with equals: numbers by value, then
+     * variables by name, then products, then sums, operations by size and then by operands
+     * from left to right; a power u^n sorts right after u, by n.
+     * @param that any expression
+     * @returns a negative number, zero or a positive number as this expression is less than,
+     *          structurally equal to, or greater than that
+     */
+    @Override
+    default int compareTo (Expression that) {
+        return CanonicalForm.compare(this, that);
+    }
+    
     /**
      * @return a parsable representation of this expression, such that
      * for all e:Expression, e.equals(Expression.parse(e.toString())).
      */
     @Override 
     public String toString();
+    
+    /**
+     * Write the parsable representation of this expression, the same text as toString(),
+     * piece by piece without ever building it as a whole.
+     * @param out where to write
+     * @throws IOException if out throws it
+     */
+    default void writeTo(Appendable out) throws IOException {
+        ExpressionWriter.write(this, out);
+    }
+    
+    /**
+     * Write the parsable representation of this expression, the same text as toString(),
+     * as ASCII bytes through a fixed-size buffer.
+     * @param channel where to write; not closed by this method
+     * @throws IOException if writing to channel fails
+     */
+    default void writeTo(WritableByteChannel channel) throws IOException {
+        ExpressionWriter.write(this, channel);
+    }
 
     /**
      * @param thatObject any object
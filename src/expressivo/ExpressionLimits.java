@@ -0,0 +1,212 @@
+package expressivo;
+
+/**
+ * ExpressionLimits are admission limits for the commands: maximum input length, maximum
+ * number of nodes and depth of a parsed expression, maximum number of nodes of a
+ * derivative, and maximum order of a repeated derivative. Each check runs before the work it guards, using the node counts that
+ * expressions compute during construction, and throws ExpressionTooLargeException.
+ *
+ * ExpressionLimits is immutable.
+ */
+public class ExpressionLimits {
+
+    /** the maximum derivative order of DEFAULT, and of limits made without one */
+    public static final int DEFAULT_MAX_ORDER = 1000;
+
+    /** no limits at all */
+    public static final ExpressionLimits UNLIMITED =
+            new ExpressionLimits(Integer.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+
+    /**
+     * limits that admit any reasonable interactive input. The walkers over the tree
+     * (evaluate, simplify, derivative, canonical, compile, expand) take a left chain of one
+     * operator, such as the flat sum the parser builds for x + x + ... + x, iteratively and
+     * recurse once per other level; at about 2000 such levels parsing overflows the default
+     * 1 MB thread stack before the JIT has compiled it, and the depth limit keeps to half of
+     * that. Depth is therefore measured with each left chain counted as one level, see
+     * BinOpExpression.nestingOf.
+     */
+    public static final ExpressionLimits DEFAULT =
+            new ExpressionLimits(1000000, 1000000, 1000, 10000000, DEFAULT_MAX_ORDER);
+
+    private static volatile ExpressionLimits defaults = DEFAULT;
+
+    private final int maxInputLength;       // characters of an input expression
+    private final long maxNodes;            // nodes of a parsed expression
+    private final int maxDepth;             // depth of a parsed expression, left chains counted once
+    private final long maxDerivativeNodes;  // nodes of a derivative
+    private final int maxOrder;             // order of a repeated derivative
+
+    // rep invariant:
+    //    all maxima > 0
+    //
+    // All reps are private and final so no rep exposure risk.
+
+    /**
+     * @param maxInputLength maximum number of characters of an input expression
+     * @param maxNodes maximum number of nodes of a parsed expression
+     * @param maxDepth maximum depth of a parsed expression, also bounding parenthesis nesting in the input
+     * @param maxDerivativeNodes maximum number of nodes of a derivative
+     */
+    public ExpressionLimits(int maxInputLength, long maxNodes, int maxDepth, long maxDerivativeNodes) {
+        this(maxInputLength, maxNodes, maxDepth, maxDerivativeNodes, DEFAULT_MAX_ORDER);
+    }
+
+    /**
+     * @param maxInputLength maximum number of characters of an input expression
+     * @param maxNodes maximum number of nodes of a parsed expression
+     * @param maxDepth maximum depth of a parsed expression, also bounding parenthesis nesting in the input
+     * @param maxDerivativeNodes maximum number of nodes of a derivative
+     * @param maxOrder maximum total order of a repeated or mixed partial derivative
+     */
+    public ExpressionLimits(int maxInputLength, long maxNodes, int maxDepth, long maxDerivativeNodes, int maxOrder) {
+        if (maxInputLength <= 0 || maxNodes <= 0 || maxDepth <= 0 || maxDerivativeNodes <= 0 || maxOrder <= 0) {
+            throw new IllegalArgumentException("limits must be positive");
+        }
+        this.maxInputLength = maxInputLength;
+        this.maxNodes = maxNodes;
+        this.maxDepth = maxDepth;
+        this.maxDerivativeNodes = maxDerivativeNodes;
+        this.maxOrder = maxOrder;
+    }
+
+    /**
+     * @return the maximum depth of a parsed expression, with each left chain of one operator
+     *         counted as one level
+     */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return the limits used by Commands methods that do not take explicit limits
+     */
+    public static ExpressionLimits getDefault() {
+        return defaults;
+    }
+
+    /**
+     * @param limits the limits to use for Commands methods that do not take explicit limits
+     */
+    public static void setDefault(ExpressionLimits limits) {
+        if (limits == null) {
+            throw new IllegalArgumentException("limits must not be null");
+        }
+        defaults = limits;
+    }
+
+    /**
+     * Check an input before parsing it: its length, and its parenthesis nesting, which
+     * bounds how deep the parser has to recurse.
+     * @param input an expression to be parsed
+     * @throws ExpressionTooLargeException if input is too long or too deeply nested
+     */
+    public void checkInput(String input) {
+        if (input.length() > maxInputLength) {
+            throw new ExpressionTooLargeException("input length", input.length(), maxInputLength);
+        }
+        int nesting = 0;
+        for (int i = 0; i < input.length(); i++) {
+            final char c = input.charAt(i);
+            if (c == '(') {
+                if (++nesting > maxDepth) {
+                    throw new ExpressionTooLargeException("nesting depth", nesting, maxDepth);
+                }
+            } else if (c == ')') {
+                nesting--;
+            }
+        }
+    }
+
+    /**
+     * @param expression a parsed expression
+     * @throws ExpressionTooLargeException if expression has too many nodes or is too deep
+     */
+    public void checkExpression(Expression expression) {
+        if (expression.size() > maxNodes) {
+            throw new ExpressionTooLargeException("nodes", expression.size(), maxNodes);
+        }
+        final int depth = BinOpExpression.nestingOf(expression);
+        if (depth > maxDepth) {
+            throw new ExpressionTooLargeException("depth", depth, maxDepth);
+        }
+    }
+
+    /**
+     * Check the order of a derivative before differentiating at all.
+     * @param order the total number of differentiation steps asked for
+     * @throws ExpressionTooLargeException if order is above the limit
+     */
+    public void checkOrder(long order) {
+        if (order > maxOrder) {
+            throw new ExpressionTooLargeException("derivative order", order, maxOrder);
+        }
+    }
+
+    /**
+     * Check the size of a derivative before building it.
+     * @param expression the expression to differentiate
+     * @param var the variable to differentiate by
+     * @throws ExpressionTooLargeException if expression.derivative(var) would have too many nodes
+     */
+    public void checkDerivative(Expression expression, String var) {
+        final long nodes = derivativeSize(expression, var);
+        if (nodes > maxDerivativeNodes) {
+            throw new ExpressionTooLargeException("derivative nodes", nodes, maxDerivativeNodes);
+        }
+    }
+
+    /**
+     * @return expression.derivative(var).size(), computed without building the derivative
+     */
+    static long derivativeSize(Expression expression, String var) {
+        if (expression instanceof StoredExpression) {
+            expression = ((StoredExpression) expression).node();
+        }
+        // variables() first: for a stored operand, scanning its records interns their names
+        final VariableSet variables = expression.variables();
+        final int slot = VariableBinding.slotIfInterned(var);
+        if (slot < 0 || !variables.contains(slot)) {
+            // var does not occur: the derivative is the number 0
+            return 1;
+        }
+        if (expression instanceof PowExpression) {
+            final PowExpression pow = (PowExpression) expression;
+            final Expression u = pow.getBase();
+            switch (pow.getExponent()) {
+                case 0:
+                    return 1;
+                case 1:
+                    return derivativeSize(u, var);
+                default:
+                    // n * u^(n-1) * du, with u^1 written as u
+                    final long lower = pow.getExponent() == 2 ? u.size() : PowExpression.sizeOf(u.size());
+                    return BinOpExpression.sizeOf(BinOpExpression.sizeOf(1, lower), derivativeSize(u, var));
+            }
+        }
+        if (!(expression instanceof BinOpExpression)) {
+            return 1;
+        }
+        // the left chain iteratively, the way BinOpExpression.derivative takes it
+        final BinOpExpression binOp = (BinOpExpression) expression;
+        final BinOpExpression[] below = binOp.chain();
+        int depends = 1;
+        while (depends <= below.length && below[depends - 1].variables().contains(slot)) {
+            depends++;
+        }
+        long d = depends > below.length ? derivativeSize(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft(), var) : 1;
+        for (int i = depends - 1; i >= 0; i--) {
+            final BinOpExpression node = i == 0 ? binOp : below[i - 1];
+            final long dr = derivativeSize(node.getRight(), var);
+            if (binOp.getOp() == '+') {
+                // dl + dr
+                d = BinOpExpression.sizeOf(d, dr);
+            } else {
+                // l*dr + r*dl
+                d = BinOpExpression.sizeOf(BinOpExpression.sizeOf(node.getLeft().size(), dr),
+                                           BinOpExpression.sizeOf(node.getRight().size(), d));
+            }
+        }
+        return d;
+    }
+}
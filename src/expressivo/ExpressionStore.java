@@ -0,0 +1,318 @@
+package expressivo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ExpressionStore is an append-only file of serialized expressions, read back through a
+ * memory mapping. Each appended expression gets a dense integer id (0, 1, 2, ...) and is
+ * also indexed by its structural hash (Expression.hashCode()), so a library of expressions
+ * can be searched without keeping their object graphs on the heap.
+ *
+ * Expressions returned by get() are StoredExpression views that decode nodes lazily from
+ * the mapping.
+ *
+ * File layout (all integers big-endian):
+ *   header: magic (8 bytes), format version (4 bytes)
+ *   entry:  payload length (4 bytes), structural hash (4 bytes), payload
+ *   payload is the root node record, followed by the records of its subtree in preorder:
+ *     'N' value (8 byte double)
+ *     'V' name length (2 bytes) name (ASCII letters)
+ *     '+' or '*' offset of right operand record from this record (4 bytes), size (8 bytes), depth (4 bytes),
+ *             left record, right record
+ *     '^' exponent (4 bytes), size (8 bytes), depth (4 bytes), base record
+ *   where size and depth are those of Expression.size() and depth(), so views answer them without decoding
+ *
+ * A partially written entry at the end of the file (e.g. after a crash) is discarded on open.
+ * The mapping is limited to 2GB, so appends beyond that fail with an IOException.
+ */
+public class ExpressionStore implements Closeable {
+    static final byte TAG_NUMBER = 'N';
+    static final byte TAG_VARIABLE = 'V';
+    static final byte TAG_PLUS = '+';
+    static final byte TAG_TIMES = '*';
+    static final byte TAG_POWER = '^';
+    static final int BINOP_HEADER_SIZE = 17; // tag, right offset or exponent, size, depth
+
+    private static final long MAGIC = 0x4558505253544f52L; // "EXPRSTOR"
+    private static final int VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 12;
+    private static final int ENTRY_HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    private ByteBuffer mapped;        // read-only mapping of [0, end), remapped after appends
+    private long end;                 // file offset where the next entry is appended
+    private int[] offsets = new int[16]; // offsets[id] is the file offset of entry id
+    private int count;                // number of entries in the store
+    private final Map<Integer, List<Integer>> idsByHash = new HashMap<>();
+
+    // rep invariant:
+    //    0 <= count <= offsets.length
+    //    offsets[0..count) are increasing and point at complete entries below end
+    //    every id in 0..count-1 appears in exactly one list of idsByHash, under its entry's hash
+    //    mapped == null or mapped is a mapping of a prefix of [0, end)
+    //
+    // All reps are private so no rep exposure risk.
+
+    /**
+     * Open a store, creating the file if it does not exist.
+     * @param file the file backing this store
+     * @throws IOException if the file cannot be read or is not an expression store
+     */
+    public ExpressionStore (File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                header.putLong(MAGIC).putInt(VERSION).flip();
+                writeFully(header, 0);
+                this.end = FILE_HEADER_SIZE;
+            } else {
+                load();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Rebuild the id and hash indexes by scanning the entry headers of an existing file.
+     */
+    private void load() throws IOException {
+        final long size = channel.size();
+        if (size < FILE_HEADER_SIZE || size > Integer.MAX_VALUE) {
+            throw new IOException("not an expression store");
+        }
+        final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (buffer.getLong(0) != MAGIC) {
+            throw new IOException("not an expression store");
+        }
+        if (buffer.getInt(8) != VERSION) {
+            throw new IOException("unsupported expression store version " + buffer.getInt(8));
+        }
+
+        int pos = FILE_HEADER_SIZE;
+        while (pos + ENTRY_HEADER_SIZE <= size) {
+            final int length = buffer.getInt(pos);
+            if (length <= 0 || pos + (long) ENTRY_HEADER_SIZE + length > size) {
+                break; // incomplete trailing entry
+            }
+            index(pos, buffer.getInt(pos + 4));
+            pos += ENTRY_HEADER_SIZE + length;
+        }
+        this.end = pos;
+        if (pos < size) {
+            // drop the torn entry; the old mapping would extend past the new end of file
+            channel.truncate(pos);
+        } else {
+            this.mapped = buffer;
+        }
+    }
+
+    /**
+     * Record a new entry in the in-memory indexes.
+     * @return the id of the new entry
+     */
+    private int index(int offset, int hash) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        final int id = count++;
+        offsets[id] = offset;
+        idsByHash.computeIfAbsent(hash, h -> new ArrayList<>(1)).add(id);
+        return id;
+    }
+
+    /**
+     * Append an expression to the store. The same expression may be appended more than once;
+     * use find() first to avoid duplicates.
+     * @param expression the expression to store
+     * @return the id of the new entry
+     * @throws IOException if the entry cannot be written or the store is full
+     */
+    public synchronized int append(Expression expression) throws IOException {
+        final Encoder encoder = new Encoder();
+        encoder.encode(expression);
+        final ByteBuffer payload = encoder.finish();
+        final int length = payload.remaining();
+        if (end + ENTRY_HEADER_SIZE + length > Integer.MAX_VALUE) {
+            throw new IOException("expression store is full");
+        }
+
+        final int hash = expression.hashCode();
+        final ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        header.putInt(length).putInt(hash).flip();
+        writeFully(header, end);
+        writeFully(payload, end + ENTRY_HEADER_SIZE);
+
+        final int id = index((int) end, hash);
+        end += ENTRY_HEADER_SIZE + length;
+        return id;
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    /**
+     * @return a mapping that covers every entry appended so far
+     */
+    private ByteBuffer buffer() throws IOException {
+        if (mapped == null || mapped.capacity() < end) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+        }
+        return mapped;
+    }
+
+    /**
+     * @return the number of expressions in the store
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @param id an id returned by append(), 0 <= id < size()
+     * @return a lazy view of the stored expression
+     * @throws IOException if the store cannot be mapped
+     */
+    public synchronized Expression get(int id) throws IOException {
+        checkId(id);
+        return new StoredExpression(buffer(), offsets[id] + ENTRY_HEADER_SIZE);
+    }
+
+    /**
+     * @param id an id returned by append(), 0 <= id < size()
+     * @return the structural hash recorded for that entry, equal to get(id).hashCode()
+     * @throws IOException if the store cannot be mapped
+     */
+    public synchronized int hashOf(int id) throws IOException {
+        checkId(id);
+        return buffer().getInt(offsets[id] + 4);
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= count) {
+            throw new IllegalArgumentException("no expression with id " + id);
+        }
+    }
+
+    /**
+     * @param hash a structural hash, as returned by Expression.hashCode()
+     * @return ids of all stored expressions with that hash, in increasing order
+     */
+    public synchronized List<Integer> idsWithHash(int hash) {
+        final List<Integer> ids = idsByHash.get(hash);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(ids));
+    }
+
+    /**
+     * @param expression an expression to look up
+     * @return the smallest id of a stored expression structurally equal to expression,
+     *         or -1 if there is none
+     * @throws IOException if the store cannot be mapped
+     */
+    public synchronized int find(Expression expression) throws IOException {
+        final List<Integer> ids = idsByHash.get(expression.hashCode());
+        if (ids != null) {
+            for (int id : ids) {
+                if (get(id).equals(expression)) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Close the underlying file. Views obtained from get() remain readable until the
+     * mapping is garbage collected.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        mapped = null;
+        channel.close();
+    }
+
+    /**
+     * Serializes an expression tree into the payload format described above.
+     */
+    private static final class Encoder {
+        private ByteBuffer out = ByteBuffer.allocate(256);
+
+        private void ensure(int bytes) {
+            if (out.remaining() < bytes) {
+                final ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+        }
+
+        void encode(Expression e) {
+            if (e instanceof StoredExpression) {
+                e = ((StoredExpression) e).node();
+            }
+            if (e instanceof Number) {
+                ensure(9);
+                out.put(TAG_NUMBER).putDouble(e.getValue());
+            } else if (e instanceof Variable) {
+                final String name = e.getContents();
+                if (name.length() > 0xFFFF) {
+                    throw new IllegalArgumentException("variable name too long to store");
+                }
+                ensure(3 + name.length());
+                out.put(TAG_VARIABLE).putShort((short) name.length());
+                for (int i = 0; i < name.length(); i++) {
+                    out.put((byte) name.charAt(i));
+                }
+            } else if (e instanceof BinOpExpression) {
+                // the left chain iteratively, see BinOpExpression.chain(): the headers top
+                // down, then the bottom, then each right operand once its left one is written
+                final BinOpExpression binOp = (BinOpExpression) e;
+                final BinOpExpression[] below = binOp.chain();
+                final int[] start = new int[below.length + 1];
+                for (int i = 0; i <= below.length; i++) {
+                    final BinOpExpression node = i == 0 ? binOp : below[i - 1];
+                    ensure(BINOP_HEADER_SIZE);
+                    start[i] = out.position();
+                    out.put((byte) node.getOp()).putInt(0).putLong(node.size()).putInt(node.depth());
+                }
+                encode(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft());
+                for (int i = below.length; i >= 0; i--) {
+                    out.putInt(start[i] + 1, out.position() - start[i]);
+                    encode((i == 0 ? binOp : below[i - 1]).getRight());
+                }
+            } else if (e instanceof PowExpression) {
+                final PowExpression pow = (PowExpression) e;
+                ensure(BINOP_HEADER_SIZE);
+                out.put(TAG_POWER).putInt(pow.getExponent()).putLong(pow.size()).putInt(pow.depth());
+                encode(pow.getBase());
+            } else {
+                throw new IllegalArgumentException("cannot store expression of type " + e.getClass().getName());
+            }
+        }
+
+        ByteBuffer finish() {
+            out.flip();
+            return out;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package expressivo;
+
+/**
+ * Thrown when an input or the result of an operation would exceed the configured
+ * ExpressionLimits. It is raised before the oversized work is done, instead of letting
+ * the operation run out of memory or stack.
+ *
+ * This is deliberately not an IllegalArgumentException: Commands treats those as invalid
+ * input, whereas an oversized request must be rejected, not echoed back.
+ */
+public class ExpressionTooLargeException extends RuntimeException {
+    private static final long serialVersionUID = 1;
+
+    private final String limit;  // which limit was exceeded
+    private final long actual;   // the size that was found or predicted
+    private final long maximum;  // the configured maximum
+
+    /**
+     * @param limit name of the limit that was exceeded
+     * @param actual the size that was found or predicted
+     * @param maximum the configured maximum
+     */
+    public ExpressionTooLargeException(String limit, long actual, long maximum) {
+        super(limit + " " + actual + " exceeds limit " + maximum);
+        this.limit = limit;
+        this.actual = actual;
+        this.maximum = maximum;
+    }
+
+    /**
+     * @return the name of the limit that was exceeded
+     */
+    public String getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the size that was found or predicted
+     */
+    public long getActual() {
+        return actual;
+    }
+
+    /**
+     * @return the configured maximum
+     */
+    public long getMaximum() {
+        return maximum;
+    }
+}
@@ -0,0 +1,215 @@
+package expressivo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * ExpressionWriter streams the text of an expression to an Appendable without building
+ * it as one String and without recursion, so trees of any size and depth can be
+ * rendered with memory proportional to the tree's depth. Pending work is kept on an
+ * explicit stack of subtrees still to be written and operator characters and exponents
+ * still to be emitted, in the order they appear in the output.
+ *
+ * Two formats are supported:
+ *   parsable - the format of toString(): sums parenthesized, products not, the base of a
+ *              power parenthesized unless it is a leaf or a sum, numbers written as
+ *              BigDecimal.toPlainString would
+ *   contents - the format of getContents(): every operation parenthesized, numbers
+ *              written as Double.toString would, exponents as integers
+ */
+class ExpressionWriter {
+    private static final int CHANNEL_BUFFER_SIZE = 8192;
+
+    private final Appendable out;
+    private final boolean contents;            // contents format rather than parsable format
+    private final StringBuilder number = new StringBuilder(24);
+    private Object[] stack = new Object[64];   // Expressions to write, Characters and Strings to emit
+    private int top = 0;
+
+    // rep invariant:
+    //    stack[0..top) holds only Expression, Character and String elements
+    //
+    // All reps are private so no rep exposure risk.
+
+    private ExpressionWriter(Appendable out, boolean contents) {
+        this.out = out;
+        this.contents = contents;
+    }
+
+    /**
+     * Write the parsable representation of expression, the same text as expression.toString().
+     * @param Expression expression - the expression to write
+     * @param Appendable out - where to write
+     * @throws IOException if out throws it
+     */
+    static void write(Expression expression, Appendable out) throws IOException {
+        new ExpressionWriter(out, false).run(expression);
+    }
+
+    /**
+     * Write the parsable representation of expression as ASCII bytes, the same text as
+     * expression.toString(), buffering the output in fixed-size chunks.
+     * @param Expression expression - the expression to write
+     * @param WritableByteChannel channel - where to write; not closed by this method
+     * @throws IOException if writing to channel fails
+     */
+    static void write(Expression expression, WritableByteChannel channel) throws IOException {
+        final ChannelAppendable out = new ChannelAppendable(channel);
+        write(expression, out);
+        out.flush();
+    }
+
+    /**
+     * @param Expression expression - the expression to render
+     * @returns expression.toString(), built without recursion
+     */
+    static String toParsableString(Expression expression) {
+        return render(expression, false);
+    }
+
+    /**
+     * @param Expression expression - the expression to render
+     * @returns expression.getContents(), built without recursion
+     */
+    static String toContentsString(Expression expression) {
+        return render(expression, true);
+    }
+
+    private static String render(Expression expression, boolean contents) {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            new ExpressionWriter(sb, contents).run(expression);
+        } catch (IOException ioe) {
+            // a StringBuilder never throws
+            throw new UncheckedIOException(ioe);
+        }
+        return sb.toString();
+    }
+
+    private void run(Expression root) throws IOException {
+        push(root);
+        while (top > 0) {
+            final Object item = stack[--top];
+            stack[top] = null;
+            if (item instanceof Character) {
+                out.append((Character) item);
+                continue;
+            } else if (item instanceof String) {
+                out.append((String) item);
+                continue;
+            }
+            Expression e = (Expression) item;
+            if (e instanceof StoredExpression) {
+                e = ((StoredExpression) e).node();
+            }
+            if (e instanceof BinOpExpression) {
+                final BinOpExpression binOp = (BinOpExpression) e;
+                final boolean parenthesized = contents || binOp.getOp() == '+';
+                // pushed in reverse of output order
+                if (parenthesized) {
+                    push(')');
+                }
+                push(binOp.getRight());
+                push(binOp.getOp());
+                push(binOp.getLeft());
+                if (parenthesized) {
+                    push('(');
+                }
+            } else if (e instanceof PowExpression) {
+                final PowExpression pow = (PowExpression) e;
+                final String exponent = "^" + pow.getExponent();
+                if (contents) {
+                    // (base^n)
+                    push(')');
+                    push(exponent);
+                    push(pow.getBase());
+                    push('(');
+                } else if (needsParentheses(pow.getBase())) {
+                    // (base)^n
+                    push(exponent);
+                    push(')');
+                    push(pow.getBase());
+                    push('(');
+                } else {
+                    push(exponent);
+                    push(pow.getBase());
+                }
+            } else if (e instanceof Number) {
+                number.setLength(0);
+                if (contents) {
+                    NumberFormatter.appendDecimal(number, e.getValue());
+                } else {
+                    NumberFormatter.appendPlain(number, e.getValue());
+                }
+                out.append(number);
+            } else {
+                out.append(contents ? e.getContents() : e.toString());
+            }
+        }
+    }
+
+    /**
+     * @returns true if base must be parenthesized as the base of a power in the parsable
+     *          format: it is a product or a power, which do not parenthesize themselves
+     */
+    private static boolean needsParentheses(Expression base) {
+        if (base instanceof StoredExpression) {
+            base = ((StoredExpression) base).node();
+        }
+        return base instanceof PowExpression
+                || (base instanceof BinOpExpression && ((BinOpExpression) base).getOp() == '*');
+    }
+
+    private void push(Object item) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+        }
+        stack[top++] = item;
+    }
+
+    /**
+     * An Appendable that encodes ASCII text into a buffer and writes it to a channel
+     * whenever the buffer fills.
+     */
+    private static class ChannelAppendable implements Appendable {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+
+        ChannelAppendable(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) c);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence s) throws IOException {
+            return append(s, 0, s.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence s, int start, int end) throws IOException {
+            for (int i = start; i < end; i++) {
+                append(s.charAt(i));
+            }
+            return this;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package expressivo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram records a distribution of nonnegative long values (latencies in nanoseconds,
+ * node counts) in log-linear buckets, in the style of HdrHistogram: values below 256 are
+ * counted exactly and larger values within 1/128 (under 1%) of their true value, using a
+ * fixed array of counters. Recording is lock-free and safe from any thread.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 7;                    // 2^7 sub-buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int LINEAR = 2 * SUB_BUCKETS;        // values below this are counted exactly
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    // rep invariant:
+    //    total is the sum of counts, sum the sum of recorded values, max the largest recorded value
+    //    (each only up to in-flight concurrent records)
+    //
+    // All reps are private so no rep exposure risk.
+
+    private static int bucket(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BITS;
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * @return the largest value that falls into bucket
+     */
+    private static long highest(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        if (bucket == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        final int k = bucket + 1 - LINEAR;
+        final int exponent = k / SUB_BUCKETS + SUB_BITS + 1;
+        final long mantissa = k % SUB_BUCKETS + SUB_BUCKETS;
+        return (mantissa << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * @param value the value to record; negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucket(value));
+        total.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * @return the mean of the recorded values, or 0 if none were recorded
+     */
+    public double mean() {
+        final long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return the largest value recorded, or 0 if none were recorded
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile a percentage, 0 <= percentile <= 100
+     * @return a value v such that at least percentile% of the recorded values are <= v,
+     *         accurate to the bucket precision, or 0 if none were recorded
+     */
+    public long percentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        final long target = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Discard all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
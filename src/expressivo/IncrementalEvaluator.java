@@ -0,0 +1,311 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IncrementalEvaluator evaluates one expression repeatedly while its variables change a
+ * few at a time.
+ *
+ * Every node of the expression caches its value between steps and records its dependency
+ * set, the variables occurring in its subtree. A step walks down from the root only into
+ * subtrees whose dependency set contains a variable changed since the previous step, so
+ * the nodes recomputed are exactly those on paths from the changed variables to the root.
+ * Subtrees without variables would never be walked into, so they are folded into
+ * constants when the evaluator is made.
+ *
+ * An IncrementalEvaluator is not thread-safe.
+ */
+public class IncrementalEvaluator {
+    private static final byte CONST = 0;
+    private static final byte VAR = 1;
+    private static final byte ADD = 2;
+    private static final byte MUL = 3;
+    private static final byte POW = 4;
+
+    // the expression tree, one entry per node, children numbered before their parents
+    private final byte[] kind;
+    private final int[] left;       // left child of ADD/MUL nodes, base of POW nodes, variable index of VAR nodes
+    private final int[] right;      // right child of ADD/MUL nodes, exponent of POW nodes
+    private final long[][] deps;    // deps[node] is the dependency set of node, a bitset over variable indexes
+    private final double[] values;  // values[node] is the cached value of node
+    private final int root;
+
+    // the variables of the expression, numbered 0..slots.length-1 in order of first occurrence
+    private final int[] slots;                  // slots[v] is the VariableBinding slot of variable v
+    private final Map<Integer, Integer> index;  // maps a VariableBinding slot to its variable index
+    private final double[] inputs;              // inputs[v] is the current value of variable v, NaN if never set
+    private final long[] changed;               // variables set to a new value since the last step
+
+    private final int[] stack;
+    private int recomputed;
+
+    // rep invariant:
+    //    kind, left, right, deps, values have the same length n > 0, and root == n-1
+    //    for ADD/MUL nodes, left[i] < i and right[i] < i, and deps[i] is the union of their deps
+    //    for POW nodes, left[i] < i and deps[i] is deps[left[i]]
+    //    for VAR nodes, deps[i] is exactly {left[i]}; for CONST nodes deps[i] is empty
+    //    ADD/MUL/POW nodes have a child that is not CONST
+    //    every node whose deps do not intersect changed has values[node] up to date
+    //
+    // All reps are private so no rep exposure risk.
+
+    /**
+     * Create an evaluator. Every variable starts out unset, with value NaN.
+     * @param expression the expression to evaluate
+     */
+    public IncrementalEvaluator(Expression expression) {
+        final Builder builder = new Builder();
+        builder.emit(expression, 1);
+        final int n = builder.kind.size();
+        this.kind = new byte[n];
+        this.left = new int[n];
+        this.right = new int[n];
+        this.deps = builder.deps.toArray(new long[n][]);
+        this.values = new double[n];
+        for (int i = 0; i < n; i++) {
+            kind[i] = builder.kind.get(i);
+            left[i] = builder.left.get(i);
+            right[i] = builder.right.get(i);
+            values[i] = builder.constants.get(i);
+        }
+        this.root = n - 1;
+
+        this.slots = new int[builder.slots.size()];
+        for (int v = 0; v < slots.length; v++) {
+            slots[v] = builder.slots.get(v);
+        }
+        this.index = builder.index;
+        this.inputs = new double[slots.length];
+        Arrays.fill(inputs, Double.NaN);
+        this.changed = new long[words(slots.length)];
+        Arrays.fill(changed, -1L); // the first step computes every node
+        this.stack = new int[2 * builder.depth + 2];
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    /**
+     * Set the value of a variable for the next step. Variables that do not occur in the
+     * expression are ignored, and setting a variable to its current value changes nothing.
+     * @param name the variable name
+     * @param value its new value
+     */
+    public void set(String name, double value) {
+        final Integer v = index.get(VariableBinding.slotIfInterned(name));
+        if (v != null) {
+            set(v, value);
+        }
+    }
+
+    private void set(int v, double value) {
+        if (Double.doubleToLongBits(inputs[v]) != Double.doubleToLongBits(value)) {
+            inputs[v] = value;
+            changed[v >>> 6] |= 1L << v;
+        }
+    }
+
+    /**
+     * Set every variable of the expression that is bound in binding; variables not bound
+     * in binding keep their current values.
+     * @param binding the new values
+     */
+    public void update(VariableBinding binding) {
+        for (int v = 0; v < slots.length; v++) {
+            if (binding.isBound(slots[v])) {
+                set(v, binding.get(slots[v]));
+            }
+        }
+    }
+
+    /**
+     * Bring the cached values up to date with the variables set since the last step.
+     * @return the value of the expression
+     */
+    public double evaluate() {
+        recomputed = 0;
+        int top = 0;
+        if (intersectsChanged(root)) {
+            stack[top++] = root;
+        }
+        while (top > 0) {
+            final int node = stack[--top];
+            if (node < 0) { // both children are up to date
+                final int op = ~node;
+                switch (kind[op]) {
+                    case ADD:
+                        values[op] = values[left[op]] + values[right[op]];
+                        break;
+                    case MUL:
+                        values[op] = values[left[op]] * values[right[op]];
+                        break;
+                    default:
+                        values[op] = PowExpression.power(values[left[op]], right[op]);
+                        break;
+                }
+                recomputed++;
+            } else if (kind[node] == VAR) {
+                values[node] = inputs[left[node]];
+                recomputed++;
+            } else {
+                stack[top++] = ~node;
+                if (intersectsChanged(left[node])) {
+                    stack[top++] = left[node];
+                }
+                if (kind[node] != POW && intersectsChanged(right[node])) {
+                    stack[top++] = right[node];
+                }
+            }
+        }
+        Arrays.fill(changed, 0L);
+        return values[root];
+    }
+
+    private boolean intersectsChanged(int node) {
+        final long[] set = deps[node];
+        for (int w = 0; w < set.length; w++) {
+            if ((set[w] & changed[w]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of nodes recomputed by the last call to evaluate()
+     */
+    public int recomputed() {
+        return recomputed;
+    }
+
+    /**
+     * @return the number of nodes in the expression
+     */
+    public int size() {
+        return kind.length;
+    }
+
+    /**
+     * @param name a variable name
+     * @return true if and only if the expression depends on that variable
+     */
+    public boolean dependsOn(String name) {
+        return index.containsKey(VariableBinding.slotIfInterned(name));
+    }
+
+    /**
+     * Flattens the expression tree into postorder node lists.
+     */
+    private static final class Builder {
+        final List<Byte> kind = new ArrayList<>();
+        final List<Integer> left = new ArrayList<>();
+        final List<Integer> right = new ArrayList<>();
+        final List<long[]> deps = new ArrayList<>();
+        final List<Double> constants = new ArrayList<>();
+        final List<Integer> slots = new ArrayList<>();
+        final Map<Integer, Integer> index = new HashMap<>();
+        int depth;
+
+        private int add(byte k, int l, int r, long[] d, double constant) {
+            kind.add(k);
+            left.add(l);
+            right.add(r);
+            deps.add(d);
+            constants.add(constant);
+            return kind.size() - 1;
+        }
+
+        int emit(Expression e, int level) {
+            depth = Math.max(depth, level);
+            if (e instanceof StoredExpression) {
+                e = ((StoredExpression) e).node();
+            }
+            if (e instanceof Number) {
+                return add(CONST, 0, 0, new long[0], e.getValue());
+            } else if (e instanceof Variable) {
+                final int slot = ((Variable) e).getSlot();
+                Integer v = index.get(slot);
+                if (v == null) {
+                    v = slots.size();
+                    slots.add(slot);
+                    index.put(slot, v);
+                }
+                final long[] d = new long[words(v + 1)];
+                d[v >>> 6] = 1L << v;
+                return add(VAR, v, 0, d, Double.NaN);
+            } else if (e instanceof BinOpExpression) {
+                // the left chain iteratively, bottom up, see BinOpExpression.chain(); node i of
+                // the chain, this one being 0, is at level + i
+                final BinOpExpression binOp = (BinOpExpression) e;
+                final BinOpExpression[] below = binOp.chain();
+                int l = emit(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft(),
+                             level + below.length + 1);
+                for (int i = below.length; i >= 0; i--) {
+                    depth = Math.max(depth, level + i);
+                    final int r = emit((i == 0 ? binOp : below[i - 1]).getRight(), level + i + 1);
+                    if (kind.get(l) == CONST && kind.get(r) == CONST) {
+                        // no variable can ever change it, so no step would compute it: fold it now
+                        final double x = constants.get(l), y = constants.get(r);
+                        removeLast(2);
+                        l = add(CONST, 0, 0, new long[0], binOp.getOp() == '+' ? x + y : x * y);
+                    } else {
+                        l = add(binOp.getOp() == '+' ? ADD : MUL, l, r, union(deps.get(l), deps.get(r)), Double.NaN);
+                    }
+                }
+                return l;
+            } else if (e instanceof PowExpression) {
+                final PowExpression pow = (PowExpression) e;
+                final int b = emit(pow.getBase(), level + 1);
+                if (kind.get(b) == CONST) {
+                    final double x = constants.get(b);
+                    removeLast(1);
+                    return add(CONST, 0, 0, new long[0], PowExpression.power(x, pow.getExponent()));
+                }
+                return add(POW, b, pow.getExponent(), deps.get(b), Double.NaN);
+            } else {
+                throw new IllegalArgumentException("cannot evaluate expression of type " + e.getClass().getName());
+            }
+        }
+
+        /**
+         * Remove the last count nodes, constants that are folded into their parent; a
+         * constant is a single node, so those are all the nodes of the folded subtrees.
+         */
+        private void removeLast(int count) {
+            for (int i = 0; i < count; i++) {
+                final int last = kind.size() - 1;
+                kind.remove(last);
+                left.remove(last);
+                right.remove(last);
+                deps.remove(last);
+                constants.remove(last);
+            }
+        }
+
+        /**
+         * @return the union of x and y, reusing x or y when it already contains the other
+         */
+        private static long[] union(long[] x, long[] y) {
+            if (x.length < y.length) {
+                final long[] t = x;
+                x = y;
+                y = t;
+            }
+            long[] result = x;
+            for (int w = 0; w < y.length; w++) {
+                if ((y[w] & ~x[w]) != 0) {
+                    if (result == x) {
+                        result = x.clone();
+                    }
+                    result[w] |= y[w];
+                }
+            }
+            return result;
+        }
+    }
+}
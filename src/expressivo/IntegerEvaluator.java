@@ -0,0 +1,242 @@
+package expressivo;
+
+import java.math.BigInteger;
+
+/**
+ * IntegerEvaluator evaluates integer expressions exactly, in long arithmetic where it can.
+ *
+ * An expression is integral under a binding when every constant is an integer and every
+ * variable in it is bound to an integer. Such an expression is evaluated in one walk with
+ * Math.addExact and Math.multiplyExact on longs, which allocates nothing. An operation
+ * that overflows is redone on BigInteger, and only the operations above it continue in
+ * BigInteger; sibling subtrees that fit stay on the long path. A walk that meets a
+ * fractional constant or an unbound or fractional variable stops early and reports that
+ * the expression is not integral.
+ *
+ * Exact results are kept to MAX_BITS bits. A short input like 3^10000000 has millions of
+ * digits, which take seconds to compute and print, so before each BigInteger operation
+ * the bit length of its result is estimated from its operands: bitLength(x) * n for x^n,
+ * the sum of the operands' for a product, one more than the larger for a sum. An
+ * estimate above MAX_BITS abandons exact evaluation, and the caller falls back to double
+ * arithmetic, as for a value beyond the range of BigInteger.
+ *
+ * Constants and bound values above 2^53 in magnitude are not exact in a long from their
+ * double alone (their shortest decimal digits, which the exact domains use, may differ
+ * from the binary value), so they enter as BigInteger through NumericDomain.INTEGER.
+ */
+class IntegerEvaluator {
+    private static final double MAX_EXACT = 0x1p53;
+
+    /** the longest exact result, in bits, about 19700 decimal digits */
+    static final long MAX_BITS = 1 << 16;
+
+    private final VariableBinding binding;
+    private BigInteger big;          // the result of the last eval() if it does not fit in a long
+    private boolean integral = true; // false once a non-integer or unbound leaf has been seen
+
+    // rep invariant:
+    //    big != null only between an eval() that returned a BigInteger result and its caller
+    //
+    // All reps are private so no rep exposure risk.
+
+    private IntegerEvaluator(VariableBinding binding) {
+        this.binding = binding;
+    }
+
+    /**
+     * @param Expression e - an expression
+     * @param VariableBinding binding - assigns values to variables
+     * @returns true if and only if every constant in e is an integer and every variable in e
+     *          is bound to an integer
+     */
+    static boolean isIntegral(Expression e, VariableBinding binding) {
+        if (e instanceof StoredExpression) {
+            e = ((StoredExpression) e).node();
+        }
+        if (e instanceof Number) {
+            return isInteger(e.getValue());
+        } else if (e instanceof Variable) {
+            final int slot = ((Variable) e).getSlot();
+            return binding.isBound(slot) && isInteger(binding.get(slot));
+        } else if (e instanceof PowExpression) {
+            return isIntegral(((PowExpression) e).getBase(), binding);
+        }
+        // the left chain iteratively, see BinOpExpression.chain()
+        final BinOpExpression binOp = (BinOpExpression) e;
+        final BinOpExpression[] below = binOp.chain();
+        for (int i = 0; i <= below.length; i++) {
+            if (!isIntegral((i == 0 ? binOp : below[i - 1]).getRight(), binding)) {
+                return false;
+            }
+        }
+        return isIntegral(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft(), binding);
+    }
+
+    private static boolean isInteger(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value);
+    }
+
+    /**
+     * @param Expression e - an expression
+     * @param VariableBinding binding - assigns values to variables
+     * @returns the exact value of e under binding, or null if not isIntegral(e, binding) or
+     *          the value or an intermediate result may be longer than MAX_BITS
+     */
+    static BigInteger evaluate(Expression e, VariableBinding binding) {
+        final IntegerEvaluator evaluator = new IntegerEvaluator(binding);
+        final long value;
+        try {
+            value = evaluator.eval(e);
+        } catch (ArithmeticException tooLarge) {
+            // a result longer than MAX_BITS: leave it to double arithmetic
+            return null;
+        }
+        if (!evaluator.integral) {
+            return null;
+        }
+        return evaluator.big != null ? evaluator.big : BigInteger.valueOf(value);
+    }
+
+    /**
+     * @param Expression e - an expression
+     * @param VariableBinding binding - assigns values to variables
+     * @returns the exact value of e under binding, written as Commands.simplify writes
+     *          numbers: the same text as the double path wherever a double holds the value
+     *          exactly, and all digits of the exact integer beyond that; or null if not
+     *          isIntegral(e, binding) or the value or an intermediate result may be longer
+     *          than MAX_BITS
+     */
+    static String format(Expression e, VariableBinding binding) {
+        final IntegerEvaluator evaluator = new IntegerEvaluator(binding);
+        final long value;
+        try {
+            value = evaluator.eval(e);
+        } catch (ArithmeticException tooLarge) {
+            // a result longer than MAX_BITS: leave it to double arithmetic
+            return null;
+        }
+        if (!evaluator.integral) {
+            return null;
+        } else if (evaluator.big != null) {
+            return NumericDomain.INTEGER.format(evaluator.big);
+        }
+        return Math.abs(value) < (1L << 53) ? NumberFormatter.toPlainString(value) : Long.toString(value);
+    }
+
+    /**
+     * @returns the value of e if it fits in a long and big is null; otherwise 0, with the
+     *          value in big, or with integral false if e is not integral
+     */
+    private long eval(Expression e) {
+        if (e instanceof StoredExpression) {
+            e = ((StoredExpression) e).node();
+        }
+        if (e instanceof Number) {
+            return leaf(e.getValue());
+        } else if (e instanceof Variable) {
+            final int slot = ((Variable) e).getSlot();
+            if (!binding.isBound(slot)) {
+                integral = false;
+                return 0;
+            }
+            return leaf(binding.get(slot));
+        } else if (e instanceof PowExpression) {
+            final PowExpression pow = (PowExpression) e;
+            final long x = eval(pow.getBase());
+            if (!integral) {
+                return 0;
+            }
+            if (big == null) {
+                try {
+                    return power(x, pow.getExponent());
+                } catch (ArithmeticException overflow) {
+                    // continue in BigInteger from here up
+                    big = BigInteger.valueOf(x);
+                }
+            }
+            checkBits((long) big.bitLength() * pow.getExponent());
+            big = big.pow(pow.getExponent());
+            return 0;
+        }
+        // the left chain iteratively, bottom up, see BinOpExpression.chain()
+        final BinOpExpression binOp = (BinOpExpression) e;
+        final BinOpExpression[] below = binOp.chain();
+        final boolean sum = binOp.getOp() == '+';
+        long x = eval(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft());
+        for (int i = below.length; i >= 0; i--) {
+            final BigInteger bigX = big;
+            big = null;
+            if (!integral) {
+                return 0;
+            }
+            final long y = eval((i == 0 ? binOp : below[i - 1]).getRight());
+            final BigInteger bigY = big;
+            big = null;
+            if (!integral) {
+                return 0;
+            }
+            x = combine(sum, x, bigX, y, bigY);
+        }
+        return x;
+    }
+
+    /**
+     * @returns x + y or x * y, in the representation of eval: the value if it fits in a long,
+     *          otherwise 0 with the value in big; each operand is given by its long value and
+     *          its BigInteger value, the latter null if the operand fits in a long
+     */
+    private long combine(boolean sum, long x, BigInteger bigX, long y, BigInteger bigY) {
+        if (bigX == null && bigY == null) {
+            try {
+                return sum ? Math.addExact(x, y) : Math.multiplyExact(x, y);
+            } catch (ArithmeticException overflow) {
+                // continue in BigInteger from here up
+            }
+        }
+        final BigInteger l = bigX != null ? bigX : BigInteger.valueOf(x);
+        final BigInteger r = bigY != null ? bigY : BigInteger.valueOf(y);
+        checkBits(sum ? Math.max(l.bitLength(), r.bitLength()) + 1L : (long) l.bitLength() + r.bitLength());
+        big = sum ? l.add(r) : l.multiply(r);
+        return 0;
+    }
+
+    /**
+     * @param bits a bound on the bit length of the result of the next BigInteger operation
+     * @throws ArithmeticException if bits is above MAX_BITS
+     */
+    private static void checkBits(long bits) {
+        if (bits > MAX_BITS) {
+            throw new ArithmeticException("exact result too long: up to " + bits + " bits");
+        }
+    }
+
+    /**
+     * @returns x^n by exponentiation by squaring
+     * @throws ArithmeticException if x^n or an intermediate square overflows a long
+     */
+    private static long power(long x, int n) {
+        long result = 1;
+        while (n != 0) {
+            if ((n & 1) != 0) {
+                result = Math.multiplyExact(result, x);
+            }
+            n >>>= 1;
+            if (n != 0) {
+                x = Math.multiplyExact(x, x);
+            }
+        }
+        return result;
+    }
+
+    private long leaf(double value) {
+        if (!isInteger(value)) {
+            integral = false;
+            return 0;
+        }
+        if (Math.abs(value) > MAX_EXACT) {
+            big = NumericDomain.INTEGER.fromDouble(value);
+            return 0;
+        }
+        return (long) value;
+    }
+}
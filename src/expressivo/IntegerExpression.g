@@ -1,10 +1,16 @@
 // grammar Expression;
 
-//The IntegerExpression grammar
-@skip whitespace{
-    root ::= sum;
-    sum ::= primitive ('+' primitive)*;
-    primitive ::= number | '(' sum ')';
+//The IntegerExpression grammar: Expression.g with integer constants only
+root ::= sum;
+
+@skip whitespace {
+    sum ::= product ('+' product)*;
+    product ::= power ('*' power)*;
+    power ::= primitive ('^' number)?;
+    primitive ::= number | variable | '(' sum ')';
 }
-whitespace ::= [ \t\r\n];
+
 number ::= [0-9]+;
+variable ::= [a-zA-Z]+;
+
+whitespace ::= [ \t\r\n]+;
@@ -1,17 +1,74 @@
 package expressivo;
 
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+
+import lib6005.parser.*;
+
 public interface IntegerExpression {
     // Datatype definition
-    //   TODO
+    //   An integer expression is an Expression whose constants are all nonnegative integers,
+    //   as accepted by IntegerExpression.g:
+    //     IntegerExpression = Number(n:nonnegative integer) + Variable(name:String)
+    //                       + BinOpExpression(op:{+,*}, left:IntegerExpression, right:IntegerExpression)
+    //   When its variables are bound to integers it evaluates exactly: in long arithmetic with
+    //   overflow detection, promoted to BigInteger when a result does not fit in a long.
     
     /**
      * Parse an expression.
-     * @param input expression to parse, as defined in the PS1 handout.
+     * @param input expression to parse, as defined in the PS1 handout, with integer constants only.
      * @return expression AST for the input
-     * @throws IllegalArgumentException if the expression is invalid
+     * @throws IllegalArgumentException if the expression is invalid, including any constant
+     *         that is not an integer
      */
     public static Expression parse(String input) {
-        throw new RuntimeException("unimplemented");
+        final boolean timed = Metrics.isEnabled();
+        final long start = timed ? System.nanoTime() : 0;
+        final Expression ast;
+        try {
+            Parser<IntegerGrammar> parser =
+                GrammarCompiler.compile(new File("src/expressivo/IntegerExpression.g"), IntegerGrammar.ROOT);
+            ast = Expression.buildAST(parser.parse(input));
+        } catch (UnableToParseException upe) {
+            throw new IllegalArgumentException("parser error!");
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("grammar IntegerExpression.g not readable");
+        }
+        if (timed) {
+            Metrics.PARSE.record(System.nanoTime() - start, input.length(), ast.size());
+        }
+        return ast;
+    }
+    
+    /**
+     * @param expression any expression
+     * @param binding assigns values to variables
+     * @return true if and only if every constant in expression is an integer and every
+     *         variable in it is bound to an integer, so evaluate(expression, binding) is defined
+     */
+    public static boolean isIntegral(Expression expression, VariableBinding binding) {
+        return IntegerEvaluator.isIntegral(expression, binding);
+    }
+    
+    /**
+     * Evaluate an integer expression exactly, in long arithmetic unless a result overflows.
+     * @param expression an expression with isIntegral(expression, binding)
+     * @param binding assigns integer values to the variables of expression
+     * @return the exact value of expression under binding
+     * @throws IllegalArgumentException if not isIntegral(expression, binding)
+     * @throws ArithmeticException if the value or an intermediate result may be longer than
+     *         IntegerEvaluator.MAX_BITS bits
+     */
+    public static BigInteger evaluate(Expression expression, VariableBinding binding) {
+        final BigInteger value = IntegerEvaluator.evaluate(expression, binding);
+        if (value == null) {
+            if (!isIntegral(expression, binding)) {
+                throw new IllegalArgumentException("expression is not integral under the binding");
+            }
+            throw new ArithmeticException("exact value longer than " + IntegerEvaluator.MAX_BITS + " bits");
+        }
+        return value;
     }
     
     /**
@@ -37,8 +94,6 @@ public interface IntegerExpression {
     @Override
     public int hashCode();
     
-    // TODO more instance methods
-    
     /* Copyright (c) 2015-2017 MIT 6.005 course staff, all rights reserved.
      * Redistribution of original or derived work requires permission of course staff.
      */
@@ -0,0 +1,8 @@
+package expressivo;
+
+/**
+ * The nonterminals of the expression grammars, Expression.g and IntegerExpression.g,
+ * which name their rules alike. A ParseTree of either grammar is parameterized by this
+ * enum, so Expression.buildAST builds the AST of both.
+ */
+enum IntegerGrammar {ROOT, PRIMITIVE, SUM, PRODUCT, POWER, VARIABLE, NUMBER, WHITESPACE};
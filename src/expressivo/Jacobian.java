@@ -0,0 +1,308 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Jacobian holds the first partial derivatives of a vector of expressions by a list of
+ * variables, built as one shared DAG rather than one independent tree per entry.
+ *
+ * The expressions are first hash-consed, so structurally identical subtrees (also within
+ * and across the inputs) become one node. Each entry is then differentiated with a memo
+ * per variable, so a subtree shared by several parents is differentiated once, and every
+ * node the derivative rules create is hash-consed into the same table, with 0 and 1
+ * operands and constant operations folded away as they are built. An entry of the
+ * Jacobian is therefore a DAG whose common subexpressions, including factors shared
+ * between entries, are single objects.
+ *
+ * compile() turns the whole matrix into one CompiledExpression, in which each distinct
+ * node is one instruction, and evaluate() writes all entries into a double[].
+ */
+public class Jacobian {
+    private final String[] vars;
+    private final Expression[][] partials;  // partials[i][j] = d functions[i] / d vars[j]
+    private CompiledExpression compiled;    // built on first use
+
+    // rep invariant:
+    //    partials.length = number of functions, partials[i].length = vars.length
+    //
+    // All reps are private so no rep exposure risk.
+
+    /**
+     * @param functions the expressions to differentiate, the rows of the Jacobian
+     * @param vars the variables to differentiate by, the columns of the Jacobian
+     */
+    public Jacobian(Expression[] functions, String... vars) {
+        this.vars = vars.clone();
+        this.partials = new Expression[functions.length][vars.length];
+        final Dag dag = new Dag();
+        final Expression[] shared = new Expression[functions.length];
+        for (int i = 0; i < functions.length; i++) {
+            shared[i] = dag.intern(functions[i]);
+        }
+        for (int j = 0; j < vars.length; j++) {
+            final Map<Expression, Expression> memo = new IdentityHashMap<>();
+            for (int i = 0; i < functions.length; i++) {
+                partials[i][j] = dag.derivative(shared[i], vars[j], memo);
+            }
+        }
+    }
+
+    /**
+     * @param function the expression to differentiate
+     * @param vars the variables to differentiate by
+     * @return the 1-row Jacobian of function, i.e. its gradient
+     */
+    public static Jacobian gradient(Expression function, String... vars) {
+        return new Jacobian(new Expression[] { function }, vars);
+    }
+
+    /**
+     * @return the number of rows, i.e. functions
+     */
+    public int rows() {
+        return partials.length;
+    }
+
+    /**
+     * @return the number of columns, i.e. variables
+     */
+    public int columns() {
+        return vars.length;
+    }
+
+    /**
+     * @param i row, the index of a function
+     * @param j column, the index of a variable
+     * @return the partial derivative of function i by variable j, sharing nodes with the other entries
+     */
+    public Expression get(int i, int j) {
+        return partials[i][j];
+    }
+
+    /**
+     * @return a program computing every entry, with output i * columns() + j holding entry (i, j).
+     *         The program is shared by later calls and must not be evaluated concurrently;
+     *         use copy() to get a private instance.
+     */
+    public synchronized CompiledExpression compile() {
+        if (compiled == null) {
+            final Expression[] entries = new Expression[rows() * columns()];
+            for (int i = 0; i < rows(); i++) {
+                System.arraycopy(partials[i], 0, entries, i * columns(), columns());
+            }
+            compiled = CompiledExpression.compile(entries.length == 0 ? new Expression[] { new Number(0) } : entries);
+        }
+        return compiled;
+    }
+
+    /**
+     * Evaluate the whole Jacobian with the compiled program; not thread-safe, see compile().
+     * @param binding assigns values to variables, as for Expression.evaluate
+     * @param out receives entry (i, j) at out[i * columns() + j]; out.length >= rows() * columns()
+     */
+    public void evaluate(VariableBinding binding, double[] out) {
+        if (out.length < rows() * columns()) {
+            throw new IllegalArgumentException("output array too short");
+        }
+        compile().evaluate(binding, out);
+    }
+
+    /**
+     * Hash-consing node table and the derivative rules over it.
+     */
+    private static final class Dag {
+        private static final Number ZERO = new Number(0);
+        private static final Number ONE = new Number(1);
+
+        private final Map<Long, Expression> numbers = new HashMap<>();
+        private final Map<String, Expression> variables = new HashMap<>();
+        private final Map<Expression, Integer> ids = new IdentityHashMap<>();
+        private final Map<Long, Expression> operations = new HashMap<>();
+        private final Map<Expression, Expression> interned = new IdentityHashMap<>();
+
+        Dag() {
+            number(0);
+            number(1);
+        }
+
+        private Expression register(Expression e) {
+            ids.put(e, ids.size());
+            return e;
+        }
+
+        Expression number(double value) {
+            final Long key = Double.doubleToLongBits(value);
+            Expression e = numbers.get(key);
+            if (e == null) {
+                e = register(value == 0 && key == 0 ? ZERO : value == 1 ? ONE : new Number(value));
+                numbers.put(key, e);
+            }
+            return e;
+        }
+
+        Expression variable(String name) {
+            Expression e = variables.get(name);
+            if (e == null) {
+                e = register(new Variable(name));
+                variables.put(name, e);
+            }
+            return e;
+        }
+
+        /**
+         * @return the node for l op r, reusing an existing one; operands are ordered by id
+         *         since + and * commute, the newer one on the left so that a chain of one
+         *         operator, built bottom up, stays a left chain. 0 and 1 operands and
+         *         all-constant operations are folded.
+         */
+        Expression operation(char op, Expression l, Expression r) {
+            if (l instanceof Number && r instanceof Number) {
+                return number(op == '+' ? l.getValue() + r.getValue() : l.getValue() * r.getValue());
+            }
+            if (op == '+') {
+                if (l == ZERO) return r;
+                if (r == ZERO) return l;
+            } else {
+                if (l == ZERO || r == ZERO) return ZERO;
+                if (l == ONE) return r;
+                if (r == ONE) return l;
+            }
+            int x = ids.get(l);
+            int y = ids.get(r);
+            if (x < y) {
+                final int t = x;
+                x = y;
+                y = t;
+                final Expression e = l;
+                l = r;
+                r = e;
+            }
+            final Long key = ((op == '+' ? 0L : 1L) << 62) | ((long) y << 31) | x;
+            Expression e = operations.get(key);
+            if (e == null) {
+                e = register(new BinOpExpression(op, l, r));
+                operations.put(key, e);
+            }
+            return e;
+        }
+
+        /**
+         * @return the node for base^n, reusing an existing one; powers 0 and 1 and constant
+         *         bases are folded
+         */
+        Expression power(Expression base, int n) {
+            if (n == 0) return ONE;
+            if (n == 1) return base;
+            if (base instanceof Number) {
+                return number(PowExpression.power(base.getValue(), n));
+            }
+            final Long key = (2L << 62) | ((long) ids.get(base) << 31) | n;
+            Expression e = operations.get(key);
+            if (e == null) {
+                e = register(new PowExpression(base, n));
+                operations.put(key, e);
+            }
+            return e;
+        }
+
+        /**
+         * @return the hash-consed copy of e; an input subtree seen before is not walked again
+         */
+        Expression intern(Expression e) {
+            final Expression done = interned.get(e);
+            if (done != null) {
+                return done;
+            }
+            Expression node = e instanceof StoredExpression ? ((StoredExpression) e).node() : e;
+            final Expression result;
+            if (node instanceof Number) {
+                result = number(node.getValue());
+            } else if (node instanceof Variable) {
+                result = variable(node.getContents());
+            } else if (node instanceof PowExpression) {
+                final PowExpression pow = (PowExpression) node;
+                result = power(intern(pow.getBase()), pow.getExponent());
+            } else {
+                // the left chain iteratively, bottom up from its highest node interned
+                // already, see BinOpExpression.chain()
+                final BinOpExpression binOp = (BinOpExpression) node;
+                final BinOpExpression[] below = binOp.chain();
+                int start = 0;
+                Expression x = null;
+                while (x == null && start < below.length) {
+                    x = interned.get(below[start++]);
+                }
+                if (x == null) {
+                    x = intern(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft());
+                    start = below.length + 1;
+                }
+                for (int i = start - 1; i > 0; i--) {
+                    x = operation(binOp.getOp(), x, intern(below[i - 1].getRight()));
+                    interned.put(below[i - 1], x);
+                }
+                result = operation(binOp.getOp(), x, intern(binOp.getRight()));
+            }
+            interned.put(e, result);
+            return result;
+        }
+
+        /**
+         * @param e an interned node
+         * @param memo derivatives by var of the nodes already differentiated
+         * @return the interned derivative of e by var
+         */
+        Expression derivative(Expression e, String var, Map<Expression, Expression> memo) {
+            // post-order with an explicit stack: operands are ordered by id, so a chain of
+            // one operator may run down either side of the interned nodes
+            final Deque<Expression> pending = new ArrayDeque<>();
+            pending.push(e);
+            while (!pending.isEmpty()) {
+                final Expression node = pending.peek();
+                if (memo.containsKey(node)) {
+                    pending.pop();
+                    continue;
+                }
+                final Expression result;
+                if (node instanceof Number) {
+                    result = ZERO;
+                } else if (node instanceof Variable) {
+                    result = node.getContents().equals(var) ? ONE : ZERO;
+                } else if (node instanceof PowExpression) {
+                    // n * u^(n-1) * du; the interned power has n >= 2
+                    final PowExpression pow = (PowExpression) node;
+                    final Expression u = pow.getBase();
+                    final Expression du = memo.get(u);
+                    if (du == null) {
+                        pending.push(u);
+                        continue;
+                    }
+                    final int n = pow.getExponent();
+                    result = operation('*', operation('*', number(n), power(u, n - 1)), du);
+                } else {
+                    final BinOpExpression binOp = (BinOpExpression) node;
+                    final Expression l = binOp.getLeft();
+                    final Expression r = binOp.getRight();
+                    final Expression dl = memo.get(l);
+                    final Expression dr = memo.get(r);
+                    if (dl == null || dr == null) {
+                        if (dr == null) pending.push(r);
+                        if (dl == null) pending.push(l);
+                        continue;
+                    }
+                    if (binOp.getOp() == '+') {
+                        result = operation('+', dl, dr);
+                    } else {
+                        result = operation('+', operation('*', l, dr), operation('*', r, dl));
+                    }
+                }
+                memo.put(node, result);
+                pending.pop();
+            }
+            return memo.get(e);
+        }
+    }
+}
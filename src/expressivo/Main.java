@@ -4,6 +4,11 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -30,13 +35,20 @@ public class Main {
     /**
      * Read expression and command inputs from the console and output results.
      * An empty input terminates the program.
-     * @param args unused
+     * @param args if nonempty, names of files each holding one expression: every file is
+     *        parsed and printed in parsable form, one per line, and the console is not read
      * @throws IOException if there is an error reading the input
      */
     public static void main(String[] args) throws IOException {
         
+        if (args.length > 0) {
+            printFiles(args);
+            return;
+        }
+        
         final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
         Optional<String> currentExpression = Optional.empty();
+        Expression currentAst = null;  // an expression just entered, rendered for commands only when one is used
                
         while (true) {
             System.out.print("> ");
@@ -52,9 +64,17 @@ public class Main {
                 //echo what has been input
                 // System.out.println("* input: "+input);
                 
+                if (input.startsWith(COMMAND_PREFIX) && currentAst != null) {
+                    currentExpression = Optional.of(currentAst.toString());
+                    currentAst = null;
+                }
+                
                 if (input.startsWith(DIFFERENTIATE_PREFIX)) {
-                    final String variable = parseDifferentiate (input);
-                    output = Commands.differentiate (currentExpression.get(), variable);
+                    final Matcher command = parseDifferentiate (input);
+                    final String variable = command.group(2);
+                    final int order = parseOrder (command);
+                    output = order == 0 ? Commands.differentiate (currentExpression.get(), variable)
+                                        : Commands.differentiate (currentExpression.get(), variable, order);
                     currentExpression = Optional.of(output);
                     System.out.println(output);
                 } else if (input.startsWith(SIMPLIFY_PREFIX)) {
@@ -68,9 +88,10 @@ public class Main {
                 } else {
                     final Expression expression = Expression.parse (input);
                     if (expression != null) {
-                        output = expression.toString();
-                        currentExpression = Optional.of(output);
-                        System.out.println(output);
+                        expression.writeTo(System.out);
+                        System.out.println();
+                        currentAst = expression;
+                        currentExpression = Optional.empty();
                     } else {
                         System.out.println("Unable to build AST!");
                         return;
@@ -87,19 +108,52 @@ public class Main {
         }
     }
  
+    /**
+     * Parse each file with the streaming parser and stream its parsable form to standard
+     * output, so neither the input nor the output is ever held as one String.
+     * @param files names of files each holding one expression
+     * @throws IOException if a file cannot be read
+     */
+    private static void printFiles(String[] files) throws IOException {
+        final WritableByteChannel out = Channels.newChannel(System.out);
+        for (String file : files) {
+            try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+                StreamingParser.parse(channel).writeTo(out);
+            } catch (IllegalArgumentException iae) {
+                System.out.print(file + ": " + iae.getMessage());
+            }
+            System.out.println();
+        }
+        System.out.flush();
+    }
+ 
     private static final String COMMAND_PREFIX = "!";
-    private static final String DIFFERENTIATE_PREFIX = "!d/d";
+    private static final String DIFFERENTIATE_PREFIX = "!d";
     private static final String VARIABLE = "[A-Za-z]+";
-    private static final String DIFFERENTIATE = DIFFERENTIATE_PREFIX + "(" + VARIABLE + ") *";
+    // !d/dx, or !dN/dxN for the N-th derivative
+    private static final String DIFFERENTIATE = DIFFERENTIATE_PREFIX + "([0-9]*)/d(" + VARIABLE + ")([0-9]*) *";
 
-    private static String parseDifferentiate(final String input) {
+    private static Matcher parseDifferentiate(final String input) {
         final Matcher commandMatcher = Pattern.compile(DIFFERENTIATE).matcher(input);
         if (!commandMatcher.matches()) {
-            throw new CommandSyntaxException("usage: !d/d must be followed by a variable name");
+            throw new CommandSyntaxException("usage: !d/d or !dN/d must be followed by a variable name (and N)");
         }
-
-        final String variable = commandMatcher.group(1);
-        return variable;
+        return commandMatcher;
+    }
+    
+    /**
+     * @return the order N of a !dN/dxN command, or 0 for a plain !d/dx
+     */
+    private static int parseOrder(final Matcher command) {
+        final String before = command.group(1);
+        final String after = command.group(3);
+        if (before.isEmpty() && after.isEmpty()) {
+            return 0;
+        }
+        if (!before.equals(after) || Integer.parseInt(before) < 1) {
+            throw new CommandSyntaxException("usage: !dN/dxN needs the same order N >= 1 on both sides");
+        }
+        return Integer.parseInt(before);
     }
     
     private static final String SIMPLIFY_PREFIX = "!simplify";
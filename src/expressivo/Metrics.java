@@ -0,0 +1,298 @@
+package expressivo;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics is the instrumentation layer of the expression system. When enabled it records,
+ * for each operation (parse, derivative, simplify, render, and the differentiate and
+ * simplify commands as a whole), a latency distribution and the sizes of its input and
+ * output, plus hit and miss counts of the caches. Sizes are node counts for expression
+ * trees and character counts for text. The numbers are published as
+ * JMX MXBeans under "expressivo:type=Metrics" and can be dumped as text, on demand or
+ * periodically.
+ *
+ * Metrics are disabled by default. Instrumented code checks isEnabled() once per call,
+ * a single volatile read, and does no other work while disabled.
+ */
+public class Metrics {
+    private static volatile boolean enabled = false;
+
+    public static final Operation PARSE = new Operation("parse");
+    public static final Operation DERIVATIVE = new Operation("derivative");
+    public static final Operation SIMPLIFY = new Operation("simplify");
+    public static final Operation RENDER = new Operation("render");
+    public static final Operation DIFFERENTIATE_COMMAND = new Operation("differentiateCommand");
+    public static final Operation SIMPLIFY_COMMAND = new Operation("simplifyCommand");
+    private static final Operation[] OPERATIONS = {
+        PARSE, DERIVATIVE, SIMPLIFY, RENDER, DIFFERENTIATE_COMMAND, SIMPLIFY_COMMAND
+    };
+
+    private static final Map<String, Cache> CACHES = new ConcurrentHashMap<>();
+    private static boolean registered = false;
+    private static ScheduledExecutorService dumper;
+    private static ScheduledFuture<?> periodicDump;
+
+    private Metrics() {
+        // only static methods
+    }
+
+    /**
+     * @return true if and only if metrics are being recorded
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start recording metrics, registering the MXBeans with the platform MBean server the
+     * first time.
+     */
+    public static void enable() {
+        registerMBeans();
+        enabled = true;
+    }
+
+    /**
+     * Stop recording metrics. Values recorded so far are kept.
+     */
+    public static void disable() {
+        enabled = false;
+    }
+
+    /**
+     * Discard all recorded values.
+     */
+    public static void reset() {
+        for (Operation operation : OPERATIONS) {
+            operation.reset();
+        }
+        for (Cache cache : CACHES.values()) {
+            cache.reset();
+        }
+    }
+
+    /**
+     * @param name the name of a cache
+     * @return the hit/miss counters of that cache, created on first use
+     */
+    public static Cache cache(String name) {
+        return CACHES.computeIfAbsent(name, Cache::new);
+    }
+
+    private static synchronized void registerMBeans() {
+        if (registered) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, new Summary(), new ObjectName("expressivo:type=Metrics"));
+            for (Operation operation : OPERATIONS) {
+                register(server, operation, new ObjectName("expressivo:type=Metrics,operation=" + operation.name));
+            }
+        } catch (JMException jme) {
+            throw new IllegalStateException("unable to register metrics MXBeans", jme);
+        }
+        registered = true;
+    }
+
+    private static void register(MBeanServer server, Object bean, ObjectName name) throws JMException {
+        try {
+            server.registerMBean(bean, name);
+        } catch (InstanceAlreadyExistsException iae) {
+            // registered by another copy of this class, e.g. in another class loader
+        }
+    }
+
+    /**
+     * @return a text table of all operations and caches
+     */
+    public static String dump() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-22s %10s %10s %10s %10s %10s %10s %10s %10s%n", "operation", "count",
+                                "mean(us)", "p50(us)", "p90(us)", "p99(us)", "max(us)", "in-size", "out-size"));
+        for (Operation operation : OPERATIONS) {
+            sb.append(String.format("%-22s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", operation.name,
+                                    operation.getCount(), operation.getMeanNanos() / 1e3,
+                                    operation.getP50Nanos() / 1e3, operation.getP90Nanos() / 1e3,
+                                    operation.getP99Nanos() / 1e3, operation.getMaxNanos() / 1e3,
+                                    operation.getMeanInputSize(), operation.getMeanOutputSize()));
+        }
+        for (Cache cache : new TreeMap<>(CACHES).values()) {
+            sb.append(String.format("cache %-16s hits=%d misses=%d hit rate=%.1f%%%n", cache.name,
+                                    cache.hits.sum(), cache.misses.sum(), 100 * cache.hitRate()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Print dump() to out every period, replacing any periodic dump already running.
+     * @param period time between dumps
+     * @param unit unit of period
+     * @param out where to print
+     */
+    public static synchronized void startPeriodicDump(long period, TimeUnit unit, final PrintStream out) {
+        stopPeriodicDump();
+        if (dumper == null) {
+            dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+                final Thread thread = new Thread(task, "expressivo-metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        periodicDump = dumper.scheduleAtFixedRate(() -> out.print(dump()), period, period, unit);
+    }
+
+    /**
+     * Stop the periodic dump, if one is running.
+     */
+    public static synchronized void stopPeriodicDump() {
+        if (periodicDump != null) {
+            periodicDump.cancel(false);
+            periodicDump = null;
+        }
+    }
+
+    /**
+     * Management interface of a single operation.
+     */
+    public interface OperationMXBean {
+        long getCount();
+        double getMeanNanos();
+        long getP50Nanos();
+        long getP90Nanos();
+        long getP99Nanos();
+        long getMaxNanos();
+        double getMeanInputSize();
+        double getMeanOutputSize();
+    }
+
+    /**
+     * Latency and input/output size distributions of one operation.
+     */
+    public static final class Operation implements OperationMXBean {
+        private final String name;
+        private final Histogram latency = new Histogram();
+        private final Histogram inputSize = new Histogram();
+        private final Histogram outputSize = new Histogram();
+
+        private Operation(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param nanos how long one call took
+         */
+        public void record(long nanos) {
+            latency.record(nanos);
+        }
+
+        /**
+         * @param nanos how long one call took
+         * @param input size of the input, in nodes for a tree or characters for text
+         * @param output size of the output, in nodes for a tree or characters for text
+         */
+        public void record(long nanos, long input, long output) {
+            latency.record(nanos);
+            inputSize.record(input);
+            outputSize.record(output);
+        }
+
+        void reset() {
+            latency.reset();
+            inputSize.reset();
+            outputSize.reset();
+        }
+
+        /**
+         * @return the latency distribution of this operation, in nanoseconds
+         */
+        public Histogram latency() {
+            return latency;
+        }
+
+        @Override public long getCount() { return latency.count(); }
+        @Override public double getMeanNanos() { return latency.mean(); }
+        @Override public long getP50Nanos() { return latency.percentile(50); }
+        @Override public long getP90Nanos() { return latency.percentile(90); }
+        @Override public long getP99Nanos() { return latency.percentile(99); }
+        @Override public long getMaxNanos() { return latency.max(); }
+        @Override public double getMeanInputSize() { return inputSize.mean(); }
+        @Override public double getMeanOutputSize() { return outputSize.mean(); }
+    }
+
+    /**
+     * Hit and miss counts of one cache.
+     */
+    public static final class Cache {
+        private final String name;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        private Cache(String name) {
+            this.name = name;
+        }
+
+        public void hit() {
+            hits.increment();
+        }
+
+        public void miss() {
+            misses.increment();
+        }
+
+        /**
+         * @return the fraction of lookups that hit, or 0 if there were none
+         */
+        public double hitRate() {
+            final long h = hits.sum();
+            final long total = h + misses.sum();
+            return total == 0 ? 0 : (double) h / total;
+        }
+
+        void reset() {
+            hits.reset();
+            misses.reset();
+        }
+    }
+
+    /**
+     * Management interface of the metrics layer as a whole.
+     */
+    public interface MetricsMXBean {
+        boolean isEnabled();
+        void setEnabled(boolean enabled);
+        Map<String, Double> getCacheHitRates();
+        String dump();
+        void reset();
+    }
+
+    private static final class Summary implements MetricsMXBean {
+        @Override public boolean isEnabled() { return Metrics.isEnabled(); }
+        @Override public void setEnabled(boolean on) { Metrics.enabled = on; }
+        @Override public String dump() { return Metrics.dump(); }
+        @Override public void reset() { Metrics.reset(); }
+
+        @Override
+        public Map<String, Double> getCacheHitRates() {
+            final Map<String, Double> rates = new TreeMap<>();
+            for (Cache cache : CACHES.values()) {
+                rates.put(cache.name, cache.hitRate());
+            }
+            return rates;
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package expressivo;
 
-import java.util.Map;
-import java.math.BigDecimal;
-
 /**
  * Number is one of the terminals with value of:
  *   nonnegative integers and floating-point numbers.
@@ -31,7 +28,7 @@ public class Number implements Expression {
      * @returns the string representation of the number.
      */
     public String getContents() {
-        return Double.toString(this.val);
+        return NumberFormatter.toDecimalString(this.val);
     }
     
     /**
@@ -41,6 +38,27 @@ public class Number implements Expression {
         return this.val;
     }
     
+    /**
+     * @returns the number of nodes of this expression, 1 for a leaf.
+     */
+    public long size() {
+        return 1;
+    }
+    
+    /**
+     * @returns the depth of this expression, 1 for a leaf.
+     */
+    public int depth() {
+        return 1;
+    }
+    
+    /**
+     * @returns the empty set; a number has no variables.
+     */
+    public VariableSet variables() {
+        return VariableSet.EMPTY;
+    }
+    
     /**
      * @param String var - differentiate the expression with respect to the variable var. Not used for constant.
      * @returns an expression tree for the derivative of this expression
@@ -51,16 +69,21 @@ public class Number implements Expression {
     };
     
     /**
-     * @param environment maps variables to values.  Variables are required to be case-sensitive nonempty 
-     *         strings of letters.  The set of variables in environment is allowed to be different than the 
-     *         set of variables actually found in expression.  Values must be nonnegative numbers.
-     *         Not used in Number object.
-     * @returns the value of this Number object.
+     * @param binding assigns values to variables. Not used in Number object.
+     * @returns this Number object; it is immutable, so there is nothing to copy.
      * 
      */
     
-    public Expression simplify (Map<String,Double> environment) {
-        return new Number (this.val);
+    public Expression simplify (VariableBinding binding) {
+        return this;
+    }
+    
+    /**
+     * @param binding assigns values to variables. Not used in Number object.
+     * @returns the value of this Number object.
+     */
+    public double evaluate (VariableBinding binding) {
+        return this.val;
     }
     
     /**
@@ -78,13 +101,8 @@ public class Number implements Expression {
     @Override 
     public String toString() {
         //return "Number("+String.valueOf(this.val)+")";
-        // if this double is an integer then just return the integer portion (1.0 -> 1)
-        if ((this.val == Math.floor(this.val)) && !Double.isInfinite(this.val)) {
-            return BigDecimal.valueOf(this.val).toPlainString();
-        } else {
-            // return number in decimal format, without scientific notation such as 5.0*E-5
-            return BigDecimal.valueOf(this.val).toPlainString();
-        }
+        // return number in decimal format, without scientific notation such as 5.0*E-5
+        return NumberFormatter.toPlainString(this.val);
     };
     /**
      * @param thatObject any object
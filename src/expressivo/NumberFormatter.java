@@ -0,0 +1,217 @@
+package expressivo;
+
+/**
+ * NumberFormatter renders doubles as decimal text without going through BigDecimal.
+ *
+ * Two formats are provided, each producing exactly the string the JDK would:
+ *   appendDecimal - the format of Double.toString, used for getContents()
+ *   appendPlain   - the format of BigDecimal.valueOf(d).toPlainString(), used for
+ *                   toString() and for the numbers Commands prints; this is
+ *                   Double.toString's digits written out without an exponent
+ *
+ * Most constants in an expression are small integers or have a few decimal places.
+ * Those are written straight into the caller's StringBuilder from long arithmetic:
+ * the shortest decimal with k fraction digits that rounds back to the double is found
+ * by scaling by 10^k, which needs no allocation at all. Only values outside that fast
+ * path (very large or small magnitudes, or many significant digits) fall back to
+ * Double.toString's digits, which are then re-laid out in place of BigDecimal.
+ */
+class NumberFormatter {
+
+    // the fast path covers magnitudes where Double.toString does not use an exponent
+    private static final double MIN_FAST = 1e-3;
+    private static final double MAX_FAST = 1e7;
+    // largest scaled value for which rounding v * 10^k recovers the nearest integer exactly
+    private static final long MAX_SCALED = 1L << 50;
+    private static final int MAX_FRACTION_DIGITS = 15;
+    private static final double[] POW10 = new double[MAX_FRACTION_DIGITS + 1];
+    private static final long[] LONG_POW10 = new long[MAX_FRACTION_DIGITS + 1];
+    static {
+        double d = 1;
+        long l = 1;
+        for (int i = 0; i <= MAX_FRACTION_DIGITS; i++) {
+            POW10[i] = d;
+            LONG_POW10[i] = l;
+            d *= 10;
+            l *= 10;
+        }
+    }
+
+    private NumberFormatter() {
+        // only static methods
+    }
+
+    /**
+     * @param double val - a number
+     * @returns the same string as Double.toString(val)
+     */
+    static String toDecimalString(double val) {
+        return appendDecimal(new StringBuilder(24), val).toString();
+    }
+
+    /**
+     * @param double val - a finite number
+     * @returns the same string as BigDecimal.valueOf(val).toPlainString()
+     * @throws NumberFormatException if val is infinite or NaN, as BigDecimal.valueOf does
+     */
+    static String toPlainString(double val) {
+        return appendPlain(new StringBuilder(24), val).toString();
+    }
+
+    /**
+     * Append val formatted as Double.toString(val) would.
+     * @param StringBuilder sb - where to append
+     * @param double val - a number
+     * @returns sb
+     */
+    static StringBuilder appendDecimal(StringBuilder sb, double val) {
+        if (!appendFast(sb, val, true)) {
+            sb.append(Double.toString(val));
+        }
+        return sb;
+    }
+
+    /**
+     * Append val formatted as BigDecimal.valueOf(val).toPlainString() would.
+     * @param StringBuilder sb - where to append
+     * @param double val - a finite number
+     * @returns sb
+     * @throws NumberFormatException if val is infinite or NaN, as BigDecimal.valueOf does
+     */
+    static StringBuilder appendPlain(StringBuilder sb, double val) {
+        if (Double.isNaN(val) || Double.isInfinite(val)) {
+            throw new NumberFormatException("Infinite or NaN");
+        }
+        if (val == 0) {
+            // BigDecimal has no negative zero
+            return sb.append("0.0");
+        }
+        if (!appendFast(sb, val, false)) {
+            appendPlainFromDecimal(sb, Double.toString(val));
+        }
+        return sb;
+    }
+
+    /**
+     * @param double abs - a positive finite number
+     * @returns the number k of fraction digits of the shortest decimal representation of
+     *          abs, 0 for an integer, if abs is in the range where Double.toString uses no
+     *          exponent and k <= MAX_FRACTION_DIGITS; otherwise -1. The decimal is then
+     *          scaled(abs, k) / 10^k.
+     */
+    static int shortestScale(double abs) {
+        if (!(abs >= MIN_FAST && abs < MAX_FAST)) {
+            return -1;
+        }
+        if ((long) abs == abs) {
+            return 0;
+        }
+        for (int k = 1; k <= MAX_FRACTION_DIGITS; k++) {
+            final long scaled = Math.round(abs * POW10[k]);
+            if (scaled >= MAX_SCALED) {
+                return -1;
+            }
+            // the division is correctly rounded, so this holds exactly when the decimal
+            // scaled / 10^k is in the rounding interval of abs
+            if (scaled / POW10[k] == abs) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param double abs - a number for which shortestScale(abs) returned k >= 0
+     * @param int k - that scale
+     * @returns the digits of the shortest decimal representation of abs, i.e. abs * 10^k
+     */
+    static long scaled(double abs, int k) {
+        return Math.round(abs * POW10[k]);
+    }
+
+    /**
+     * @param int k - 0 <= k <= MAX_FRACTION_DIGITS
+     * @returns 10^k
+     */
+    static long powerOfTen(int k) {
+        return LONG_POW10[k];
+    }
+
+    /**
+     * Append val if it is in the range where Double.toString uses no exponent and its
+     * shortest representation has at most MAX_FRACTION_DIGITS fraction digits; there the
+     * decimal and plain formats coincide.
+     * @returns true if val was appended, false if sb is unchanged
+     */
+    private static boolean appendFast(StringBuilder sb, double val, boolean keepNegativeZero) {
+        final double abs = Math.abs(val);
+        if (abs == 0) {
+            sb.append(keepNegativeZero && Double.doubleToRawLongBits(val) != 0 ? "-0.0" : "0.0");
+            return true;
+        }
+        final int k = shortestScale(abs);
+        if (k < 0) {
+            return false;
+        }
+        if (val < 0) {
+            sb.append('-');
+        }
+        if (k == 0) {
+            sb.append((long) abs).append(".0");
+            return true;
+        }
+        final long scaled = scaled(abs, k);
+        sb.append(scaled / LONG_POW10[k]).append('.');
+        final long fraction = scaled % LONG_POW10[k];
+        for (int zeros = k - 1; zeros > 0 && fraction < LONG_POW10[zeros]; zeros--) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+        return true;
+    }
+
+    /**
+     * Lay out the output of Double.toString the way BigDecimal.toPlainString would: the
+     * digits of the mantissa, including any trailing zeros, form the unscaled value and
+     * the exponent moves the decimal point.
+     * @param StringBuilder sb - where to append
+     * @param String decimal - Double.toString of a finite nonzero double
+     */
+    private static void appendPlainFromDecimal(StringBuilder sb, String decimal) {
+        final int exponentAt = decimal.indexOf('E');
+        if (exponentAt < 0) {
+            // already plain, e.g. 123.456
+            sb.append(decimal);
+            return;
+        }
+        int start = 0;
+        if (decimal.charAt(0) == '-') {
+            sb.append('-');
+            start = 1;
+        }
+        // mantissa is d.ddd with a nonzero leading digit
+        final int point = decimal.indexOf('.', start);
+        final int fractionDigits = exponentAt - point - 1;
+        final int scale = fractionDigits - Integer.parseInt(decimal.substring(exponentAt + 1));
+        final int digits = 1 + fractionDigits;
+        if (scale <= 0) {
+            sb.append(decimal, start, point).append(decimal, point + 1, exponentAt);
+            for (int i = 0; i < -scale; i++) {
+                sb.append('0');
+            }
+        } else if (digits > scale) {
+            // the point falls inside the digits
+            final int integerDigits = digits - scale;
+            sb.append(decimal, start, point);
+            sb.append(decimal, point + 1, point + integerDigits);
+            sb.append('.');
+            sb.append(decimal, point + integerDigits, exponentAt);
+        } else {
+            sb.append("0.");
+            for (int i = digits; i < scale; i++) {
+                sb.append('0');
+            }
+            sb.append(decimal, start, point).append(decimal, point + 1, exponentAt);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package expressivo;
+
+import java.math.BigInteger;
+
+/**
+ * NumberParser converts the number syntax of Expression.g,
+ *     number ::= [0-9]+('.' [0-9]*)? | '.' [0-9]+
+ * to a double, reading straight from a range of characters so that callers holding the
+ * whole input do not need a substring per number. The result is always bit-identical
+ * to Double.parseDouble of the same text.
+ *
+ * Digits are accumulated into a 64-bit significand w and a decimal exponent q, so the
+ * value is w * 10^q. Then:
+ *   - if w < 2^53 and |q| <= 22, both w and 10^|q| are exact doubles and one correctly
+ *     rounded multiply or divide gives the answer (Clinger's fast path);
+ *   - otherwise, if w has at most 19 digits, the Eisel-Lemire algorithm multiplies w by a
+ *     128-bit approximation of 5^q and rounds, which is exact except in rare cases it
+ *     detects itself;
+ *   - those rare cases, and inputs with more than 19 significant digits, fall back to
+ *     Double.parseDouble.
+ */
+class NumberParser {
+
+    private static final int MAX_DIGITS = 19;           // significant digits that fit in an unsigned long
+    private static final int MAX_EXACT_POW10 = 22;      // largest power of 10 exact in a double
+    private static final long MAX_EXACT_SIGNIFICAND = 1L << 53;
+
+    private static final int SMALLEST_POWER = -342;     // below this every w * 10^q rounds to 0
+    private static final int LARGEST_POWER = 308;       // above this every w * 10^q is infinite
+
+    private static final double[] POW10 = new double[MAX_EXACT_POW10 + 1];
+
+    // 5^q normalized to 128 bits with its top bit set, for SMALLEST_POWER <= q <= LARGEST_POWER:
+    // truncated for q >= 0, rounded up for q < 0
+    private static final long[] POW5_HIGH = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+    private static final long[] POW5_LOW = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+
+    static {
+        double d = 1;
+        for (int i = 0; i <= MAX_EXACT_POW10; i++) {
+            POW10[i] = d;
+            d *= 10;
+        }
+        final BigInteger five = BigInteger.valueOf(5);
+        for (int q = SMALLEST_POWER; q <= LARGEST_POWER; q++) {
+            BigInteger c;
+            if (q >= 0) {
+                c = five.pow(q);
+                c = c.shiftLeft(128 - c.bitLength());
+            } else {
+                final BigInteger power5 = five.pow(-q);
+                final int z = power5.bitLength();  // ceil(log2(5^-q)), as 5^-q is not a power of 2
+                final int b = q >= -27 ? z + 127 : 2 * z + 128;
+                c = BigInteger.ONE.shiftLeft(b).divide(power5).add(BigInteger.ONE);
+                if (c.bitLength() > 128) {
+                    c = c.shiftRight(c.bitLength() - 128);
+                }
+            }
+            POW5_HIGH[q - SMALLEST_POWER] = c.shiftRight(64).longValue();
+            POW5_LOW[q - SMALLEST_POWER] = c.longValue();
+        }
+    }
+
+    private NumberParser() {
+        // only static methods
+    }
+
+    /**
+     * @param CharSequence s - a number in the syntax of Expression.g
+     * @returns Double.parseDouble(s.toString())
+     * @throws NumberFormatException if s is not a number in that syntax
+     */
+    static double parse(CharSequence s) {
+        return parse(s, 0, s.length());
+    }
+
+    /**
+     * @param CharSequence s - holds the number
+     * @param int start, end - the number is s[start..end), in the syntax of Expression.g
+     * @returns Double.parseDouble of s[start..end)
+     * @throws NumberFormatException if s[start..end) is not a number in that syntax
+     */
+    static double parse(CharSequence s, int start, int end) {
+        long w = 0;            // unsigned
+        int digits = 0;        // significant digits in w, not counting leading zeros
+        int exponent = 0;      // q, adjusted for fraction digits
+        boolean any = false;   // whether any digit was seen
+        boolean point = false;
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (w == 0 && c == '0') {
+                    // leading zero: only moves the point
+                    if (point) {
+                        exponent--;
+                    }
+                    continue;
+                }
+                if (++digits > MAX_DIGITS) {
+                    return fallback(s, start, end);
+                }
+                w = 10 * w + (c - '0');
+                if (point) {
+                    exponent--;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                throw new NumberFormatException("invalid number: " + s.subSequence(start, end));
+            }
+        }
+        if (!any) {
+            throw new NumberFormatException("invalid number: " + s.subSequence(start, end));
+        }
+        if (w == 0) {
+            return 0.0;
+        }
+
+        if (w >= 0 && w < MAX_EXACT_SIGNIFICAND && exponent >= -MAX_EXACT_POW10 && exponent <= MAX_EXACT_POW10) {
+            return exponent < 0 ? w / POW10[-exponent] : w * POW10[exponent];
+        }
+
+        final long bits = eiselLemire(w, exponent);
+        return bits >= 0 ? Double.longBitsToDouble(bits) : fallback(s, start, end);
+    }
+
+    private static double fallback(CharSequence s, int start, int end) {
+        return Double.parseDouble(s.subSequence(start, end).toString());
+    }
+
+    /**
+     * @param long w - nonzero unsigned significand
+     * @param int q - decimal exponent
+     * @returns the bits of the double nearest to w * 10^q, or -1 if that cannot be
+     *          decided from a 128-bit approximation of 5^q
+     */
+    private static long eiselLemire(long w, int q) {
+        if (q < SMALLEST_POWER) {
+            return 0;
+        }
+        if (q > LARGEST_POWER) {
+            return Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+        }
+        final int index = q - SMALLEST_POWER;
+        // floor(q * log2(10)) + 1023 + 64
+        final long exponent = (((152170 + 65536) * q) >> 16) + 1024 + 63;
+        int lz = Long.numberOfLeadingZeros(w);
+        w <<= lz;
+
+        long upper = multiplyHigh(w, POW5_HIGH[index]);
+        long lower = w * POW5_HIGH[index];
+        if ((upper & 0x1FF) == 0x1FF && Long.compareUnsigned(lower + w, lower) < 0) {
+            // the truncated product may be off by one in its lowest kept bit; refine
+            // with the low half of the power
+            final long secondHigh = multiplyHigh(w, POW5_LOW[index]);
+            final long productMiddle = lower + secondHigh;
+            if (Long.compareUnsigned(productMiddle, lower) < 0) {
+                upper++;
+            }
+            final long productLow = w * POW5_LOW[index];
+            if (productMiddle == -1L && (upper & 0x1FF) == 0x1FF
+                    && Long.compareUnsigned(productLow + w, productLow) < 0) {
+                return -1;
+            }
+            lower = productMiddle;
+        }
+
+        final long upperBit = upper >>> 63;
+        long mantissa = upper >>> (upperBit + 9);
+        lz += (int) (1 ^ upperBit);
+        if (lower == 0 && (upper & 0x1FF) == 0 && (mantissa & 3) == 1) {
+            // exactly halfway between two doubles as far as we can tell
+            return -1;
+        }
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        if (mantissa >= (1L << 53)) {
+            mantissa = 1L << 52;
+            lz--;
+        }
+        mantissa &= ~(1L << 52);
+        final long realExponent = exponent - lz;
+        if (realExponent < 1 || realExponent > 2046) {
+            // subnormal or overflow
+            return -1;
+        }
+        return mantissa | (realExponent << 52);
+    }
+
+    /**
+     * @returns the high 64 bits of the unsigned 128-bit product of x and y
+     */
+    private static long multiplyHigh(long x, long y) {
+        final long x0 = x & 0xFFFFFFFFL;
+        final long x1 = x >>> 32;
+        final long y0 = y & 0xFFFFFFFFL;
+        final long y1 = y >>> 32;
+        final long p00 = x0 * y0;
+        final long p01 = x0 * y1;
+        final long p10 = x1 * y0;
+        final long p11 = x1 * y1;
+        final long middle = (p00 >>> 32) + (p01 & 0xFFFFFFFFL) + (p10 & 0xFFFFFFFFL);
+        return p11 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+    }
+}
@@ -0,0 +1,249 @@
+package expressivo;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * NumericDomain is the arithmetic that evaluation and constant folding are carried out in.
+ *
+ * The expression tree always stores doubles, but a walk over it can convert each constant
+ * and bound value into a domain value once and then add and multiply in that domain:
+ *   DOUBLE      - IEEE double arithmetic, the same results as Expression.evaluate
+ *   RATIONAL    - exact fractions (see Rational), with no rounding at all
+ *   INTEGER     - exact integers (BigInteger), for expressions with integer constants and values
+ *   decimal(mc) - BigDecimal arithmetic rounded to mc after every operation
+ *
+ * Doubles enter the exact domains by their shortest decimal representation, the digits
+ * Double.toString shows, so the constant 0.1 is exactly 1/10 and 0.1+0.2 folds to 0.3
+ * rather than 0.30000000000000004. In simplify(), a folded constant that ends up inside
+ * a residual expression is rounded to the nearest double once, when it is stored in a
+ * Number; a fully constant expression can be kept exact with evaluate() and format().
+ *
+ * @param <T> the type of values of the domain
+ */
+public abstract class NumericDomain<T> {
+
+    /**
+     * Double arithmetic, the domain Expression.evaluate and Expression.simplify use.
+     */
+    public static final NumericDomain<Double> DOUBLE = new NumericDomain<Double>("double") {
+        @Override public Double fromDouble(double value) { return value; }
+        @Override public Double add(Double x, Double y) { return x + y; }
+        @Override public Double multiply(Double x, Double y) { return x * y; }
+        @Override public double toDouble(Double x) { return x; }
+        @Override public String format(Double x) { return NumberFormatter.toPlainString(x); }
+    };
+
+    /**
+     * Exact rational arithmetic; values whose numerator and denominator fit in a long are
+     * computed without allocating a BigInteger.
+     */
+    public static final NumericDomain<Rational> RATIONAL = new NumericDomain<Rational>("rational") {
+        @Override public Rational fromDouble(double value) { return Rational.valueOf(value); }
+        @Override public Rational add(Rational x, Rational y) { return x.add(y); }
+        @Override public Rational multiply(Rational x, Rational y) { return x.multiply(y); }
+        @Override public double toDouble(Rational x) { return x.doubleValue(); }
+        @Override public String format(Rational x) { return NumberFormatter.toPlainString(x.doubleValue()); }
+    };
+
+    /**
+     * Exact integer arithmetic; every constant and bound value must be an integer. See
+     * IntegerExpression for the long fast path that is tried before this domain.
+     */
+    public static final NumericDomain<BigInteger> INTEGER = new NumericDomain<BigInteger>("integer") {
+        @Override public BigInteger fromDouble(double value) {
+            if (value != Math.rint(value) || Double.isInfinite(value)) {
+                throw new IllegalArgumentException("not an integer: " + value);
+            }
+            return BigDecimal.valueOf(value).toBigIntegerExact();
+        }
+        @Override public BigInteger add(BigInteger x, BigInteger y) { return x.add(y); }
+        @Override public BigInteger multiply(BigInteger x, BigInteger y) { return x.multiply(y); }
+        @Override public double toDouble(BigInteger x) { return x.doubleValue(); }
+        @Override public String format(BigInteger x) {
+            return x.bitLength() <= 53 ? NumberFormatter.toPlainString(x.doubleValue()) : x.toString();
+        }
+    };
+
+    private final String name;
+
+    // rep invariant:
+    //    name != null
+    //
+    // All reps are private so no rep exposure risk.
+
+    private NumericDomain(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param mc the precision and rounding applied after every operation
+     * @return decimal arithmetic rounded to mc; BigDecimal keeps values of up to 18 digits
+     *         in a long internally, so short constants are added and multiplied without
+     *         allocating a BigInteger
+     */
+    public static NumericDomain<BigDecimal> decimal(final MathContext mc) {
+        return new NumericDomain<BigDecimal>("decimal(" + mc + ")") {
+            @Override public BigDecimal fromDouble(double value) { return BigDecimal.valueOf(value).round(mc); }
+            @Override public BigDecimal add(BigDecimal x, BigDecimal y) { return x.add(y, mc); }
+            @Override public BigDecimal multiply(BigDecimal x, BigDecimal y) { return x.multiply(y, mc); }
+            @Override public double toDouble(BigDecimal x) { return x.doubleValue(); }
+            @Override public String format(BigDecimal x) { return x.toPlainString(); }
+        };
+    }
+
+    /**
+     * @param value a finite number, a constant or bound value of an expression
+     * @return value in this domain
+     * @throws IllegalArgumentException if value has no representation in this domain
+     */
+    public abstract T fromDouble(double value);
+
+    /**
+     * @return x + y in this domain
+     */
+    public abstract T add(T x, T y);
+
+    /**
+     * @return x * y in this domain
+     */
+    public abstract T multiply(T x, T y);
+
+    /**
+     * @param x the base
+     * @param n the exponent, >= 0
+     * @return x^n in this domain, by exponentiation by squaring
+     */
+    public T power(T x, int n) {
+        T result = fromDouble(1);
+        while (n != 0) {
+            if ((n & 1) != 0) {
+                result = multiply(result, x);
+            }
+            n >>>= 1;
+            if (n != 0) {
+                x = multiply(x, x);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the double nearest to x
+     */
+    public abstract double toDouble(T x);
+
+    /**
+     * @return x as text without an exponent, the way Commands prints numbers
+     */
+    public abstract String format(T x);
+
+    /**
+     * Evaluate an expression in this domain.
+     * @param expression the expression to evaluate
+     * @param binding assigns values to variables. Every variable in the expression is
+     *        expected to be bound; see VariableBinding.setFailOnUnbound.
+     * @return the value of expression under binding, computed in this domain
+     * @throws IllegalArgumentException if a variable is unbound and binding fails on unbound
+     *         variables, or if it evaluates them as NaN and NaN is not in this domain
+     */
+    public T evaluate(Expression expression, VariableBinding binding) {
+        if (expression instanceof StoredExpression) {
+            expression = ((StoredExpression) expression).node();
+        }
+        if (expression instanceof Number) {
+            return fromDouble(expression.getValue());
+        } else if (expression instanceof Variable) {
+            return fromDouble(expression.evaluate(binding));
+        } else if (expression instanceof PowExpression) {
+            final PowExpression pow = (PowExpression) expression;
+            return power(evaluate(pow.getBase(), binding), pow.getExponent());
+        }
+        // the left chain iteratively, bottom up, see BinOpExpression.chain()
+        final BinOpExpression binOp = (BinOpExpression) expression;
+        final BinOpExpression[] below = binOp.chain();
+        T x = evaluate(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft(), binding);
+        for (int i = below.length; i >= 0; i--) {
+            final T y = evaluate((i == 0 ? binOp : below[i - 1]).getRight(), binding);
+            x = binOp.getOp() == '+' ? add(x, y) : multiply(x, y);
+        }
+        return x;
+    }
+
+    /**
+     * Simplify an expression, folding constant subtrees in this domain.
+     * @param expression the expression to simplify
+     * @param binding assigns values to variables, as for Expression.simplify
+     * @return the expression with bound variables substituted and every constant subtree
+     *         folded, as Expression.simplify does, except that each folded constant is
+     *         computed exactly in this domain and rounded to a double once
+     */
+    public Expression simplify(Expression expression, VariableBinding binding) {
+        return residual(fold(expression, binding));
+    }
+
+    /**
+     * @param expression the expression to simplify
+     * @param binding assigns values to variables, as for Expression.simplify
+     * @return the value of expression, formatted by this domain, if every variable in it is
+     *         bound, so it is rounded only once, at the end; otherwise the getContents() of
+     *         the residual expression, as for simplify()
+     */
+    String simplifyToString(Expression expression, VariableBinding binding) {
+        final Object folded = fold(expression, binding);
+        return folded instanceof Expression ? ((Expression) folded).getContents() : format(cast(folded));
+    }
+
+    /**
+     * @return the value of expression in this domain if every variable in it is bound,
+     *         otherwise the residual expression, with constant subtrees folded
+     */
+    private Object fold(Expression expression, VariableBinding binding) {
+        if (expression instanceof StoredExpression) {
+            expression = ((StoredExpression) expression).node();
+        }
+        if (expression instanceof Number) {
+            return fromDouble(expression.getValue());
+        } else if (expression instanceof Variable) {
+            final int slot = ((Variable) expression).getSlot();
+            return binding.isBound(slot) ? fromDouble(binding.get(slot)) : expression;
+        } else if (expression instanceof PowExpression) {
+            final PowExpression pow = (PowExpression) expression;
+            final Object base = fold(pow.getBase(), binding);
+            return base instanceof Expression ? new PowExpression((Expression) base, pow.getExponent())
+                                              : power(cast(base), pow.getExponent());
+        }
+        // the left chain iteratively, bottom up, see BinOpExpression.chain()
+        final BinOpExpression binOp = (BinOpExpression) expression;
+        final BinOpExpression[] below = binOp.chain();
+        Object x = fold(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft(), binding);
+        for (int i = below.length; i >= 0; i--) {
+            final Object y = fold((i == 0 ? binOp : below[i - 1]).getRight(), binding);
+            if (!(x instanceof Expression) && !(y instanceof Expression)) {
+                x = binOp.getOp() == '+' ? add(cast(x), cast(y)) : multiply(cast(x), cast(y));
+            } else {
+                x = new BinOpExpression(binOp.getOp(), residual(x), residual(y));
+            }
+        }
+        return x;
+    }
+
+    private Expression residual(Object folded) {
+        return folded instanceof Expression ? (Expression) folded : new Number(toDouble(cast(folded)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private T cast(Object value) {
+        // fold() returns either an Expression or a value of this domain
+        return (T) value;
+    }
+
+    /**
+     * @return the name of this domain, e.g. "rational"
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
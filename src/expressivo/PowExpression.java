@@ -0,0 +1,401 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PowExpression represents a power base^n of an expression with a non-negative integer
+ * exponent, so that x^50 is one node instead of a chain of 49 products.
+ *
+ * Its derivative follows the power rule, d(u^n)/dx = n*u^(n-1)*du/dx, which is linear in
+ * the size of u rather than quadratic like the product rule over a chain of factors, and
+ * it is evaluated by exponentiation by squaring in O(log n) multiplications.
+ */
+public class PowExpression implements Expression {
+    private final Expression base;   // the expression raised to the power
+    private final int exponent;      // the power, >= 0
+    private String contents;         // the string representation of this expression, built on first use
+    private final long size;         // number of nodes of this expression as a tree
+    private final int depth;         // number of nodes on the longest root-to-leaf path
+    private final int nesting;       // 1 + the nesting of the base, see BinOpExpression.nestingOf
+    private VariableSet variables;   // variables occurring in this expression; null until first use if base is a stored view
+    private boolean foldable;        // some operation in this subtree has no variables; valid once variables != null
+    private double val = Double.NaN; // the value of this expression after being evaluated (simplified)
+
+    // rep invariant:
+    //    base != null
+    //    exponent >= 0
+    //
+    // All reps are private so no rep exposure risk.
+
+    /**
+     * constructor
+     * @param Expression base - the expression raised to the power
+     * @param int exponent - the power, >= 0
+     */
+    public PowExpression (Expression base, int exponent) {
+        this.base = base;
+        this.exponent = exponent;
+        this.size = sizeOf(base.size());
+        this.depth = 1 + base.depth();
+        this.nesting = 1 + BinOpExpression.nestingOf(base);
+        if (!(base instanceof StoredExpression)) {
+            summarize();
+        }
+
+        checkRep();
+    }
+
+    /**
+     * @param String text - the exponent as written in the input, a number
+     * @returns the exponent text denotes
+     * @throws IllegalArgumentException if text is not a non-negative integer that fits in an int
+     */
+    static int parseExponent(String text) {
+        final double value;
+        try {
+            value = NumberParser.parse(text);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("invalid exponent " + text);
+        }
+        if (value != Math.rint(value) || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("exponent must be a non-negative integer: " + text);
+        }
+        return (int) value;
+    }
+
+    /**
+     * @return 1 + baseSize, saturated at Long.MAX_VALUE
+     */
+    static long sizeOf(long baseSize) {
+        return baseSize == Long.MAX_VALUE ? Long.MAX_VALUE : 1 + baseSize;
+    }
+
+    /**
+     * @param double x - the base
+     * @param int n - the exponent, >= 0
+     * @returns x^n by exponentiation by squaring, 1 for n = 0
+     */
+    static double power(double x, int n) {
+        double result = 1;
+        while (n != 0) {
+            if ((n & 1) != 0) {
+                result *= x;
+            }
+            n >>>= 1;
+            if (n != 0) {
+                x *= x;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @returns string representation of the Expression
+     */
+    public String getContents() {
+        String str = this.contents;
+        if (str == null) {
+            // "(" + base.getContents() + "^" + exponent + ")", without recursion
+            str = ExpressionWriter.toContentsString(this);
+            this.contents = str;
+        }
+        return str;
+    }
+
+    /**
+     * @returns the number of nodes of this expression as a tree; the exponent is part of this node.
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * @returns the depth of this expression.
+     */
+    public int depth() {
+        return this.depth;
+    }
+
+    /**
+     * @returns how deep the walkers over this expression recurse, see BinOpExpression.nestingOf
+     */
+    int nesting() {
+        return this.nesting;
+    }
+
+    /**
+     * @returns the set of variables that occur in this expression, those of the base.
+     */
+    public VariableSet variables() {
+        if (this.variables == null) {
+            summarize();
+        }
+        return this.variables;
+    }
+
+    /**
+     * @returns true if some operation in this expression has no variables, so that
+     *          simplify folds it to a number even when no variable is bound.
+     */
+    boolean isFoldable() {
+        if (this.variables == null) {
+            summarize();
+        }
+        return this.foldable;
+    }
+
+    private void summarize() {
+        this.variables = base.variables();
+        this.foldable = this.variables.isEmpty() || BinOpExpression.isFoldable(base);
+    }
+
+    /**
+     * @param binding assigns values to variables.
+     * @returns true if simplify(binding) is this expression itself without visiting any node:
+     *          none of its variables is bound and it has no constant operation to fold. Always
+     *          false over a stored view.
+     */
+    private boolean unchangedBy(VariableBinding binding) {
+        return this.variables != null && !this.foldable && !binding.bindsAny(this.variables);
+    }
+
+    /**
+     * @returns the expression raised to the power
+     */
+    Expression getBase() {
+        return this.base;
+    }
+
+    /**
+     * @returns the exponent, >= 0
+     */
+    int getExponent() {
+        return this.exponent;
+    }
+
+    /**
+     * @returns the value of the Expression after being simplified (evaluated).
+     */
+    public double getValue() {
+        return this.val;
+    }
+
+    /**
+     * @param String var - differentiate the expression with respect to the variable var.
+     * @returns an expression tree for the derivative of this expression:
+     *    d(u^0)/dx = 0
+     *    d(u^1)/dx = du/dx
+     *    d(u^2)/dx = 2*u*du/dx
+     *    d(u^n)/dx = n*u^(n-1)*du/dx
+     *    and 0 if var does not occur in u
+     */
+    public Expression derivative (String var) {
+        return derivative(var, CancellationToken.NONE);
+    }
+
+    /**
+     * @param String var - differentiate the expression with respect to the variable var.
+     * @param CancellationToken token - polled once per node visited
+     * @returns an expression tree for the derivative of this expression, as for derivative(var)
+     */
+    public Expression derivative (String var, CancellationToken token) {
+        token.checkpoint();
+        if (!variables().contains(var)) {
+            return new Number(0);
+        }
+        return powerRule(base.derivative(var, token));
+    }
+
+    private Expression powerRule(Expression du) {
+        switch (exponent) {
+            case 0:
+                return new Number(0);
+            case 1:
+                return du;
+            default:
+                final Expression lower = exponent == 2 ? base : new PowExpression(base, exponent - 1);
+                return new BinOpExpression('*', new BinOpExpression('*', new Number(exponent), lower), du);
+        }
+    }
+
+    /**
+     * @param binding assigns values to variables.
+     * @returns the value for this PowExpression object after it's evaluated.
+     */
+    public Expression simplify (VariableBinding binding) {
+        return simplify(binding, CancellationToken.NONE);
+    }
+
+    /**
+     * @param binding assigns values to variables.
+     * @param CancellationToken token - polled once per node visited
+     * @returns the value for this PowExpression object after it's evaluated.
+     */
+    public Expression simplify (VariableBinding binding, CancellationToken token) {
+        token.checkpoint();
+        if (unchangedBy(binding)) {
+            return this;
+        }
+        return simplified(base.simplify(binding, token));
+    }
+
+    private Expression simplified(Expression x) {
+        final double valueX = x.getValue();
+        if (!Double.isNaN(valueX)) {
+            return new Number(power(valueX, exponent));
+        }
+        // unchanged base: keep this node, so simplify allocates only where something changed
+        return x == base ? this : new PowExpression(x, exponent);
+    }
+
+    /**
+     * @param binding assigns values to variables.
+     * @returns the value of this PowExpression under binding.
+     */
+    public double evaluate (VariableBinding binding) {
+        return evaluate(binding, CancellationToken.NONE);
+    }
+
+    /**
+     * @param binding assigns values to variables.
+     * @param CancellationToken token - polled once per node visited
+     * @returns the value of this PowExpression under binding.
+     */
+    public double evaluate (VariableBinding binding, CancellationToken token) {
+        token.checkpoint();
+        return power(base.evaluate(binding, token), exponent);
+    }
+
+    /**
+     * Rewrite repeated factors of products as powers, e.g. x*x*x as x^3 and x*y*x as x^2*y.
+     * Factors are grouped by structural equality, in the order of their first occurrence;
+     * a factor that is already a power u^k counts as k factors u. Numbers are left alone.
+     * @param Expression e - any expression
+     * @returns an expression equal in value to e, with no two equal non-numeric factors in
+     *          any product
+     */
+    static Expression collapse(Expression e) {
+        if (e instanceof StoredExpression) {
+            e = ((StoredExpression) e).node();
+        }
+        if (e instanceof PowExpression) {
+            final PowExpression pow = (PowExpression) e;
+            final Expression b = collapse(pow.base);
+            if (b instanceof PowExpression) {
+                final long n = (long) ((PowExpression) b).exponent * pow.exponent;
+                if (n <= Integer.MAX_VALUE) {
+                    return new PowExpression(((PowExpression) b).base, (int) n);
+                }
+            }
+            return new PowExpression(b, pow.exponent);
+        }
+        if (!(e instanceof BinOpExpression)) {
+            return e;
+        }
+        final char op = ((BinOpExpression) e).getOp();
+        final List<Expression> operands = new ArrayList<>();
+        flatten(e, op, operands);
+
+        final List<Expression> bases = new ArrayList<>();
+        final List<Integer> exponents = new ArrayList<>();
+        final Map<String, Integer> group = new HashMap<>(); // contents of a base -> its index in bases
+        for (Expression operand : operands) {
+            Expression b = collapse(operand);
+            int n = 1;
+            if (op == '*' && b instanceof PowExpression) {
+                n = ((PowExpression) b).exponent;
+                b = ((PowExpression) b).base;
+            }
+            final Integer i = op == '*' && !(b instanceof Number) ? group.get(b.getContents()) : null;
+            if (i != null && (long) exponents.get(i) + n <= Integer.MAX_VALUE) {
+                exponents.set(i, exponents.get(i) + n);
+            } else {
+                if (op == '*' && !(b instanceof Number)) {
+                    group.put(b.getContents(), bases.size());
+                }
+                bases.add(b);
+                exponents.add(n);
+            }
+        }
+
+        Expression result = null;
+        for (int i = 0; i < bases.size(); i++) {
+            final Expression factor = exponents.get(i) == 1 ? bases.get(i) : new PowExpression(bases.get(i), exponents.get(i));
+            result = result == null ? factor : new BinOpExpression(op, result, factor);
+        }
+        return result;
+    }
+
+    /**
+     * Append the operands of the maximal chain of op nodes rooted at e to operands, left to
+     * right, without recursion, since parsed chains are as deep as they are long.
+     */
+    private static void flatten(Expression e, char op, List<Expression> operands) {
+        final List<Expression> stack = new ArrayList<>();
+        stack.add(e);
+        while (!stack.isEmpty()) {
+            Expression top = stack.remove(stack.size() - 1);
+            if (top instanceof StoredExpression) {
+                top = ((StoredExpression) top).node();
+            }
+            if (top instanceof BinOpExpression && ((BinOpExpression) top).getOp() == op) {
+                stack.add(((BinOpExpression) top).getRight());
+                stack.add(((BinOpExpression) top).getLeft());
+            } else {
+                operands.add(top);
+            }
+        }
+    }
+
+    /**
+     * assert the rep invariant
+     */
+    private void checkRep() {
+        if (this.base == null) {
+            throw new RuntimeException("null pointer encountered!");
+        }
+        if (this.exponent < 0) {
+            throw new IllegalArgumentException("exponent must be non-negative");
+        }
+    }
+
+    /**
+     * @return a parsable representation of this expression, such that
+     * for all e:Expression, e.equals(Expression.parse(e.toString())).
+     */
+    @Override
+    public String toString() {
+        // base^n, with the base parenthesized unless it is a leaf or a (parenthesized) sum
+        return ExpressionWriter.toParsableString(this);
+    }
+
+    /**
+     * @param thatObject any object
+     * @return true if and only if this and thatObject are structurally-equal
+     * Expressions, as defined in the PS1 handout.
+     */
+    @Override
+    public boolean equals(Object thatObject) {
+        if (!(thatObject instanceof Expression)) return false;
+        Expression thatExpression = (Expression) thatObject;
+        return this.getContents().equals(thatExpression.getContents());
+    }
+
+    /**
+     * @return hash code value consistent with the equals() definition of structural
+     * equality, such that for all e1,e2:Expression,
+     *     e1.equals(e2) implies e1.hashCode() == e2.hashCode()
+     */
+    @Override
+    public int hashCode() {
+        final int prime = 37;
+        int result = 17;
+
+        result = prime * result + this.getContents().hashCode();
+
+        return result;
+    }
+}
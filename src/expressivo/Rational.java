@@ -0,0 +1,298 @@
+package expressivo;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * Rational is an immutable exact fraction num/den in lowest terms with den > 0.
+ *
+ * Values whose numerator and denominator fit in a long are held as two longs, and
+ * arithmetic on them uses Math.addExact/multiplyExact; only when an operation overflows
+ * is it redone with BigInteger, and a BigInteger result that fits in longs again is
+ * demoted. Sums of constants with a few decimal places, the common case, therefore never
+ * allocate a BigInteger.
+ */
+public final class Rational implements Comparable<Rational> {
+
+    public static final Rational ZERO = new Rational(0, 1);
+    public static final Rational ONE = new Rational(1, 1);
+
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+
+    private final long num;          // numerator, if bigNum == null
+    private final long den;          // denominator, if bigNum == null
+    private final BigInteger bigNum; // numerator, or null if the value fits in longs
+    private final BigInteger bigDen; // denominator, or null if the value fits in longs
+
+    // rep invariant:
+    //    either bigNum == bigDen == null, den > 0, gcd(|num|, den) == 1,
+    //        and num != Long.MIN_VALUE (so negating and taking |num| cannot overflow)
+    //    or bigNum, bigDen != null, bigDen > 0, gcd(|bigNum|, bigDen) == 1,
+    //        and they do not both fit the small form
+    //
+    // All reps are private and final so no rep exposure risk.
+
+    private Rational(long num, long den) {
+        this.num = num;
+        this.den = den;
+        this.bigNum = null;
+        this.bigDen = null;
+    }
+
+    private Rational(BigInteger num, BigInteger den) {
+        this.num = 0;
+        this.den = 0;
+        this.bigNum = num;
+        this.bigDen = den;
+    }
+
+    /**
+     * @param n an integer
+     * @return n as a rational
+     */
+    public static Rational valueOf(long n) {
+        return n == Long.MIN_VALUE ? valueOf(BigInteger.valueOf(n), BigInteger.ONE) : new Rational(n, 1);
+    }
+
+    /**
+     * @param n numerator
+     * @param d denominator, nonzero
+     * @return n/d in lowest terms
+     */
+    public static Rational valueOf(long n, long d) {
+        if (d == 0) {
+            throw new ArithmeticException("zero denominator");
+        }
+        if (n == Long.MIN_VALUE || d == Long.MIN_VALUE) {
+            return valueOf(BigInteger.valueOf(n), BigInteger.valueOf(d));
+        }
+        if (d < 0) {
+            n = -n;
+            d = -d;
+        }
+        final long g = gcd(Math.abs(n), d);
+        return new Rational(n / g, d / g);
+    }
+
+    /**
+     * @param n numerator
+     * @param d denominator, nonzero
+     * @return n/d in lowest terms
+     */
+    public static Rational valueOf(BigInteger n, BigInteger d) {
+        if (d.signum() == 0) {
+            throw new ArithmeticException("zero denominator");
+        }
+        if (d.signum() < 0) {
+            n = n.negate();
+            d = d.negate();
+        }
+        final BigInteger g = n.gcd(d);
+        if (!g.equals(BigInteger.ONE)) {
+            n = n.divide(g);
+            d = d.divide(g);
+        }
+        if (fitsSmall(n) && fitsSmall(d)) {
+            return new Rational(n.longValue(), d.longValue());
+        }
+        return new Rational(n, d);
+    }
+
+    /**
+     * Convert a double by its shortest decimal representation, the digits Double.toString
+     * shows, so that 0.1 becomes exactly 1/10 rather than the binary fraction nearest it.
+     * @param d a finite number
+     * @return the rational value of the shortest decimal that rounds to d
+     * @throws IllegalArgumentException if d is infinite or NaN
+     */
+    public static Rational valueOf(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            throw new IllegalArgumentException("not a finite number: " + d);
+        }
+        if (d == 0) {
+            return ZERO;
+        }
+        final double abs = Math.abs(d);
+        final int k = NumberFormatter.shortestScale(abs);
+        if (k >= 0) {
+            final long scaled = NumberFormatter.scaled(abs, k);
+            return valueOf(d < 0 ? -scaled : scaled, NumberFormatter.powerOfTen(k));
+        }
+        final BigDecimal decimal = BigDecimal.valueOf(d);
+        return decimal.scale() <= 0
+                ? valueOf(decimal.toBigIntegerExact(), BigInteger.ONE)
+                : valueOf(decimal.unscaledValue(), BigInteger.TEN.pow(decimal.scale()));
+    }
+
+    private static boolean fitsSmall(BigInteger n) {
+        return n.bitLength() < 64 && !n.equals(LONG_MIN);
+    }
+
+    private static long gcd(long a, long b) {
+        // binary gcd of nonnegative a, b
+        if (a == 0) return b;
+        if (b == 0) return a;
+        final int shift = Long.numberOfTrailingZeros(a | b);
+        a >>= Long.numberOfTrailingZeros(a);
+        do {
+            b >>= Long.numberOfTrailingZeros(b);
+            if (a > b) {
+                final long t = a;
+                a = b;
+                b = t;
+            }
+            b -= a;
+        } while (b != 0);
+        return a << shift;
+    }
+
+    /**
+     * @return the numerator, in lowest terms
+     */
+    BigInteger numerator() {
+        return bigNum != null ? bigNum : BigInteger.valueOf(num);
+    }
+
+    /**
+     * @return the denominator, positive, in lowest terms
+     */
+    BigInteger denominator() {
+        return bigDen != null ? bigDen : BigInteger.valueOf(den);
+    }
+
+    /**
+     * @param that another rational
+     * @return this + that
+     */
+    public Rational add(Rational that) {
+        if (this.bigNum == null && that.bigNum == null) {
+            try {
+                if (this.den == that.den) {
+                    return valueOf(Math.addExact(this.num, that.num), this.den);
+                }
+                final long n = Math.addExact(Math.multiplyExact(this.num, that.den),
+                                             Math.multiplyExact(that.num, this.den));
+                return valueOf(n, Math.multiplyExact(this.den, that.den));
+            } catch (ArithmeticException overflow) {
+                // fall through to BigInteger
+            }
+        }
+        return valueOf(numerator().multiply(that.denominator()).add(that.numerator().multiply(denominator())),
+                       denominator().multiply(that.denominator()));
+    }
+
+    /**
+     * @param that another rational
+     * @return this * that
+     */
+    public Rational multiply(Rational that) {
+        if (this.signum() == 0 || that.signum() == 0) {
+            return ZERO;
+        }
+        if (this.bigNum == null && that.bigNum == null) {
+            // cross-cancel first, so the products are already in lowest terms
+            final long g1 = gcd(Math.abs(this.num), that.den);
+            final long g2 = gcd(Math.abs(that.num), this.den);
+            try {
+                final long n = Math.multiplyExact(this.num / g1, that.num / g2);
+                final long d = Math.multiplyExact(this.den / g2, that.den / g1);
+                if (n != Long.MIN_VALUE) {
+                    return new Rational(n, d);
+                }
+            } catch (ArithmeticException overflow) {
+                // fall through to BigInteger
+            }
+        }
+        return valueOf(numerator().multiply(that.numerator()), denominator().multiply(that.denominator()));
+    }
+
+    /**
+     * @return -1, 0 or 1 as this is negative, zero or positive
+     */
+    public int signum() {
+        return bigNum != null ? bigNum.signum() : Long.signum(num);
+    }
+
+    /**
+     * @return true if and only if the denominator is 1
+     */
+    public boolean isInteger() {
+        return bigNum == null ? den == 1 : bigDen.equals(BigInteger.ONE);
+    }
+
+    /**
+     * @return the double nearest to this rational
+     */
+    public double doubleValue() {
+        if (bigNum == null && Math.abs(num) < (1L << 53) && den < (1L << 53)) {
+            // both exact, and the division is correctly rounded
+            return (double) num / den;
+        }
+        final BigInteger n = numerator().abs();
+        final BigInteger d = denominator();
+        if (n.signum() == 0) {
+            return 0;
+        }
+        // a quotient of 55 or 56 bits plus a sticky bit rounds correctly to 53 bits
+        final int shift = 55 + d.bitLength() - n.bitLength();
+        final BigInteger[] qr = shift >= 0 ? n.shiftLeft(shift).divideAndRemainder(d)
+                                           : n.divideAndRemainder(d.shiftLeft(-shift));
+        long q = qr[0].longValue();
+        if (qr[1].signum() != 0) {
+            q |= 1;
+        }
+        final double value = Math.scalb((double) q, -shift);
+        return signum() < 0 ? -value : value;
+    }
+
+    /**
+     * @param mc precision and rounding of the result
+     * @return this rational as a decimal rounded according to mc
+     */
+    public BigDecimal toBigDecimal(MathContext mc) {
+        return new BigDecimal(numerator()).divide(new BigDecimal(denominator()), mc);
+    }
+
+    @Override
+    public int compareTo(Rational that) {
+        if (this.bigNum == null && that.bigNum == null) {
+            try {
+                return Long.compare(Math.multiplyExact(this.num, that.den), Math.multiplyExact(that.num, this.den));
+            } catch (ArithmeticException overflow) {
+                // fall through to BigInteger
+            }
+        }
+        return numerator().multiply(that.denominator()).compareTo(that.numerator().multiply(denominator()));
+    }
+
+    /**
+     * @return true if and only if thatObject is a Rational with the same value
+     */
+    @Override
+    public boolean equals(Object thatObject) {
+        if (!(thatObject instanceof Rational)) return false;
+        final Rational that = (Rational) thatObject;
+        if (this.bigNum == null) {
+            return that.bigNum == null && this.num == that.num && this.den == that.den;
+        }
+        return this.bigNum.equals(that.bigNum) && this.bigDen.equals(that.bigDen);
+    }
+
+    @Override
+    public int hashCode() {
+        return bigNum == null ? 37 * Long.hashCode(num) + Long.hashCode(den)
+                              : 37 * bigNum.hashCode() + bigDen.hashCode();
+    }
+
+    /**
+     * @return "num" for an integer, "num/den" otherwise
+     */
+    @Override
+    public String toString() {
+        if (bigNum == null) {
+            return den == 1 ? Long.toString(num) : num + "/" + den;
+        }
+        return isInteger() ? bigNum.toString() : bigNum + "/" + bigDen;
+    }
+}
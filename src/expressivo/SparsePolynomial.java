@@ -0,0 +1,587 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SparsePolynomial is an immutable multivariate polynomial with exact rational
+ * coefficients, held as its nonzero terms: the expanded sum-of-products form of an
+ * expression.
+ *
+ * The exponents of a monomial are packed into longs, one fixed-width bit field per
+ * variable, the first variable in the most significant bits, so that multiplying two
+ * monomials is adding their words and comparing them in lexicographic order is comparing
+ * their words as unsigned numbers. The field width is chosen before each operation from
+ * the degrees of the operands in each variable, so that no field can overflow into the
+ * next. The terms are kept in one array of words and one array of coefficients, sorted
+ * in descending order.
+ *
+ * Addition merges the two sorted term arrays. Multiplication of polynomials with n <= m
+ * terms uses Johnson's heap algorithm: a heap of at most n pairs (i, j) yields the n*m
+ * products in descending order, so products with equal monomials come out together and
+ * are summed on the spot, and the result is written in order without a hash table or
+ * any intermediate list of unmerged products.
+ */
+public final class SparsePolynomial {
+
+    private static final SparsePolynomial ZERO = new SparsePolynomial(new int[0], 1, new long[0], new Rational[0]);
+    private static final SparsePolynomial ONE = constant(Rational.ONE);
+
+    private final int[] slots;             // slots of the variables, ascending; field k is the exponent of slots[k]
+    private final int bits;                // width of each exponent field
+    private final int words;               // longs per monomial
+    private final long[] monomials;        // the packed monomial of term t at [t*words, (t+1)*words)
+    private final Rational[] coefficients; // the coefficient of term t
+
+    // rep invariant:
+    //    slots is strictly ascending
+    //    1 <= bits <= 63, and every exponent fits in bits bits
+    //    words == ceil(slots.length / (64 / bits))
+    //    monomials.length == words * coefficients.length
+    //    the monomials are strictly descending as unsigned words, lexicographically
+    //    every coefficient is nonzero
+    //
+    // All reps are private and final and the arrays are never exposed, so no rep exposure risk.
+
+    private SparsePolynomial(int[] slots, int bits, long[] monomials, Rational[] coefficients) {
+        this.slots = slots;
+        this.bits = bits;
+        this.words = wordsFor(slots.length, bits);
+        this.monomials = monomials;
+        this.coefficients = coefficients;
+    }
+
+    private static int wordsFor(int fields, int bits) {
+        final int perWord = 64 / bits;
+        return (fields + perWord - 1) / perWord;
+    }
+
+    /**
+     * @param c a rational
+     * @return the constant polynomial c
+     */
+    private static SparsePolynomial constant(Rational c) {
+        return c.signum() == 0 ? ZERO : new SparsePolynomial(new int[0], 1, new long[0], new Rational[] { c });
+    }
+
+    /**
+     * @param slot a slot of VariableBinding
+     * @return the polynomial consisting of the variable at slot
+     */
+    private static SparsePolynomial variable(int slot) {
+        return new SparsePolynomial(new int[] { slot }, 1, new long[] { 1L << 63 }, new Rational[] { Rational.ONE });
+    }
+
+    /**
+     * Expand an expression. Chains of + and * are flattened, so the recursion follows only
+     * alternations of + and *. The terms of a sum are merged pairwise in a balanced tree,
+     * O(log) merge levels rather than one per term. The factors of a product are
+     * multiplied into the running product one at a time, fewest terms first: the running
+     * product grows, but each step multiplies it by one small factor, where multiplying
+     * two halves of the chain would form the product of two large intermediate results.
+     * Constants are taken by their shortest decimal representation, as in NumericDomain.
+     * @param e any expression
+     * @return the polynomial e denotes
+     * @throws ArithmeticException if an exponent of the expansion overflows an int
+     */
+    public static SparsePolynomial of(Expression e) {
+        if (e instanceof StoredExpression) {
+            e = ((StoredExpression) e).node();
+        }
+        if (e instanceof Number) {
+            return constant(Rational.valueOf(e.getValue()));
+        } else if (e instanceof Variable) {
+            return variable(((Variable) e).getSlot());
+        } else if (e instanceof PowExpression) {
+            final PowExpression pow = (PowExpression) e;
+            return of(pow.getBase()).power(pow.getExponent());
+        }
+        final char op = ((BinOpExpression) e).getOp();
+        final List<SparsePolynomial> operands = new ArrayList<>();
+        for (Expression operand : CanonicalForm.chain(e, op)) {
+            operands.add(of(operand));
+        }
+        if (op == '*') {
+            operands.sort((x, y) -> Integer.compare(x.terms(), y.terms()));
+            SparsePolynomial product = operands.get(0);
+            for (int i = 1; i < operands.size(); i++) {
+                product = product.multiply(operands.get(i));
+            }
+            return product;
+        }
+        // add neighbours level by level
+        while (operands.size() > 1) {
+            final List<SparsePolynomial> next = new ArrayList<>((operands.size() + 1) / 2);
+            for (int i = 0; i + 1 < operands.size(); i += 2) {
+                next.add(operands.get(i).add(operands.get(i + 1)));
+            }
+            if (operands.size() % 2 != 0) {
+                next.add(operands.get(operands.size() - 1));
+            }
+            operands.clear();
+            operands.addAll(next);
+        }
+        return operands.get(0);
+    }
+
+    /**
+     * @return the number of nonzero terms
+     */
+    public int terms() {
+        return coefficients.length;
+    }
+
+    /**
+     * @param term index of a term
+     * @param field index of a variable in slots
+     * @return the exponent of slots[field] in the term
+     */
+    private long exponent(int term, int field) {
+        final int perWord = 64 / bits;
+        final long word = monomials[term * words + field / perWord];
+        return (word >>> (64 - bits * (field % perWord + 1))) & ((1L << bits) - 1);
+    }
+
+    /**
+     * @return the highest exponent of each variable in slots over all terms
+     */
+    private long[] degrees() {
+        final long[] degrees = new long[slots.length];
+        for (int t = 0; t < coefficients.length; t++) {
+            for (int k = 0; k < slots.length; k++) {
+                degrees[k] = Math.max(degrees[k], exponent(t, k));
+            }
+        }
+        return degrees;
+    }
+
+    /**
+     * @param slots ascending slots, including all of this polynomial's
+     * @param bits a field width wide enough for every exponent of this polynomial
+     * @return the packed monomials of this polynomial in the layout of slots and bits; the
+     *         terms stay in order, since the added variables have exponent 0 everywhere
+     */
+    private long[] repack(int[] slots, int bits) {
+        if (Arrays.equals(slots, this.slots) && bits == this.bits) {
+            return monomials;
+        }
+        final int perWord = 64 / bits;
+        final int words = wordsFor(slots.length, bits);
+        final long[] packed = new long[words * coefficients.length];
+        for (int k = 0, target = 0; k < this.slots.length; k++) {
+            while (slots[target] != this.slots[k]) {
+                target++;
+            }
+            final int word = target / perWord;
+            final int shift = 64 - bits * (target % perWord + 1);
+            for (int t = 0; t < coefficients.length; t++) {
+                packed[t * words + word] |= exponent(t, k) << shift;
+            }
+        }
+        return packed;
+    }
+
+    private static int[] union(int[] x, int[] y) {
+        final int[] union = new int[x.length + y.length];
+        int i = 0, j = 0, n = 0;
+        while (i < x.length || j < y.length) {
+            if (j == y.length || (i < x.length && x[i] < y[j])) {
+                union[n++] = x[i++];
+            } else if (i == x.length || y[j] < x[i]) {
+                union[n++] = y[j++];
+            } else {
+                union[n++] = x[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(union, n);
+    }
+
+    /**
+     * @param degrees the highest exponent of each variable in the result
+     * @return the narrowest field width that holds all of them
+     * @throws ArithmeticException if a degree does not fit in an int
+     */
+    private static int bitsFor(long[] degrees) {
+        long max = 1;
+        for (long degree : degrees) {
+            if (degree > Integer.MAX_VALUE) {
+                throw new ArithmeticException("exponent overflow");
+            }
+            max = Math.max(max, degree);
+        }
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    /**
+     * @param slots the variables of both operands
+     * @param x the degrees of one operand in its own slots
+     * @param xSlots its slots
+     * @param y the degrees of the other operand in its own slots
+     * @param ySlots its slots
+     * @param product true for the degrees of the product, false for those of the sum
+     * @return the degree bound of each variable in slots
+     */
+    private static long[] degrees(int[] slots, long[] x, int[] xSlots, long[] y, int[] ySlots, boolean product) {
+        final long[] degrees = new long[slots.length];
+        for (int k = 0, i = 0, j = 0; k < slots.length; k++) {
+            final long dx = i < xSlots.length && xSlots[i] == slots[k] ? x[i++] : 0;
+            final long dy = j < ySlots.length && ySlots[j] == slots[k] ? y[j++] : 0;
+            degrees[k] = product ? dx + dy : Math.max(dx, dy);
+        }
+        return degrees;
+    }
+
+    private static int compare(long[] x, int i, long[] y, int j, int words) {
+        for (int w = 0; w < words; w++) {
+            final int c = Long.compareUnsigned(x[i + w], y[j + w]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param that another polynomial
+     * @return this + that, by merging the two sorted term arrays
+     */
+    public SparsePolynomial add(SparsePolynomial that) {
+        if (this.terms() == 0) {
+            return that;
+        } else if (that.terms() == 0) {
+            return this;
+        }
+        final int[] slots = union(this.slots, that.slots);
+        final int bits = bitsFor(degrees(slots, this.degrees(), this.slots, that.degrees(), that.slots, false));
+        final int words = wordsFor(slots.length, bits);
+        final long[] x = this.repack(slots, bits), y = that.repack(slots, bits);
+        final Terms sum = new Terms(words, this.terms() + that.terms());
+        int i = 0, j = 0;
+        while (i < this.terms() || j < that.terms()) {
+            final int c = i == this.terms() ? -1 : j == that.terms() ? 1 : compare(x, i * words, y, j * words, words);
+            if (c > 0) {
+                sum.append(x, i * words, this.coefficients[i++]);
+            } else if (c < 0) {
+                sum.append(y, j * words, that.coefficients[j++]);
+            } else {
+                sum.append(x, i * words, this.coefficients[i++].add(that.coefficients[j++]));
+            }
+        }
+        return sum.toPolynomial(slots, bits);
+    }
+
+    /**
+     * @param that another polynomial
+     * @return this * that, by Johnson's heap multiplication
+     */
+    public SparsePolynomial multiply(SparsePolynomial that) {
+        if (this.terms() == 0 || that.terms() == 0) {
+            return ZERO;
+        }
+        // the shorter operand gives the rows, and the heap holds at most one pair per row
+        final SparsePolynomial rows = this.terms() <= that.terms() ? this : that;
+        final SparsePolynomial columns = rows == this ? that : this;
+        final int[] slots = union(rows.slots, columns.slots);
+        final int bits = bitsFor(degrees(slots, rows.degrees(), rows.slots, columns.degrees(), columns.slots, true));
+        final int words = wordsFor(slots.length, bits);
+        final long[] x = rows.repack(slots, bits), y = columns.repack(slots, bits);
+        final int n = rows.terms(), m = columns.terms();
+
+        final Heap heap = new Heap(words, n);
+        final Terms product = new Terms(words, Math.max(n, m));
+        final long[] current = new long[words];
+        heap.push(x, y, 0, 0);
+        while (!heap.isEmpty()) {
+            heap.top(current);
+            Rational c = null;
+            do {
+                final int i = heap.topRow(), j = heap.topColumn();
+                heap.pop();
+                final Rational term = rows.coefficients[i].multiply(columns.coefficients[j]);
+                c = c == null ? term : c.add(term);
+                if (j + 1 < m) {
+                    heap.push(x, y, i, j + 1);
+                }
+                if (j == 0 && i + 1 < n) {
+                    heap.push(x, y, i + 1, 0);
+                }
+            } while (!heap.isEmpty() && heap.topEquals(current));
+            product.append(current, 0, c);
+        }
+        return product.toPolynomial(slots, bits);
+    }
+
+    /**
+     * @param n the exponent, >= 0
+     * @return this^n. A single term is raised directly; a sum is multiplied by itself
+     *         n-1 times, which for sparse polynomials costs less than repeated squaring,
+     *         whose squares of large intermediate results dominate.
+     */
+    public SparsePolynomial power(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("exponent must be >= 0: " + n);
+        } else if (n == 0) {
+            return ONE;
+        } else if (n == 1 || terms() == 0) {
+            return this;
+        } else if (terms() > 1) {
+            SparsePolynomial result = this;
+            for (int i = 1; i < n; i++) {
+                result = result.multiply(this);
+            }
+            return result;
+        }
+        final long[] degrees = degrees();
+        for (int k = 0; k < degrees.length; k++) {
+            degrees[k] *= n;
+        }
+        final int bits = bitsFor(degrees);
+        final int perWord = 64 / bits;
+        final long[] monomial = new long[wordsFor(slots.length, bits)];
+        for (int k = 0; k < slots.length; k++) {
+            monomial[k / perWord] |= (exponent(0, k) * n) << (64 - bits * (k % perWord + 1));
+        }
+        Rational c = Rational.ONE, base = coefficients[0];
+        for (int e = n; e != 0; e >>>= 1) {
+            if ((e & 1) != 0) {
+                c = c.multiply(base);
+            }
+            if (e > 1) {
+                base = base.multiply(base);
+            }
+        }
+        return new SparsePolynomial(slots, bits, monomial, new Rational[] { c });
+    }
+
+    /**
+     * @return this polynomial as an expression in canonical form (see Expression.canonical),
+     *         a sum of terms each a coefficient times powers of variables, each coefficient
+     *         rounded to the nearest double once
+     */
+    public Expression toExpression() {
+        if (terms() == 0) {
+            return new Number(0);
+        }
+        final Expression[] variables = new Expression[slots.length];
+        for (int k = 0; k < slots.length; k++) {
+            variables[k] = new Variable(VariableBinding.name(slots[k]));
+        }
+        Expression sum = null;
+        for (int t = 0; t < terms(); t++) {
+            Expression term = coefficients[t].equals(Rational.ONE) ? null : new Number(coefficients[t].doubleValue());
+            for (int k = 0; k < slots.length; k++) {
+                final long e = exponent(t, k);
+                if (e != 0) {
+                    final Expression factor = e == 1 ? variables[k] : new PowExpression(variables[k], (int) e);
+                    term = term == null ? factor : new BinOpExpression('*', term, factor);
+                }
+            }
+            if (term == null) {
+                term = new Number(1);
+            }
+            sum = sum == null ? term : new BinOpExpression('+', sum, term);
+        }
+        // the terms are distinct monomials, so this only puts them in canonical order
+        return CanonicalForm.of(sum);
+    }
+
+    /**
+     * @param thatObject any object
+     * @return true if and only if thatObject is a SparsePolynomial with the same terms,
+     *         regardless of how either packs its monomials
+     */
+    @Override
+    public boolean equals(Object thatObject) {
+        if (!(thatObject instanceof SparsePolynomial)) return false;
+        final SparsePolynomial that = (SparsePolynomial) thatObject;
+        if (this.terms() != that.terms()) {
+            return false;
+        }
+        // both are in lexicographic order of exponents, so equal polynomials have their
+        // terms at the same indexes
+        for (int t = 0; t < terms(); t++) {
+            if (!this.coefficients[t].equals(that.coefficients[t])) {
+                return false;
+            }
+            int i = 0, j = 0;
+            while (i < this.slots.length || j < that.slots.length) {
+                final int c = i == this.slots.length ? 1 : j == that.slots.length ? -1
+                        : Integer.compare(this.slots[i], that.slots[j]);
+                final long x = c <= 0 ? this.exponent(t, i++) : 0;
+                final long y = c >= 0 ? that.exponent(t, j++) : 0;
+                if (x != y) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return hash code value consistent with equals()
+     */
+    @Override
+    public int hashCode() {
+        int result = 17;
+        for (int t = 0; t < terms(); t++) {
+            int monomial = 0;
+            for (int k = 0; k < slots.length; k++) {
+                final long e = exponent(t, k);
+                if (e != 0) {
+                    monomial = 37 * monomial + (slots[k] * 31 + (int) e);
+                }
+            }
+            result = 37 * result + monomial * 31 + coefficients[t].hashCode();
+        }
+        return result;
+    }
+
+    /**
+     * @return the canonical expression of this polynomial, as toExpression().toString()
+     */
+    @Override
+    public String toString() {
+        return toExpression().toString();
+    }
+
+    /**
+     * Terms being appended in descending order, in growable arrays.
+     */
+    private static final class Terms {
+        private final int words;
+        private long[] monomials;
+        private Rational[] coefficients;
+        private int size;
+
+        Terms(int words, int capacity) {
+            this.words = words;
+            this.monomials = new long[words * capacity];
+            this.coefficients = new Rational[capacity];
+        }
+
+        /**
+         * Append the monomial at source[from .. from+words) with coefficient c, unless c is 0.
+         */
+        void append(long[] source, int from, Rational c) {
+            if (c.signum() == 0) {
+                return;
+            }
+            if (size == coefficients.length) {
+                coefficients = Arrays.copyOf(coefficients, 2 * size + 1);
+                monomials = Arrays.copyOf(monomials, words * coefficients.length);
+            }
+            System.arraycopy(source, from, monomials, size * words, words);
+            coefficients[size++] = c;
+        }
+
+        SparsePolynomial toPolynomial(int[] slots, int bits) {
+            if (size == 0) {
+                return ZERO;
+            }
+            return new SparsePolynomial(slots, bits, Arrays.copyOf(monomials, size * words), Arrays.copyOf(coefficients, size));
+        }
+    }
+
+    /**
+     * A binary max-heap of pairs (i, j) of row and column term indexes, keyed by the
+     * packed product of monomial i of the rows and monomial j of the columns.
+     */
+    private static final class Heap {
+        private final int words;
+        private final long[] keys;  // the key of entry e at [e*words, (e+1)*words)
+        private final int[] rows;
+        private final int[] columns;
+        private final long[] swap;  // scratch key
+        private int size;
+
+        Heap(int words, int capacity) {
+            this.words = words;
+            this.keys = new long[words * capacity];
+            this.rows = new int[capacity];
+            this.columns = new int[capacity];
+            this.swap = new long[words];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int topRow() {
+            return rows[0];
+        }
+
+        int topColumn() {
+            return columns[0];
+        }
+
+        void top(long[] key) {
+            System.arraycopy(keys, 0, key, 0, words);
+        }
+
+        boolean topEquals(long[] key) {
+            return compare(keys, 0, key, 0, words) == 0;
+        }
+
+        /**
+         * Insert (i, j), keyed by x-monomial i times y-monomial j.
+         */
+        void push(long[] x, long[] y, int i, int j) {
+            int e = size++;
+            for (int w = 0; w < words; w++) {
+                // no field overflows, so the words of the product are the sums of the words
+                keys[e * words + w] = x[i * words + w] + y[j * words + w];
+            }
+            rows[e] = i;
+            columns[e] = j;
+            while (e > 0) {
+                final int parent = (e - 1) / 2;
+                if (compare(keys, parent * words, keys, e * words, words) >= 0) {
+                    break;
+                }
+                exchange(parent, e);
+                e = parent;
+            }
+        }
+
+        /**
+         * Remove the top entry.
+         */
+        void pop() {
+            size--;
+            if (size == 0) {
+                return;
+            }
+            exchange(0, size);
+            int e = 0;
+            while (true) {
+                final int left = 2 * e + 1, right = left + 1;
+                int largest = e;
+                if (left < size && compare(keys, left * words, keys, largest * words, words) > 0) {
+                    largest = left;
+                }
+                if (right < size && compare(keys, right * words, keys, largest * words, words) > 0) {
+                    largest = right;
+                }
+                if (largest == e) {
+                    return;
+                }
+                exchange(e, largest);
+                e = largest;
+            }
+        }
+
+        private void exchange(int a, int b) {
+            System.arraycopy(keys, a * words, swap, 0, words);
+            System.arraycopy(keys, b * words, keys, a * words, words);
+            System.arraycopy(swap, 0, keys, b * words, words);
+            final int row = rows[a];
+            rows[a] = rows[b];
+            rows[b] = row;
+            final int column = columns[a];
+            columns[a] = columns[b];
+            columns[b] = column;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Specializer partially evaluates an expression for a fixed subset of its variables.
+ *
+ * For a partial binding (for example a and b bound, x free) it builds the residual
+ * expression, with the bound variables substituted, every constant subtree folded and
+ * like terms collected, and compiles the residual for the remaining free variables.
+ * Compiled specializations are cached per binding, so sweeping x with a and b fixed
+ * compiles once and then only runs the residual program.
+ *
+ * Only the bound variables that occur in the expression are part of the cache key;
+ * binding other variables does not cause a new specialization.
+ */
+public class Specializer {
+    private final Expression expression;
+    private final BitSet slots;       // the variable slots occurring in expression
+    private final Map<VariableBinding, CompiledExpression> cache;
+
+    // rep invariant:
+    //    expression != null
+    //    every key of cache binds only slots in slots
+    //
+    // All reps are private so no rep exposure risk.
+
+    /**
+     * Create a specializer that caches up to 64 specializations.
+     * @param expression the expression to specialize
+     */
+    public Specializer(Expression expression) {
+        this(expression, 64);
+    }
+
+    /**
+     * @param expression the expression to specialize
+     * @param maxCached the maximum number of specializations kept; the least recently used
+     *        one is discarded when the cache is full
+     */
+    public Specializer(Expression expression, final int maxCached) {
+        if (maxCached < 1) {
+            throw new IllegalArgumentException("cache must hold at least one specialization");
+        }
+        this.expression = expression;
+        this.slots = new BitSet();
+        collectSlots(expression, slots);
+        this.cache = new LinkedHashMap<VariableBinding, CompiledExpression>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<VariableBinding, CompiledExpression> eldest) {
+                return size() > maxCached;
+            }
+        };
+    }
+
+    private static void collectSlots(Expression e, BitSet slots) {
+        if (e instanceof StoredExpression) {
+            e = ((StoredExpression) e).node();
+        }
+        if (e instanceof Variable) {
+            slots.set(((Variable) e).getSlot());
+        } else if (e instanceof BinOpExpression) {
+            // the left chain iteratively, see BinOpExpression.chain()
+            final BinOpExpression binOp = (BinOpExpression) e;
+            final BinOpExpression[] below = binOp.chain();
+            collectSlots(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft(), slots);
+            for (int i = below.length; i >= 0; i--) {
+                collectSlots((i == 0 ? binOp : below[i - 1]).getRight(), slots);
+            }
+        } else if (e instanceof PowExpression) {
+            collectSlots(((PowExpression) e).getBase(), slots);
+        }
+    }
+
+    /**
+     * @param partial assigns values to some of the variables of the expression
+     * @return the expression specialized for partial and compiled for its remaining free
+     *         variables. The result is shared with later calls for an equal binding, so it
+     *         must not be evaluated concurrently; use copy() to get a private instance.
+     */
+    public synchronized CompiledExpression specialize(VariableBinding partial) {
+        final VariableBinding key = new VariableBinding();
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            if (partial.isBound(slot)) {
+                key.set(slot, partial.get(slot));
+            }
+        }
+        CompiledExpression compiled = cache.get(key);
+        if (compiled == null) {
+            compiled = CompiledExpression.compile(residual(expression, key));
+            cache.put(key, compiled);
+            if (Metrics.isEnabled()) {
+                Metrics.cache("specializer").miss();
+            }
+        } else if (Metrics.isEnabled()) {
+            Metrics.cache("specializer").hit();
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the number of specializations currently cached
+     */
+    public synchronized int cached() {
+        return cache.size();
+    }
+
+    /**
+     * Partially evaluate an expression.
+     * @param expression the expression to specialize
+     * @param partial assigns values to some of the variables of the expression
+     * @return an expression equal to expression under partial, with the bound variables
+     *         substituted, constant subtrees folded, terms that multiply to zero dropped and
+     *         like terms of sums (e.g. a*x + b*x) merged into one term (e.g. 5.0*x). Folding
+     *         may reassociate floating-point operations.
+     */
+    public static Expression residual(Expression expression, VariableBinding partial) {
+        return collect(expression.simplify(partial));
+    }
+
+    /**
+     * One term of a sum: a numeric coefficient times a product of non-numeric factors.
+     */
+    private static final class Term {
+        double coefficient;
+        final List<Expression> factors;
+
+        Term(double coefficient, List<Expression> factors) {
+            this.coefficient = coefficient;
+            this.factors = factors;
+        }
+
+        /**
+         * @return the factors in a canonical order, so that x*y and y*x get the same key
+         */
+        String key() {
+            final String[] keys = new String[factors.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = factors.get(i).getContents();
+            }
+            Arrays.sort(keys);
+            return String.join("*", keys);
+        }
+    }
+
+    private static Expression collect(Expression e) {
+        if (e instanceof StoredExpression) {
+            e = ((StoredExpression) e).node();
+        }
+        if (e instanceof PowExpression) {
+            // simplify() already folded constant bases, so only the base is left to collect
+            final PowExpression pow = (PowExpression) e;
+            return new PowExpression(collect(pow.getBase()), pow.getExponent());
+        }
+        if (!(e instanceof BinOpExpression)) {
+            return e;
+        }
+
+        final List<Expression> summands = new ArrayList<>();
+        flatten(e, '+', summands);
+        final Map<String, Term> terms = new LinkedHashMap<>();
+        for (Expression summand : summands) {
+            final Term term = term(summand);
+            if (term.coefficient == 0) {
+                continue;
+            }
+            final String key = term.key();
+            final Term like = terms.get(key);
+            if (like == null) {
+                terms.put(key, term);
+            } else {
+                like.coefficient += term.coefficient;
+            }
+        }
+
+        Expression result = null;
+        for (Term term : terms.values()) {
+            if (term.coefficient == 0) {
+                continue;
+            }
+            // coefficient first, then the factors, associated to the left as the parser does
+            Expression product = term.coefficient != 1 || term.factors.isEmpty() ? new Number(term.coefficient) : null;
+            for (Expression factor : term.factors) {
+                product = product == null ? factor : new BinOpExpression('*', product, factor);
+            }
+            result = result == null ? product : new BinOpExpression('+', result, product);
+        }
+        return result == null ? new Number(0) : result;
+    }
+
+    /**
+     * @return summand as a coefficient times the collected forms of its other factors
+     */
+    private static Term term(Expression summand) {
+        final List<Expression> factors = new ArrayList<>();
+        flatten(summand, '*', factors);
+        double coefficient = 1;
+        final List<Expression> rest = new ArrayList<>();
+        for (Expression factor : factors) {
+            final Expression collected = factor instanceof BinOpExpression || factor instanceof PowExpression
+                                         ? collect(factor) : factor;
+            if (collected instanceof Number) {
+                coefficient *= collected.getValue();
+            } else if (collected instanceof BinOpExpression && ((BinOpExpression) collected).getOp() == '*') {
+                // a collected sum that reduced to a single product, e.g. (2*x + 3*x) -> 5*x
+                final Term inner = term(collected);
+                coefficient *= inner.coefficient;
+                rest.addAll(inner.factors);
+            } else {
+                rest.add(collected);
+            }
+        }
+        return new Term(coefficient, rest);
+    }
+
+    /**
+     * Append the operands of the maximal chain of op nodes rooted at e to operands, left to right.
+     */
+    private static void flatten(Expression e, char op, List<Expression> operands) {
+        if (e instanceof StoredExpression) {
+            e = ((StoredExpression) e).node();
+        }
+        if (e instanceof BinOpExpression && ((BinOpExpression) e).getOp() == op) {
+            // the left chain iteratively, see BinOpExpression.chain()
+            final BinOpExpression binOp = (BinOpExpression) e;
+            final BinOpExpression[] below = binOp.chain();
+            flatten(below.length == 0 ? binOp.getLeft() : below[below.length - 1].getLeft(), op, operands);
+            for (int i = below.length; i >= 0; i--) {
+                flatten((i == 0 ? binOp : below[i - 1]).getRight(), op, operands);
+            }
+        } else {
+            operands.add(e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package expressivo;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * StoredExpression is a read-only view of an expression serialized in an ExpressionStore.
+ * Nothing is decoded when the view is created; each operation materializes only the node
+ * it is looking at, and the operands of that node are again views into the same buffer.
+ * Evaluating or differentiating a stored expression therefore never needs a full
+ * deserialization pass, and the materialized nodes become garbage as soon as the
+ * operation moves on.
+ *
+ */
+public class StoredExpression implements Expression {
+    private final ByteBuffer buffer; // the mapped store file this expression lives in
+    private final int position;      // offset of this node's record within buffer
+
+    // rep invariant:
+    //    buffer != null
+    //    position is the offset of a well-formed node record in buffer
+    //
+    // buffer is only read with absolute gets, so views sharing a buffer never interfere.
+    // All reps are private so no rep exposure risk.
+
+    /**
+     * constructor
+     * @param ByteBuffer buffer - the mapped contents of the store
+     * @param int position - offset of the node record for this expression
+     */
+    StoredExpression (ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    /**
+     * Decode the node at this position. The result is not cached, so holding on to a view
+     * never retains the materialized tree below it.
+     * @returns a Number or Variable for a leaf record, or a BinOpExpression or PowExpression
+     *          whose operands are views of the child records.
+     */
+    Expression node() {
+        final byte tag = buffer.get(position);
+        switch (tag) {
+            case ExpressionStore.TAG_NUMBER:
+                return new Number (buffer.getDouble(position + 1));
+            case ExpressionStore.TAG_VARIABLE:
+                final int length = buffer.getShort(position + 1) & 0xFFFF;
+                final char[] name = new char[length];
+                for (int i = 0; i < length; i++) {
+                    name[i] = (char) buffer.get(position + 3 + i);
+                }
+                return new Variable (new String(name));
+            case ExpressionStore.TAG_PLUS:
+            case ExpressionStore.TAG_TIMES:
+                final int rightOffset = buffer.getInt(position + 1);
+                return new BinOpExpression ((char) tag,
+                                            new StoredExpression(buffer, position + ExpressionStore.BINOP_HEADER_SIZE),
+                                            new StoredExpression(buffer, position + rightOffset));
+            case ExpressionStore.TAG_POWER:
+                return new PowExpression (new StoredExpression(buffer, position + ExpressionStore.BINOP_HEADER_SIZE),
+                                          buffer.getInt(position + 1));
+            default:
+                throw new IllegalStateException("corrupt expression record at offset " + position);
+        }
+    }
+
+    /**
+     * @returns string representation of the Expression
+     */
+    public String getContents() {
+        return node().getContents();
+    }
+
+    private boolean hasHeader() {
+        final byte tag = buffer.get(position);
+        return tag == ExpressionStore.TAG_PLUS || tag == ExpressionStore.TAG_TIMES || tag == ExpressionStore.TAG_POWER;
+    }
+
+    /**
+     * @returns the number of nodes of this expression, read from the record without decoding it.
+     */
+    public long size() {
+        return hasHeader() ? buffer.getLong(position + 5) : 1;
+    }
+
+    /**
+     * @returns the depth of this expression, read from the record without decoding it.
+     */
+    public int depth() {
+        return hasHeader() ? buffer.getInt(position + 13) : 1;
+    }
+
+    /**
+     * @returns the set of variables that occur in the expression. A view keeps nothing
+     *          between calls, so this scans the records of the subtree, which lie contiguously
+     *          in preorder, without decoding any node.
+     */
+    public VariableSet variables() {
+        int[] slots = new int[8]; // the slots seen, made into a set once at the end
+        int count = 0;
+        int pos = position;
+        for (int pending = 1; pending > 0; pending--) {
+            final byte tag = buffer.get(pos);
+            switch (tag) {
+                case ExpressionStore.TAG_NUMBER:
+                    pos += 9;
+                    break;
+                case ExpressionStore.TAG_VARIABLE:
+                    final int length = buffer.getShort(pos + 1) & 0xFFFF;
+                    final char[] name = new char[length];
+                    for (int i = 0; i < length; i++) {
+                        name[i] = (char) buffer.get(pos + 3 + i);
+                    }
+                    final int slot = VariableBinding.slot(new String(name));
+                    if (count == slots.length) {
+                        slots = Arrays.copyOf(slots, 2 * count);
+                    }
+                    slots[count++] = slot;
+                    pos += 3 + length;
+                    break;
+                case ExpressionStore.TAG_PLUS:
+                case ExpressionStore.TAG_TIMES:
+                    pending += 2;
+                    pos += ExpressionStore.BINOP_HEADER_SIZE;
+                    break;
+                case ExpressionStore.TAG_POWER:
+                    pending += 1;
+                    pos += ExpressionStore.BINOP_HEADER_SIZE;
+                    break;
+                default:
+                    throw new IllegalStateException("corrupt expression record at offset " + pos);
+            }
+        }
+        return VariableSet.of(slots, count);
+    }
+
+    /**
+     * @returns the value of the Expression after being simplified (evaluated), read from the
+     *          record without decoding it: the number for a number record, NaN otherwise.
+     */
+    public double getValue() {
+        return buffer.get(position) == ExpressionStore.TAG_NUMBER ? buffer.getDouble(position + 1) : Double.NaN;
+    }
+
+    /**
+     * @param String var - differentiate the expression with respect to the variable var.
+     * @returns an expression tree for the derivative of this expression
+     */
+    public Expression derivative (String var) {
+        return node().derivative(var);
+    }
+
+    /**
+     * @param String var - differentiate the expression with respect to the variable var.
+     * @param CancellationToken token - polled once per node decoded
+     * @returns an expression tree for the derivative of this expression
+     */
+    public Expression derivative (String var, CancellationToken token) {
+        return node().derivative(var, token);
+    }
+
+    /**
+     * @param binding assigns values to variables.
+     * @returns the value for the expression after being evaluated; this view itself if
+     *          nothing in it was substituted or folded
+     */
+    public Expression simplify (VariableBinding binding) {
+        final Expression node = node();
+        final Expression simplified = node.simplify(binding);
+        return simplified == node ? this : simplified;
+    }
+
+    /**
+     * @param binding assigns values to variables.
+     * @param CancellationToken token - polled once per node decoded
+     * @returns the value for the expression after being evaluated; this view itself if
+     *          nothing in it was substituted or folded
+     */
+    public Expression simplify (VariableBinding binding, CancellationToken token) {
+        final Expression node = node();
+        final Expression simplified = node.simplify(binding, token);
+        return simplified == node ? this : simplified;
+    }
+
+    /**
+     * Note that evaluating a stored view decodes its nodes and so, unlike evaluating an
+     * in-memory tree, does allocate.
+     * @param binding assigns values to variables.
+     * @returns the value of the expression under binding.
+     */
+    public double evaluate (VariableBinding binding) {
+        return node().evaluate(binding);
+    }
+
+    /**
+     * @param binding assigns values to variables.
+     * @param CancellationToken token - polled once per node decoded
+     * @returns the value of the expression under binding.
+     */
+    public double evaluate (VariableBinding binding, CancellationToken token) {
+        return node().evaluate(binding, token);
+    }
+
+    /**
+     * @return a parsable representation of this expression, such that
+     * for all e:Expression, e.equals(Expression.parse(e.toString())).
+     */
+    @Override
+    public String toString() {
+        return node().toString();
+    }
+
+    /**
+     * @param thatObject any object
+     * @return true if and only if this and thatObject are structurally-equal
+     * Expressions, as defined in the PS1 handout.
+     */
+    @Override
+    public boolean equals(Object thatObject) {
+        return node().equals(thatObject);
+    }
+
+    /**
+     * @return hash code value consistent with the equals() definition of structural
+     * equality, such that for all e1,e2:Expression,
+     *     e1.equals(e2) implies e1.hashCode() == e2.hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return node().hashCode();
+    }
+}
@@ -0,0 +1,271 @@
+package expressivo;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * StreamingParser builds an expression AST from a Reader or a ReadableByteChannel,
+ * reading the input in fixed-size chunks. It accepts exactly the language of
+ * Expression.g and produces the same AST as Expression.parse, with sums and products
+ * associating to the left.
+ *
+ * Unlike Expression.parse, it needs neither the whole input as one String nor a parse
+ * tree: operators and operands wait on two explicit stacks, whose height is bounded by
+ * the parenthesis nesting of the input, and each node is built as soon as its right
+ * operand is complete. Apart from the AST itself, memory use is one chunk buffer, the
+ * two stacks, and the text of the current token. Recursion is never used, so deeply
+ * nested input cannot overflow the stack.
+ *
+ * Input from a channel is decoded as ASCII, since the grammar has no other characters.
+ */
+public class StreamingParser {
+    private static final int CHUNK_SIZE = 8192;
+    private static final int END = -1;
+
+    private final Reader reader;              // the input, if it is a Reader
+    private final ReadableByteChannel channel; // the input, if it is a channel
+    private final char[] chars;               // current chunk of a Reader
+    private final ByteBuffer bytes;           // current chunk of a channel
+    private int position;                     // next unread index in the chunk
+    private int limit;                        // end of valid data in the chunk
+    private long offset;                      // characters consumed before the current chunk
+
+    private final StringBuilder token = new StringBuilder();
+    private Expression[] operands = new Expression[16];
+    private int operandCount = 0;
+    private char[] operators = new char[16];  // '+', '*', or '(' awaiting its ')'; '^' is applied at once
+    private int operatorCount = 0;
+
+    // rep invariant:
+    //    exactly one of reader and channel is non-null, with chars resp. bytes
+    //    0 <= position <= limit <= chunk length
+    //    operands[0..operandCount) and operators[0..operatorCount) are the stacks
+    //
+    // All reps are private so no rep exposure risk.
+
+    private StreamingParser(Reader reader, ReadableByteChannel channel) {
+        this.reader = reader;
+        this.channel = channel;
+        this.chars = reader != null ? new char[CHUNK_SIZE] : null;
+        this.bytes = channel != null ? ByteBuffer.allocate(CHUNK_SIZE) : null;
+    }
+
+    /**
+     * Parse an expression read from reader, up to its end.
+     * @param reader the input, in the syntax of Expression.g; not closed by this method
+     * @return expression AST for the input, equal to Expression.parse of the same text
+     * @throws IllegalArgumentException if the input is not a valid expression
+     * @throws IOException if reading fails
+     */
+    public static Expression parse(Reader reader) throws IOException {
+        return new StreamingParser(reader, null).run();
+    }
+
+    /**
+     * Parse an expression read from channel, up to its end.
+     * @param channel the input as ASCII bytes, in the syntax of Expression.g; not closed by this method
+     * @return expression AST for the input, equal to Expression.parse of the same text
+     * @throws IllegalArgumentException if the input is not a valid expression
+     * @throws IOException if reading fails
+     */
+    public static Expression parse(ReadableByteChannel channel) throws IOException {
+        return new StreamingParser(null, channel).run();
+    }
+
+    private Expression run() throws IOException {
+        final boolean timed = Metrics.isEnabled();
+        final long start = timed ? System.nanoTime() : 0;
+
+        boolean expectOperand = true;
+        boolean powered = false;  // the operand on top already has an exponent
+        int c = read();
+        while (true) {
+            while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                c = read();
+            }
+            if (expectOperand) {
+                if (isDigit(c) || c == '.') {
+                    token.setLength(0);
+                    while (isDigit(c) || c == '.') {
+                        token.append((char) c);
+                        c = read();
+                    }
+                    final double value;
+                    try {
+                        value = NumberParser.parse(token, 0, token.length());
+                    } catch (NumberFormatException nfe) {
+                        throw error("invalid number " + token);
+                    }
+                    pushOperand(new Number(value));
+                    expectOperand = false;
+                    powered = false;
+                } else if (isLetter(c)) {
+                    token.setLength(0);
+                    while (isLetter(c)) {
+                        token.append((char) c);
+                        c = read();
+                    }
+                    // share one String per distinct name, as the interned slot table holds it anyway
+                    pushOperand(new Variable(VariableBinding.name(VariableBinding.slot(token.toString()))));
+                    expectOperand = false;
+                    powered = false;
+                } else if (c == '(') {
+                    pushOperator('(');
+                    c = read();
+                } else {
+                    throw error(c == END ? "unexpected end of input" : "unexpected '" + (char) c + "'");
+                }
+            } else {
+                if (c == '+') {
+                    reduceWhile('+');
+                    pushOperator('+');
+                    expectOperand = true;
+                    c = read();
+                } else if (c == '*') {
+                    reduceWhile('*');
+                    pushOperator('*');
+                    expectOperand = true;
+                    c = read();
+                } else if (c == '^' && !powered) {
+                    // binds to the operand on top, a number, variable or parenthesized sum
+                    c = read();
+                    while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                        c = read();
+                    }
+                    token.setLength(0);
+                    while (isDigit(c) || c == '.') {
+                        token.append((char) c);
+                        c = read();
+                    }
+                    if (token.length() == 0) {
+                        throw error("exponent expected");
+                    }
+                    final int exponent;
+                    try {
+                        exponent = PowExpression.parseExponent(token.toString());
+                    } catch (IllegalArgumentException iae) {
+                        throw error("invalid exponent " + token);
+                    }
+                    operands[operandCount - 1] = new PowExpression(operands[operandCount - 1], exponent);
+                    powered = true;
+                } else if (c == ')') {
+                    reduceWhile('+');
+                    if (operatorCount == 0) {
+                        throw error("unmatched ')'");
+                    }
+                    operatorCount--;  // the '('
+                    powered = false;
+                    c = read();
+                } else if (c == END) {
+                    reduceWhile('+');
+                    if (operatorCount != 0) {
+                        throw error("unmatched '('");
+                    }
+                    final Expression ast = operands[0];
+                    if (timed) {
+                        Metrics.PARSE.record(System.nanoTime() - start, offset + position, ast.size());
+                    }
+                    return ast;
+                } else {
+                    throw error("unexpected '" + (char) c + "'");
+                }
+            }
+        }
+    }
+
+    /**
+     * Build nodes from the operators on top of the stack, down to the nearest '(' or to an
+     * operator of lower precedence than op, so that equal operators associate to the left.
+     * @param op '+' to reduce sums and products, '*' to reduce products only
+     */
+    private void reduceWhile(char op) {
+        while (operatorCount > 0) {
+            final char top = operators[operatorCount - 1];
+            if (top == '(' || (op == '*' && top == '+')) {
+                return;
+            }
+            operatorCount--;
+            final Expression right = operands[--operandCount];
+            final Expression left = operands[operandCount - 1];
+            operands[operandCount - 1] = new BinOpExpression(top, left, right);
+            operands[operandCount] = null;
+        }
+    }
+
+    private void pushOperand(Expression e) {
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, 2 * operands.length);
+        }
+        operands[operandCount++] = e;
+    }
+
+    private void pushOperator(char op) {
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, 2 * operators.length);
+        }
+        operators[operatorCount++] = op;
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * @return the next character of the input, or END at its end
+     */
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return END;
+        }
+        if (reader != null) {
+            return chars[position++];
+        }
+        final int b = bytes.get(position++);
+        if (b < 0) {
+            throw error("non-ASCII input");
+        }
+        return b;
+    }
+
+    /**
+     * Replace the consumed chunk with the next one.
+     * @return false at the end of the input
+     */
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = 0;
+        if (reader != null) {
+            int n;
+            do {
+                n = reader.read(chars, 0, chars.length);
+            } while (n == 0);
+            if (n < 0) {
+                return false;
+            }
+            limit = n;
+        } else {
+            bytes.clear();
+            int n;
+            do {
+                n = channel.read(bytes);
+            } while (n == 0);
+            if (n < 0) {
+                return false;
+            }
+            limit = n;
+        }
+        return true;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("parser error at offset " + (offset + position) + ": " + message);
+    }
+}
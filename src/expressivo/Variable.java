@@ -1,7 +1,5 @@
 package expressivo;
 
-import java.util.Map;
-
 /**
  * Variables is one of the terminals represented by case-sensitive nonempty strings of letters.
  *   
@@ -13,6 +11,8 @@ public class Variable implements Expression {
     // values - contains both String contents and double value (if assigned) for this variable
 
     private final String contents;
+    private final int slot;      // the slot interned for contents in VariableBinding
+    private final VariableSet variables; // the set {slot}, kept since sets of high slots are not cached
     private double val = Double.NaN;
     
     // rep invariant:
@@ -27,6 +27,8 @@ public class Variable implements Expression {
      */
     Variable (String var) {
         this.contents = var;
+        this.slot = VariableBinding.slot(var);
+        this.variables = VariableSet.of(this.slot);
         this.val = Double.NaN;
     }
     
@@ -38,6 +40,13 @@ public class Variable implements Expression {
         return this.contents;
     };
     
+    /**
+     * @returns the slot interned for this variable's name in VariableBinding
+     */
+    int getSlot() {
+        return this.slot;
+    }
+    
     /**
      * @returns the value of the Expression after being simplified (evaluated).
      */
@@ -45,6 +54,27 @@ public class Variable implements Expression {
         return this.val;
     }
     
+    /**
+     * @returns the number of nodes of this expression, 1 for a leaf.
+     */
+    public long size() {
+        return 1;
+    }
+    
+    /**
+     * @returns the depth of this expression, 1 for a leaf.
+     */
+    public int depth() {
+        return 1;
+    }
+    
+    /**
+     * @returns the set containing just this variable.
+     */
+    public VariableSet variables() {
+        return this.variables;
+    }
+    
     /**
      * @param String var - differentiate the expression with respect to the variable var.
      * @returns an expression tree for the derivative of this expression
@@ -62,24 +92,34 @@ public class Variable implements Expression {
        
     
     /**
-     * @param environment maps variables to values.  Variables are required to be case-sensitive nonempty 
-     *         strings of letters.  The set of variables in environment is allowed to be different than the 
-     *         set of variables actually found in expression.  Values must be nonnegative numbers.
-     * @returns the value for this Variable object if it is found in the environment.
+     * @param binding assigns values to variables.
+     * @returns the value for this Variable object if it is bound in the binding.
      * 
      */
 
-    public Expression simplify (Map<String,Double> environment) {
-        // find if the key (variable) is in the map, if so then get it's value
-        // if not then NaN will be returned.
-        if (environment.containsKey(this.contents)) {
-            this.val = environment.get(this.contents);
+    public Expression simplify (VariableBinding binding) {
+        // find if this variable's slot is bound, if so then get it's value
+        if (binding.isBound(this.slot)) {
+            this.val = binding.get(this.slot);
             return new Number (this.val);
         } else { // since no value assigned to this variable, just return the object itself
             return this;
         }
     }
     
+    /**
+     * @param binding assigns values to variables.
+     * @returns the value bound to this variable, or NaN if it is unbound and binding
+     *          evaluates unbound variables as NaN.
+     * @throws IllegalArgumentException if this variable is unbound and binding fails on unbound variables
+     */
+    public double evaluate (VariableBinding binding) {
+        if (binding.isBound(this.slot)) {
+            return binding.get(this.slot);
+        }
+        return binding.unbound(this.contents);
+    }
+    
     
     /**
      * @return the expression in fully parenthesized form
@@ -0,0 +1,298 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VariableBinding is a mutable environment that assigns values to variables.
+ *
+ * Variable names are interned process-wide to dense integer slots, so a Variable node
+ * resolves its slot once when it is constructed and every later lookup is an array
+ * access instead of a string hash lookup. Values are stored unboxed in a double[] and
+ * a bitmask records which slots are bound.
+ *
+ * Slots are never freed, since any Variable, VariableSet or compiled program may hold
+ * one, so the table grows with the number of distinct names the process has created
+ * variables for: a String, a map entry and an array element per name, about 100 bytes.
+ * A long-running process that parses expressions over unbounded vocabularies grows by
+ * that much per new name; interned() reports the count. Only operations that create a
+ * name for an expression intern it: fromMap() and unset() look names up without
+ * interning them, so environments naming variables no expression has do not add to the
+ * table.
+ *
+ * A binding is not thread-safe; use one binding per thread.
+ */
+public class VariableBinding {
+
+    // process-wide interning of variable names, shared by all bindings
+    private static final ConcurrentHashMap<String,Integer> SLOTS = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[64];
+
+    private double[] values = new double[64]; // values[slot] is meaningful only if slot is bound
+    private long[] bound = new long[1];       // bit (slot % 64) of bound[slot / 64] is set iff slot is bound
+    private boolean failOnUnbound = true;     // what evaluate() does with an unbound variable
+
+    // rep invariant:
+    //    values.length >= 64 * bound.length
+    //
+    // All reps are private so no rep exposure risk.
+
+    /**
+     * @param name a variable name, a case-sensitive nonempty string of letters
+     * @return the slot interned for name; the same name always gets the same slot
+     */
+    public static int slot(String name) {
+        final Integer slot = SLOTS.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (SLOTS) {
+            Integer existing = SLOTS.get(name);
+            if (existing == null) {
+                existing = SLOTS.size();
+                String[] table = names;
+                if (existing == table.length) {
+                    table = Arrays.copyOf(table, table.length * 2);
+                }
+                table[existing] = name;
+                names = table;
+                SLOTS.put(name, existing);
+            }
+            return existing;
+        }
+    }
+
+    /**
+     * @param name a variable name
+     * @return the slot interned for name, or -1 if no variable named name has been created,
+     *         in which case no expression mentions it; unlike slot(), this never interns name
+     */
+    static int slotIfInterned(String name) {
+        final Integer slot = SLOTS.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * @return the number of names interned so far, which is never reduced
+     */
+    public static int interned() {
+        return SLOTS.size();
+    }
+
+    /**
+     * @param slot a slot returned by slot()
+     * @return the variable name interned at slot
+     */
+    public static String name(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * Build a binding from an environment map, for expressions that already exist.
+     * @param environment maps variables to values.
+     * @return a new binding with the variables of environment bound that some expression
+     *         created so far has; the others no expression made before this call can
+     *         mention, and they are left unbound rather than interned. A stored view interns
+     *         its names only once its variables() are scanned, as Expression.simplify(Map)
+     *         does before calling this.
+     */
+    public static VariableBinding fromMap(Map<String,Double> environment) {
+        final VariableBinding binding = new VariableBinding();
+        for (Map.Entry<String,Double> entry : environment.entrySet()) {
+            final int slot = slotIfInterned(entry.getKey());
+            if (slot >= 0) {
+                binding.set(slot, entry.getValue());
+            }
+        }
+        return binding;
+    }
+
+    /**
+     * Bind a variable, replacing any previous value.
+     * @param name the variable name
+     * @param value the value to bind
+     * @return this binding
+     */
+    public VariableBinding set(String name, double value) {
+        return set(slot(name), value);
+    }
+
+    /**
+     * Bind the variable interned at slot, replacing any previous value.
+     * @param slot a slot returned by slot()
+     * @param value the value to bind
+     * @return this binding
+     */
+    public VariableBinding set(int slot, double value) {
+        final int word = slot >>> 6;
+        if (word >= bound.length) {
+            bound = Arrays.copyOf(bound, Math.max(word + 1, bound.length * 2));
+            values = Arrays.copyOf(values, bound.length * 64);
+        }
+        values[slot] = value;
+        bound[word] |= 1L << slot;
+        return this;
+    }
+
+    /**
+     * Remove the binding of a variable, if any.
+     * @param name the variable name
+     */
+    public void unset(String name) {
+        final int slot = slotIfInterned(name);
+        final int word = slot >>> 6;
+        if (slot >= 0 && word < bound.length) {
+            bound[word] &= ~(1L << slot);
+        }
+    }
+
+    /**
+     * Remove all bindings.
+     */
+    public void clear() {
+        Arrays.fill(bound, 0L);
+    }
+
+    /**
+     * @param slot a slot returned by slot()
+     * @return true if and only if the variable at slot is bound
+     */
+    public boolean isBound(int slot) {
+        final int word = slot >>> 6;
+        return word < bound.length && (bound[word] & (1L << slot)) != 0;
+    }
+
+    /**
+     * @param variables a set of variables
+     * @return true if and only if some variable of variables is bound
+     */
+    boolean bindsAny(VariableSet variables) {
+        final int words = Math.min(bound.length, variables.words());
+        for (int word = 0; word < words; word++) {
+            if ((bound[word] & variables.word(word)) != 0) {
+                return true;
+            }
+        }
+        for (int i = 0; i < variables.highSlots(); i++) {
+            if (isBound(variables.highSlot(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param slot a slot returned by slot()
+     * @return the value bound at slot, or NaN if it is unbound
+     */
+    public double get(int slot) {
+        return isBound(slot) ? values[slot] : Double.NaN;
+    }
+
+    /**
+     * Choose how Expression.evaluate() treats a variable that is not bound: either fail
+     * fast with an IllegalArgumentException (the default) or evaluate it as NaN.
+     * @param fail true to throw on an unbound variable, false to use NaN
+     * @return this binding
+     */
+    public VariableBinding setFailOnUnbound(boolean fail) {
+        this.failOnUnbound = fail;
+        return this;
+    }
+
+    /**
+     * @param name the variable that evaluate() found unbound
+     * @return NaN if this binding evaluates unbound variables as NaN
+     * @throws IllegalArgumentException if this binding fails on unbound variables
+     */
+    double unbound(String name) {
+        if (failOnUnbound) {
+            throw new IllegalArgumentException("unbound variable " + name);
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * @return true if and only if no variable is bound
+     */
+    public boolean isEmpty() {
+        for (long word : bound) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a new binding with the same variables bound to the same values
+     */
+    public VariableBinding copy() {
+        final VariableBinding copy = new VariableBinding();
+        copy.values = values.clone();
+        copy.bound = bound.clone();
+        copy.failOnUnbound = failOnUnbound;
+        return copy;
+    }
+
+    /**
+     * @param thatObject any object
+     * @return true if and only if thatObject is a VariableBinding that binds the same
+     *         variables to the same values
+     */
+    @Override
+    public boolean equals(Object thatObject) {
+        if (!(thatObject instanceof VariableBinding)) return false;
+        final VariableBinding that = (VariableBinding) thatObject;
+        final int words = Math.max(this.bound.length, that.bound.length);
+        for (int word = 0; word < words; word++) {
+            final long mask = word < this.bound.length ? this.bound[word] : 0L;
+            final long thatMask = word < that.bound.length ? that.bound[word] : 0L;
+            if (mask != thatMask) {
+                return false;
+            }
+            for (int bit = 0; bit < 64; bit++) {
+                final int slot = word * 64 + bit;
+                if ((mask & (1L << bit)) != 0
+                        && Double.doubleToLongBits(this.values[slot]) != Double.doubleToLongBits(that.values[slot])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return hash code value consistent with equals()
+     */
+    @Override
+    public int hashCode() {
+        int result = 17;
+        for (int slot = 0; slot < values.length; slot++) {
+            if (isBound(slot)) {
+                final long bits = Double.doubleToLongBits(values[slot]);
+                result = 37 * result + slot;
+                result = 37 * result + (int) (bits ^ (bits >>> 32));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the bindings in the form {x=1.0, y=2.0}, ordered by slot
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        for (int slot = 0; slot < values.length; slot++) {
+            if (isBound(slot)) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(name(slot)).append('=').append(values[slot]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
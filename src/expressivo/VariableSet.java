@@ -0,0 +1,286 @@
+package expressivo;
+
+import java.util.Arrays;
+
+/**
+ * VariableSet is an immutable set of variables, a set of the slots VariableBinding interns
+ * variable names to.
+ *
+ * Every expression node knows the set of variables that occur in it (see
+ * Expression.variables()), so derivative can answer 0 for a subtree that does not mention
+ * the variable and simplify can keep a subtree that mentions no bound variable, without
+ * descending into it. The first DENSE_SLOTS slots are kept as a bitset of at most four
+ * longs, and any higher slots as a sorted array, so that a set costs memory in proportion
+ * to its own variables, not to the number of names interned in the process. A union that
+ * adds nothing returns an existing set, so the sets of a tree are mostly shared between its
+ * nodes.
+ */
+public final class VariableSet {
+
+    /** slots below this are kept in the bitset, the others in the sorted array */
+    static final int DENSE_SLOTS = 256;
+
+    private static final long[] NO_WORDS = new long[0];
+    private static final int[] NO_SLOTS = new int[0];
+
+    /** the set with no variables, the set of every constant expression */
+    public static final VariableSet EMPTY = new VariableSet(NO_WORDS, NO_SLOTS);
+
+    // singletons[slot] is the set {slot} for slot < DENSE_SLOTS, created on first use; the
+    // singletons of higher slots are not cached, a Variable keeps its own
+    private static final VariableSet[] singletons = new VariableSet[DENSE_SLOTS];
+
+    private final long[] words; // bit (slot % 64) of words[slot / 64] is set iff slot < DENSE_SLOTS is in the set
+    private final int[] high;   // the slots >= DENSE_SLOTS in the set, ascending
+
+    // rep invariant:
+    //    words.length <= DENSE_SLOTS / 64
+    //    words.length == 0 or words[words.length - 1] != 0
+    //    high is strictly ascending and high[i] >= DENSE_SLOTS for all i
+    //
+    // words and high are never exposed and never modified after construction, so no rep
+    // exposure risk.
+
+    private VariableSet(long[] words, int[] high) {
+        this.words = words;
+        this.high = high;
+    }
+
+    /**
+     * @param slot a slot returned by VariableBinding.slot()
+     * @return the set containing just the variable interned at slot
+     */
+    static VariableSet of(int slot) {
+        if (slot >= DENSE_SLOTS) {
+            return new VariableSet(NO_WORDS, new int[] { slot });
+        }
+        synchronized (singletons) {
+            if (singletons[slot] == null) {
+                final long[] words = new long[(slot >>> 6) + 1];
+                words[slot >>> 6] = 1L << slot;
+                singletons[slot] = new VariableSet(words, NO_SLOTS);
+            }
+            return singletons[slot];
+        }
+    }
+
+    /**
+     * @param slots slots returned by VariableBinding.slot(), in any order and possibly
+     *        repeated; not retained
+     * @param count the number of slots to take from the start of slots
+     * @return the set of slots[0..count-1]
+     */
+    static VariableSet of(int[] slots, int count) {
+        final int[] sorted = Arrays.copyOf(slots, count);
+        Arrays.sort(sorted);
+        final long[] words = new long[DENSE_SLOTS / 64];
+        int length = 0;
+        int distinct = 0;
+        for (int slot : sorted) {
+            if (slot < DENSE_SLOTS) {
+                words[slot >>> 6] |= 1L << slot;
+                length = (slot >>> 6) + 1;
+            } else if (distinct == 0 || sorted[distinct - 1] != slot) {
+                sorted[distinct++] = slot;
+            }
+        }
+        if (length == 0 && distinct == 0) {
+            return EMPTY;
+        }
+        return new VariableSet(length == 0 ? NO_WORDS : Arrays.copyOf(words, length),
+                               distinct == 0 ? NO_SLOTS : Arrays.copyOf(sorted, distinct));
+    }
+
+    /**
+     * @param that another set
+     * @return the union of this and that; this or that itself if it already contains the other
+     */
+    VariableSet union(VariableSet that) {
+        if (that.isSubsetOf(this)) {
+            return this;
+        } else if (this.isSubsetOf(that)) {
+            return that;
+        }
+        final long[] union = Arrays.copyOf(this.words, Math.max(this.words.length, that.words.length));
+        for (int word = 0; word < that.words.length; word++) {
+            union[word] |= that.words[word];
+        }
+        return new VariableSet(union, merge(this.high, that.high));
+    }
+
+    /**
+     * @return the ascending slots of a and b, without repeats
+     */
+    private static int[] merge(int[] a, int[] b) {
+        if (a.length == 0) {
+            return b;
+        } else if (b.length == 0) {
+            return a;
+        }
+        final int[] merged = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                merged[k++] = a[i++];
+            } else if (a[i] > b[j]) {
+                merged[k++] = b[j++];
+            } else {
+                merged[k++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            merged[k++] = a[i++];
+        }
+        while (j < b.length) {
+            merged[k++] = b[j++];
+        }
+        return k == merged.length ? merged : Arrays.copyOf(merged, k);
+    }
+
+    private boolean isSubsetOf(VariableSet that) {
+        if (this.words.length > that.words.length || this.high.length > that.high.length) {
+            return false;
+        }
+        for (int word = 0; word < this.words.length; word++) {
+            if ((this.words[word] & ~that.words[word]) != 0) {
+                return false;
+            }
+        }
+        int j = 0;
+        for (int slot : this.high) {
+            while (j < that.high.length && that.high[j] < slot) {
+                j++;
+            }
+            if (j == that.high.length || that.high[j] != slot) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param slot a slot returned by VariableBinding.slot()
+     * @return true if and only if the variable interned at slot is in this set
+     */
+    boolean contains(int slot) {
+        if (slot >= DENSE_SLOTS) {
+            return Arrays.binarySearch(high, slot) >= 0;
+        }
+        final int word = slot >>> 6;
+        return word < words.length && (words[word] & (1L << slot)) != 0;
+    }
+
+    /**
+     * @param name a variable name
+     * @return true if and only if the variable name is in this set
+     */
+    public boolean contains(String name) {
+        final int slot = VariableBinding.slotIfInterned(name);
+        return slot >= 0 && contains(slot);
+    }
+
+    /**
+     * @return the number of words of the bitset of slots below DENSE_SLOTS; word(i) is 0
+     *         for i >= words()
+     */
+    int words() {
+        return words.length;
+    }
+
+    /**
+     * @param i a word index
+     * @return bits 64*i .. 64*i+63 of the bitset of slots below DENSE_SLOTS
+     */
+    long word(int i) {
+        return i < words.length ? words[i] : 0L;
+    }
+
+    /**
+     * @return the number of slots of this set that are >= DENSE_SLOTS
+     */
+    int highSlots() {
+        return high.length;
+    }
+
+    /**
+     * @param i an index, 0 <= i < highSlots()
+     * @return the i-th smallest slot of this set that is >= DENSE_SLOTS
+     */
+    int highSlot(int i) {
+        return high[i];
+    }
+
+    /**
+     * @return the smallest slot in this set, or -1 if it is empty
+     */
+    int first() {
+        for (int word = 0; word < words.length; word++) {
+            if (words[word] != 0) {
+                return word * 64 + Long.numberOfTrailingZeros(words[word]);
+            }
+        }
+        return high.length == 0 ? -1 : high[0];
+    }
+
+    /**
+     * @return true if and only if this set has no variables
+     */
+    public boolean isEmpty() {
+        return words.length == 0 && high.length == 0;
+    }
+
+    /**
+     * @return the number of variables in this set
+     */
+    public int size() {
+        int size = high.length;
+        for (long word : words) {
+            size += Long.bitCount(word);
+        }
+        return size;
+    }
+
+    /**
+     * @param thatObject any object
+     * @return true if and only if thatObject is a VariableSet with the same variables
+     */
+    @Override
+    public boolean equals(Object thatObject) {
+        if (!(thatObject instanceof VariableSet)) return false;
+        final VariableSet that = (VariableSet) thatObject;
+        return Arrays.equals(this.words, that.words) && Arrays.equals(this.high, that.high);
+    }
+
+    /**
+     * @return hash code value consistent with equals()
+     */
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(words) + Arrays.hashCode(high);
+    }
+
+    /**
+     * @return the variables in the form {x, y}, ordered by slot
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        for (int word = 0; word < words.length; word++) {
+            for (long bits = words[word]; bits != 0; bits &= bits - 1) {
+                append(sb, word * 64 + Long.numberOfTrailingZeros(bits));
+            }
+        }
+        for (int slot : high) {
+            append(sb, slot);
+        }
+        return sb.append('}').toString();
+    }
+
+    private static void append(StringBuilder sb, int slot) {
+        if (sb.length() > 1) {
+            sb.append(", ");
+        }
+        sb.append(VariableBinding.name(slot));
+    }
+}
@@ -0,0 +1,160 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for Expression.canonical(), Expression.compareTo() and CanonicalKey.
+ */
+public class CanonicalFormTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * canonical(): leaf; commuted and regrouped sums and products; constants to merge,
+     *   including 0 and 1; repeated factors and terms; powers of constants, of powers and
+     *   of products, exponents 0 and 1; nested sums and products, including sums and
+     *   products alternating far deeper than the walkers' recursion survives; stored view;
+     *   value kept
+     * compareTo(): each kind against each other kind, equal expressions, powers against
+     *   their base, operations of different sizes, deep chains; consistent with equals
+     * CanonicalKey: equivalent spellings are equal keys with equal hashes, different
+     *   expressions are unequal; used as a HashMap key
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static void assertEquivalent(String a, String b) {
+        final Expression x = Expression.parse(a);
+        final Expression y = Expression.parse(b);
+        assertEquals(a + " vs " + b, x.canonical(), y.canonical());
+        assertEquals(CanonicalKey.of(x), CanonicalKey.of(y));
+        assertEquals(CanonicalKey.of(x).hashCode(), CanonicalKey.of(y).hashCode());
+    }
+
+    @Test
+    public void testCommutedAndRegrouped() {
+        assertEquivalent("x*y", "y*x");
+        assertEquivalent("a+b+c", "c+(b+a)");
+        assertEquivalent("a*(b*c)", "(c*a)*b");
+        assertEquivalent("(x+y)*(a+b)", "(b+a)*(y+x)");
+        assertEquivalent("x", "x");
+        assertEquals(Expression.parse("x*y"), Expression.parse("y*x").canonical());
+        assertEquals(Expression.parse("a+b+c"), Expression.parse("c+b+a").canonical());
+    }
+
+    @Test
+    public void testMergedConstants() {
+        assertEquals(Expression.parse("5"), Expression.parse("2+3").canonical());
+        assertEquals(Expression.parse("6*x"), Expression.parse("2*x*3").canonical());
+        assertEquals(Expression.parse("1+x"), Expression.parse("x+0+1").canonical());
+        assertEquals(Expression.parse("x"), Expression.parse("1*x*1").canonical());
+        assertEquals(Expression.parse("0"), Expression.parse("x*0*y").canonical());
+        assertEquivalent("x*0 + y*1", "y");
+    }
+
+    @Test
+    public void testRepeatedFactorsAndTerms() {
+        assertEquals(Expression.parse("x^2*y"), Expression.parse("x*y*x").canonical());
+        assertEquivalent("x*y*x", "y*x^2");
+        assertEquivalent("x + 2*x", "3*x");
+        assertEquivalent("x*y + y*x", "2*x*y");
+        assertEquivalent("(a+b)*(b+a)", "(a+b)^2");
+        assertEquivalent("x*y + 2 + x*y*0 + 3*x*y", "4*x*y + 2");
+    }
+
+    @Test
+    public void testPowers() {
+        assertEquals(Expression.parse("8"), Expression.parse("2^3").canonical());
+        assertEquals(Expression.parse("1"), Expression.parse("x^0").canonical());
+        assertEquals(Expression.parse("x"), Expression.parse("x^1").canonical());
+        assertEquivalent("(x^2)^3", "x^6");
+        assertEquivalent("(x*y)^2", "x^2*y^2");
+        assertEquivalent("(2*x)^3", "8*x^3");
+        assertEquivalent("x^2*x^3", "x^5");
+    }
+
+    @Test
+    public void testKeepsValue() throws IOException {
+        final Expression e = Expression.parse("(x+1)*(y+2)*(x+1) + 3*x*y + y*x + (x*y)^2 + 0.5");
+        final VariableBinding binding = new VariableBinding().set("x", 1.5).set("y", 2.5);
+        assertEquals(e.evaluate(binding), e.canonical().evaluate(binding), 1e-9);
+
+        File file = File.createTempFile("canonical", ".store");
+        file.delete();
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            assertEquals(e.canonical(), store.get(store.append(e)).canonical());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCompareTo() {
+        final List<Expression> sorted = new ArrayList<>();
+        for (String s : new String[] { "2", "10", "x", "x^2", "x^3", "y", "x*y", "x*y*z", "x+y" }) {
+            sorted.add(Expression.parse(s));
+        }
+        final List<Expression> shuffled = new ArrayList<>(sorted);
+        Collections.reverse(shuffled);
+        Collections.sort(shuffled);
+        assertEquals(sorted, shuffled);
+
+        assertEquals(0, Expression.parse("x*y+1").compareTo(Expression.parse("x*y+1")));
+        assertTrue(Expression.parse("x*y").compareTo(Expression.parse("y*x")) < 0);
+        assertTrue(Expression.parse("x^1").compareTo(Expression.parse("x")) > 0);
+        assertTrue(Expression.parse("x").compareTo(Expression.parse("x^1")) < 0);
+    }
+
+    @Test
+    public void testCompareDeepChains() {
+        Expression a = new Variable("x");
+        Expression b = new Variable("x");
+        for (int i = 0; i < 100000; i++) {
+            a = new BinOpExpression('+', a, new Number(i));
+            b = new BinOpExpression('+', b, new Number(i == 0 ? -1 : i));
+        }
+        assertTrue(a.compareTo(b) > 0);
+        assertTrue(b.compareTo(a) < 0);
+        // the 100000 constants fold into one, and neither pass recurses along the chain
+        assertEquals(new BinOpExpression('+', new Number(99999.0 * 100000 / 2), new Variable("x")), a.canonical());
+    }
+
+    @Test
+    public void testDeepAlternatingNesting() {
+        // ((x*z + y)*z + y)*z..., and the same with every operation's operands swapped
+        Expression a = new Variable("x");
+        Expression b = new Variable("x");
+        for (int level = 1; level < 20000; level++) {
+            final Expression operand = new Variable(level % 2 == 0 ? "y" : "z");
+            final char op = level % 2 == 0 ? '+' : '*';
+            a = new BinOpExpression(op, a, operand);
+            b = new BinOpExpression(op, operand, b);
+        }
+        final Expression canonical = a.canonical();
+        assertEquals(a.depth(), canonical.depth());
+        assertEquals(canonical, b.canonical());
+        assertEquals(CanonicalKey.of(a), CanonicalKey.of(b));
+    }
+
+    @Test
+    public void testKeysInMap() {
+        final Map<CanonicalKey, Expression> derivatives = new HashMap<>();
+        final Expression e = Expression.parse("x*y + 2*x");
+        derivatives.put(CanonicalKey.of(e), e.derivative("x"));
+        assertEquals(e.derivative("x"), derivatives.get(CanonicalKey.of(Expression.parse("x*2 + y*x"))));
+        assertNull(derivatives.get(CanonicalKey.of(Expression.parse("x*y + 2*y"))));
+        assertFalse(CanonicalKey.of(Expression.parse("x")).equals(CanonicalKey.of(Expression.parse("y"))));
+        assertEquals("(2.0*x+x*y)", CanonicalKey.of(e).toString());
+    }
+}
@@ -8,6 +8,8 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -132,6 +134,188 @@ public class CommandsTest {
         assertTrue(dev.equals("((x*0.0+y*1.0)+(y*1.0+x*0.0))"));
     }
     
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * differentiate / simplify with ExpressionLimits
+     *
+     * Partition the inputs as follows:
+     * within all limits, input too long, nesting too deep, too many nodes,
+     * derivative too large, at and beyond the default depth limit, a flat sum of more
+     * terms than the default depth limit (a left chain counts as one level)
+     *
+     * Cover each part testing coverage.
+     */
+    @Test
+    public void testWithinLimits() throws IOException {
+        ExpressionLimits limits = new ExpressionLimits(100, 20, 10, 100);
+
+        assertEquals("8000.0", Commands.simplify("10 * (2 + x) * y", env(8.0, 80.0), limits));
+        assertEquals(Commands.differentiate("x * x", "x"), Commands.differentiate("x * x", "x", limits));
+    }
+    
+    @Test(expected=ExpressionTooLargeException.class)
+    public void testInputTooLong() throws IOException {
+        Commands.simplify("x + x + x + x", new HashMap<>(), new ExpressionLimits(10, 100, 100, 100));
+    }
+    
+    @Test(expected=ExpressionTooLargeException.class)
+    public void testNestingTooDeep() throws IOException {
+        Commands.differentiate("((((x))))", "x", new ExpressionLimits(100, 100, 3, 100));
+    }
+    
+    @Test(expected=ExpressionTooLargeException.class)
+    public void testTooManyNodes() throws IOException {
+        Commands.differentiate("x * y * z", "x", new ExpressionLimits(100, 4, 100, 100));
+    }
+    
+    /**
+     * @return ((x+2)*2+2)*2..., alternating sums and products, of the given depth
+     */
+    private static Expression alternating(int depth) {
+        Expression e = new Variable("x");
+        for (int level = 1; level < depth; level++) {
+            e = new BinOpExpression(level % 2 == 0 ? '+' : '*', e, new Number(2));
+        }
+        return e;
+    }
+
+    @Test
+    public void testAtDefaultDepthLimit() throws IOException {
+        final int limit = ExpressionLimits.DEFAULT.maxDepth();
+        final Expression deep = alternating(limit);
+        assertEquals(limit, deep.depth());
+        final VariableBinding binding = new VariableBinding().set("x", 1.0);
+
+        // every walker survives the deepest expression the default limits admit
+        final double value = deep.evaluate(binding);
+        assertEquals(value, deep.simplify(binding).getValue(), 0);
+        assertEquals(value, CompiledExpression.compile(deep).evaluate(binding), 0);
+        assertEquals(value, deep.canonical().evaluate(binding), Math.abs(value) * 1e-12);
+        assertEquals(value, deep.expand().evaluate(binding), Math.abs(value) * 1e-12);
+        assertNotNull(deep.derivative("x"));
+
+        final Map<String,Double> env = new HashMap<>();
+        env.put("x", 1.0);
+        assertEquals(value, Double.parseDouble(Commands.simplify(deep.toString(), env)), Math.abs(value) * 1e-12);
+        assertNotEquals(deep.toString(), Commands.differentiate(deep.toString(), "x"));
+    }
+
+    @Test(expected=ExpressionTooLargeException.class)
+    public void testBeyondDefaultDepthLimit() throws IOException {
+        ExpressionLimits.DEFAULT.checkExpression(alternating(ExpressionLimits.DEFAULT.maxDepth() + 1));
+    }
+
+    @Test
+    public void testFlatSumWithinDefaultLimits() throws IOException {
+        final int terms = 5000;
+        final StringBuilder sum = new StringBuilder("x");
+        final StringBuilder ones = new StringBuilder("1");
+        for (int i = 1; i < terms; i++) {
+            sum.append(" + x");
+            ones.append(" + 1");
+        }
+        final Expression parsed = Expression.parse(sum.toString());
+        assertTrue(parsed.depth() > ExpressionLimits.DEFAULT.maxDepth());
+        ExpressionLimits.DEFAULT.checkExpression(parsed);
+
+        assertEquals("10000.0", Commands.simplify(sum.toString(), env(2.0, 0.0)));
+        assertEquals("5000.0", Commands.simplify(ones.toString(), new HashMap<>()));
+        assertEquals(sum.toString().replace(" ", ""), Commands.simplify(sum.toString(), new HashMap<>()).replaceAll("[() ]", ""));
+        assertNotEquals(sum.toString(), Commands.differentiate(sum.toString(), "x"));
+
+        final VariableBinding binding = new VariableBinding().set("x", 2.0);
+        assertEquals(5000.0, parsed.derivative("x").evaluate(binding), 0);
+        assertEquals(10000.0, CompiledExpression.compile(parsed).evaluate(binding), 0);
+        assertEquals(10000.0, parsed.expand().evaluate(binding), 0);
+        assertEquals(10000.0, parsed.canonical().evaluate(binding), 0);
+    }
+
+    @Test
+    public void testDerivativeTooLarge() throws IOException {
+        String expression = "x * x * x * x * x";
+        Expression derivative = Expression.parse(expression).derivative("x");
+        ExpressionLimits limits = new ExpressionLimits(100, 100, 100, derivative.size() - 1);
+        
+        try {
+            Commands.differentiate(expression, "x", limits);
+            fail("expected ExpressionTooLargeException");
+        } catch (ExpressionTooLargeException e) {
+            assertEquals("derivative nodes", e.getLimit());
+            assertEquals(derivative.size(), e.getActual());
+        }
+    }
+    
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * differentiate(expression, variable, order)
+     *
+     * Partition the inputs as follows:
+     * order 1, order 2, invalid order
+     *
+     * Cover each part testing coverage.
+     */
+    @Test
+    public void testDifferentiateOrder() throws IOException {
+        assertEquals("(2.0*x+3.0)", Commands.differentiate("x * x + 3 * x", "x", 1));
+        assertEquals("2.0", Commands.differentiate("x * x + 3 * x", "x", 2));
+        assertEquals("6.0*x", Commands.differentiate("x * x * x", "x", 2));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testDifferentiateInvalidOrder() throws IOException {
+        Commands.differentiate("x * x", "x", 0);
+    }
+    
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * differentiate / simplify with a CancellationToken
+     *
+     * Partition the inputs as follows:
+     * token live, token cancelled, deadline passed
+     *
+     * Cover each part testing coverage.
+     */
+    @Test
+    public void testLiveToken() throws IOException {
+        CancellationToken token = CancellationToken.withTimeout(1, TimeUnit.HOURS);
+        ExpressionLimits limits = ExpressionLimits.getDefault();
+
+        assertEquals(Commands.differentiate("x * y + x", "x"), Commands.differentiate("x * y + x", "x", limits, token));
+        assertEquals("8000.0", Commands.simplify("10 * (2 + x) * y", env(8.0, 80.0), limits, token));
+    }
+    
+    @Test(expected=CancellationException.class)
+    public void testCancelledToken() throws IOException {
+        CancellationToken token = CancellationToken.create();
+        token.cancel();
+        Commands.differentiate("x * x", "x", ExpressionLimits.getDefault(), token);
+    }
+    
+    @Test
+    public void testDeadlinePassed() throws IOException {
+        CancellationToken token = CancellationToken.withTimeout(0, TimeUnit.NANOSECONDS);
+        assertTrue(token.isCancelled());
+        try {
+            Commands.simplify("x + y", env(1.0, 2.0), ExpressionLimits.getDefault(), token);
+            fail("expected CancellationException");
+        } catch (CancellationException e) {
+            assertEquals("deadline exceeded", e.getMessage());
+        }
+    }
+    
+    private static Map<String,Double> env(double x, double y) {
+        Map<String,Double> env = new HashMap<>();
+        env.put("x", x);
+        env.put("y", y);
+        return env;
+    }
+    
     @Test(expected=AssertionError.class)
     public void testAssertionsEnabled() {
         assert false; // make sure assertions are enabled with VM argument: -ea
@@ -0,0 +1,165 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for DensePolynomial and the dense path of Expression.expand().
+ */
+public class DensePolynomialTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * of(): constant, zero, one variable, more than one variable; sums, products, powers,
+     *   exponent 0; degree bound beyond MAX_DEGREE
+     * isUnivariate(): 0, 1, 2 variables
+     * multiply: schoolbook, Karatsuba and FFT agree; operands of equal, slightly unequal
+     *   and very unequal length, length 1; different variables
+     * exactly(): multivariate, degree below the threshold, fractional constant, coefficients
+     *   beyond 2^53, Karatsuba and FFT sized products; same result as SparsePolynomial
+     * derivative(), evaluate(): zero, constant, high degree
+     * toExpression(): canonical form; zero; coefficient 1
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static double[] randomVector(Random random, int n) {
+        final double[] v = new double[n];
+        for (int k = 0; k < n; k++) {
+            v[k] = random.nextInt(19) - 9;
+        }
+        return v;
+    }
+
+    @Test
+    public void testMultiplicationAlgorithmsAgree() {
+        final Random random = new Random(5);
+        final int[][] lengths = { { 1, 1 }, { 1, 100 }, { 70, 70 }, { 129, 65 }, { 127, 64 }, { 300, 1000 }, { 700, 700 } };
+        for (int[] n : lengths) {
+            final double[] x = randomVector(random, n[0]), y = randomVector(random, n[1]);
+            final double[] expected = DensePolynomial.schoolbook(x, y);
+            assertArrayEquals(expected, DensePolynomial.karatsuba(x, y), 0);
+            assertArrayEquals(expected, DensePolynomial.fft(x, y), 1e-6);
+        }
+    }
+
+    @Test
+    public void testOf() {
+        final DensePolynomial p = DensePolynomial.of(Expression.parse("(x+1)*(x+2) + 3*x"));
+        assertEquals(2, p.degree());
+        assertEquals(2, p.coefficient(0), 0);
+        assertEquals(6, p.coefficient(1), 0);
+        assertEquals(1, p.coefficient(2), 0);
+        assertEquals(0, p.coefficient(7), 0);
+        assertEquals("x", p.variable());
+
+        assertEquals(0, DensePolynomial.of(Expression.parse("2*3")).degree());
+        assertNull(DensePolynomial.of(Expression.parse("2*3")).variable());
+        assertEquals(-1, DensePolynomial.of(Expression.parse("x*0")).degree());
+        assertEquals(DensePolynomial.of(Expression.parse("1 + x")), DensePolynomial.of(Expression.parse("x^0 + x")));
+        assertEquals(new Number(1), Expression.parse("x^0").expand());
+        assertEquals(Expression.parse("x + 1").expand(), Expression.parse("x*x^0 + 1").expand());
+        assertEquals(DensePolynomial.of(Expression.parse("x*0")), DensePolynomial.of(Expression.parse("y*0")));
+        try {
+            DensePolynomial.of(Expression.parse("x*y"));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertTrue(DensePolynomial.isUnivariate(Expression.parse("3")));
+        assertTrue(DensePolynomial.isUnivariate(Expression.parse("x*x+1")));
+        assertFalse(DensePolynomial.isUnivariate(Expression.parse("x+y")));
+    }
+
+    @Test
+    public void testArithmetic() {
+        final DensePolynomial x1 = DensePolynomial.of(Expression.parse("x+1"));
+        assertEquals(DensePolynomial.of(Expression.parse("x^2 + 2*x + 1")), x1.multiply(x1));
+        assertEquals(DensePolynomial.of(Expression.parse("2*x + 3")), x1.add(x1).add(DensePolynomial.of(Expression.parse("1"))));
+        assertEquals(x1.multiply(x1).hashCode(), DensePolynomial.of(Expression.parse("(x+1)^2")).hashCode());
+        try {
+            x1.add(DensePolynomial.of(Expression.parse("y")));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testDerivativeAndEvaluate() {
+        final Expression e = Expression.parse("(x+1)^5 + 2*x^7 + 3");
+        final DensePolynomial p = DensePolynomial.of(e);
+        final VariableBinding binding = new VariableBinding().set("x", 1.5);
+        assertEquals(e.evaluate(binding), p.evaluate(1.5), 1e-9);
+        assertEquals(e.derivative("x").evaluate(binding), p.derivative().evaluate(1.5), 1e-9);
+        assertEquals(-1, DensePolynomial.of(Expression.parse("5")).derivative().degree());
+        assertEquals(0, DensePolynomial.of(Expression.parse("0")).evaluate(3), 0);
+        assertEquals(Expression.parse("5*x^4 + 20*x^3 + 30*x^2 + 20*x + 5 + 14*x^6").canonical(),
+                DensePolynomial.of(Expression.parse("(x+1)^5 + 2*x^7")).derivative().toExpression());
+    }
+
+    @Test
+    public void testToExpression() {
+        final Expression e = DensePolynomial.of(Expression.parse("(x+2)*(x+3)")).toExpression();
+        assertEquals(Expression.parse("x^2 + 5*x + 6").canonical(), e);
+        assertEquals(e, e.canonical());
+        assertEquals(new Number(0), DensePolynomial.of(Expression.parse("x*0")).toExpression());
+        assertEquals(new Variable("x"), DensePolynomial.of(Expression.parse("x")).toExpression());
+    }
+
+    @Test
+    public void testExactly() {
+        assertNull(DensePolynomial.exactly(Expression.parse("(x+y)^2")));
+        assertNull(DensePolynomial.exactly(Expression.parse("x+1")));
+        assertNull(DensePolynomial.exactly(Expression.parse("(x+0.5)^2")));
+        // the middle coefficients of (x+1)^70 are beyond 2^53
+        assertNull(DensePolynomial.exactly(Expression.parse("(x+1)^70")));
+        assertNotNull(DensePolynomial.exactly(Expression.parse("(x+1)^40")));
+
+        for (String input : new String[] { "(x+1)^40", "(x+1)*(x+2)*(x+3)", "(2*x+3)^9*(x+1)" }) {
+            final Expression e = Expression.parse(input);
+            assertEquals(input, SparsePolynomial.of(e).toExpression(), e.expand());
+            assertEquals(input, SparsePolynomial.of(e).toExpression(), DensePolynomial.exactly(e).toExpression());
+        }
+    }
+
+    @Test
+    public void testExactlyWithFastMultiplication() {
+        // (1 + x + ... + x^n)^2, with Karatsuba for n = 200 and the FFT for n = 600
+        for (int n : new int[] { 200, 600 }) {
+            Expression sum = new Number(1);
+            for (int k = 1; k <= n; k++) {
+                sum = new BinOpExpression('+', sum, new PowExpression(new Variable("x"), k));
+            }
+            final Expression square = new BinOpExpression('*', sum, sum);
+            final DensePolynomial dense = DensePolynomial.exactly(square);
+            assertNotNull(dense);
+            for (int k = 0; k <= 2 * n; k++) {
+                assertEquals(Math.min(k, 2 * n - k) + 1, dense.coefficient(k), 0);
+            }
+            assertEquals(SparsePolynomial.of(square).toExpression(), square.expand());
+        }
+    }
+
+    @Test(timeout = 2000)
+    public void testDegreeBeyondDenseLimit() {
+        // one or two terms each, which would be vectors of up to 16 GB of zeros
+        for (String input : new String[] { "x^100000000", "x^2000000000", "3*x^50000000 + 1" }) {
+            final Expression e = Expression.parse(input);
+            assertNull(DensePolynomial.exactly(e));
+            assertEquals(input, SparsePolynomial.of(e).toExpression(), e.expand());
+        }
+        assertNotNull(DensePolynomial.exactly(new PowExpression(new Variable("x"), (int) DensePolynomial.MAX_DEGREE)));
+        try {
+            DensePolynomial.of(Expression.parse("x^100000000"));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        final double[] values = Expression.parse("x^100000000 + 1").evaluate(new double[] { -1, 0, 0.5, 1 });
+        assertArrayEquals(new double[] { 2, 1, 1, 2 }, values, 0);
+    }
+}
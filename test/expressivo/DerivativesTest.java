@@ -0,0 +1,125 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests for Derivatives and the higher-order derivative methods of Expression.
+ */
+public class DerivativesTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Expression derivative(String, int), Expression partial(String...),
+     * Expression[] gradient(String...), Expression[][] hessian(String...)
+     *
+     * Partition the inputs as follows:
+     * order 0, 1, 2, higher than the degree
+     * mixed partials in either order
+     * Hessian symmetry and sharing, cache reuse
+     * order far beyond the degree, order beyond the limits' order
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static double at(Expression e, double x, double y) {
+        VariableBinding binding = new VariableBinding();
+        binding.set("x", x);
+        binding.set("y", y);
+        return e.evaluate(binding);
+    }
+
+    @Test
+    public void testOrder() throws IOException {
+        Expression e = Expression.parse("x * x * x + 2 * x * y");
+
+        assertSame(e, e.derivative("x", 0));
+        assertEquals(3 * 4 + 2 * 5, at(e.derivative("x", 1), 2, 5), 0);
+        assertEquals(6 * 2, at(e.derivative("x", 2), 2, 5), 0);
+        assertEquals(Expression.parse("6"), e.derivative("x", 3));
+        assertEquals(Expression.parse("0"), e.derivative("x", 4));
+    }
+
+    @Test
+    public void testSimplifiedBetweenSteps() throws IOException {
+        Expression e = Expression.parse("x * x * x * x * x * x");
+        Expression chained = e.derivative("x").derivative("x").derivative("x");
+        Expression stepped = e.derivative("x", 3);
+
+        assertEquals(at(chained, 1.5, 0), at(stepped, 1.5, 0), 1e-9);
+        assertTrue(stepped.size() < chained.size() / 10);
+    }
+
+    @Test
+    public void testMixedPartials() throws IOException {
+        Expression e = Expression.parse("x * x * y + y * y * y * x + 7");
+        Derivatives derivatives = new Derivatives(e);
+
+        Expression xy = derivatives.partial("x", "y");
+        assertSame(xy, derivatives.partial("y", "x"));
+        assertEquals(2 * 3 + 3 * 4 * 4, at(xy, 3, 4), 0);
+        assertEquals(xy, e.partial("y", "x"));
+        assertSame(e, derivatives.partial());
+    }
+
+    @Test
+    public void testHessian() throws IOException {
+        Expression e = Expression.parse("x * x * y + y * y * y * x + 7");
+        Derivatives derivatives = new Derivatives(e);
+
+        Expression[] gradient = derivatives.gradient("x", "y");
+        assertEquals(2 * 3 * 4 + 4 * 4 * 4, at(gradient[0], 3, 4), 0);
+        assertEquals(3 * 3 + 3 * 4 * 4 * 3, at(gradient[1], 3, 4), 0);
+
+        Expression[][] hessian = derivatives.hessian("x", "y");
+        assertSame(hessian[0][1], hessian[1][0]);
+        assertEquals(2 * 4, at(hessian[0][0], 3, 4), 0);
+        assertEquals(2 * 3 + 3 * 4 * 4, at(hessian[0][1], 3, 4), 0);
+        assertEquals(6 * 4 * 3, at(hessian[1][1], 3, 4), 0);
+
+        // x, y, xx, xy, yy: the Hessian reused the gradient
+        assertEquals(5, derivatives.cached());
+        assertSame(hessian[0][0], derivatives.derivative("x", 2));
+    }
+
+    @Test(expected=ExpressionTooLargeException.class)
+    public void testLimits() throws IOException {
+        Expression e = Expression.parse("x * x * x * x * x * x * x * x");
+        new Derivatives(e, new ExpressionLimits(100, 100, 100, 10)).derivative("x", 2);
+    }
+
+    @Test
+    public void testStopsAtZero() throws IOException {
+        Derivatives derivatives = new Derivatives(Expression.parse("x * x * y"));
+
+        assertEquals(Expression.parse("0"), derivatives.derivative("x", 200000000));
+        // x, xx, xxx: nothing after the first zero is computed or cached
+        assertEquals(3, derivatives.cached());
+        assertEquals(Expression.parse("0"), derivatives.partial("x", "x", "x", "y"));
+        assertEquals(3, derivatives.cached());
+    }
+
+    @Test
+    public void testOrderLimit() throws IOException {
+        Derivatives derivatives = new Derivatives(Expression.parse("x * x"),
+                new ExpressionLimits(100, 100, 100, 100, 10));
+        assertEquals(Expression.parse("0"), derivatives.derivative("x", 10));
+        try {
+            derivatives.derivative("x", 11);
+            fail("expected ExpressionTooLargeException");
+        } catch (ExpressionTooLargeException e) {
+            assertEquals("derivative order", e.getLimit());
+            assertEquals(11, e.getActual());
+        }
+    }
+
+    @Test(expected=ExpressionTooLargeException.class)
+    public void testCommandOrderLimit() throws IOException {
+        Commands.differentiate("x", "x", ExpressionLimits.DEFAULT_MAX_ORDER + 1);
+    }
+}
@@ -0,0 +1,160 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for Equivalence.
+ */
+public class EquivalenceTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * equivalent(), exactlyEquivalent(): syntactically equal, commuted, distributed,
+     *   expanded powers, exponent 0, different expressions, differing only in a constant or only in a
+     *   coefficient, fractional constants (0.1 + 0.2 vs 0.3), constants only, expressions
+     *   with different variables, stored views; degree bound beyond p
+     * fingerprint(): equivalent expressions equal, different ones unequal, same seed
+     *   comparable, different seeds unequal; used as a HashMap key; independent of the
+     *   order in which variable names were interned
+     * error probability: out of range, number of points growing with degree and as the
+     *   probability shrinks
+     * arithmetic mod p: add and multiply near p, power, negative and fractional constants
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static final Equivalence EQ = new Equivalence(1e-12, 42);
+
+    private static void assertEquivalent(boolean expected, String a, String b) {
+        final Expression x = Expression.parse(a);
+        final Expression y = Expression.parse(b);
+        assertEquals(a + " vs " + b, expected, EQ.equivalent(x, y));
+        assertEquals(a + " vs " + b, expected, EQ.exactlyEquivalent(x, y));
+        assertEquals(a + " vs " + b, expected, EQ.fingerprint(x).equals(EQ.fingerprint(y)));
+    }
+
+    @Test
+    public void testEquivalentSpellings() {
+        assertEquivalent(true, "x*y + 1", "x*y + 1");
+        assertEquivalent(true, "x*y", "y*x");
+        assertEquivalent(true, "(x+1)*(x+1)", "x*x + 2*x + 1");
+        assertEquivalent(true, "(x+y)^3", "x^3 + 3*x^2*y + 3*x*y^2 + y^3");
+        assertEquivalent(true, "(a+b)*(c+d)", "a*c + a*d + b*c + b*d");
+        assertEquivalent(true, "x*0 + y", "y");
+        assertEquivalent(true, "0.1*x + 0.2*x", "0.3*x");
+        assertEquivalent(true, "2 + 3", "5");
+        assertEquivalent(true, "x^0", "1");
+        assertEquivalent(true, "x*x^0 + 1", "x + 1");
+    }
+
+    @Test
+    public void testDifferentExpressions() {
+        assertEquivalent(false, "x", "y");
+        assertEquivalent(false, "(x+1)*(x+1)", "x*x + 1");
+        assertEquivalent(false, "x*y + 1", "x*y + 1.000001");
+        assertEquivalent(false, "3*x*y", "2*x*y");
+        assertEquivalent(false, "x^3", "x^2");
+        assertEquivalent(false, "2", "3");
+        assertEquivalent(false, "x + y", "x + z");
+    }
+
+    @Test
+    public void testStoredViews() throws IOException {
+        File file = File.createTempFile("equivalence", ".store");
+        file.delete();
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            final Expression stored = store.get(store.append(Expression.parse("(x+y)*(x+y)")));
+            assertTrue(EQ.equivalent(stored, Expression.parse("x*x + 2*x*y + y*y")));
+            assertTrue(EQ.exactlyEquivalent(stored, Expression.parse("x*x + 2*x*y + y*y")));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testHugeDegree() {
+        Expression e = new Variable("x");
+        for (int i = 0; i < 3; i++) {
+            e = new PowExpression(e, 1 << 30);
+        }
+        final Expression huge = e;
+        try {
+            EQ.equivalent(huge, huge);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        // the random points still separate different expressions
+        assertFalse(EQ.exactlyEquivalent(huge, new Variable("x")));
+    }
+
+    @Test
+    public void testFingerprints() {
+        final Map<Equivalence.Fingerprint, String> seen = new HashMap<>();
+        final String[] corpus = { "x*y + 1", "1 + y*x", "(x+1)^2", "x*x + 2*x + 1", "x*y + 2" };
+        int duplicates = 0;
+        for (String text : corpus) {
+            if (seen.putIfAbsent(EQ.fingerprint(Expression.parse(text)), text) != null) {
+                duplicates++;
+            }
+        }
+        assertEquals(2, duplicates);
+        assertEquals(3, seen.size());
+
+        final Expression e = Expression.parse("x*y + 1");
+        assertEquals(EQ.fingerprint(e), new Equivalence(1e-12, 42).fingerprint(e));
+        assertNotEquals(EQ.fingerprint(e), new Equivalence(1e-12, 43).fingerprint(e));
+
+        // the points depend on the seed and the names only, so this value is the same in
+        // any process, whatever names were interned before x and y
+        new Variable("fingerprintsInternedFirst");
+        assertEquals("[e51cd8f95919c09]", new Equivalence(1e-12, 42).fingerprint(e).toString());
+    }
+
+    @Test
+    public void testErrorProbability() {
+        try {
+            new Equivalence(0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new Equivalence(1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(Equivalence.DEFAULT_ERROR_PROBABILITY, new Equivalence().errorProbability(), 0);
+        assertEquals(1, EQ.points(0));
+        assertEquals(1, EQ.points(1000));
+        assertTrue(EQ.points(1L << 50) > 1);
+        assertTrue(new Equivalence(1e-30, 1).points(1000) > EQ.points(1000));
+        assertEquals(-1, EQ.points(Equivalence.P));
+        assertEquals(2, Equivalence.degree(Expression.parse("x*y + 3*x + 1")));
+        assertEquals(6, Equivalence.degree(Expression.parse("(x*y + 1)^3")));
+    }
+
+    @Test
+    public void testModularArithmetic() {
+        final long p = Equivalence.P;
+        assertEquals(0, Equivalence.add(p - 1, 1));
+        assertEquals(1, Equivalence.multiply(p - 1, p - 1));
+        assertEquals(p - 2, Equivalence.multiply(p - 1, 2));
+        assertEquals(1, Equivalence.power(3, 0));
+        assertEquals(Equivalence.multiply(Equivalence.multiply(3, 3), 3), Equivalence.power(3, 3));
+        // 2^61 = 1 mod p
+        assertEquals(1, Equivalence.multiply(1L << 60, 2));
+        assertEquals(1, Equivalence.power(2, 61));
+        assertEquals(p - 5, Equivalence.residue(-5.0));
+        // 0.5 * 2 = 1 and 0.1 * 10 = 1 mod p
+        assertEquals(1, Equivalence.multiply(Equivalence.residue(0.5), 2));
+        assertEquals(1, Equivalence.multiply(Equivalence.residue(0.1), 10));
+    }
+}
@@ -0,0 +1,195 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ExpressionStore and the StoredExpression views it returns.
+ */
+public class ExpressionStoreTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * int append(Expression), Expression get(int)
+     *   number, variable, nested sums and products
+     *
+     * int find(Expression), List<Integer> idsWithHash(int)
+     *   expression present / absent
+     *
+     * reopening a store
+     *   clean file, file with a torn trailing entry
+     *
+     * operations on stored views: simplify, derivative, toString, equals/hashCode;
+     *   simplify(Map), derivative and the derivative size check on a store written by
+     *   another process, whose names this process has not interned
+     *
+     * Cover each part testing coverage.
+     */
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("expressions", ".store");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * Write a store holding the one expression name + 1, byte by byte as another process
+     * would have, so that no Variable named name is created here.
+     */
+    private void writeSum(String name) throws IOException {
+        final int variable = 3 + name.length();
+        final int payload = ExpressionStore.BINOP_HEADER_SIZE + variable + 9;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeLong(0x4558505253544f52L); // "EXPRSTOR"
+            raf.writeInt(2);
+            raf.writeInt(payload);
+            raf.writeInt(0);                     // structural hash, only used by find()
+            raf.writeByte(ExpressionStore.TAG_PLUS);
+            raf.writeInt(ExpressionStore.BINOP_HEADER_SIZE + variable);
+            raf.writeLong(3);
+            raf.writeInt(2);
+            raf.writeByte(ExpressionStore.TAG_VARIABLE);
+            raf.writeShort(name.length());
+            raf.writeBytes(name);
+            raf.writeByte(ExpressionStore.TAG_NUMBER);
+            raf.writeDouble(1);
+        }
+    }
+
+    @Test
+    public void testSimplifyMapOfUninternedStore() throws IOException {
+        assertTrue(VariableBinding.slotIfInterned("storeSimplifyName") < 0);
+        writeSum("storeSimplifyName");
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            final Map<String,Double> environment = new HashMap<>();
+            environment.put("storeSimplifyName", 2.0);
+            assertEquals(3.0, store.get(0).simplify(environment).getValue(), 0);
+        }
+    }
+
+    @Test
+    public void testDerivativeOfUninternedStore() throws IOException {
+        assertTrue(VariableBinding.slotIfInterned("storeDerivativeName") < 0);
+        writeSum("storeDerivativeName");
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            assertEquals(1.0, store.get(0).derivative("storeDerivativeName").simplify(new VariableBinding()).getValue(), 0);
+        }
+
+        // a fresh name again, since the derivative above interned the first one
+        assertTrue(VariableBinding.slotIfInterned("storeDerivativeSizeName") < 0);
+        writeSum("storeDerivativeSizeName");
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            assertEquals(3, ExpressionLimits.derivativeSize(store.get(0), "storeDerivativeSizeName"));
+        }
+    }
+
+    @Test
+    public void testAppendAndGet() throws IOException {
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            Expression num = Expression.parse("1.5");
+            Expression var = Expression.parse("xyz");
+            Expression exp = Expression.parse("(a + 2) * b * (c + d * 3) + 4");
+
+            assertEquals(0, store.append(num));
+            assertEquals(1, store.append(var));
+            assertEquals(2, store.append(exp));
+            assertEquals(3, store.size());
+
+            assertTrue(store.get(0).equals(num));
+            assertTrue(store.get(1).equals(var));
+            assertTrue(store.get(2).equals(exp));
+            assertEquals(exp.toString(), store.get(2).toString());
+            assertEquals(exp.hashCode(), store.get(2).hashCode());
+            assertEquals(exp.hashCode(), store.hashOf(2));
+            assertEquals(exp.size(), store.get(2).size());
+            assertEquals(exp.depth(), store.get(2).depth());
+        }
+    }
+
+    @Test
+    public void testFindByStructuralHash() throws IOException {
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            store.append(Expression.parse("x * y"));
+            int id = store.append(Expression.parse("x + y"));
+
+            assertEquals(id, store.find(Expression.parse("x+y")));
+            assertTrue(store.idsWithHash(Expression.parse("x+y").hashCode()).contains(id));
+            assertEquals(-1, store.find(Expression.parse("y + x")));
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        Expression exp = Expression.parse("x * x + 2 * x + 1");
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            store.append(Expression.parse("1"));
+            store.append(exp);
+        }
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            assertEquals(2, store.size());
+            assertEquals(1, store.find(exp));
+            assertEquals(2, store.append(Expression.parse("y")));
+            assertTrue(store.get(2).equals(Expression.parse("y")));
+        }
+    }
+
+    @Test
+    public void testReopenDropsTornEntry() throws IOException {
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            store.append(Expression.parse("a + b"));
+            store.append(Expression.parse("a * b"));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            assertEquals(1, store.size());
+            assertTrue(store.get(0).equals(Expression.parse("a + b")));
+            store.append(Expression.parse("c"));
+            assertTrue(store.get(1).equals(Expression.parse("c")));
+        }
+    }
+
+    @Test
+    public void testOperationsOnStoredView() throws IOException {
+        Map<String,Double> env = new HashMap<>();
+        env.put("x", 8.0);
+        Expression exp = Expression.parse("(10 + 2) * x + y");
+
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            Expression stored = store.get(store.append(exp));
+
+            assertTrue(stored.simplify(env).equals(exp.simplify(env)));
+            assertTrue(stored.derivative("x").equals(exp.derivative("x")));
+            assertTrue(Double.isNaN(stored.getValue()));
+
+            // nothing to substitute or fold in the right operand: it stays a view
+            Expression partly = stored.simplify(env);
+            assertTrue(((BinOpExpression) partly).getRight() instanceof StoredExpression);
+            Expression unfoldable = store.get(store.append(Expression.parse("x * y + 2")));
+            assertSame(unfoldable, unfoldable.simplify(new VariableBinding()));
+
+            // a stored expression can itself be stored again
+            Expression copy = store.get(store.append(stored.derivative("y")));
+            assertTrue(copy.equals(exp.derivative("y")));
+        }
+    }
+}
@@ -5,9 +5,14 @@ package expressivo;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -318,6 +323,8 @@ public class ExpressionTest {
      * expression with two variables and numbers with operation '*', two variables assigned value
      * expression with two variables and numbers with operation '+' and '*', one variable assigned value
      * expression with two variables and numbers with operation '+' and '*', two variable assigned values
+     * nothing substituted or folded, only a constant folded, one variable substituted: the result
+     *   shares every unchanged subtree (same instances) with the input
      * 
      * Cover each part testing coverage.
      */
@@ -468,6 +475,34 @@ public class ExpressionTest {
         assertTrue(exp.simplify(env).equals(simp));
     }
     
+    @Test
+    public void testSimplifySharesUnchangedSubtrees() throws IOException {
+        Map<String,Double> env = new HashMap<>();
+        env.put("q", 1.0);
+        
+        Expression exp = Expression.parse("(x + y*z) * (w + 2^3) + 4");
+        BinOpExpression product = (BinOpExpression) ((BinOpExpression) exp).getLeft();
+        Number four = (Number) ((BinOpExpression) exp).getRight();
+        
+        // only 2^3 is folded: the path above it is rebuilt, everything else is shared
+        Expression simp = exp.simplify(env);
+        assertEquals(Expression.parse("(x + y*z) * (w + 8) + 4"), simp);
+        BinOpExpression simpProduct = (BinOpExpression) ((BinOpExpression) simp).getLeft();
+        assertSame(product.getLeft(), simpProduct.getLeft());
+        assertSame(four, ((BinOpExpression) simp).getRight());
+        
+        // nothing left to fold or substitute: the very same instance
+        assertSame(simp, simp.simplify(env));
+        assertSame(four, four.simplify(new VariableBinding()));
+        
+        // x substituted: its sibling y*z is shared
+        env.put("x", 2.0);
+        Expression withX = simp.simplify(env);
+        assertEquals(Expression.parse("(2 + y*z) * (w + 8) + 4"), withX);
+        BinOpExpression sum = (BinOpExpression) ((BinOpExpression) ((BinOpExpression) withX).getLeft()).getLeft();
+        assertSame(((BinOpExpression) simpProduct.getLeft()).getRight(), sum.getRight());
+    }
+    
     @Test
     public void testSimplifyTwoVariablesSumTime2() throws IOException {
         Map<String,Double> env = new HashMap<>();
@@ -481,6 +516,186 @@ public class ExpressionTest {
         assertTrue(exp.simplify(env).equals(simp));
     }
     
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * double Expression.evaluate(VariableBinding binding)
+     *
+     * Partition the inputs as follows:
+     * number, variable, polynomial with all variables bound
+     * unbound variable with fail-fast / NaN binding
+     * bytes allocated per call after warmup
+     *
+     * Cover each part testing coverage.
+     */
+    @Test
+    public void testEvaluateAllBound() throws IOException {
+        VariableBinding binding = new VariableBinding().set("x", 8.0).set("y", 80.0);
+
+        assertEquals(2.5, Expression.parse("2.5").evaluate(binding), 0);
+        assertEquals(8.0, Expression.parse("x").evaluate(binding), 0);
+        assertEquals(8000.0, Expression.parse("10 * (2 + x) * y").evaluate(binding), 0);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testEvaluateUnboundFailsFast() throws IOException {
+        Expression.parse("x + y").evaluate(new VariableBinding().set("x", 1.0));
+    }
+    
+    @Test
+    public void testEvaluateUnboundAsNaN() throws IOException {
+        VariableBinding binding = new VariableBinding().set("x", 1.0).setFailOnUnbound(false);
+        
+        assertTrue(Double.isNaN(Expression.parse("x + y").evaluate(binding)));
+    }
+    
+    @Test
+    public void testEvaluateAllocatesNothing() throws IOException {
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return; // allocation accounting not available on this JVM
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+        
+        Expression exp = Expression.parse("x*x*y + 3*x + y*(x+2) + 0.5");
+        VariableBinding binding = new VariableBinding().set("x", 3.0).set("y", 4.0);
+        final int calls = 200000;
+        double sum = 0;
+        for (int i = 0; i < calls; i++) { // warm up
+            sum += exp.evaluate(binding);
+        }
+        
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < calls; i++) {
+            sum += exp.evaluate(binding);
+        }
+        long after = allocations.getThreadAllocatedBytes(thread);
+        
+        assertEquals(2 * calls * 65.5, sum, 0);
+        assertEquals(0, (after - before) / calls);
+    }
+    
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * long Expression.size(), int Expression.depth()
+     *
+     * Partition the inputs as follows:
+     * leaf, balanced / left-deep tree, tree with a shared subtree
+     *
+     * Cover each part testing coverage.
+     */
+    @Test
+    public void testSizeAndDepth() throws IOException {
+        assertEquals(1, Expression.parse("x").size());
+        assertEquals(1, Expression.parse("2").depth());
+        
+        Expression balanced = Expression.parse("(a + b) * (c + d)");
+        assertEquals(7, balanced.size());
+        assertEquals(3, balanced.depth());
+        
+        Expression chain = Expression.parse("a + b + c + d");
+        assertEquals(7, chain.size());
+        assertEquals(4, chain.depth());
+        
+        // a shared subtree counts once per parent
+        Expression shared = new BinOpExpression('*', balanced, balanced);
+        assertEquals(15, shared.size());
+        assertEquals(4, shared.depth());
+    }
+    
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * derivative / simplify / evaluate with a CancellationToken
+     *
+     * Partition the inputs as follows:
+     * token never cancelled, token cancelled part way through a large tree
+     *
+     * Cover each part testing coverage.
+     */
+    @Test
+    public void testTokenGivesSameResults() throws IOException {
+        Expression e = Expression.parse("(x + 2) * y * (x * x + 3)");
+        VariableBinding binding = new VariableBinding();
+        binding.set("x", 2);
+        binding.set("y", 5);
+        CancellationToken token = CancellationToken.create();
+        
+        assertEquals(e.derivative("x"), e.derivative("x", token));
+        assertEquals(e.simplify(binding), e.simplify(binding, token));
+        assertEquals(e.evaluate(binding), e.evaluate(binding, token), 0);
+        assertEquals(e.derivative("y"), e.derivative("y", CancellationToken.NONE));
+    }
+    
+    @Test
+    public void testTokenStopsLargeTree() throws IOException {
+        Expression e = new Variable("x");
+        for (int i = 0; i < 2000; i++) {
+            e = new BinOpExpression(i % 2 == 0 ? '+' : '*', e, new Variable("y"));
+        }
+        final CancellationToken token = CancellationToken.withTimeout(1, TimeUnit.HOURS, 64);
+        token.cancel();
+        try {
+            e.derivative("x", token);
+            fail("expected CancellationException");
+        } catch (CancellationException ce) {
+            assertEquals("operation cancelled", ce.getMessage());
+        }
+        try {
+            // y bound, so there is a substitution in every subtree
+            e.simplify(new VariableBinding().set("y", 2), token);
+            fail("expected CancellationException");
+        } catch (CancellationException ce) {
+            assertTrue(token.isCancelled());
+        }
+    }
+    
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * void writeTo(Appendable), void writeTo(WritableByteChannel)
+     *
+     * Partition the inputs as follows:
+     * leaf, sums and products, stored expression, tree deeper than the call stack allows
+     *
+     * Cover each part testing coverage.
+     */
+    @Test
+    public void testWriteToMatchesToString() throws IOException {
+        String[] inputs = { "x", "1.5", "0.00001", "x + y * 2", "(a + 2) * b * (c + d * 3) + 4" };
+        for (String input : inputs) {
+            Expression e = Expression.parse(input);
+            StringBuilder sb = new StringBuilder();
+            e.writeTo(sb);
+            assertEquals(e.toString(), sb.toString());
+            
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            e.writeTo(Channels.newChannel(bytes));
+            assertEquals(e.toString(), new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+        }
+    }
+    
+    @Test
+    public void testWriteDeepTree() throws IOException {
+        final int depth = 200000;
+        Expression e = new Variable("x");
+        for (int i = 0; i < depth; i++) {
+            e = new BinOpExpression(i % 2 == 0 ? '+' : '*', new Number(i), e);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        e.writeTo(Channels.newChannel(bytes));
+        String text = e.toString();
+        assertEquals(text, new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+        assertTrue(text.startsWith("199999.0*(199998.0+"));
+        assertTrue(e.getContents().startsWith("(199999.0*(199998.0+"));
+    }
+    
     @Test(expected=AssertionError.class)
     public void testAssertionsEnabled() {
         assert false; // make sure assertions are enabled with VM argument: -ea
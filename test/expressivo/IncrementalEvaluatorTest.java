@@ -0,0 +1,114 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests for IncrementalEvaluator.
+ */
+public class IncrementalEvaluatorTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * double evaluate(), int recomputed()
+     *   first step, no change, one variable changed, several changed,
+     *   variable set to its current value, variable not in the expression, name no
+     *   expression has (not interned by set or dependsOn)
+     *
+     * void update(VariableBinding)
+     *   binding with some of the variables bound
+     *
+     * constant subtrees
+     *   under a variable, whole expression constant, constant power
+     *
+     * Cover each part testing coverage.
+     */
+
+    @Test
+    public void testFirstStepComputesEveryNode() throws IOException {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator(Expression.parse("(a + b) * (c + 2)"));
+        evaluator.set("a", 1.0);
+        evaluator.set("b", 2.0);
+        evaluator.set("c", 3.0);
+
+        assertEquals(15.0, evaluator.evaluate(), 0);
+        // the constant 2 is never recomputed
+        assertEquals(evaluator.size() - 1, evaluator.recomputed());
+    }
+
+    @Test
+    public void testOnlyPathsFromChangedVariablesAreRecomputed() throws IOException {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator(Expression.parse("(a + b) * (c + 2)"));
+        evaluator.update(new VariableBinding().set("a", 1.0).set("b", 2.0).set("c", 3.0));
+        evaluator.evaluate();
+
+        evaluator.set("a", 4.0);
+        assertEquals(30.0, evaluator.evaluate(), 0);
+        // a, a+b, (a+b)*(c+2)
+        assertEquals(3, evaluator.recomputed());
+
+        evaluator.set("a", 4.0);
+        evaluator.set("z", 4.0);
+        assertEquals(30.0, evaluator.evaluate(), 0);
+        assertEquals(0, evaluator.recomputed());
+
+        evaluator.update(new VariableBinding().set("b", 0.0).set("c", 0.0));
+        assertEquals(8.0, evaluator.evaluate(), 0);
+        assertEquals(5, evaluator.recomputed());
+    }
+
+    @Test
+    public void testRepeatedVariable() throws IOException {
+        Expression exp = Expression.parse("x*x*y + 3*x + y*(x+2)");
+        IncrementalEvaluator evaluator = new IncrementalEvaluator(exp);
+        VariableBinding binding = new VariableBinding().set("x", 3.0).set("y", 4.0);
+        evaluator.update(binding);
+        assertEquals(exp.evaluate(binding), evaluator.evaluate(), 0);
+
+        binding.set("y", 5.0);
+        evaluator.update(binding);
+        assertEquals(exp.evaluate(binding), evaluator.evaluate(), 0);
+        assertTrue(evaluator.dependsOn("y"));
+        assertFalse(evaluator.dependsOn("z"));
+
+        // names no expression has are ignored without being interned
+        final int interned = VariableBinding.interned();
+        evaluator.set("incrementalNeverUsed", 1.0);
+        assertFalse(evaluator.dependsOn("incrementalNeverUsedEither"));
+        assertEquals(exp.evaluate(binding), evaluator.evaluate(), 0);
+        assertEquals(interned, VariableBinding.interned());
+    }
+
+    @Test
+    public void testUnsetVariableIsNaN() throws IOException {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator(Expression.parse("x + 1"));
+
+        assertTrue(Double.isNaN(evaluator.evaluate()));
+    }
+
+    @Test
+    public void testConstantSubtree() throws IOException {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator(Expression.parse("x * (2 + 3)"));
+        evaluator.set("x", 2.0);
+        assertEquals(10.0, evaluator.evaluate(), 0);
+        evaluator.set("x", 3.0);
+        assertEquals(15.0, evaluator.evaluate(), 0);
+
+        IncrementalEvaluator power = new IncrementalEvaluator(Expression.parse("x * 2^3"));
+        power.set("x", 2.0);
+        assertEquals(16.0, power.evaluate(), 0);
+    }
+
+    @Test
+    public void testConstantExpression() throws IOException {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator(Expression.parse("2 + 3"));
+        assertEquals(5.0, evaluator.evaluate(), 0);
+        assertEquals(5.0, evaluator.evaluate(), 0);
+        assertEquals(1, evaluator.size());
+    }
+}
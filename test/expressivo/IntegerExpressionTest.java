@@ -0,0 +1,109 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for IntegerExpression and the integer fast path of Commands.simplify.
+ */
+public class IntegerExpressionTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * parse: integer constants, variables, sums and products; fractional constant (invalid)
+     * isIntegral: integer constants and bindings; fractional constant; fractional binding;
+     *   unbound variable
+     * evaluate: results within a long; intermediate results that overflow a long;
+     *   constants above 2^53
+     * Commands.simplify: integral input gives the same text as the double path for small
+     *   results and exact digits for large ones; non-integral input takes the double path;
+     *   results longer than MAX_BITS take the double path
+     *
+     * Cover each part testing coverage.
+     */
+
+    @Test
+    public void testParse() {
+        Expression e = IntegerExpression.parse("2 * x + (3 + y) * 4");
+        assertEquals(Expression.parse("2 * x + (3 + y) * 4"), e);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseFraction() {
+        IntegerExpression.parse("2.5 * x");
+    }
+
+    @Test
+    public void testIsIntegral() {
+        Expression e = Expression.parse("2 * x + 3");
+        assertTrue(IntegerExpression.isIntegral(e, new VariableBinding().set("x", 7)));
+        assertFalse(IntegerExpression.isIntegral(e, new VariableBinding().set("x", 7.5)));
+        assertFalse(IntegerExpression.isIntegral(e, new VariableBinding()));
+        assertFalse(IntegerExpression.isIntegral(Expression.parse("2.5 * x"), new VariableBinding().set("x", 2)));
+    }
+
+    @Test
+    public void testEvaluate() {
+        Expression e = Expression.parse("2 * x * x + 3 * x + 1");
+        assertEquals(BigInteger.valueOf(2 * 49 + 21 + 1), IntegerExpression.evaluate(e, new VariableBinding().set("x", 7)));
+    }
+
+    @Test
+    public void testEvaluateOverflow() {
+        // (x*x*x*x)*(x*x*x*x) with x = 2^20 is 2^160
+        Expression e = Expression.parse("(x*x*x*x)*(x*x*x*x) + 1");
+        VariableBinding binding = new VariableBinding().set("x", 1 << 20);
+        assertEquals(BigInteger.ONE.shiftLeft(160).add(BigInteger.ONE), IntegerExpression.evaluate(e, binding));
+    }
+
+    @Test
+    public void testEvaluateLargeConstant() {
+        Expression e = Expression.parse("10000000000000000000 + 1");
+        assertEquals(new BigInteger("10000000000000000001"), IntegerExpression.evaluate(e, new VariableBinding()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEvaluateNotIntegral() {
+        IntegerExpression.evaluate(Expression.parse("x + 1"), new VariableBinding());
+    }
+
+    @Test
+    public void testCommandsFastPath() {
+        Map<String,Double> env = new HashMap<>();
+        env.put("x", 3.0);
+        assertEquals("22.0", Commands.simplify("2 * x * x + x + 1", env));
+        assertEquals("30000000", Commands.simplify("x * 10000000", env));
+        // the double path would round this to 2^64
+        env.put("x", 4294967296.0);
+        assertEquals("18446744073709551617", Commands.simplify("x * x + 1", env));
+        env.put("x", 0.5);
+        assertEquals("2.0", Commands.simplify("2 * x + 1", env));
+    }
+
+    @Test(timeout = 2000)
+    public void testTooLongForExact() {
+        // 3^10000000 has 15849626 bits: left to the double path, which overflows and gives
+        // the input back, as it did before the exact path, instead of printing 4.7M digits
+        final Map<String,Double> env = new HashMap<>();
+        assertEquals("3^10000000", Commands.simplify("3^10000000", env));
+        // each power fits, their product of about 142000 bits does not
+        assertEquals("3^30000*3^30000*3^30000", Commands.simplify("3^30000*3^30000*3^30000", env));
+
+        // 3^30000 has 47549 bits, estimated as 2 * 30000, within the limit
+        assertEquals(BigInteger.valueOf(3).pow(30000),
+                     IntegerExpression.evaluate(Expression.parse("3^30000"), new VariableBinding()));
+        assertEquals(BigInteger.valueOf(3).pow(30000).toString(), Commands.simplify("3^30000", env));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testEvaluateTooLong() {
+        IntegerExpression.evaluate(Expression.parse("3^10000000"), new VariableBinding());
+    }
+}
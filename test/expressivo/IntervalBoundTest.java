@@ -0,0 +1,184 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the interval evaluation of CompiledExpression and Expression.
+ */
+public class IntervalBoundTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * void bound(VariableBinding lower, VariableBinding upper, double[] out)
+     *   sum, product, power; ranges below / spanning / above 0
+     *   product of an instruction with itself (square rule), even and odd powers
+     *   point ranges, exact and inexact results (outward rounding)
+     *   random points of the box are within the bound
+     *   several outputs, output array too short
+     *   empty range, unbound variable failing / evaluated as NaN
+     *   results large enough to overflow
+     *
+     * boolean canExceed(VariableBinding lower, VariableBinding upper, double threshold)
+     *   threshold below / above the upper bound
+     *
+     * double[] Expression.bound(VariableBinding, VariableBinding)
+     *   agrees with the compiled bound
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static VariableBinding binding(String name, double value) {
+        return new VariableBinding().set(name, value);
+    }
+
+    private static double[] bound(String expression, double lo, double hi) throws IOException {
+        return Expression.parse(expression).bound(binding("x", lo), binding("x", hi));
+    }
+
+    /**
+     * Assert that range is [lo, hi], widened outward by at most a few ulps.
+     */
+    private static void assertRange(double lo, double hi, double[] range) {
+        assertTrue("low end " + range[0] + " above " + lo, range[0] <= lo);
+        assertTrue("high end " + range[1] + " below " + hi, range[1] >= hi);
+        assertEquals(lo, range[0], 4 * Math.ulp(lo));
+        assertEquals(hi, range[1], 4 * Math.ulp(hi));
+    }
+
+    @Test
+    public void testSum() throws IOException {
+        assertRange(3, 5, bound("x + 2", 1, 3));
+        assertRange(-2, 6, bound("x + x", -1, 3));
+    }
+
+    @Test
+    public void testProductSigns() throws IOException {
+        final double[] range = new double[2];
+        final CompiledExpression product = CompiledExpression.compile(Expression.parse("x * y"));
+        product.bound(new VariableBinding().set("x", -2.0).set("y", -3.0),
+                      new VariableBinding().set("x", 1.0).set("y", 4.0), range);
+        assertRange(-8, 6, range);
+
+        product.bound(new VariableBinding().set("x", 2.0).set("y", -3.0),
+                      new VariableBinding().set("x", 5.0).set("y", -1.0), range);
+        assertRange(-15, -2, range);
+    }
+
+    @Test
+    public void testSquareRule() throws IOException {
+        // the product rule would give [-1, 1] and [-3, 9]
+        assertRange(0, 1, bound("x * x", -1, 1));
+        assertRange(0, 9, bound("x * x", -1, 3));
+        assertRange(1, 4, bound("x * x", -2, -1));
+        assertRange(0, 16, bound("(x + 1) * (x + 1)", -2, 3));
+        assertRange(0, 1, bound("x^2", -1, 1));
+        assertRange(0, 81, bound("x^4", -3, 2));
+        assertRange(4, 16, bound("x^2", 2, 4));
+    }
+
+    @Test
+    public void testOddPower() throws IOException {
+        assertRange(-27, 8, bound("x^3", -3, 2));
+        assertRange(-27, -1, bound("x^3", -3, -1));
+        assertRange(1, 1, bound("x^0", -3, 2));
+    }
+
+    @Test
+    public void testOutwardRounding() throws IOException {
+        // 0.1 + 0.2 rounds up to 0.30000000000000004; the exact sum is just below it
+        final double[] range = bound("x + 0.2", 0.1, 0.1);
+        assertTrue(range[0] < 0.1 + 0.2 && range[1] >= 0.1 + 0.2);
+        assertTrue(range[0] <= 0.3);
+
+        final double[] point = bound("x * x * 3 + 1", 0.1, 0.1);
+        assertTrue(point[0] < point[1]);
+        assertEquals(0.1 * 0.1 * 3 + 1, point[0], 1e-15);
+    }
+
+    @Test
+    public void testRandomPointsWithinBound() throws IOException {
+        final Expression e = Expression.parse("x*x*y + (x + y)*(x + y)*(x + 1) + 3*x^3 + 0.7*y");
+        final CompiledExpression compiled = CompiledExpression.compile(e);
+        final Random random = new Random(42);
+        final double[] range = new double[2];
+        final VariableBinding point = new VariableBinding();
+        for (int box = 0; box < 50; box++) {
+            final double xl = random.nextDouble() * 4 - 2, xh = xl + random.nextDouble();
+            final double yl = random.nextDouble() * 4 - 2, yh = yl + random.nextDouble();
+            compiled.bound(new VariableBinding().set("x", xl).set("y", yl),
+                           new VariableBinding().set("x", xh).set("y", yh), range);
+            for (int k = 0; k < 100; k++) {
+                point.set("x", xl + (xh - xl) * random.nextDouble());
+                point.set("y", yl + (yh - yl) * random.nextDouble());
+                final double value = e.evaluate(point);
+                assertTrue(range[0] <= value && value <= range[1]);
+            }
+        }
+    }
+
+    @Test
+    public void testSeveralOutputs() throws IOException {
+        final CompiledExpression compiled = CompiledExpression.compile(new Expression[] {
+            Expression.parse("x + 1"), Expression.parse("x * x"),
+        });
+        final double[] out = new double[4];
+        compiled.bound(binding("x", -2), binding("x", 1), out);
+        assertRange(-1, 2, new double[] { out[0], out[1] });
+        assertRange(0, 4, new double[] { out[2], out[3] });
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testOutputTooShort() throws IOException {
+        CompiledExpression.compile(Expression.parse("x")).bound(binding("x", 0), binding("x", 1), new double[1]);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testEmptyRange() throws IOException {
+        bound("x + 1", 2, 1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnboundFails() throws IOException {
+        Expression.parse("x + y").bound(binding("x", 0), binding("x", 1));
+    }
+
+    @Test
+    public void testUnboundAsNaNIsUnbounded() throws IOException {
+        final double[] range = Expression.parse("x*x + y").bound(
+                binding("x", 1).setFailOnUnbound(false), binding("x", 2).set("y", 5.0));
+        assertEquals(Double.NEGATIVE_INFINITY, range[0], 0);
+        assertTrue(range[1] >= 9);
+        assertEquals(9, range[1], 1e-14);
+
+        final double[] square = Expression.parse("y*y").bound(
+                new VariableBinding().setFailOnUnbound(false), new VariableBinding().setFailOnUnbound(false));
+        assertEquals(0, square[0], 0);
+        assertEquals(Double.POSITIVE_INFINITY, square[1], 0);
+    }
+
+    @Test
+    public void testOverflow() throws IOException {
+        final double[] range = bound("x^3 * 0", 1e200, 1e201);
+        assertEquals(0, range[0], Double.MIN_NORMAL);
+        assertEquals(0, range[1], Double.MIN_NORMAL);
+        final double[] big = bound("x * x", 1e200, 1e201);
+        assertTrue(big[0] <= Double.MAX_VALUE && big[0] > 1e300);
+        assertEquals(Double.POSITIVE_INFINITY, big[1], 0);
+    }
+
+    @Test
+    public void testCanExceed() throws IOException {
+        final CompiledExpression compiled = CompiledExpression.compile(Expression.parse("x*x + 2*x"));
+        // over [-1, 1] at most 1 + 2 = 3, attained at x = 1
+        assertTrue(compiled.canExceed(binding("x", -1), binding("x", 1), 2.9));
+        assertFalse(compiled.canExceed(binding("x", -1), binding("x", 1), 3.1));
+        assertFalse(compiled.canExceed(binding("x", -1), binding("x", 0), 1.1));
+    }
+}
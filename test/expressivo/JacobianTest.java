@@ -0,0 +1,128 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for Jacobian and multi-output CompiledExpression.
+ */
+public class JacobianTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Jacobian(Expression[], String...), get(i, j), compile(), evaluate(binding, out)
+     *
+     * Partition the inputs as follows:
+     * one / several functions, variable absent from a function,
+     * functions sharing subexpressions, stored expressions
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static VariableBinding binding(double x, double y, double z) {
+        VariableBinding binding = new VariableBinding();
+        binding.set("x", x);
+        binding.set("y", y);
+        binding.set("z", z);
+        return binding;
+    }
+
+    @Test
+    public void testMatchesDerivative() throws IOException {
+        Expression[] functions = {
+            Expression.parse("x * x * y + 3 * z"),
+            Expression.parse("(x + y) * (x + y) * z"),
+            Expression.parse("7"),
+        };
+        String[] vars = { "x", "y", "z" };
+        Jacobian jacobian = new Jacobian(functions, vars);
+        VariableBinding binding = binding(1.5, -2, 4);
+
+        double[] out = new double[9];
+        jacobian.evaluate(binding, out);
+        for (int i = 0; i < functions.length; i++) {
+            for (int j = 0; j < vars.length; j++) {
+                double expected = functions[i].derivative(vars[j]).evaluate(binding);
+                assertEquals(expected, jacobian.get(i, j).evaluate(binding), 1e-12);
+                assertEquals(expected, out[i * 3 + j], 1e-12);
+            }
+        }
+        assertEquals(Expression.parse("0"), jacobian.get(2, 1));
+        assertEquals(Expression.parse("3"), jacobian.get(0, 2));
+    }
+
+    @Test
+    public void testSharedDag() throws IOException {
+        Expression common = Expression.parse("(x + y * z) * (x + y * z)");
+        Expression[] functions = {
+            new BinOpExpression('*', common, Expression.parse("x")),
+            new BinOpExpression('*', common, Expression.parse("y")),
+        };
+        Jacobian jacobian = new Jacobian(functions, "x", "y", "z");
+
+        int separate = 0;
+        for (Expression f : functions) {
+            for (String var : new String[] { "x", "y", "z" }) {
+                separate += CompiledExpression.compile(f.derivative(var)).size();
+            }
+        }
+        CompiledExpression compiled = jacobian.compile();
+        assertEquals(6, compiled.outputs());
+        assertTrue(compiled.size() < separate / 2);
+        assertSame(compiled, jacobian.compile());
+
+        // d(common)/dz appears in both rows, as one object
+        assertNotNull(findShared(jacobian.get(0, 2), jacobian.get(1, 2)));
+    }
+
+    /**
+     * @return a BinOpExpression node reachable from both a and b, or null
+     */
+    private static Expression findShared(Expression a, Expression b) {
+        Set<Expression> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        collect(a, seen);
+        return firstIn(b, seen);
+    }
+
+    private static void collect(Expression e, Set<Expression> seen) {
+        if (e instanceof BinOpExpression && seen.add(e)) {
+            collect(((BinOpExpression) e).getLeft(), seen);
+            collect(((BinOpExpression) e).getRight(), seen);
+        }
+    }
+
+    private static Expression firstIn(Expression e, Set<Expression> seen) {
+        if (!(e instanceof BinOpExpression)) {
+            return null;
+        }
+        if (seen.contains(e)) {
+            return e;
+        }
+        Expression left = firstIn(((BinOpExpression) e).getLeft(), seen);
+        return left != null ? left : firstIn(((BinOpExpression) e).getRight(), seen);
+    }
+
+    @Test
+    public void testGradientOfDeepProduct() throws IOException {
+        Expression f = Expression.parse("x");
+        for (int i = 0; i < 40; i++) {
+            f = new BinOpExpression('*', f, Expression.parse(i % 2 == 0 ? "x" : "y"));
+        }
+        Jacobian gradient = Jacobian.gradient(f, "x", "y");
+        VariableBinding binding = binding(1.01, 0.99, 0);
+        double[] out = new double[2];
+        gradient.evaluate(binding, out);
+
+        // f = x^21 * y^20
+        assertEquals(21 * Math.pow(1.01, 20) * Math.pow(0.99, 20), out[0], 1e-9);
+        assertEquals(20 * Math.pow(1.01, 21) * Math.pow(0.99, 19), out[1], 1e-9);
+    }
+}
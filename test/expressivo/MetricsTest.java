@@ -0,0 +1,117 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for Metrics and Histogram.
+ */
+public class MetricsTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Histogram
+     *   values counted exactly (< 256) / approximately, percentiles 0, 50, 100, empty histogram
+     *
+     * Metrics
+     *   disabled: nothing recorded; enabled: commands and parse recorded,
+     *   cache hit rates, MXBeans registered, text dump
+     *
+     * Cover each part testing coverage.
+     */
+
+    @After
+    public void disableMetrics() {
+        Metrics.disable();
+        Metrics.reset();
+    }
+
+    @Test
+    public void testHistogramExactValues() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.percentile(50));
+
+        for (int v = 1; v <= 100; v++) {
+            histogram.record(v);
+        }
+        assertEquals(100, histogram.count());
+        assertEquals(50.5, histogram.mean(), 1e-9);
+        assertEquals(1, histogram.percentile(0));
+        assertEquals(50, histogram.percentile(50));
+        assertEquals(100, histogram.percentile(100));
+        assertEquals(100, histogram.max());
+    }
+
+    @Test
+    public void testHistogramLargeValuesWithinOnePercent() {
+        Histogram histogram = new Histogram();
+        long[] values = { 1000, 123456, 98765432L, 1L << 40, Long.MAX_VALUE / 3 };
+        for (long value : values) {
+            histogram.reset();
+            histogram.record(value);
+            long reported = histogram.percentile(50);
+            assertTrue(Math.abs(reported - value) <= value / 100);
+        }
+    }
+
+    @Test
+    public void testDisabledRecordsNothing() throws IOException {
+        Metrics.reset();
+        Commands.differentiate("x * x", "x");
+
+        assertEquals(0, Metrics.PARSE.getCount());
+        assertEquals(0, Metrics.DIFFERENTIATE_COMMAND.getCount());
+    }
+
+    @Test
+    public void testEnabledRecordsCommands() throws IOException {
+        Metrics.enable();
+        Metrics.reset();
+        Commands.differentiate("x * x", "x");
+        Commands.simplify("x * x + y", new HashMap<>());
+
+        assertEquals(2, Metrics.PARSE.getCount());
+        assertEquals(1, Metrics.DERIVATIVE.getCount());
+        assertEquals(1, Metrics.SIMPLIFY.getCount());
+        assertEquals(2, Metrics.RENDER.getCount());
+        assertEquals(1, Metrics.DIFFERENTIATE_COMMAND.getCount());
+        assertEquals(1, Metrics.SIMPLIFY_COMMAND.getCount());
+        // x*x has 3 nodes, its derivative x*1.0+x*1.0 has 7
+        assertEquals(3.0, Metrics.DERIVATIVE.getMeanInputSize(), 0);
+        assertEquals(7.0, Metrics.DERIVATIVE.getMeanOutputSize(), 0);
+        assertTrue(Metrics.dump().contains("differentiateCommand"));
+    }
+
+    @Test
+    public void testCacheHitRate() throws IOException {
+        Metrics.enable();
+        Metrics.reset();
+        Specializer specializer = new Specializer(Expression.parse("a*x"));
+        for (int i = 0; i < 4; i++) {
+            specializer.specialize(new VariableBinding().set("a", 2.0));
+        }
+
+        assertEquals(0.75, Metrics.cache("specializer").hitRate(), 1e-9);
+        assertTrue(Metrics.dump().contains("specializer"));
+    }
+
+    @Test
+    public void testMXBeansRegistered() throws JMException {
+        Metrics.enable();
+
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("expressivo:type=Metrics")));
+        assertTrue(ManagementFactory.getPlatformMBeanServer()
+                                    .isRegistered(new ObjectName("expressivo:type=Metrics,operation=parse")));
+    }
+}
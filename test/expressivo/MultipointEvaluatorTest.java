@@ -0,0 +1,97 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for MultipointEvaluator and Expression.evaluate(double[]).
+ */
+public class MultipointEvaluatorTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * horner(), plain(): no coefficients, one, many; no points, fewer than a block, not a
+     *   multiple of a block
+     * Expression.evaluate(double[]): univariate, constant, multivariate; factored forms
+     *   whose expanded coefficients cancel; as many points as several blocks; equal to
+     *   evaluate(binding) at every point
+     * CompiledExpression.evaluate(binding, variable, points): other variables bound, unbound
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static double[] random(Random random, int n) {
+        final double[] v = new double[n];
+        for (int k = 0; k < n; k++) {
+            v[k] = 2 * random.nextDouble() - 1;
+        }
+        return v;
+    }
+
+    @Test
+    public void testHorner() {
+        final Random random = new Random(11);
+        for (int n : new int[] { 0, 1, 7, 300 }) {
+            for (int m : new int[] { 0, 1, 100, MultipointEvaluator.BLOCK * 2 + 3 }) {
+                final double[] c = random(random, n), x = random(random, m);
+                assertArrayEquals(MultipointEvaluator.plain(c, x), MultipointEvaluator.horner(c, x), 1e-12);
+                assertArrayEquals(MultipointEvaluator.plain(c, x), MultipointEvaluator.evaluate(c, x), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testExpressionEvaluate() {
+        final Expression e = Expression.parse("(x+1)^5 + 2*x^3 + 0.5");
+        final double[] points = { -2, -0.5, 0, 0.25, 3 };
+        final double[] values = e.evaluate(points);
+        for (int j = 0; j < points.length; j++) {
+            assertEquals(e.evaluate(new VariableBinding().set("x", points[j])), values[j], 1e-9);
+        }
+        assertArrayEquals(new double[] { 6, 6 }, Expression.parse("2*3").evaluate(new double[] { 1, 2 }), 0);
+        try {
+            Expression.parse("x*y").evaluate(points);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testIllConditionedExpansion() {
+        // the expanded coefficients reach 1e17 and 1e35 and cancel at these points
+        final double[] ones = Expression.parse("(x+1)^60").evaluate(new double[] { -2, -1.5, 0 });
+        assertArrayEquals(new double[] { 1, Math.pow(0.5, 60), 1 }, ones, 0);
+        final double[] zero = Expression.parse("(x+2)^40*(x+3)^40").evaluate(new double[] { -2, -3 });
+        assertArrayEquals(new double[] { 0, 0 }, zero, 0);
+    }
+
+    @Test
+    public void testSameAsPerPoint() {
+        final Expression e = Expression.parse("(x+1)^7 * (x*x + 0.3) + (x+1)^7 + x^3 * 2.5 + 1");
+        final double[] points = random(new Random(13), 1000);
+        final double[] values = e.evaluate(points);
+        final VariableBinding binding = new VariableBinding();
+        for (int j = 0; j < points.length; j++) {
+            assertEquals(e.evaluate(binding.set("x", points[j])), values[j], 0);
+        }
+        assertEquals(0, Expression.parse("x").evaluate(new double[0]).length);
+    }
+
+    @Test
+    public void testCompiledOverOneVariable() {
+        final CompiledExpression compiled = CompiledExpression.compile(Expression.parse("x*y + y^2"));
+        final double[] values = compiled.evaluate(new VariableBinding().set("y", 3.0).set("x", 100.0), "x",
+                                                  new double[] { 0, 1, -2 });
+        assertArrayEquals(new double[] { 9, 12, 3 }, values, 0);
+        try {
+            compiled.evaluate(new VariableBinding(), "x", new double[] { 1 });
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
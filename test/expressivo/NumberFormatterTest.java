@@ -0,0 +1,74 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for NumberFormatter.
+ */
+public class NumberFormatterTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * String toDecimalString(double), String toPlainString(double)
+     *   output must equal Double.toString / BigDecimal.valueOf(d).toPlainString
+     *
+     * Partition the inputs as follows:
+     * zero, negative zero, integers below / at / above 1e7, short fractions,
+     * magnitudes below 1e-3, many significant digits, random bit patterns,
+     * NaN and infinities
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static void assertSameAsJdk(double d) {
+        assertEquals(Double.toString(d), NumberFormatter.toDecimalString(d));
+        assertEquals(BigDecimal.valueOf(d).toPlainString(), NumberFormatter.toPlainString(d));
+    }
+
+    @Test
+    public void testSpecialValues() {
+        double[] values = { 0, -0.0, 1, -1, 12800, 9999999, 1e7, 12345678, 1e22, 1e23,
+                            0.1, 0.2, 0.1 + 0.2, 2.5, 123.456, 0.001, 0.000999, 1e-5, 1.5e-4,
+                            Double.MIN_VALUE, Double.MAX_VALUE, 2.82879384806159E17, Math.PI };
+        for (double d : values) {
+            assertSameAsJdk(d);
+            assertSameAsJdk(-d);
+        }
+        assertEquals("0.0", NumberFormatter.toPlainString(-0.0));
+        assertEquals("-0.0", NumberFormatter.toDecimalString(-0.0));
+        assertEquals("10000000", NumberFormatter.toPlainString(1e7));
+        assertEquals("0.000010", NumberFormatter.toPlainString(1e-5));
+    }
+
+    @Test
+    public void testRandomValues() {
+        Random random = new Random(6005);
+        for (int i = 0; i < 100000; i++) {
+            double bits = Double.longBitsToDouble(random.nextLong());
+            if (!Double.isNaN(bits) && !Double.isInfinite(bits)) {
+                assertSameAsJdk(bits);
+            }
+            assertSameAsJdk(random.nextInt(1000000) / (double) (1 + random.nextInt(1000)));
+            assertSameAsJdk(random.nextDouble() * Math.pow(10, random.nextInt(30) - 10));
+        }
+    }
+
+    @Test
+    public void testNonFinite() {
+        assertEquals("NaN", NumberFormatter.toDecimalString(Double.NaN));
+        assertEquals("-Infinity", NumberFormatter.toDecimalString(Double.NEGATIVE_INFINITY));
+        try {
+            NumberFormatter.toPlainString(Double.POSITIVE_INFINITY);
+            fail("expected NumberFormatException");
+        } catch (NumberFormatException e) {
+            // as BigDecimal.valueOf
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for NumberParser.
+ */
+public class NumberParserTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * double parse(CharSequence), double parse(CharSequence, int, int)
+     *   result must be bit-identical to Double.parseDouble
+     *
+     * Partition the inputs as follows:
+     * integer, trailing point, leading point, zero, leading zeros,
+     * up to 15 / 16-19 / more than 19 significant digits,
+     * very small / very large magnitudes, halfway cases, range within a larger string,
+     * invalid syntax
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static void assertSameAsJdk(String s) {
+        assertEquals(s, Double.doubleToRawLongBits(Double.parseDouble(s)),
+                        Double.doubleToRawLongBits(NumberParser.parse(s)));
+    }
+
+    @Test
+    public void testSpecialValues() {
+        String[] values = { "0", "0.", "0.000", ".5", "1", "42", "1.5", "123.456", "000123.4500",
+                            "0.1", "0.30000000000000004", "9007199254740993", "9007199254740992.5",
+                            "18446744073709551615", "12345678901234567890123", "9999999999999999999.9",
+                            "0.000000000000000000000000000000000000000000000000001",
+                            "1" + new String(new char[320]).replace('\0', '0'),
+                            "2.2250738585072011", "4.9406564584124654" };
+        for (String s : values) {
+            assertSameAsJdk(s);
+        }
+    }
+
+    @Test
+    public void testRandomValues() {
+        Random random = new Random(6005);
+        for (int i = 0; i < 100000; i++) {
+            double d = Double.longBitsToDouble(random.nextLong() & Long.MAX_VALUE);
+            if (!Double.isNaN(d) && !Double.isInfinite(d)) {
+                assertSameAsJdk(new BigDecimal(d).round(new MathContext(1 + random.nextInt(19))).toPlainString());
+            }
+            assertSameAsJdk(new BigDecimal(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20)).toPlainString());
+        }
+    }
+
+    @Test
+    public void testRange() {
+        String input = "x*12.25+y";
+        assertEquals(12.25, NumberParser.parse(input, 2, 7), 0);
+    }
+
+    @Test(expected=NumberFormatException.class)
+    public void testInvalid() {
+        NumberParser.parse("1.2.3");
+    }
+
+    @Test(expected=NumberFormatException.class)
+    public void testEmpty() {
+        NumberParser.parse(".");
+    }
+}
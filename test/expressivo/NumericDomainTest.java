@@ -0,0 +1,80 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for NumericDomain and the domain-aware simplify and evaluate.
+ */
+public class NumericDomainTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * evaluate: each domain; constant-only and bound expressions; unbound variable
+     * simplify: fully bound, partially bound (residual keeps folded constants as doubles)
+     * Commands.simplify(expression, environment, domain): fully bound, partially bound,
+     *   invalid input
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static Expression sumOfTenths(int terms) {
+        Expression sum = new Number(0.1);
+        for (int i = 1; i < terms; i++) {
+            sum = new BinOpExpression('+', sum, new Number(0.1));
+        }
+        return sum;
+    }
+
+    @Test
+    public void testEvaluateDomains() {
+        Expression e = sumOfTenths(10);
+        VariableBinding none = new VariableBinding();
+        assertEquals(e.evaluate(none), NumericDomain.DOUBLE.evaluate(e, none), 0);
+        assertTrue(e.evaluate(none) != 1.0);
+        assertEquals(Rational.ONE, e.evaluate(none, NumericDomain.RATIONAL));
+        assertEquals(0, BigDecimal.ONE.compareTo(e.evaluate(none, NumericDomain.decimal(MathContext.DECIMAL64))));
+    }
+
+    @Test
+    public void testEvaluateBound() {
+        Expression e = new BinOpExpression('*', new Variable("x"), new BinOpExpression('+', new Variable("x"), new Number(0.2)));
+        VariableBinding binding = new VariableBinding().set("x", 0.1);
+        assertEquals(Rational.valueOf(3, 100), e.evaluate(binding, NumericDomain.RATIONAL));
+        assertEquals("0.03", NumericDomain.RATIONAL.format(e.evaluate(binding, NumericDomain.RATIONAL)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEvaluateUnbound() {
+        new Variable("y").evaluate(new VariableBinding(), NumericDomain.RATIONAL);
+    }
+
+    @Test
+    public void testSimplifyResidual() {
+        Expression e = new BinOpExpression('+', new Variable("y"), sumOfTenths(3));
+        Expression simplified = e.simplify(new VariableBinding(), NumericDomain.RATIONAL);
+        assertEquals("(y+0.3)", simplified.getContents());
+        assertEquals("(y+0.30000000000000004)", e.simplify(new VariableBinding()).getContents());
+        assertEquals(new Number(1.3), e.simplify(new VariableBinding().set("y", 1), NumericDomain.RATIONAL));
+    }
+
+    @Test
+    public void testCommandsSimplify() {
+        Map<String,Double> env = new HashMap<>();
+        env.put("x", 0.1);
+        assertEquals("0.3", Commands.simplify("x+x+x", env, NumericDomain.RATIONAL));
+        assertEquals("0.30000000000000004", Commands.simplify("x+x+x", env));
+        assertEquals("0.3", Commands.simplify("x+x+x", env, NumericDomain.decimal(MathContext.DECIMAL64)));
+        assertEquals("(y+0.3)", Commands.simplify("y+(x+x+x)", env, NumericDomain.RATIONAL));
+        assertEquals("x+", Commands.simplify("x+", Collections.<String,Double>emptyMap(), NumericDomain.RATIONAL));
+    }
+}
@@ -0,0 +1,182 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for PowExpression and the ^ operator across parsing, printing and the evaluators.
+ */
+public class PowExpressionTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * parse / toString / getContents:
+     *   base is a number, variable, sum, product; exponent 0, 1, 2, large;
+     *   fractional or missing exponent (invalid); ^ binds tighter than *
+     * derivative: exponent 0, 1, 2, > 2; base constant, variable, compound;
+     *   size compared with the product chain it replaces; ExpressionLimits.derivativeSize exact
+     * evaluate / simplify: exponentiation by squaring, partially bound base
+     * collapse: x*x*x, interleaved factors, nested powers, sums untouched
+     * other walkers: StreamingParser, ExpressionStore, CompiledExpression,
+     *   IncrementalEvaluator, Specializer, Jacobian, NumericDomain, integer fast path
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static Expression chain(String var, int factors) {
+        Expression e = new Variable(var);
+        for (int i = 1; i < factors; i++) {
+            e = new BinOpExpression('*', e, new Variable(var));
+        }
+        return e;
+    }
+
+    @Test
+    public void testParseAndPrint() {
+        Expression e = Expression.parse("x^3 + 2*(x+y)^2 + (x*y)^2");
+        assertEquals("(((x^3)+(2.0*((x+y)^2)))+((x*y)^2))", e.getContents());
+        assertEquals("((x^3+2.0*(x+y)^2)+(x*y)^2)", e.toString());
+        assertEquals(e, Expression.parse(e.toString()));
+        assertEquals("(2.5^2)", Expression.parse("2.5 ^ 2").getContents());
+        assertEquals(Expression.parse("x^2"), Expression.parse("x ^ 2.0"));
+        assertEquals(Expression.parse("(x^2)^3"), Expression.parse(Expression.parse("(x^2)^3").toString()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFractionalExponent() {
+        Expression.parse("x^2.5");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeExponent() {
+        new PowExpression(new Variable("x"), -1);
+    }
+
+    @Test
+    public void testDerivative() {
+        assertEquals("((3.0*(x^2))*1.0)", new PowExpression(new Variable("x"), 3).derivative("x").getContents());
+        assertEquals("((2.0*x)*1.0)", new PowExpression(new Variable("x"), 2).derivative("x").getContents());
+        assertEquals("1.0", new PowExpression(new Variable("x"), 1).derivative("x").getContents());
+        assertEquals("0.0", new PowExpression(new Variable("x"), 0).derivative("x").getContents());
+        assertEquals(6 * 2.0 * 2.0 * 2.0 * 2.0 * 2.0, Expression.parse("x^6").derivative("x").evaluate(new VariableBinding().set("x", 2)), 0);
+        Expression compound = Expression.parse("(x*y+1)^4");
+        VariableBinding binding = new VariableBinding().set("x", 2).set("y", 3);
+        assertEquals(4 * Math.pow(7, 3) * 3, compound.derivative("x").evaluate(binding), 1e-9);
+    }
+
+    @Test
+    public void testDerivativeSmallerThanChain() {
+        Expression product = chain("x", 50);
+        Expression power = new PowExpression(new Variable("x"), 50);
+        assertEquals(99, product.size());
+        assertEquals(2, power.size());
+        assertTrue(power.derivative("x").size() * 100 < product.derivative("x").size());
+        VariableBinding binding = new VariableBinding().set("x", 1.01);
+        assertEquals(product.derivative("x").evaluate(binding), power.derivative("x").evaluate(binding), 1e-9);
+    }
+
+    @Test
+    public void testDerivativeSize() {
+        String[] inputs = { "x^0", "x^1", "x^2", "x^7", "(x+y)^3*y^2", "((x*x)^2)^3", "2^5" };
+        for (String input : inputs) {
+            Expression e = Expression.parse(input);
+            assertEquals(input, e.derivative("x").size(), ExpressionLimits.derivativeSize(e, "x"));
+        }
+    }
+
+    @Test
+    public void testEvaluateAndSimplify() {
+        assertEquals(1024.0, PowExpression.power(2, 10), 0);
+        assertEquals(1.0, PowExpression.power(0, 0), 0);
+        assertEquals(Math.pow(1.5, 13), PowExpression.power(1.5, 13), 1e-12);
+        Expression e = Expression.parse("(x + y)^3");
+        assertEquals(125.0, e.evaluate(new VariableBinding().set("x", 2).set("y", 3)), 0);
+        assertEquals("((2.0+y)^3)", e.simplify(new VariableBinding().set("x", 2)).getContents());
+        assertEquals(new Number(125), e.simplify(new VariableBinding().set("x", 2).set("y", 3)));
+    }
+
+    @Test
+    public void testCollapse() {
+        assertEquals(Expression.parse("x^3"), Expression.parse("x*x*x", true));
+        assertEquals(Expression.parse("x^2*y*2*2"), Expression.parse("x*y*2*x*2", true));
+        assertEquals(Expression.parse("x^7"), Expression.parse("x^2*x*(x^2)^2", true));
+        assertEquals(Expression.parse("x^6 + (a+b)^2"), Expression.parse("(x*x)^3 + (a+b)*(a+b)", true));
+        assertEquals(Expression.parse("x*x"), Expression.parse("x*x", false));
+        assertEquals(Expression.parse("x + x"), Expression.parse("x + x", true));
+    }
+
+    @Test
+    public void testStreamingParser() throws IOException {
+        String[] inputs = { "x^3", "2*x^2 + 1", "(x+1)^2*y", "x ^ 10 * y ^ 2" };
+        for (String input : inputs) {
+            assertEquals(Expression.parse(input), StreamingParser.parse(new StringReader(input)));
+        }
+        try {
+            StreamingParser.parse(new StringReader("x^2^3"));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // a power has one exponent
+        }
+    }
+
+    @Test
+    public void testStore() throws IOException {
+        File file = File.createTempFile("powers", ".store");
+        file.delete();
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            Expression e = Expression.parse("(x+2)^3*y^2 + x");
+            Expression stored = store.get(store.append(e));
+            assertEquals(e, stored);
+            assertEquals(e.size(), stored.size());
+            assertEquals(e.depth(), stored.depth());
+            assertEquals(e.derivative("x"), stored.derivative("x"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEvaluators() {
+        Expression e = Expression.parse("(x+2)^3*y^2 + x^2 + (x+2)^3");
+        VariableBinding binding = new VariableBinding().set("x", 1.5).set("y", 0.5);
+        double expected = e.evaluate(binding);
+
+        assertEquals(expected, CompiledExpression.compile(e).evaluate(binding), 0);
+
+        IncrementalEvaluator incremental = new IncrementalEvaluator(e);
+        incremental.update(binding);
+        assertEquals(expected, incremental.evaluate(), 0);
+        incremental.set("y", 2);
+        assertEquals(e.evaluate(binding.copy().set("y", 2)), incremental.evaluate(), 0);
+
+        assertEquals(expected, new Specializer(e).specialize(new VariableBinding().set("y", 0.5)).evaluate(binding), 1e-12);
+
+        double[] gradient = new double[2];
+        Jacobian.gradient(e, "x", "y").evaluate(binding, gradient);
+        assertEquals(e.derivative("x").evaluate(binding), gradient[0], 1e-9);
+        assertEquals(e.derivative("y").evaluate(binding), gradient[1], 1e-9);
+
+        assertEquals(Rational.valueOf(expected), e.evaluate(binding, NumericDomain.RATIONAL));
+    }
+
+    @Test
+    public void testIntegerPowers() {
+        Expression e = Expression.parse("x^40 + 1");
+        assertEquals(BigInteger.valueOf(3).pow(40).add(BigInteger.ONE),
+                     IntegerExpression.evaluate(e, new VariableBinding().set("x", 3)));
+        Map<String,Double> env = new HashMap<>();
+        env.put("x", 2.0);
+        assertEquals("1025.0", Commands.simplify("x^10 + 1", env));
+        assertEquals("1267650600228229401496703205377", Commands.simplify("x^100 + 1", env));
+    }
+}
@@ -0,0 +1,90 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for Rational.
+ */
+public class RationalTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * valueOf(double): integers, short fractions, values outside the fast formatting range,
+     *   negative values, NaN and infinities
+     * add, multiply: small operands, operands whose result overflows a long, results that
+     *   fit a long again after reduction, zero
+     * doubleValue: small fractions, huge numerators and denominators
+     * equals, compareTo: equal values with different inputs
+     *
+     * Cover each part testing coverage.
+     */
+
+    @Test
+    public void testValueOfDouble() {
+        assertEquals(Rational.valueOf(1, 10), Rational.valueOf(0.1));
+        assertEquals(Rational.valueOf(-5, 2), Rational.valueOf(-2.5));
+        assertEquals(Rational.valueOf(12800), Rational.valueOf(12800.0));
+        assertEquals("1/100000000000000000000", Rational.valueOf(1e-20).toString());
+        assertEquals("10000000000000000000000", Rational.valueOf(1e22).toString());
+        assertSame(Rational.ZERO, Rational.valueOf(-0.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValueOfNaN() {
+        Rational.valueOf(Double.NaN);
+    }
+
+    @Test
+    public void testExactSum() {
+        Rational sum = Rational.ZERO;
+        for (int i = 0; i < 10; i++) {
+            sum = sum.add(Rational.valueOf(0.1));
+        }
+        assertEquals(Rational.ONE, sum);
+        assertEquals(0.3, Rational.valueOf(0.1).add(Rational.valueOf(0.2)).doubleValue(), 0);
+    }
+
+    @Test
+    public void testOverflowPromotesAndDemotes() {
+        Rational big = Rational.valueOf(Long.MAX_VALUE);
+        Rational square = big.multiply(big);
+        BigInteger expected = BigInteger.valueOf(Long.MAX_VALUE).pow(2);
+        assertEquals(expected.toString(), square.toString());
+        // dividing back out fits a long again and equals the small form
+        assertEquals(big, square.multiply(Rational.valueOf(1, Long.MAX_VALUE)));
+        assertEquals(Rational.valueOf(-1), Rational.valueOf(Long.MIN_VALUE, Long.MAX_VALUE).add(Rational.valueOf(1, Long.MAX_VALUE)));
+        assertEquals(Rational.ZERO, square.multiply(Rational.ZERO));
+    }
+
+    @Test
+    public void testDoubleValueRounding() {
+        Random random = new Random(6005);
+        for (int i = 0; i < 10000; i++) {
+            BigInteger n = new BigInteger(40 + random.nextInt(100), random);
+            BigInteger d = new BigInteger(40 + random.nextInt(100), random).add(BigInteger.ONE);
+            double expected = new BigDecimal(n).divide(new BigDecimal(d), MathContext.DECIMAL128).doubleValue();
+            // DECIMAL128 keeps 34 digits, enough that rounding it to a double is correct
+            assertEquals(expected, Rational.valueOf(n, d).doubleValue(), 0);
+            assertEquals(-expected, Rational.valueOf(n.negate(), d).doubleValue(), 0);
+        }
+        assertEquals(1.0 / 3, Rational.valueOf(1, 3).doubleValue(), 0);
+    }
+
+    @Test
+    public void testCompareAndEquals() {
+        assertEquals(Rational.valueOf(2, 4), Rational.valueOf(-3, -6));
+        assertEquals(Rational.valueOf(2, 4).hashCode(), Rational.valueOf(-3, -6).hashCode());
+        assertTrue(Rational.valueOf(1, 3).compareTo(Rational.valueOf(1, 2)) < 0);
+        assertTrue(Rational.valueOf(Long.MAX_VALUE, 3).compareTo(Rational.valueOf(Long.MAX_VALUE - 1, 3)) > 0);
+        assertEquals(0, Rational.valueOf(0.5).compareTo(Rational.valueOf(1, 2)));
+    }
+}
@@ -0,0 +1,139 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests for SparsePolynomial and Expression.expand().
+ */
+public class SparsePolynomialTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * of(): number, zero, variable, sum, product, power of a sum and of a monomial, nested
+     *   sums of products, long chains, stored view
+     * add(), multiply(): zero operand, constants, disjoint and shared variables, terms
+     *   that cancel to 0, exponents that need wider fields, variables spanning several
+     *   words per monomial
+     * power(): 0, 1, monomial, sum; exponent overflow
+     * toExpression(), expand(): in canonical form, equal for different spellings, same value
+     * equals(), hashCode(): equal polynomials packed with different layouts
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static SparsePolynomial poly(String input) {
+        return SparsePolynomial.of(Expression.parse(input));
+    }
+
+    private static void assertExpands(String expected, String input) {
+        final Expression expanded = Expression.parse(input).expand();
+        assertEquals(input, Expression.parse(expected).canonical(), expanded);
+        assertEquals(expanded, expanded.canonical());
+    }
+
+    @Test
+    public void testExpand() {
+        assertExpands("0", "0");
+        assertExpands("0", "x*0");
+        assertExpands("5", "2+3");
+        assertExpands("x", "x");
+        assertExpands("x*x + 2*x + 1", "(x+1)*(x+1)");
+        assertExpands("x^3 + 3*x^2*y + 3*x*y^2 + y^3", "(x+y)^3");
+        assertExpands("a*c + a*d + b*c + b*d", "(a+b)*(c+d)");
+        assertExpands("8*x^6*y^3", "(2*x^2*y)^3");
+        assertExpands("x*y + 1", "1 + y*x");
+        assertExpands("0.3*x", "0.1*x + 0.2*x");
+        assertEquals(1, poly("(x+y)^0").terms());
+    }
+
+    @Test
+    public void testSpellingsAgree() {
+        assertEquals(poly("(x+y)*(x+y)*(x+y)"), poly("(x+y)^3"));
+        assertEquals(poly("(x+y)^3").hashCode(), poly("x^3 + 3*x^2*y + 3*x*y^2 + y^3").hashCode());
+        assertEquals(poly("(a+b+c)*(a+b)"), poly("(b+a)*(c+b+a)"));
+        assertNotEquals(poly("(x+y)^2"), poly("x^2 + y^2"));
+        assertEquals(Expression.parse("(x+1)*(y+2)").expand(), Expression.parse("(2+y)*(1+x)").expand());
+    }
+
+    @Test
+    public void testCancellation() {
+        // (x+1)*(x+-1) = x^2 - 1, and (x+y) + -1*(y+x) = 0
+        final Expression minusOne = new Number(-1);
+        final Expression x = new Variable("x");
+        final Expression y = new Variable("y");
+        final Expression difference = new BinOpExpression('*',
+                new BinOpExpression('+', x, new Number(1)), new BinOpExpression('+', x, minusOne));
+        assertEquals(2, SparsePolynomial.of(difference).terms());
+        final Expression zero = new BinOpExpression('+', new BinOpExpression('+', x, y),
+                new BinOpExpression('*', minusOne, new BinOpExpression('+', y, x)));
+        assertEquals(0, SparsePolynomial.of(zero).terms());
+        assertEquals(new Number(0), zero.expand());
+    }
+
+    @Test
+    public void testLayouts() {
+        // x^1000000 needs a 20-bit field, while (x+1) packs into 1 bit
+        final SparsePolynomial wide = poly("x^1000000*y").multiply(poly("x + 1"));
+        assertEquals(poly("x^1000001*y + x^1000000*y"), wide);
+        assertEquals(poly("x^1000001*y + x^1000000*y").hashCode(), wide.hashCode());
+
+        // 40 variables of degree 3 need 2-bit fields and two words per monomial
+        Expression sum = null;
+        Expression product = null;
+        for (int i = 0; i < 40; i++) {
+            final Expression v = new Variable("" + (char) ('a' + i % 26) + (char) ('a' + i / 26));
+            sum = sum == null ? v : new BinOpExpression('+', sum, v);
+            product = product == null ? new PowExpression(v, 3) : new BinOpExpression('*', product, new PowExpression(v, 3));
+        }
+        final SparsePolynomial cube = SparsePolynomial.of(new PowExpression(sum, 3));
+        assertEquals(40 + 40 * 39 + 40 * 39 * 38 / 6, cube.terms());
+        assertEquals(1, SparsePolynomial.of(product).terms());
+        assertEquals(SparsePolynomial.of(product), SparsePolynomial.of(product).add(SparsePolynomial.of(new Number(0))));
+    }
+
+    @Test
+    public void testKeepsValue() {
+        final Expression e = Expression.parse("(x+2*y+0.5)*(x*y+3)^3*(y+1) + (x+y)^2*7");
+        final VariableBinding binding = new VariableBinding().set("x", 1.25).set("y", -0.75);
+        assertEquals(e.evaluate(binding), e.expand().evaluate(binding), 1e-9);
+        assertTrue(new Equivalence(1e-12, 7).equivalent(e, e.expand()));
+    }
+
+    @Test
+    public void testLongChainsAndStoredViews() throws IOException {
+        Expression sum = new Variable("x");
+        for (int i = 0; i < 100000; i++) {
+            sum = new BinOpExpression('+', sum, new Variable(i % 2 == 0 ? "y" : "x"));
+        }
+        assertEquals(Expression.parse("50001*x + 50000*y").canonical(), sum.expand());
+
+        File file = File.createTempFile("sparse", ".store");
+        file.delete();
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            final Expression stored = store.get(store.append(Expression.parse("(x+1)^2*(y+1)")));
+            assertEquals(Expression.parse("(x+1)^2*(y+1)").expand(), stored.expand());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPower() {
+        assertEquals(poly("1"), poly("x + y").power(0));
+        assertEquals(poly("x + y"), poly("x + y").power(1));
+        assertEquals(poly("x^4*y^4*16"), poly("2*x*y").power(4));
+        assertEquals(6, poly("x + y + 1").power(2).terms());
+        try {
+            poly("x^1000000").power(1000000);
+            fail("expected ArithmeticException");
+        } catch (ArithmeticException expected) {
+        }
+    }
+}
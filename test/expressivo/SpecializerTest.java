@@ -0,0 +1,106 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests for Specializer and CompiledExpression.
+ */
+public class SpecializerTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * static Expression residual(Expression, VariableBinding)
+     *   no / some / all variables bound
+     *   like terms in the same / different factor order
+     *   terms that cancel to zero, constant subtrees split across a sum
+     *
+     * CompiledExpression specialize(VariableBinding)
+     *   agrees with evaluate on the full binding
+     *   equal bindings hit the cache, irrelevant variables do not affect the key
+     *   cache bounded by maxCached
+     *
+     * CompiledExpression compile(Expression)
+     *   repeated subexpressions share instructions
+     *
+     * Cover each part testing coverage.
+     */
+
+    @Test
+    public void testResidualFoldsConstants() throws IOException {
+        Expression exp = Expression.parse("(x + 2) + 3 * a");
+        Expression residual = Specializer.residual(exp, new VariableBinding().set("a", 1.0));
+
+        assertTrue(residual.equals(Expression.parse("x + 5")));
+    }
+
+    @Test
+    public void testResidualCollectsLikeTerms() throws IOException {
+        Expression exp = Expression.parse("a*x*y + b*y*x + c");
+        Expression residual = Specializer.residual(exp, new VariableBinding().set("a", 2.0).set("b", 3.0));
+
+        assertTrue(residual.equals(Expression.parse("5*x*y + c")));
+    }
+
+    @Test
+    public void testResidualDropsZeroTerms() throws IOException {
+        Expression exp = Expression.parse("a*x + b*x + y");
+        Expression residual = Specializer.residual(exp, new VariableBinding().set("a", 0.0).set("b", 0.0));
+
+        assertTrue(residual.equals(Expression.parse("y")));
+        assertTrue(Specializer.residual(Expression.parse("a*x"), new VariableBinding().set("a", 0.0))
+                              .equals(Expression.parse("0")));
+    }
+
+    @Test
+    public void testResidualAllBound() throws IOException {
+        Expression exp = Expression.parse("10 * (2 + x) * y");
+        Expression residual = Specializer.residual(exp, new VariableBinding().set("x", 8.0).set("y", 80.0));
+
+        assertTrue(residual.equals(Expression.parse("8000")));
+    }
+
+    @Test
+    public void testSpecializeAgreesWithEvaluate() throws IOException {
+        Expression exp = Expression.parse("a*x*x + b*x + a*b + (x + a)*(x + b)");
+        Specializer specializer = new Specializer(exp);
+        CompiledExpression compiled = specializer.specialize(new VariableBinding().set("a", 2.0).set("b", 3.0));
+
+        VariableBinding x = new VariableBinding();
+        VariableBinding full = new VariableBinding().set("a", 2.0).set("b", 3.0);
+        for (double v = 0; v < 5; v += 0.25) {
+            x.set("x", v);
+            full.set("x", v);
+            assertEquals(exp.evaluate(full), compiled.evaluate(x), 1e-9);
+        }
+    }
+
+    @Test
+    public void testSpecializationCache() throws IOException {
+        Specializer specializer = new Specializer(Expression.parse("a*x + b"), 2);
+        CompiledExpression first = specializer.specialize(new VariableBinding().set("a", 2.0).set("b", 3.0));
+
+        assertSame(first, specializer.specialize(new VariableBinding().set("b", 3.0).set("a", 2.0)));
+        assertSame(first, specializer.specialize(new VariableBinding().set("b", 3.0).set("a", 2.0).set("z", 9.0)));
+        assertEquals(1, specializer.cached());
+
+        specializer.specialize(new VariableBinding().set("a", 1.0));
+        specializer.specialize(new VariableBinding().set("a", 4.0));
+        assertEquals(2, specializer.cached());
+        assertNotSame(first, specializer.specialize(new VariableBinding().set("a", 2.0).set("b", 3.0)));
+    }
+
+    @Test
+    public void testCompileSharesSubexpressions() throws IOException {
+        CompiledExpression compiled = CompiledExpression.compile(Expression.parse("x*y + y*x + x*y"));
+
+        // x, y, x*y, x*y + x*y, (x*y + x*y) + x*y
+        assertEquals(5, compiled.size());
+        assertEquals(18.0, compiled.evaluate(new VariableBinding().set("x", 2.0).set("y", 3.0)), 0);
+    }
+}
@@ -0,0 +1,102 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Tests for StreamingParser.
+ */
+public class StreamingParserTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Expression parse(Reader), Expression parse(ReadableByteChannel)
+     *
+     * Partition the inputs as follows:
+     * number, variable, sums and products with and without parentheses, whitespace,
+     * tokens split across chunks, input larger than a chunk, deeply nested input,
+     * invalid input: empty, unmatched parentheses, missing operand, invalid character
+     *
+     * Cover each part testing coverage.
+     */
+
+    private static final String[] VALID = {
+        "1", "x", ".5", "3.", "x + y", "x * y * z", "1 + 2 * x + y * (3 + z)",
+        "((a + 2) * b * (c + d * 3) + 4)", " \t(x)\n*\r(y+ 1.25 ) ", "xyz*xyz+10.0*abc"
+    };
+
+    /**
+     * A reader that returns at most one character per read, so every token crosses a chunk boundary.
+     */
+    private static Reader trickle(String s) {
+        return new StringReader(s) {
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                return super.read(buf, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    @Test
+    public void testSameAstAsParse() throws IOException {
+        for (String input : VALID) {
+            Expression expected = Expression.parse(input);
+            assertEquals(input, expected, StreamingParser.parse(new StringReader(input)));
+            assertEquals(input, expected.toString(), StreamingParser.parse(trickle(input)).toString());
+            assertEquals(input, expected, StreamingParser.parse(Channels.newChannel(
+                    new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)))));
+        }
+    }
+
+    @Test
+    public void testLargerThanChunk() throws IOException {
+        StringBuilder sb = new StringBuilder("x");
+        for (int i = 0; i < 2000; i++) {
+            sb.append(i % 2 == 0 ? " + " : " * ").append(i % 7 == 0 ? "y" : Integer.toString(i));
+        }
+        Expression expected = Expression.parse(sb.toString());
+        Expression actual = StreamingParser.parse(new StringReader(sb.toString()));
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.depth(), actual.depth());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testDeeplyNested() throws IOException {
+        final int depth = 100000;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("x+(");
+        }
+        sb.append('x');
+        for (int i = 0; i < depth; i++) {
+            sb.append(')');
+        }
+        Expression e = StreamingParser.parse(new StringReader(sb.toString()));
+        assertEquals(2 * depth + 1, e.size());
+        assertEquals(depth + 1, e.depth());
+    }
+
+    @Test
+    public void testInvalid() throws IOException {
+        String[] invalid = { "", "   ", "(x", "x)", "x +", "* x", "x y", "2x", "1.2.3", "x - y", "." };
+        for (String input : invalid) {
+            try {
+                StreamingParser.parse(new StringReader(input));
+                fail("expected IllegalArgumentException for '" + input + "'");
+            } catch (IllegalArgumentException iae) {
+                assertTrue(iae.getMessage().startsWith("parser error"));
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for VariableBinding and the binding-based operations of Expression.
+ */
+public class VariableBindingTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * static int slot(String), static String name(int)
+     *   same name twice, different names
+     *
+     * set / unset / isBound / get / clear
+     *   slot within and beyond the initial capacity
+     *
+     * static VariableBinding fromMap(Map)
+     *   empty map, map with several variables
+     *   names no expression uses are neither bound nor interned, also by unset
+     *
+     * Expression simplify(VariableBinding)
+     *   agrees with simplify(Map) for no / some / all variables bound
+     *
+     * Cover each part testing coverage.
+     */
+
+    @Test
+    public void testSlotInterning() {
+        int x = VariableBinding.slot("bindingTestX");
+        int y = VariableBinding.slot("bindingTestY");
+
+        assertEquals(x, VariableBinding.slot("bindingTestX"));
+        assertNotEquals(x, y);
+        assertEquals("bindingTestX", VariableBinding.name(x));
+    }
+
+    @Test
+    public void testSetAndUnset() {
+        VariableBinding binding = new VariableBinding();
+        int x = VariableBinding.slot("x");
+
+        assertTrue(binding.isEmpty());
+        assertFalse(binding.isBound(x));
+        assertTrue(Double.isNaN(binding.get(x)));
+
+        binding.set("x", 2.5);
+        assertTrue(binding.isBound(x));
+        assertEquals(2.5, binding.get(x), 0);
+
+        binding.unset("x");
+        assertFalse(binding.isBound(x));
+        assertTrue(binding.isEmpty());
+    }
+
+    @Test
+    public void testSetBeyondInitialCapacity() {
+        VariableBinding binding = new VariableBinding();
+        binding.set(1000, 7.0).set(3, 1.0);
+
+        assertTrue(binding.isBound(1000));
+        assertTrue(binding.isBound(3));
+        assertFalse(binding.isBound(999));
+        assertEquals(7.0, binding.get(1000), 0);
+
+        binding.clear();
+        assertFalse(binding.isBound(1000));
+    }
+
+    @Test
+    public void testFromMap() {
+        Map<String,Double> env = new HashMap<>();
+        assertTrue(VariableBinding.fromMap(env).isEmpty());
+
+        new Variable("x");
+        new Variable("y");
+        env.put("x", 8.0);
+        env.put("y", 80.0);
+        VariableBinding binding = VariableBinding.fromMap(env);
+        assertEquals(8.0, binding.get(VariableBinding.slot("x")), 0);
+        assertEquals(80.0, binding.get(VariableBinding.slot("y")), 0);
+        assertFalse(binding.isBound(VariableBinding.slot("z")));
+    }
+
+    @Test
+    public void testFromMapDoesNotIntern() {
+        Map<String,Double> env = new HashMap<>();
+        env.put("bindingTestNeverUsed", 1.0);
+        final int interned = VariableBinding.interned();
+        VariableBinding binding = VariableBinding.fromMap(env);
+        binding.unset("bindingTestNeverUsedEither");
+
+        assertTrue(binding.isEmpty());
+        assertEquals(-1, VariableBinding.slotIfInterned("bindingTestNeverUsed"));
+        assertEquals(-1, VariableBinding.slotIfInterned("bindingTestNeverUsedEither"));
+        assertEquals(interned, VariableBinding.interned());
+    }
+
+    @Test
+    public void testSimplifyWithBinding() throws IOException {
+        Expression exp = Expression.parse("(10 + 2) * x + y");
+        Map<String,Double> env = new HashMap<>();
+
+        assertTrue(exp.simplify(new VariableBinding()).equals(exp.simplify(env)));
+
+        env.put("x", 8.0);
+        assertTrue(exp.simplify(new VariableBinding().set("x", 8.0)).equals(exp.simplify(env)));
+        assertTrue(exp.simplify(new VariableBinding().set("x", 8.0)).equals(Expression.parse("96+y")));
+
+        env.put("y", 4.0);
+        Expression simp = exp.simplify(new VariableBinding().set("x", 8.0).set("y", 4.0));
+        assertEquals(100.0, simp.getValue(), 0);
+    }
+}
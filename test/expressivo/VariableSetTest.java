@@ -0,0 +1,164 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests for VariableSet and the free-variable sets of expressions.
+ */
+public class VariableSetTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * VariableSet: empty, one variable, several; slots below and above 64;
+     *   union where one side contains the other (shared) or neither does
+     * Expression.variables(): number, variable, sum, product, power, stored view
+     * derivative: subtree independent of the variable (becomes 0), dependent subtree,
+     *   variable never seen; ExpressionLimits.derivativeSize stays exact
+     * simplify: binding none of the variables (same instance), binding one of them,
+     *   constant operation below unbound variables (still folded)
+     *
+     * Cover each part testing coverage.
+     */
+
+    @Test
+    public void testSets() {
+        final VariableSet x = new Variable("x").variables();
+        final VariableSet y = new Variable("y").variables();
+        assertTrue(VariableSet.EMPTY.isEmpty());
+        assertEquals(0, VariableSet.EMPTY.size());
+        assertSame(x, new Variable("x").variables());
+        assertTrue(x.contains("x"));
+        assertFalse(x.contains("y"));
+        assertFalse(x.contains("neverUsedAnywhere"));
+
+        final VariableSet xy = x.union(y);
+        assertEquals(2, xy.size());
+        assertSame(xy, xy.union(x));
+        assertSame(xy, y.union(xy));
+        assertSame(x, VariableSet.EMPTY.union(x));
+        assertEquals(xy, y.union(x));
+        assertEquals(xy.hashCode(), y.union(x).hashCode());
+        // ordered by slot, which depends on which name was interned first
+        assertTrue(xy.toString().equals("{x, y}") || xy.toString().equals("{y, x}"));
+    }
+
+    @Test
+    public void testManyVariables() {
+        VariableSet all = VariableSet.EMPTY;
+        final StringBuilder name = new StringBuilder("manyvars");
+        for (int i = 0; i < 150; i++) {
+            name.append(i % 2 == 0 ? 'a' : 'b');
+            all = all.union(new Variable(name.toString()).variables());
+        }
+        assertEquals(150, all.size());
+        assertTrue(all.contains(name.toString()));
+        assertFalse(all.contains("manyvarsc"));
+    }
+
+    /**
+     * @return a fresh variable name made of letters, distinct for each i
+     */
+    private static String letters(String prefix, int i) {
+        final StringBuilder name = new StringBuilder(prefix);
+        do {
+            name.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return name.toString();
+    }
+
+    @Test
+    public void testHighSlots() throws IOException {
+        // intern enough names that the later ones land above DENSE_SLOTS
+        for (int i = 0; i < VariableSet.DENSE_SLOTS; i++) {
+            new Variable(letters("highslotsfill", i));
+        }
+        final Variable p = new Variable("highslotsp"), q = new Variable("highslotsq");
+        assertTrue(p.getSlot() >= VariableSet.DENSE_SLOTS && q.getSlot() >= VariableSet.DENSE_SLOTS);
+        assertEquals(p.variables(), new Variable("highslotsp").variables());
+        assertTrue(p.variables().contains("highslotsp"));
+        assertFalse(p.variables().contains("highslotsq"));
+
+        final VariableSet x = new Variable("x").variables();
+        final VariableSet xpq = x.union(q.variables()).union(p.variables());
+        assertEquals(3, xpq.size());
+        assertTrue(xpq.contains("x") && xpq.contains("highslotsp") && xpq.contains("highslotsq"));
+        assertSame(xpq, xpq.union(p.variables()));
+        assertSame(xpq, p.variables().union(xpq));
+        assertEquals(xpq, p.variables().union(q.variables()).union(x));
+        assertEquals(xpq.hashCode(), p.variables().union(q.variables()).union(x).hashCode());
+        assertEquals("{x, highslotsp, highslotsq}", xpq.toString());
+
+        final Expression e = Expression.parse("x * highslotsp + highslotsq");
+        assertEquals(xpq, e.variables());
+        assertSame(e, e.simplify(new VariableBinding().set("y", 1)));
+        assertEquals(Expression.parse("x * highslotsp + 2"), e.simplify(new VariableBinding().set("highslotsq", 2)));
+        assertEquals(new Number(0), e.derivative("highslotsr"));
+
+        File file = File.createTempFile("variables", ".store");
+        file.delete();
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            assertEquals(xpq, store.get(store.append(e)).variables());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testExpressionVariables() throws IOException {
+        final Expression e = Expression.parse("2*x + (y + 1)^3 * x");
+        assertEquals(new Variable("x").variables().union(new Variable("y").variables()), e.variables());
+        assertTrue(Expression.parse("2*3 + 4").variables().isEmpty());
+        assertTrue(Expression.parse("(z*z)^2").variables().contains("z"));
+
+        File file = File.createTempFile("variables", ".store");
+        file.delete();
+        try (ExpressionStore store = new ExpressionStore(file)) {
+            final Expression stored = store.get(store.append(e));
+            assertEquals(e.variables(), stored.variables());
+            assertEquals(e.derivative("y"), stored.derivative("y"));
+            assertEquals(e.simplify(new VariableBinding().set("x", 2)), stored.simplify(new VariableBinding().set("x", 2)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDerivativeSkipsIndependentSubtrees() {
+        final Expression e = Expression.parse("(a*b + c) * x + y*z*w");
+        assertEquals(new Number(0), Expression.parse("y*z*w").derivative("x"));
+        assertEquals(new Number(0), e.derivative("neverUsedAnywhere"));
+        assertEquals("(((((a*b)+c)*1.0)+(x*0.0))+0.0)", e.derivative("x").getContents());
+        String[] inputs = { "(a*b + c) * x + y*z*w", "x*y", "(y*z)^4 + x^2*y", "3*(2+y)" };
+        for (String input : inputs) {
+            final Expression parsed = Expression.parse(input);
+            assertEquals(input, parsed.derivative("x").size(), ExpressionLimits.derivativeSize(parsed, "x"));
+        }
+        final VariableBinding binding = new VariableBinding().set("a", 2).set("b", 3).set("c", 5).set("x", 7)
+                .set("y", 1).set("z", 2).set("w", 3);
+        assertEquals(11.0, e.derivative("x").evaluate(binding), 0);
+    }
+
+    @Test
+    public void testSimplifyKeepsUntouchedSubtrees() {
+        final Expression e = Expression.parse("(a*b + c) * x + y*z*w");
+        assertSame(e, e.simplify(new VariableBinding()));
+        assertSame(e, e.simplify(new VariableBinding().set("q", 1)));
+        assertSame(e, e.simplify(new VariableBinding().set("q", 1), CancellationToken.NONE));
+
+        final Expression partly = e.simplify(new VariableBinding().set("x", 2));
+        assertEquals(Expression.parse("(a*b + c) * 2 + y*z*w"), partly);
+        assertSame(((BinOpExpression) e).getRight(), ((BinOpExpression) partly).getRight());
+
+        // constant operations are still folded when no variable is bound
+        assertEquals(Expression.parse("x*5"), Expression.parse("x*(2+3)").simplify(new VariableBinding()));
+        assertEquals(Expression.parse("x + 8"), Expression.parse("x + 2^3").simplify(new VariableBinding()));
+    }
+}